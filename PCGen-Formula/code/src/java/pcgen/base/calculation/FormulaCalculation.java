@@ -18,11 +18,8 @@
 package pcgen.base.calculation;
 
 import pcgen.base.formula.base.DependencyManager;
-import pcgen.base.formula.base.FormulaManager;
-import pcgen.base.formula.base.FunctionLibrary;
 import pcgen.base.formula.inst.NEPFormula;
 import pcgen.base.formula.inst.ScopeInformation;
-import pcgen.base.formula.library.ValueWrappingLibrary;
 
 /**
  * A FormulaCalculation is an AbstractNEPCalculation that uses a NEPFormula for
@@ -73,19 +70,16 @@ public final class FormulaCalculation<T> extends AbstractNEPCalculation<T>
 	 * previous value and the result of the NEPFormula to the BasicCalculation
 	 * provided at construction.
 	 * 
+	 * The previous value is available to the NEPFormula through the value()
+	 * function (see ScopeInformation.resolveWithInput).
+	 * 
 	 * @see pcgen.base.calculation.NEPCalculation#process(java.lang.Object,
 	 *      pcgen.base.formula.inst.ScopeInformation)
 	 */
 	@Override
 	public T process(final T input, ScopeInformation scopeInfo)
 	{
-		FormulaManager fManager = scopeInfo.getFormulaManager();
-		FunctionLibrary valueLibrary =
-				new ValueWrappingLibrary(fManager.getLibrary(), input);
-		FormulaManager withValue = fManager.swapFunctionLibrary(valueLibrary);
-		ScopeInformation stepInfo =
-				new ScopeInformation(withValue, scopeInfo.getScope());
-		T resolved = formula.resolve(stepInfo);
+		T resolved = scopeInfo.resolveWithInput(formula, input);
 		return getBasicCalculation().process(input, resolved);
 	}
 
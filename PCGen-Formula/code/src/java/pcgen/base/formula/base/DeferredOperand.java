@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A DeferredOperand is an argument to an Operator which has not yet been
+ * evaluated.
+ * 
+ * This allows a LazyOperatorAction to avoid the cost of evaluating an argument
+ * that is not required to determine the result of the operation.
+ */
+public interface DeferredOperand
+{
+
+	/**
+	 * Evaluates and returns the value of this DeferredOperand.
+	 * 
+	 * The argument is evaluated each time this method is called, so callers
+	 * should call this method at most once.
+	 * 
+	 * @return The value of this DeferredOperand
+	 */
+	public Object getValue();
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * An EvaluationBudget bounds the work that may be done to evaluate a single
+ * formula: the number of nodes visited, the depth of nested Function calls,
+ * and the wall-clock time spent.
+ * 
+ * An EvaluationBudget is attached to a FormulaManager, and is enforced (by an
+ * EvaluationMonitor) regardless of the EvaluationMode used to evaluate the
+ * formula. A formula that exceeds its EvaluationBudget fails with an
+ * EvaluationBudgetExceededException, rather than exhausting the stack or
+ * occupying the evaluating thread indefinitely (e.g. a GenericFunction which
+ * calls itself).
+ * 
+ * Everything a formula evaluates on behalf of the top-level formula (including
+ * the contents of Function objects and any nested formula) is charged against
+ * the same EvaluationBudget.
+ * 
+ * An EvaluationBudget is immutable, and may be shared by any number of
+ * FormulaManager objects and threads.
+ */
+public final class EvaluationBudget
+{
+
+	/**
+	 * The EvaluationBudget which places no limit on the evaluation of a
+	 * formula. No evaluation is monitored when this EvaluationBudget is used.
+	 */
+	public static final EvaluationBudget UNLIMITED = new EvaluationBudget(
+		Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+	/**
+	 * The maximum number of nodes that may be visited to evaluate a formula.
+	 */
+	private final long maxNodeVisits;
+
+	/**
+	 * The maximum depth of nested Function calls when evaluating a formula.
+	 */
+	private final int maxCallDepth;
+
+	/**
+	 * The maximum wall-clock time (in milliseconds) that may be spent
+	 * evaluating a formula.
+	 */
+	private final long maxTimeMillis;
+
+	/**
+	 * Constructs a new EvaluationBudget with the given limits.
+	 * 
+	 * @param maxNodeVisits
+	 *            The maximum number of nodes that may be visited to evaluate a
+	 *            formula
+	 * @param maxCallDepth
+	 *            The maximum depth of nested Function calls when evaluating a
+	 *            formula
+	 * @param maxTimeMillis
+	 *            The maximum wall-clock time (in milliseconds) that may be
+	 *            spent evaluating a formula
+	 * @throws IllegalArgumentException
+	 *             if any of the limits is less than one
+	 */
+	public EvaluationBudget(long maxNodeVisits, int maxCallDepth,
+		long maxTimeMillis)
+	{
+		if (maxNodeVisits < 1)
+		{
+			throw new IllegalArgumentException(
+				"Maximum node visits must be positive, was: " + maxNodeVisits);
+		}
+		if (maxCallDepth < 1)
+		{
+			throw new IllegalArgumentException(
+				"Maximum call depth must be positive, was: " + maxCallDepth);
+		}
+		if (maxTimeMillis < 1)
+		{
+			throw new IllegalArgumentException(
+				"Maximum time must be positive, was: " + maxTimeMillis);
+		}
+		this.maxNodeVisits = maxNodeVisits;
+		this.maxCallDepth = maxCallDepth;
+		this.maxTimeMillis = maxTimeMillis;
+	}
+
+	/**
+	 * Returns the maximum number of nodes that may be visited to evaluate a
+	 * formula.
+	 * 
+	 * @return The maximum number of nodes that may be visited to evaluate a
+	 *         formula
+	 */
+	public long getMaxNodeVisits()
+	{
+		return maxNodeVisits;
+	}
+
+	/**
+	 * Returns the maximum depth of nested Function calls when evaluating a
+	 * formula.
+	 * 
+	 * @return The maximum depth of nested Function calls when evaluating a
+	 *         formula
+	 */
+	public int getMaxCallDepth()
+	{
+		return maxCallDepth;
+	}
+
+	/**
+	 * Returns the maximum wall-clock time (in milliseconds) that may be spent
+	 * evaluating a formula.
+	 * 
+	 * @return The maximum wall-clock time (in milliseconds) that may be spent
+	 *         evaluating a formula
+	 */
+	public long getMaxTimeMillis()
+	{
+		return maxTimeMillis;
+	}
+
+	/**
+	 * Returns true if this EvaluationBudget places no limit on the evaluation
+	 * of a formula.
+	 * 
+	 * @return true if this EvaluationBudget places no limit on the evaluation
+	 *         of a formula; false otherwise
+	 */
+	public boolean isUnlimited()
+	{
+		return (maxNodeVisits == Long.MAX_VALUE)
+			&& (maxCallDepth == Integer.MAX_VALUE)
+			&& (maxTimeMillis == Long.MAX_VALUE);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "EvaluationBudget[nodes=" + maxNodeVisits + ", depth="
+			+ maxCallDepth + ", millis=" + maxTimeMillis + "]";
+	}
+}
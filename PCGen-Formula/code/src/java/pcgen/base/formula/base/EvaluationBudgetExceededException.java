@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An EvaluationBudgetExceededException indicates that the evaluation of a
+ * formula (or its analysis) was abandoned because it exceeded the
+ * EvaluationBudget of the FormulaManager used to evaluate the formula.
+ * 
+ * The message identifies the formula, the LegalScope in which it was
+ * evaluated (or analyzed), the limit that was exceeded and the work done
+ * before the evaluation was abandoned. The counters are also available from the
+ * EvaluationMonitor (see getMonitor()).
+ */
+public class EvaluationBudgetExceededException extends IllegalStateException
+{
+
+	/**
+	 * The serialization version of EvaluationBudgetExceededException.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The EvaluationMonitor for the abandoned evaluation.
+	 */
+	private final transient EvaluationMonitor monitor;
+
+	/**
+	 * Constructs a new EvaluationBudgetExceededException for the evaluation
+	 * monitored by the given EvaluationMonitor.
+	 * 
+	 * @param monitor
+	 *            The EvaluationMonitor for the abandoned evaluation
+	 * @param limit
+	 *            A description of the limit of the EvaluationBudget which was
+	 *            exceeded
+	 */
+	public EvaluationBudgetExceededException(EvaluationMonitor monitor,
+		String limit)
+	{
+		super((monitor.isAnalysis() ? "Analysis" : "Evaluation")
+			+ " of formula '" + monitor.getFormula() + "' in scope "
+			+ monitor.getLegalScope().getName()
+			+ " exceeded the " + limit + " (node visits: "
+			+ monitor.getNodeVisits() + ", call depth: "
+			+ monitor.getCallDepth() + ", elapsed: "
+			+ TimeUnit.NANOSECONDS.toMillis(monitor.getElapsedNanos())
+			+ " ms)");
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Returns the EvaluationMonitor for the abandoned evaluation.
+	 * 
+	 * @return The EvaluationMonitor for the abandoned evaluation
+	 */
+	public EvaluationMonitor getMonitor()
+	{
+		return monitor;
+	}
+}
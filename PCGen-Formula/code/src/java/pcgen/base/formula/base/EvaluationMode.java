@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * EvaluationMode indicates how a FormulaManager evaluates the parsed tree of a
+ * formula. Regardless of the EvaluationMode, the result of evaluating a
+ * formula is the same; the EvaluationMode only changes how that result is
+ * calculated.
+ */
+public enum EvaluationMode
+{
+
+	/**
+	 * The parsed tree is evaluated directly by the EvaluateVisitor each time
+	 * the formula is evaluated.
+	 */
+	INTERPRETED,
+
+	/**
+	 * The parsed tree is converted (once) into a tree of executable nodes, with
+	 * the OperatorActions, Functions, numeric values and variables resolved in
+	 * advance as much as possible. That tree of executable nodes is then used
+	 * each time the formula is evaluated.
+	 */
+	COMPILED;
+
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import java.util.concurrent.TimeUnit;
+
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.visitor.ReconstructionVisitor;
+
+/**
+ * An EvaluationMonitor enforces an EvaluationBudget on the evaluation of a
+ * single (top-level) formula, and counts the work done by that evaluation.
+ * 
+ * An evaluation is monitored only if the FormulaManager used to evaluate the
+ * formula has a limited EvaluationBudget (see start()). The EvaluationMonitor
+ * is held by the evaluating thread for the duration of the evaluation, so that
+ * the evaluators (which may be shared across threads) can charge each node
+ * they visit and each Function they call to the current evaluation (see
+ * getActive()). A formula evaluated while another evaluation is active on the
+ * same thread (e.g. within a Function) is charged to the active evaluation.
+ * 
+ * The wall-clock time is checked when a Function is called, and periodically
+ * as nodes are visited, rather than on every visit. Time spent within a
+ * Function that does not call back into an evaluator (or within a single
+ * OperatorAction) cannot be interrupted.
+ * 
+ * The analysis of a formula (its validation, dependencies and whether it is
+ * static) is also monitored (see startAnalysis()), since that analysis visits
+ * the formula of each GenericFunction it calls (and each argument referred to
+ * by arg(n)). Only the depth of those nested calls (see enterAnalysisCall())
+ * and the wall-clock time are enforced on an analysis; this prevents a
+ * GenericFunction which calls itself from exhausting the stack when it is
+ * analyzed.
+ * 
+ * The counters of an EvaluationMonitor may be read while the evaluation is in
+ * progress (e.g. from an EvaluationBudgetExceededException) or after the
+ * evaluation has completed (see getLastCompleted()). An EvaluationMonitor is
+ * otherwise only used by the thread performing the evaluation.
+ */
+public final class EvaluationMonitor
+{
+
+	/**
+	 * The mask applied to the number of node visits to determine when the
+	 * wall-clock time is checked (every 256 visits).
+	 */
+	private static final long TIME_CHECK_MASK = 0xFF;
+
+	/**
+	 * The EvaluationMonitor for the evaluation in progress on each thread.
+	 */
+	private static final ThreadLocal<EvaluationMonitor> ACTIVE =
+			new ThreadLocal<>();
+
+	/**
+	 * The EvaluationMonitor for the evaluation most recently completed on
+	 * each thread.
+	 */
+	private static final ThreadLocal<EvaluationMonitor> LAST =
+			new ThreadLocal<>();
+
+	/**
+	 * The EvaluationBudget enforced by this EvaluationMonitor.
+	 */
+	private final EvaluationBudget budget;
+
+	/**
+	 * The ScopeInstance in which the formula is evaluated (null for an
+	 * analysis that is not performed in a ScopeInstance).
+	 */
+	private final ScopeInstance scopeInst;
+
+	/**
+	 * The LegalScope in which the formula is evaluated or analyzed.
+	 */
+	private final LegalScope legalScope;
+
+	/**
+	 * true if this EvaluationMonitor monitors the analysis of a formula rather
+	 * than its evaluation.
+	 */
+	private final boolean analysis;
+
+	/**
+	 * The formula being evaluated (either the root Node of the formula, or an
+	 * object which returns the formula from toString()).
+	 */
+	private final Object formula;
+
+	/**
+	 * The maximum wall-clock time (in nanoseconds) of the evaluation.
+	 */
+	private final long maxNanos;
+
+	/**
+	 * The value of System.nanoTime() when the evaluation started.
+	 */
+	private final long startNanos;
+
+	/**
+	 * The elapsed wall-clock time (in nanoseconds) of the evaluation, once
+	 * completed; -1 while the evaluation is in progress.
+	 */
+	private long elapsedNanos = -1;
+
+	/**
+	 * The number of nodes visited by the evaluation.
+	 */
+	private long nodeVisits;
+
+	/**
+	 * The current depth of nested Function calls.
+	 */
+	private int callDepth;
+
+	/**
+	 * The greatest depth of nested Function calls reached by the evaluation.
+	 */
+	private int peakCallDepth;
+
+	private EvaluationMonitor(EvaluationBudget budget,
+		ScopeInstance scopeInst, LegalScope legalScope, Object formula,
+		boolean analysis)
+	{
+		this.budget = budget;
+		this.scopeInst = scopeInst;
+		this.legalScope = legalScope;
+		this.formula = formula;
+		this.analysis = analysis;
+		maxNanos = TimeUnit.MILLISECONDS.toNanos(budget.getMaxTimeMillis());
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Starts monitoring the evaluation of the given formula on the current
+	 * thread.
+	 * 
+	 * Returns null (and does not monitor the evaluation) if the
+	 * EvaluationBudget of the given FormulaManager is unlimited, or if an
+	 * evaluation is already active on the current thread (in which case the
+	 * given formula is charged to the active evaluation). The returned value
+	 * must be passed to finish(), regardless of how the evaluation completes.
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to evaluate the formula
+	 * @param scopeInst
+	 *            The ScopeInstance in which the formula is evaluated
+	 * @param formula
+	 *            The formula to be evaluated (either the root Node of the
+	 *            formula, or an object which returns the formula from
+	 *            toString())
+	 * @return The EvaluationMonitor for the evaluation of the given formula;
+	 *         null if the evaluation is not separately monitored
+	 */
+	public static EvaluationMonitor start(FormulaManager fm,
+		ScopeInstance scopeInst, Object formula)
+	{
+		EvaluationBudget budget = fm.getEvaluationBudget();
+		if (budget.isUnlimited() || (ACTIVE.get() != null))
+		{
+			return null;
+		}
+		EvaluationMonitor monitor = new EvaluationMonitor(budget, scopeInst,
+			scopeInst.getLegalScope(), formula, false);
+		ACTIVE.set(monitor);
+		return monitor;
+	}
+
+	/**
+	 * Starts monitoring the analysis (validation, dependency or static check)
+	 * of the given formula on the current thread.
+	 * 
+	 * Returns null (and does not monitor the analysis) if the EvaluationBudget
+	 * of the given FormulaManager is unlimited, or if an evaluation or
+	 * analysis is already active on the current thread (in which case the
+	 * analysis is charged to the active EvaluationMonitor). The returned value
+	 * must be passed to finish(), regardless of how the analysis completes.
+	 * Unlike an evaluation, a completed analysis is not available from
+	 * getLastCompleted().
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to analyze the formula
+	 * @param legalScope
+	 *            The LegalScope in which the formula is analyzed
+	 * @param formula
+	 *            The formula to be analyzed (either the root Node of the
+	 *            formula, or an object which returns the formula from
+	 *            toString())
+	 * @return The EvaluationMonitor for the analysis of the given formula;
+	 *         null if the analysis is not separately monitored
+	 */
+	public static EvaluationMonitor startAnalysis(FormulaManager fm,
+		LegalScope legalScope, Object formula)
+	{
+		EvaluationBudget budget = fm.getEvaluationBudget();
+		if (budget.isUnlimited() || (ACTIVE.get() != null))
+		{
+			return null;
+		}
+		EvaluationMonitor monitor =
+				new EvaluationMonitor(budget, null, legalScope, formula, true);
+		ACTIVE.set(monitor);
+		return monitor;
+	}
+
+	/**
+	 * Completes the evaluation monitored by the given EvaluationMonitor (as
+	 * returned by start()). Does nothing if the given EvaluationMonitor is
+	 * null.
+	 * 
+	 * @param monitor
+	 *            The EvaluationMonitor returned by start()
+	 */
+	public static void finish(EvaluationMonitor monitor)
+	{
+		if (monitor != null)
+		{
+			monitor.elapsedNanos = System.nanoTime() - monitor.startNanos;
+			ACTIVE.remove();
+			if (!monitor.analysis)
+			{
+				LAST.set(monitor);
+			}
+		}
+	}
+
+	/**
+	 * Returns the EvaluationMonitor for the evaluation in progress on the
+	 * current thread.
+	 * 
+	 * @return The EvaluationMonitor for the evaluation in progress on the
+	 *         current thread; null if no evaluation is being monitored
+	 */
+	public static EvaluationMonitor getActive()
+	{
+		return ACTIVE.get();
+	}
+
+	/**
+	 * Returns the EvaluationMonitor for the evaluation most recently
+	 * completed (successfully or not) on the current thread.
+	 * 
+	 * @return The EvaluationMonitor for the evaluation most recently completed
+	 *         on the current thread; null if no evaluation has been monitored
+	 *         on the current thread
+	 */
+	public static EvaluationMonitor getLastCompleted()
+	{
+		return LAST.get();
+	}
+
+	/**
+	 * Charges the analysis of a call to the Function with the given name to
+	 * the EvaluationMonitor active on the current thread (if any).
+	 * 
+	 * This is used by a Function (such as GenericFunction) which analyzes
+	 * another formula when it is analyzed. Since the analysis of a formula
+	 * visits every branch of the formula, a GenericFunction which calls itself
+	 * would otherwise be analyzed until the stack is exhausted. (The
+	 * evaluation of a Function is charged by EvaluateVisitor.) The returned
+	 * value must be passed to exitAnalysisCall() once the analysis of the
+	 * call has completed (successfully or not).
+	 * 
+	 * @param functionName
+	 *            The name of the Function being analyzed
+	 * @return The EvaluationMonitor charged with the call; null if no
+	 *         EvaluationMonitor is active on the current thread
+	 * @throws EvaluationBudgetExceededException
+	 *             if the call exceeds the EvaluationBudget
+	 */
+	public static EvaluationMonitor enterAnalysisCall(String functionName)
+	{
+		EvaluationMonitor monitor = ACTIVE.get();
+		if (monitor != null)
+		{
+			monitor.enterCall(functionName);
+		}
+		return monitor;
+	}
+
+	/**
+	 * Indicates the analysis of a call charged by enterAnalysisCall() has
+	 * completed. Does nothing if the given EvaluationMonitor is null.
+	 * 
+	 * @param monitor
+	 *            The EvaluationMonitor returned by enterAnalysisCall()
+	 */
+	public static void exitAnalysisCall(EvaluationMonitor monitor)
+	{
+		if (monitor != null)
+		{
+			monitor.exitCall();
+		}
+	}
+
+	/**
+	 * Charges the visit of a node to this EvaluationMonitor.
+	 * 
+	 * @throws EvaluationBudgetExceededException
+	 *             if the visit exceeds the EvaluationBudget
+	 */
+	public void countVisit()
+	{
+		nodeVisits++;
+		if (nodeVisits > budget.getMaxNodeVisits())
+		{
+			throw new EvaluationBudgetExceededException(this,
+				"maximum node visits of " + budget.getMaxNodeVisits());
+		}
+		if ((nodeVisits & TIME_CHECK_MASK) == 0)
+		{
+			checkTime();
+		}
+	}
+
+	/**
+	 * Charges a call to the Function with the given name to this
+	 * EvaluationMonitor. If this method returns normally, it must be paired
+	 * with a call to exitCall() once the Function has completed (successfully
+	 * or not).
+	 * 
+	 * @param functionName
+	 *            The name of the Function being called
+	 * @throws EvaluationBudgetExceededException
+	 *             if the call exceeds the EvaluationBudget
+	 */
+	public void enterCall(String functionName)
+	{
+		if (callDepth >= budget.getMaxCallDepth())
+		{
+			throw new EvaluationBudgetExceededException(this,
+				"maximum call depth of " + budget.getMaxCallDepth()
+					+ " (calling " + functionName + ")");
+		}
+		checkTime();
+		callDepth++;
+		if (callDepth > peakCallDepth)
+		{
+			peakCallDepth = callDepth;
+		}
+	}
+
+	/**
+	 * Indicates a call charged by enterCall() has completed.
+	 */
+	public void exitCall()
+	{
+		callDepth--;
+	}
+
+	/**
+	 * Checks that the evaluation has not exceeded the maximum wall-clock time
+	 * of the EvaluationBudget.
+	 */
+	private void checkTime()
+	{
+		if (System.nanoTime() - startNanos > maxNanos)
+		{
+			throw new EvaluationBudgetExceededException(this,
+				"maximum time of " + budget.getMaxTimeMillis() + " ms");
+		}
+	}
+
+	/**
+	 * Returns the EvaluationBudget enforced by this EvaluationMonitor.
+	 * 
+	 * @return The EvaluationBudget enforced by this EvaluationMonitor
+	 */
+	public EvaluationBudget getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Returns the ScopeInstance in which the monitored formula is evaluated.
+	 * 
+	 * @return The ScopeInstance in which the monitored formula is evaluated;
+	 *         null if this EvaluationMonitor monitors an analysis
+	 */
+	public ScopeInstance getScopeInstance()
+	{
+		return scopeInst;
+	}
+
+	/**
+	 * Returns the LegalScope in which the monitored formula is evaluated or
+	 * analyzed.
+	 * 
+	 * @return The LegalScope in which the monitored formula is evaluated or
+	 *         analyzed
+	 */
+	public LegalScope getLegalScope()
+	{
+		return legalScope;
+	}
+
+	/**
+	 * Returns true if this EvaluationMonitor monitors the analysis of a
+	 * formula (see startAnalysis()) rather than its evaluation.
+	 * 
+	 * @return true if this EvaluationMonitor monitors the analysis of a
+	 *         formula; false otherwise
+	 */
+	public boolean isAnalysis()
+	{
+		return analysis;
+	}
+
+	/**
+	 * Returns the monitored formula, as a String.
+	 * 
+	 * @return The monitored formula, as a String
+	 */
+	public String getFormula()
+	{
+		if (formula instanceof Node)
+		{
+			StringBuilder sb = new StringBuilder();
+			((Node) formula).jjtAccept(new ReconstructionVisitor(), sb);
+			return sb.toString();
+		}
+		return String.valueOf(formula);
+	}
+
+	/**
+	 * Returns the number of nodes visited by the monitored evaluation.
+	 * 
+	 * @return The number of nodes visited by the monitored evaluation
+	 */
+	public long getNodeVisits()
+	{
+		return nodeVisits;
+	}
+
+	/**
+	 * Returns the current depth of nested Function calls in the monitored
+	 * evaluation.
+	 * 
+	 * @return The current depth of nested Function calls in the monitored
+	 *         evaluation
+	 */
+	public int getCallDepth()
+	{
+		return callDepth;
+	}
+
+	/**
+	 * Returns the greatest depth of nested Function calls reached by the
+	 * monitored evaluation.
+	 * 
+	 * @return The greatest depth of nested Function calls reached by the
+	 *         monitored evaluation
+	 */
+	public int getPeakCallDepth()
+	{
+		return peakCallDepth;
+	}
+
+	/**
+	 * Returns the wall-clock time (in nanoseconds) spent by the monitored
+	 * evaluation (so far, if the evaluation is in progress).
+	 * 
+	 * @return The wall-clock time (in nanoseconds) spent by the monitored
+	 *         evaluation
+	 */
+	public long getElapsedNanos()
+	{
+		if (elapsedNanos < 0)
+		{
+			return System.nanoTime() - startNanos;
+		}
+		return elapsedNanos;
+	}
+
+	/**
+	 * Returns true if the monitored evaluation has completed.
+	 * 
+	 * @return true if the monitored evaluation has completed; false otherwise
+	 */
+	public boolean isCompleted()
+	{
+		return elapsedNanos >= 0;
+	}
+}
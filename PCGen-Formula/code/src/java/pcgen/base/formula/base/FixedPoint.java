@@ -0,0 +1,759 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * A FixedPoint is an exact decimal Number with a fixed number of digits after
+ * the decimal point (see DIGITS). The value is held as a "scaled" long: The
+ * value multiplied by SCALE. For example, 2.5 is held as 25000.
+ * 
+ * FixedPoint values are used when a FormulaManager has the FIXED_POINT
+ * NumericMode. Unlike Integer and Double values, every result in that mode is
+ * a FixedPoint, and the results are calculated with long arithmetic, so they
+ * are identical on every platform.
+ * 
+ * The arithmetic is performed by the static methods of FixedPoint, which
+ * operate on scaled long values, so that no FixedPoint object needs to be
+ * created for an intermediate result. Where a result cannot be held exactly
+ * (e.g. 1/3) it is rounded to the nearest value that can be held, with a value
+ * exactly halfway between two such values rounded away from zero. A result
+ * that is outside the range of a FixedPoint is not silently truncated: An
+ * ArithmeticException is thrown.
+ * 
+ * FixedPoint is immutable and therefore thread-safe.
+ */
+public final class FixedPoint extends Number implements Comparable<FixedPoint>
+{
+
+	/**
+	 * The serialization version of FixedPoint.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The number of (decimal) digits after the decimal point in a FixedPoint.
+	 */
+	public static final int DIGITS = 4;
+
+	/**
+	 * The scale of a FixedPoint: The scaled long value of 1.
+	 */
+	public static final long SCALE = 10000L;
+
+	/**
+	 * The FixedPoint representing 0.
+	 */
+	public static final FixedPoint ZERO = new FixedPoint(0L);
+
+	/**
+	 * The FixedPoint representing 1.
+	 */
+	public static final FixedPoint ONE = new FixedPoint(SCALE);
+
+	/**
+	 * The (absolute) limit below which the product of a double and SCALE can
+	 * be converted to a long without rounding (2^52).
+	 */
+	private static final double EXACT_LIMIT = 4503599627370496.0d;
+
+	/**
+	 * The base 10 logarithm above which a power is certainly outside the range
+	 * of a FixedPoint (which ends just below 10^15).
+	 */
+	private static final double POW_OVERFLOW_LOG = 16.0d;
+
+	/**
+	 * The base 10 logarithm below which a power certainly rounds to zero (the
+	 * smallest non-zero FixedPoint is 10^-4).
+	 */
+	private static final double POW_UNDERFLOW_LOG = -6.0d;
+
+	/**
+	 * The number of significant digits with which a whole power is first
+	 * calculated. This covers the full range of a FixedPoint with room to
+	 * spare, so it is rarely increased.
+	 */
+	private static final int POW_PRECISION = 32;
+
+	/**
+	 * The scaled value of this FixedPoint.
+	 */
+	private final long scaled;
+
+	/**
+	 * Constructs a new FixedPoint with the given scaled value.
+	 * 
+	 * @param scaled
+	 *            The scaled value of the FixedPoint
+	 */
+	private FixedPoint(long scaled)
+	{
+		this.scaled = scaled;
+	}
+
+	/**
+	 * Returns a FixedPoint with the given scaled value.
+	 * 
+	 * @param scaled
+	 *            The scaled value of the FixedPoint (the value multiplied by
+	 *            SCALE)
+	 * @return A FixedPoint with the given scaled value
+	 */
+	public static FixedPoint fromScaled(long scaled)
+	{
+		if (scaled == 0L)
+		{
+			return ZERO;
+		}
+		if (scaled == SCALE)
+		{
+			return ONE;
+		}
+		return new FixedPoint(scaled);
+	}
+
+	/**
+	 * Returns a FixedPoint with the value of the given Number. If the Number
+	 * cannot be held exactly, it is rounded to DIGITS digits after the decimal
+	 * point.
+	 * 
+	 * @param n
+	 *            The Number to be converted into a FixedPoint
+	 * @return A FixedPoint with the value of the given Number
+	 * @throws IllegalArgumentException
+	 *             if the given Number is null
+	 * @throws ArithmeticException
+	 *             if the given Number is not finite or is outside the range of
+	 *             a FixedPoint
+	 */
+	public static FixedPoint valueOf(Number n)
+	{
+		if (n == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot convert null to a FixedPoint");
+		}
+		if (n instanceof FixedPoint)
+		{
+			return (FixedPoint) n;
+		}
+		return fromScaled(toScaled(n));
+	}
+
+	/**
+	 * Returns a FixedPoint with the value of the given String, which must be a
+	 * decimal number (e.g. "-2.25"). If the value has more than DIGITS digits
+	 * after the decimal point, it is rounded.
+	 * 
+	 * @param s
+	 *            The String to be converted into a FixedPoint
+	 * @return A FixedPoint with the value of the given String
+	 * @throws IllegalArgumentException
+	 *             if the given String is null
+	 * @throws NumberFormatException
+	 *             if the given String is not a decimal number
+	 * @throws ArithmeticException
+	 *             if the given String is outside the range of a FixedPoint
+	 */
+	public static FixedPoint valueOf(String s)
+	{
+		if (s == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot convert null to a FixedPoint");
+		}
+		return fromScaled(scale(new BigDecimal(s)));
+	}
+
+	/**
+	 * Returns the scaled value of this FixedPoint (the value multiplied by
+	 * SCALE).
+	 * 
+	 * @return The scaled value of this FixedPoint
+	 */
+	public long getScaled()
+	{
+		return scaled;
+	}
+
+	/**
+	 * Returns the value of this FixedPoint as an int, truncating any digits
+	 * after the decimal point.
+	 * 
+	 * @see java.lang.Number#intValue()
+	 */
+	@Override
+	public int intValue()
+	{
+		return (int) longValue();
+	}
+
+	/**
+	 * Returns the value of this FixedPoint as a long, truncating any digits
+	 * after the decimal point.
+	 * 
+	 * @see java.lang.Number#longValue()
+	 */
+	@Override
+	public long longValue()
+	{
+		return scaled / SCALE;
+	}
+
+	/**
+	 * Returns the value of this FixedPoint as a float.
+	 * 
+	 * @see java.lang.Number#floatValue()
+	 */
+	@Override
+	public float floatValue()
+	{
+		return (float) toDouble(scaled);
+	}
+
+	/**
+	 * Returns the value of this FixedPoint as a double.
+	 * 
+	 * @see java.lang.Number#doubleValue()
+	 */
+	@Override
+	public double doubleValue()
+	{
+		return toDouble(scaled);
+	}
+
+	@Override
+	public int compareTo(FixedPoint other)
+	{
+		return compare(scaled, other.scaled);
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		return (o instanceof FixedPoint) && (((FixedPoint) o).scaled == scaled);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (int) (scaled ^ (scaled >>> 32));
+	}
+
+	/**
+	 * Returns the decimal representation of this FixedPoint, without any
+	 * trailing zeros after the decimal point (e.g. "2.5" or "-3").
+	 */
+	@Override
+	public String toString()
+	{
+		if (scaled == 0L)
+		{
+			return "0";
+		}
+		return BigDecimal.valueOf(scaled, DIGITS).stripTrailingZeros()
+			.toPlainString();
+	}
+
+	/**
+	 * Returns the scaled value of the given Number.
+	 * 
+	 * @param n
+	 *            The Number for which the scaled value should be returned
+	 * @return The scaled value of the given Number
+	 * @throws ArithmeticException
+	 *             if the given Number is not finite or is outside the range of
+	 *             a FixedPoint
+	 */
+	public static long toScaled(Number n)
+	{
+		if (n instanceof FixedPoint)
+		{
+			return ((FixedPoint) n).scaled;
+		}
+		if ((n instanceof Integer) || (n instanceof Short)
+			|| (n instanceof Byte))
+		{
+			return scale(n.intValue());
+		}
+		if (n instanceof Long)
+		{
+			return multiplyExact(n.longValue(), SCALE);
+		}
+		if (n instanceof BigDecimal)
+		{
+			return scale((BigDecimal) n);
+		}
+		return scale(n.doubleValue());
+	}
+
+	/**
+	 * Returns the scaled value of the given int.
+	 * 
+	 * @param value
+	 *            The int for which the scaled value should be returned
+	 * @return The scaled value of the given int
+	 */
+	public static long scale(int value)
+	{
+		return value * SCALE;
+	}
+
+	/**
+	 * Returns the scaled value of the given double, rounded to the nearest
+	 * scaled value.
+	 * 
+	 * @param value
+	 *            The double for which the scaled value should be returned
+	 * @return The scaled value of the given double
+	 * @throws ArithmeticException
+	 *             if the given double is not finite or is outside the range of
+	 *             a FixedPoint
+	 */
+	public static long scale(double value)
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+		{
+			throw new ArithmeticException("Cannot convert " + value
+				+ " to a FixedPoint");
+		}
+		/*
+		 * If the (rounded) product is a whole number below 2^52, the exact
+		 * product is within a quarter of it, so it is also the exact product
+		 * rounded to the nearest whole number.
+		 */
+		double product = value * SCALE;
+		if ((Math.abs(product) < EXACT_LIMIT)
+			&& (product == Math.rint(product)))
+		{
+			return (long) product;
+		}
+		return scale(new BigDecimal(value));
+	}
+
+	/**
+	 * Returns the scaled value of the given BigDecimal, rounded to the nearest
+	 * scaled value.
+	 */
+	private static long scale(BigDecimal value)
+	{
+		return value.movePointRight(DIGITS).setScale(0, RoundingMode.HALF_UP)
+			.longValueExact();
+	}
+
+	/**
+	 * Returns the given scaled value as a double.
+	 * 
+	 * @param scaled
+	 *            The scaled value to be returned as a double
+	 * @return The given scaled value as a double
+	 */
+	public static double toDouble(long scaled)
+	{
+		return scaled / (double) SCALE;
+	}
+
+	/**
+	 * Compares the two given scaled values, consistent with
+	 * Comparable.compareTo.
+	 * 
+	 * @param left
+	 *            The first scaled value to be compared
+	 * @param right
+	 *            The second scaled value to be compared
+	 * @return A negative value, zero or a positive value if the first value is
+	 *         less than, equal to or greater than the second value
+	 */
+	public static int compare(long left, long right)
+	{
+		return (left < right) ? -1 : ((left == right) ? 0 : 1);
+	}
+
+	/**
+	 * Returns the sum of the two given scaled values.
+	 * 
+	 * @param left
+	 *            The first scaled value to be added
+	 * @param right
+	 *            The second scaled value to be added
+	 * @return The sum of the two given scaled values
+	 * @throws ArithmeticException
+	 *             if the result is outside the range of a FixedPoint
+	 */
+	public static long add(long left, long right)
+	{
+		long result = left + right;
+		if (((left ^ result) & (right ^ result)) < 0)
+		{
+			throw new ArithmeticException("FixedPoint overflow");
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the difference of the two given scaled values.
+	 * 
+	 * @param left
+	 *            The scaled value to be subtracted from
+	 * @param right
+	 *            The scaled value to be subtracted
+	 * @return The difference of the two given scaled values
+	 * @throws ArithmeticException
+	 *             if the result is outside the range of a FixedPoint
+	 */
+	public static long subtract(long left, long right)
+	{
+		long result = left - right;
+		if (((left ^ right) & (left ^ result)) < 0)
+		{
+			throw new ArithmeticException("FixedPoint overflow");
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the negation of the given scaled value.
+	 * 
+	 * @param value
+	 *            The scaled value to be negated
+	 * @return The negation of the given scaled value
+	 * @throws ArithmeticException
+	 *             if the result is outside the range of a FixedPoint
+	 */
+	public static long negate(long value)
+	{
+		if (value == Long.MIN_VALUE)
+		{
+			throw new ArithmeticException("FixedPoint overflow");
+		}
+		return -value;
+	}
+
+	/**
+	 * Returns the product of the two given scaled values, rounded to the
+	 * nearest scaled value.
+	 * 
+	 * @param left
+	 *            The first scaled value to be multiplied
+	 * @param right
+	 *            The second scaled value to be multiplied
+	 * @return The product of the two given scaled values
+	 * @throws ArithmeticException
+	 *             if the result is outside the range of a FixedPoint
+	 */
+	public static long multiply(long left, long right)
+	{
+		return multiplyDivide(left, right, SCALE);
+	}
+
+	/**
+	 * Returns the quotient of the two given scaled values, rounded to the
+	 * nearest scaled value.
+	 * 
+	 * @param left
+	 *            The scaled value to be divided
+	 * @param right
+	 *            The scaled value by which to divide
+	 * @return The quotient of the two given scaled values
+	 * @throws ArithmeticException
+	 *             if the divisor is zero or the result is outside the range
+	 *             of a FixedPoint
+	 */
+	public static long divide(long left, long right)
+	{
+		if (right == 0L)
+		{
+			throw new ArithmeticException("FixedPoint division by zero");
+		}
+		return multiplyDivide(left, SCALE, right);
+	}
+
+	/**
+	 * Returns the remainder of dividing the first given scaled value by the
+	 * second. Like the % operator on Java primitives, the result has the sign
+	 * of the first value.
+	 * 
+	 * @param left
+	 *            The scaled value to be divided
+	 * @param right
+	 *            The scaled value by which to divide
+	 * @return The remainder of dividing the first scaled value by the second
+	 * @throws ArithmeticException
+	 *             if the divisor is zero
+	 */
+	public static long remainder(long left, long right)
+	{
+		if (right == 0L)
+		{
+			throw new ArithmeticException("FixedPoint division by zero");
+		}
+		return left % right;
+	}
+
+	/**
+	 * Returns the first given scaled value raised to the power of the second.
+	 * 
+	 * If the exponent is a whole number, the result is the exact power rounded
+	 * once to the nearest scaled value (see powWhole). Otherwise, the result
+	 * is calculated using StrictMath.pow(double, double), which produces the
+	 * same result on every platform.
+	 * 
+	 * @param base
+	 *            The scaled value to be raised to a power
+	 * @param exponent
+	 *            The scaled value of the exponent
+	 * @return The first given scaled value raised to the power of the second
+	 * @throws ArithmeticException
+	 *             if the result is not finite or is outside the range of a
+	 *             FixedPoint
+	 */
+	public static long pow(long base, long exponent)
+	{
+		if ((exponent % SCALE) != 0L)
+		{
+			return scale(StrictMath.pow(toDouble(base), toDouble(exponent)));
+		}
+		return powWhole(base, exponent / SCALE);
+	}
+
+	/**
+	 * Returns the given scaled value raised to the given whole power, rounded
+	 * once to the nearest scaled value.
+	 * 
+	 * The power is calculated by squaring BigDecimal values rounded to a
+	 * working precision (for a negative power, the reciprocal of the base is
+	 * raised to the matching positive power, so nothing is rounded to a scaled
+	 * value before dividing). Unless every step was exact, the accumulated
+	 * error is then bounded: If the exact power could round to a different
+	 * scaled value than the calculated power, the calculation is repeated
+	 * with twice the precision.
+	 */
+	private static long powWhole(long base, long power)
+	{
+		if ((power == 0L) || (base == SCALE))
+		{
+			return SCALE;
+		}
+		if (base == 0L)
+		{
+			if (power < 0L)
+			{
+				throw new ArithmeticException("FixedPoint division by zero");
+			}
+			return 0L;
+		}
+		if (base == -SCALE)
+		{
+			return ((power & 1L) == 0L) ? SCALE : -SCALE;
+		}
+		double log = power * Math.log10(Math.abs(toDouble(base)));
+		if (log > POW_OVERFLOW_LOG)
+		{
+			throw new ArithmeticException("FixedPoint overflow");
+		}
+		if (log < POW_UNDERFLOW_LOG)
+		{
+			return 0L;
+		}
+		/*
+		 * Since the base is at least 10^-4 away from 1 (and -1), the checks
+		 * above limit the power to less than 2^19.
+		 */
+		int count = (int) Math.abs(power);
+		BigDecimal value = BigDecimal.valueOf(base, DIGITS);
+		int precision = POW_PRECISION;
+		while (true)
+		{
+			MathContext context =
+					new MathContext(precision, RoundingMode.HALF_EVEN);
+			BigDecimal factor = value;
+			boolean exact = true;
+			if (power < 0L)
+			{
+				factor = BigDecimal.ONE.divide(value, context);
+				exact = factor.multiply(value).compareTo(BigDecimal.ONE) == 0;
+			}
+			//No product has more digits than the result
+			exact &= ((long) count * factor.precision()) <= precision;
+			BigDecimal result = BigDecimal.ONE;
+			BigDecimal square = factor;
+			int remaining = count;
+			while (true)
+			{
+				if ((remaining & 1) != 0)
+				{
+					result = result.multiply(square, context);
+				}
+				remaining >>= 1;
+				if (remaining == 0)
+				{
+					break;
+				}
+				square = square.multiply(square, context);
+			}
+			if (exact)
+			{
+				return scale(result);
+			}
+			/*
+			 * At most 39 operations were rounded, each by at most half a unit
+			 * in the last place, so the relative error is below 10^(3-P).
+			 */
+			BigDecimal error = result.abs().movePointLeft(precision - 3);
+			long low = scale(result.subtract(error));
+			if (low == scale(result.add(error)))
+			{
+				return low;
+			}
+			precision *= 2;
+		}
+	}
+
+	/**
+	 * Returns the largest whole number (as a scaled value) less than or equal
+	 * to the given scaled value.
+	 * 
+	 * @param value
+	 *            The scaled value for which the floor should be returned
+	 * @return The largest whole number less than or equal to the given value
+	 * @throws ArithmeticException
+	 *             if the result is outside the range of a FixedPoint
+	 */
+	public static long floor(long value)
+	{
+		long whole = value / SCALE;
+		if ((value % SCALE) < 0L)
+		{
+			whole--;
+		}
+		return multiplyExact(whole, SCALE);
+	}
+
+	/**
+	 * Returns the smallest whole number (as a scaled value) greater than or
+	 * equal to the given scaled value.
+	 * 
+	 * @param value
+	 *            The scaled value for which the ceiling should be returned
+	 * @return The smallest whole number greater than or equal to the given
+	 *         value
+	 * @throws ArithmeticException
+	 *             if the result is outside the range of a FixedPoint
+	 */
+	public static long ceil(long value)
+	{
+		long whole = value / SCALE;
+		if ((value % SCALE) > 0L)
+		{
+			whole++;
+		}
+		return multiplyExact(whole, SCALE);
+	}
+
+	/**
+	 * Returns the whole number (as a scaled value) nearest to the given scaled
+	 * value. Consistent with java.lang.Math.round(double), a value that is
+	 * equally distant between two whole numbers is rounded up.
+	 * 
+	 * @param value
+	 *            The scaled value to be rounded
+	 * @return The whole number nearest to the given value
+	 * @throws ArithmeticException
+	 *             if the result is outside the range of a FixedPoint
+	 */
+	public static long round(long value)
+	{
+		return floor(add(value, SCALE / 2));
+	}
+
+	/**
+	 * Returns the product of the two given longs.
+	 * 
+	 * @throws ArithmeticException
+	 *             if the product overflows a long
+	 */
+	private static long multiplyExact(long left, long right)
+	{
+		long result = left * right;
+		if (!isExactProduct(left, right, result))
+		{
+			throw new ArithmeticException("FixedPoint overflow");
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if the given product (calculated with long arithmetic) is
+	 * the exact product of the two given longs.
+	 */
+	private static boolean isExactProduct(long left, long right, long product)
+	{
+		return (left == 0L)
+			|| (((product / left) == right) && ((left != -1L)
+				|| (right != Long.MIN_VALUE)));
+	}
+
+	/**
+	 * Returns the product of the first two given longs divided by the third,
+	 * rounded as in divideRounded.
+	 * 
+	 * The product is calculated exactly, even if it overflows a long, so the
+	 * result does not depend on the order of the first two longs, and an
+	 * ArithmeticException is thrown only if the result itself overflows a
+	 * long.
+	 */
+	private static long multiplyDivide(long left, long right, long divisor)
+	{
+		long product = left * right;
+		if (isExactProduct(left, right, product))
+		{
+			return divideRounded(product, divisor);
+		}
+		return BigDecimal.valueOf(left).multiply(BigDecimal.valueOf(right))
+			.divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_UP)
+			.longValueExact();
+	}
+
+	/**
+	 * Returns the quotient of the two given longs, rounded to the nearest
+	 * long. A quotient equally distant between two longs is rounded away from
+	 * zero.
+	 */
+	private static long divideRounded(long dividend, long divisor)
+	{
+		long quotient = dividend / divisor;
+		long remainder = dividend % divisor;
+		if (remainder == 0L)
+		{
+			return quotient;
+		}
+		//Compare magnitudes as negative values, which cannot overflow
+		long negRemainder = (remainder > 0L) ? -remainder : remainder;
+		long negDivisor = (divisor > 0L) ? -divisor : divisor;
+		if (negRemainder <= (negDivisor - negRemainder))
+		{
+			return ((dividend < 0L) == (divisor < 0L)) ? (quotient + 1L)
+				: (quotient - 1L);
+		}
+		return quotient;
+	}
+}
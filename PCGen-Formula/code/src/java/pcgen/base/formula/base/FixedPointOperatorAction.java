@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A FixedPointOperatorAction is an OperatorAction on FixedPoint values that
+ * can also be performed directly on the scaled long values of two FixedPoint
+ * objects (see FixedPoint.getScaled()).
+ * 
+ * This allows a formula in the FIXED_POINT NumericMode to be evaluated without
+ * creating a FixedPoint object for each argument or result. The result placed
+ * into the NumericResult must be the same as the result of evaluate(Object,
+ * Object) on the equivalent FixedPoint objects.
+ */
+public interface FixedPointOperatorAction extends OperatorAction
+{
+
+	/**
+	 * Performs the operation on two scaled FixedPoint values, placing the
+	 * result into the given NumericResult.
+	 * 
+	 * @param left
+	 *            The scaled value of the first argument to the operation
+	 * @param right
+	 *            The scaled value of the second argument to the operation
+	 * @param result
+	 *            The NumericResult into which the result is placed
+	 */
+	public void evaluate(long left, long right, NumericResult result);
+
+}
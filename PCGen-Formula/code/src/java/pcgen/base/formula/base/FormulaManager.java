@@ -106,4 +106,31 @@ public interface FormulaManager
 	 */
 	public FormulaManager swapFunctionLibrary(FunctionLibrary ftnLib);
 
+	/**
+	 * Returns the EvaluationMode indicating how formulas are evaluated when
+	 * using this FormulaManager.
+	 * 
+	 * @return The EvaluationMode indicating how formulas are evaluated when
+	 *         using this FormulaManager
+	 */
+	public EvaluationMode getEvaluationMode();
+
+	/**
+	 * Returns the NumericMode indicating how numbers are represented in
+	 * formulas when using this FormulaManager.
+	 * 
+	 * @return The NumericMode indicating how numbers are represented in
+	 *         formulas when using this FormulaManager
+	 */
+	public NumericMode getNumericMode();
+
+	/**
+	 * Returns the EvaluationBudget which bounds the evaluation of a formula
+	 * when using this FormulaManager.
+	 * 
+	 * @return The EvaluationBudget which bounds the evaluation of a formula
+	 *         when using this FormulaManager
+	 */
+	public EvaluationBudget getEvaluationBudget();
+
 }
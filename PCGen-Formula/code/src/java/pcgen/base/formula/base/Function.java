@@ -97,9 +97,9 @@ public interface Function
 	 * The contract of the Function interface requires that the arguments passed
 	 * to this method are not null and the returned value must not be null. In
 	 * addition, the contract specifies that the args array provided as a
-	 * parameter has ownership transferred to the function. The StaticVisitor or
-	 * other calling object should not reuse or otherwise share a reference to
-	 * the array.
+	 * parameter is shared: The StaticVisitor or other calling object may reuse
+	 * the same array for each call for a given function call in a formula, so
+	 * the function MUST NOT modify the array.
 	 * 
 	 * @param visitor
 	 *            The StaticVisitor that visits portions of a Formula
@@ -154,10 +154,10 @@ public interface Function
 	 * The contract of the Function interface requires that the arguments passed
 	 * to this method are not null and the returned value must not be null. In
 	 * addition, the contract specifies that the args array provided as a
-	 * parameter has ownership transferred to the function. The SemanticsVisitor
-	 * or other calling object should not reuse or otherwise share a reference
-	 * to the array. The given FormulaSemantics object will be modified as
-	 * necessary.
+	 * parameter is shared: The SemanticsVisitor or other calling object may
+	 * reuse the same array for each call for a given function call in a
+	 * formula, so the function MUST NOT modify the array. The given
+	 * FormulaSemantics object will be modified as necessary.
 	 * 
 	 * @param visitor
 	 *            The SemanticsVisitor that visits portions of a Formula
@@ -204,9 +204,9 @@ public interface Function
 	 * The contract of the Function interface requires that the arguments passed
 	 * to this method are not null and the returned value must not be null. In
 	 * addition, the contract specifies that the args array provided as a
-	 * parameter has ownership transferred to the function. The EvaluateVisitor
-	 * or other calling object should not reuse or otherwise share a reference
-	 * to the array.
+	 * parameter is shared: The EvaluateVisitor or other calling object may
+	 * reuse the same array for each call for a given function call in a
+	 * formula, so the function MUST NOT modify the array.
 	 * 
 	 * Note that this returns Object, since we do not know whether the Function
 	 * returns a Boolean or a Double value (or anything else). The semantic
@@ -247,9 +247,9 @@ public interface Function
 	 * to this method are not null and the returned value must not be null. The
 	 * provided DependencyManager may be altered in this method (that's kind of
 	 * the idea :P ). In addition, the contract specifies that the args array
-	 * provided as a parameter has ownership transferred to the function. The
-	 * DependencyVisitor or other calling object should not reuse or otherwise
-	 * share a reference to the array.
+	 * provided as a parameter is shared: The DependencyVisitor or other calling
+	 * object may reuse the same array for each call for a given function call
+	 * in a formula, so the function MUST NOT modify the array.
 	 * 
 	 * @param visitor
 	 *            The DependencyVisitor that visits portions of a Formula
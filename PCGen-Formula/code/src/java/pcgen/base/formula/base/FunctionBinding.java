@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import pcgen.base.formula.parse.Node;
+
+/**
+ * A FunctionBinding is an immutable record that a Function was resolved from a
+ * specific FunctionLibrary for a function call within a parsed tree, along
+ * with the arguments of that function call.
+ * 
+ * A FunctionBinding is attached to the function call node of a parsed tree
+ * (see SimpleNode) so that the Function and the array of arguments can be
+ * reused without resolving the Function or building the array again. Since a
+ * parsed tree may be shared between FormulaManager objects, the
+ * FunctionBinding is only reused if the FunctionLibrary is identical to the
+ * FunctionLibrary from which the Function was resolved.
+ * 
+ * The array of arguments is shared by every use of the FunctionBinding, and
+ * therefore MUST NOT be modified (see the Function interface).
+ */
+public final class FunctionBinding
+{
+
+	/**
+	 * The FunctionLibrary from which the Function was resolved.
+	 */
+	private final FunctionLibrary library;
+
+	/**
+	 * The Function resolved from the FunctionLibrary.
+	 */
+	private final Function function;
+
+	/**
+	 * The arguments to the Function.
+	 */
+	private final Node[] args;
+
+	/**
+	 * Constructs a new FunctionBinding for the given Function and arguments.
+	 * 
+	 * @param library
+	 *            The FunctionLibrary from which the Function was resolved
+	 * @param function
+	 *            The Function resolved from the FunctionLibrary
+	 * @param args
+	 *            The arguments to the Function. Ownership of the array is
+	 *            transferred to the FunctionBinding
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public FunctionBinding(FunctionLibrary library, Function function,
+		Node[] args)
+	{
+		if (library == null)
+		{
+			throw new IllegalArgumentException(
+				"FunctionLibrary cannot be null");
+		}
+		if (function == null)
+		{
+			throw new IllegalArgumentException("Function cannot be null");
+		}
+		if (args == null)
+		{
+			throw new IllegalArgumentException("Arguments cannot be null");
+		}
+		this.library = library;
+		this.function = function;
+		this.args = args;
+	}
+
+	/**
+	 * Returns true if the Function of this FunctionBinding was resolved from
+	 * the given FunctionLibrary.
+	 * 
+	 * @param functionLibrary
+	 *            The FunctionLibrary from which the Function is needed
+	 * @return true if the Function of this FunctionBinding was resolved from
+	 *         the given FunctionLibrary; false otherwise
+	 */
+	public boolean isBoundTo(FunctionLibrary functionLibrary)
+	{
+		return library == functionLibrary;
+	}
+
+	/**
+	 * Returns the Function of this FunctionBinding.
+	 * 
+	 * @return The Function of this FunctionBinding
+	 */
+	public Function getFunction()
+	{
+		return function;
+	}
+
+	/**
+	 * Returns the arguments to the Function of this FunctionBinding. The
+	 * returned array is shared and MUST NOT be modified.
+	 * 
+	 * @return The arguments to the Function of this FunctionBinding
+	 */
+	public Node[] getArguments()
+	{
+		return args;
+	}
+}
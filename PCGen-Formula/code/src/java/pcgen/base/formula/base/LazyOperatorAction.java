@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A LazyOperatorAction is an OperatorAction which may be able to determine the
+ * result of the operation from the first argument alone (e.g. a logical AND
+ * where the first argument is false).
+ * 
+ * When an evaluator finds a LazyOperatorAction for an operator and the class
+ * of the first argument (see OperatorLibrary.getLazyAction), it may provide
+ * the second argument as a DeferredOperand, so that the second argument is
+ * only evaluated if it is required.
+ * 
+ * Note that this does not alter abstractEvaluate, so the validation of a
+ * formula is not affected: Both arguments are always checked during
+ * validation.
+ */
+public interface LazyOperatorAction extends OperatorAction
+{
+
+	/**
+	 * Processes an evaluation on the given first argument and the given
+	 * deferred second argument.
+	 * 
+	 * The DeferredOperand must only be evaluated if the result cannot be
+	 * determined from the first argument. The result must be identical to the
+	 * result of evaluate(o1, o2.getValue()).
+	 * 
+	 * @param o1
+	 *            The first argument to the operation
+	 * @param o2
+	 *            The (not yet evaluated) second argument to the operation
+	 * @return The result of the operation
+	 */
+	public Object evaluateLazily(Object o1, DeferredOperand o2);
+}
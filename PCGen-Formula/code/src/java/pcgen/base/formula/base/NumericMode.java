@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * NumericMode indicates how a FormulaManager represents the numbers in a
+ * formula.
+ */
+public enum NumericMode
+{
+
+	/**
+	 * Numbers are Integer values where the value is a whole number that can be
+	 * held by an Integer, and Double values otherwise. The format of a number
+	 * in a formula is Number.class.
+	 */
+	STANDARD,
+
+	/**
+	 * Numbers are FixedPoint values, and the format of a number in a formula
+	 * is FixedPoint.class. The FixedPoint operators must be loaded into the
+	 * OperatorLibrary (see FormulaUtilities.loadFixedPointOperators).
+	 */
+	FIXED_POINT;
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A NumericOperatorAction is an OperatorAction on two Number objects that can
+ * also be performed on primitive values, without creating Integer or Double
+ * objects.
+ * 
+ * The primitive methods MUST produce the same result (including whether the
+ * result is an Integer or a Double, and any Exception that is thrown) as
+ * evaluate(Object, Object) would produce for the equivalent Integer or Double
+ * arguments.
+ */
+public interface NumericOperatorAction extends OperatorAction
+{
+
+	/**
+	 * Performs the operation on two int values (equivalent to two Integer
+	 * arguments), placing the result into the given NumericResult.
+	 * 
+	 * @param left
+	 *            The first argument to the operation
+	 * @param right
+	 *            The second argument to the operation
+	 * @param result
+	 *            The NumericResult into which the result is placed
+	 */
+	public void evaluate(int left, int right, NumericResult result);
+
+	/**
+	 * Performs the operation on two double values (equivalent to two arguments
+	 * that are not both Integer objects), placing the result into the given
+	 * NumericResult.
+	 * 
+	 * @param left
+	 *            The first argument to the operation
+	 * @param right
+	 *            The second argument to the operation
+	 * @param result
+	 *            The NumericResult into which the result is placed
+	 */
+	public void evaluate(double left, double right, NumericResult result);
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A NumericResult is a mutable holder for the result of evaluating (part of) a
+ * formula, which holds Integer, Double and FixedPoint results as primitive
+ * values.
+ * 
+ * A NumericResult allows a Number-typed formula to be evaluated without
+ * creating an Integer, Double or FixedPoint object for each intermediate
+ * result. Only when the final result is requested as an Object (see get()) is
+ * a value boxed.
+ * 
+ * Like the rest of the formula system, a NumericResult distinguishes Integer,
+ * Double and FixedPoint results, so that the result of get() is the same as
+ * the result that would have been produced by evaluating the formula with
+ * Objects. A value that is not an Integer, Double or FixedPoint (including
+ * values that are not a Number at all) is held as an Object.
+ * 
+ * A NumericResult is not thread-safe. It is intended to be created for a
+ * single evaluation and reused for each step of that evaluation.
+ */
+public final class NumericResult
+{
+
+	/**
+	 * The kind of a NumericResult holding an int value.
+	 */
+	private static final int INT = 0;
+
+	/**
+	 * The kind of a NumericResult holding a double value.
+	 */
+	private static final int DOUBLE = 1;
+
+	/**
+	 * The kind of a NumericResult holding an Object.
+	 */
+	private static final int OBJECT = 2;
+
+	/**
+	 * The kind of a NumericResult holding a (scaled) FixedPoint value.
+	 */
+	private static final int FIXED = 3;
+
+	/**
+	 * The kind of value currently held by this NumericResult.
+	 */
+	private int kind = OBJECT;
+
+	/**
+	 * The int value, if the kind is INT.
+	 */
+	private int intValue;
+
+	/**
+	 * The double value, if the kind is DOUBLE.
+	 */
+	private double doubleValue;
+
+	/**
+	 * The scaled FixedPoint value, if the kind is FIXED.
+	 */
+	private long fixedValue;
+
+	/**
+	 * The Object value, if the kind is OBJECT.
+	 */
+	private Object object;
+
+	/**
+	 * Sets this NumericResult to the given int value (equivalent to an Integer
+	 * result).
+	 * 
+	 * @param value
+	 *            The int value of the result
+	 */
+	public void setInt(int value)
+	{
+		kind = INT;
+		intValue = value;
+		object = null;
+	}
+
+	/**
+	 * Sets this NumericResult to the given double value (equivalent to a Double
+	 * result).
+	 * 
+	 * @param value
+	 *            The double value of the result
+	 */
+	public void setDouble(double value)
+	{
+		kind = DOUBLE;
+		doubleValue = value;
+		object = null;
+	}
+
+	/**
+	 * Sets this NumericResult to the given scaled FixedPoint value (equivalent
+	 * to a FixedPoint result).
+	 * 
+	 * @param scaled
+	 *            The scaled value of the result (see FixedPoint.getScaled())
+	 */
+	public void setFixed(long scaled)
+	{
+		kind = FIXED;
+		fixedValue = scaled;
+		object = null;
+	}
+
+	/**
+	 * Sets this NumericResult to the given value. An Integer, Double or
+	 * FixedPoint is held as a primitive value; any other Object is held as
+	 * given.
+	 * 
+	 * @param value
+	 *            The value of the result
+	 */
+	public void set(Object value)
+	{
+		if (value instanceof Integer)
+		{
+			setInt(((Integer) value).intValue());
+		}
+		else if (value instanceof Double)
+		{
+			setDouble(((Double) value).doubleValue());
+		}
+		else if (value instanceof FixedPoint)
+		{
+			setFixed(((FixedPoint) value).getScaled());
+		}
+		else
+		{
+			kind = OBJECT;
+			object = value;
+		}
+	}
+
+	/**
+	 * Returns true if this NumericResult holds an int value (an Integer
+	 * result).
+	 * 
+	 * @return true if this NumericResult holds an int value; false otherwise
+	 */
+	public boolean isInt()
+	{
+		return kind == INT;
+	}
+
+	/**
+	 * Returns true if this NumericResult holds a double value (a Double
+	 * result).
+	 * 
+	 * @return true if this NumericResult holds a double value; false otherwise
+	 */
+	public boolean isDouble()
+	{
+		return kind == DOUBLE;
+	}
+
+	/**
+	 * Returns true if this NumericResult holds a scaled FixedPoint value (a
+	 * FixedPoint result).
+	 * 
+	 * @return true if this NumericResult holds a scaled FixedPoint value;
+	 *         false otherwise
+	 */
+	public boolean isFixed()
+	{
+		return kind == FIXED;
+	}
+
+	/**
+	 * Returns the int value of this NumericResult. Only valid if isInt()
+	 * returns true.
+	 * 
+	 * @return The int value of this NumericResult
+	 */
+	public int getInt()
+	{
+		return intValue;
+	}
+
+	/**
+	 * Returns the scaled FixedPoint value of this NumericResult. Only valid if
+	 * isFixed() returns true.
+	 * 
+	 * @return The scaled FixedPoint value of this NumericResult
+	 */
+	public long getFixed()
+	{
+		return fixedValue;
+	}
+
+	/**
+	 * Returns the value of this NumericResult as a double. Valid if this
+	 * NumericResult holds any Number.
+	 * 
+	 * @return The value of this NumericResult as a double
+	 * @throws ClassCastException
+	 *             if this NumericResult holds an Object that is not a Number
+	 */
+	public double getDouble()
+	{
+		switch (kind)
+		{
+			case INT:
+				return intValue;
+			case DOUBLE:
+				return doubleValue;
+			case FIXED:
+				return FixedPoint.toDouble(fixedValue);
+			default:
+				return ((Number) object).doubleValue();
+		}
+	}
+
+	/**
+	 * Returns the Class of the value held by this NumericResult (Integer.class,
+	 * Double.class or FixedPoint.class for a primitive value). Returns null if
+	 * this NumericResult holds null.
+	 * 
+	 * @return The Class of the value held by this NumericResult
+	 */
+	public Class<?> getResultClass()
+	{
+		switch (kind)
+		{
+			case INT:
+				return Integer.class;
+			case DOUBLE:
+				return Double.class;
+			case FIXED:
+				return FixedPoint.class;
+			default:
+				return (object == null) ? null : object.getClass();
+		}
+	}
+
+	/**
+	 * Returns the value of this NumericResult as an Object. An int, double or
+	 * scaled FixedPoint value is boxed into an Integer, Double or FixedPoint.
+	 * 
+	 * @return The value of this NumericResult as an Object
+	 */
+	public Object get()
+	{
+		switch (kind)
+		{
+			case INT:
+				return Integer.valueOf(intValue);
+			case DOUBLE:
+				return Double.valueOf(doubleValue);
+			case FIXED:
+				return FixedPoint.fromScaled(fixedValue);
+			default:
+				return object;
+		}
+	}
+}
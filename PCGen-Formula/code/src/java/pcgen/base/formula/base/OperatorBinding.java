@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import pcgen.base.formula.parse.Operator;
+
+/**
+ * An OperatorBinding is an immutable record that an OperatorAction was
+ * resolved from a specific OperatorLibrary for a specific pair of argument
+ * classes.
+ * 
+ * An OperatorBinding is attached to an operator node of a parsed tree (see
+ * SimpleNode) so that the OperatorAction resolved for the node can be reused
+ * without resolving it from the OperatorLibrary again. Since a parsed tree may
+ * be shared between FormulaManager objects, the OperatorAction is only reused
+ * if the OperatorLibrary and the argument classes are identical to those for
+ * which it was resolved.
+ * 
+ * If the OperatorAction is a LazyOperatorAction, it may be reused once only
+ * the first argument has been evaluated (see getLazyAction). This relies on
+ * validation having ensured that the second argument is legal for the
+ * operator.
+ */
+public final class OperatorBinding
+{
+
+	/**
+	 * The OperatorLibrary from which the OperatorAction was resolved.
+	 */
+	private final OperatorLibrary library;
+
+	/**
+	 * The class of the first argument for which the OperatorAction was
+	 * resolved.
+	 */
+	private final Class<?> format1;
+
+	/**
+	 * The class of the second argument for which the OperatorAction was
+	 * resolved.
+	 */
+	private final Class<?> format2;
+
+	/**
+	 * The OperatorAction resolved from the OperatorLibrary.
+	 */
+	private final OperatorAction action;
+
+	/**
+	 * Constructs a new OperatorBinding for the given OperatorAction.
+	 * 
+	 * @param library
+	 *            The OperatorLibrary from which the OperatorAction was
+	 *            resolved
+	 * @param format1
+	 *            The class of the first argument for which the OperatorAction
+	 *            was resolved
+	 * @param format2
+	 *            The class of the second argument for which the
+	 *            OperatorAction was resolved
+	 * @param action
+	 *            The OperatorAction resolved from the OperatorLibrary
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public OperatorBinding(OperatorLibrary library, Class<?> format1,
+		Class<?> format2, OperatorAction action)
+	{
+		if (library == null)
+		{
+			throw new IllegalArgumentException(
+				"OperatorLibrary cannot be null");
+		}
+		if ((format1 == null) || (format2 == null))
+		{
+			throw new IllegalArgumentException(
+				"Argument classes cannot be null");
+		}
+		if (action == null)
+		{
+			throw new IllegalArgumentException("OperatorAction cannot be null");
+		}
+		this.library = library;
+		this.format1 = format1;
+		this.format2 = format2;
+		this.action = action;
+	}
+
+	/**
+	 * Returns the OperatorAction of this OperatorBinding if it was resolved
+	 * from the given OperatorLibrary for the given argument classes. Otherwise
+	 * returns null.
+	 * 
+	 * @param opLibrary
+	 *            The OperatorLibrary from which the OperatorAction is needed
+	 * @param class1
+	 *            The class of the first argument
+	 * @param class2
+	 *            The class of the second argument
+	 * @return The OperatorAction of this OperatorBinding if it matches the
+	 *         given OperatorLibrary and argument classes; null otherwise
+	 */
+	public OperatorAction getAction(OperatorLibrary opLibrary,
+		Class<?> class1, Class<?> class2)
+	{
+		if ((library == opLibrary) && (format1 == class1)
+			&& (format2 == class2))
+		{
+			return action;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the OperatorAction of this OperatorBinding.
+	 * 
+	 * @return The OperatorAction of this OperatorBinding
+	 */
+	public OperatorAction getAction()
+	{
+		return action;
+	}
+
+	/**
+	 * Returns the OperatorAction of this OperatorBinding as a
+	 * LazyOperatorAction if it is a LazyOperatorAction that was resolved from
+	 * the given OperatorLibrary for the given class of the first argument.
+	 * Otherwise returns null.
+	 * 
+	 * @param opLibrary
+	 *            The OperatorLibrary from which the OperatorAction is needed
+	 * @param class1
+	 *            The class of the first argument
+	 * @return The LazyOperatorAction of this OperatorBinding if it matches the
+	 *         given OperatorLibrary and argument class; null otherwise
+	 */
+	public LazyOperatorAction getLazyAction(OperatorLibrary opLibrary,
+		Class<?> class1)
+	{
+		if ((library == opLibrary) && (format1 == class1)
+			&& (action instanceof LazyOperatorAction))
+		{
+			return (LazyOperatorAction) action;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the LazyOperatorAction to be used to evaluate the given Operator
+	 * on a first argument of the given class, or null if the Operator is not
+	 * lazy for that class.
+	 * 
+	 * The given OperatorBinding is used if it was resolved from the given
+	 * OperatorLibrary for the given class. Otherwise (including if the
+	 * OperatorBinding is null, as on a tree that has never been validated or
+	 * evaluated) the LazyOperatorAction is resolved from the OperatorLibrary,
+	 * so that the second argument is never evaluated merely because the node
+	 * was not yet bound.
+	 * 
+	 * @param binding
+	 *            The OperatorBinding of the operator node (may be null)
+	 * @param opLibrary
+	 *            The OperatorLibrary from which the OperatorAction is needed
+	 * @param operator
+	 *            The Operator to be evaluated
+	 * @param class1
+	 *            The class of the first argument
+	 * @return The LazyOperatorAction for the given Operator and class of the
+	 *         first argument; null if there is no such LazyOperatorAction
+	 */
+	public static LazyOperatorAction getLazyAction(OperatorBinding binding,
+		OperatorLibrary opLibrary, Operator operator, Class<?> class1)
+	{
+		if ((binding != null) && (binding.library == opLibrary)
+			&& (binding.format1 == class1))
+		{
+			return (binding.action instanceof LazyOperatorAction)
+				? (LazyOperatorAction) binding.action : null;
+		}
+		return opLibrary.getLazyAction(operator, class1);
+	}
+
+	/**
+	 * Returns the OperatorLibrary from which the OperatorAction of this
+	 * OperatorBinding was resolved.
+	 * 
+	 * @return The OperatorLibrary from which the OperatorAction was resolved
+	 */
+	public OperatorLibrary getLibrary()
+	{
+		return library;
+	}
+
+	/**
+	 * Returns the class of the first argument for which the OperatorAction of
+	 * this OperatorBinding was resolved.
+	 * 
+	 * @return The class of the first argument
+	 */
+	public Class<?> getFormat1()
+	{
+		return format1;
+	}
+
+	/**
+	 * Returns the class of the second argument for which the OperatorAction of
+	 * this OperatorBinding was resolved.
+	 * 
+	 * @return The class of the second argument
+	 */
+	public Class<?> getFormat2()
+	{
+		return format2;
+	}
+}
@@ -65,6 +65,51 @@ public interface OperatorLibrary
 	 */
 	public Object evaluate(Operator operator, Object o1, Object o2);
 
+	/**
+	 * Returns the OperatorAction that would be used to evaluate the given
+	 * Operator on arguments of the two given classes.
+	 * 
+	 * The returned OperatorAction is the first OperatorAction added to the
+	 * OperatorLibrary for the given Operator for which abstractEvaluate
+	 * returns a non-null value when given the two classes. This is the same
+	 * OperatorAction that evaluate would use when given objects of exactly the
+	 * two given classes, so callers can resolve the OperatorAction once and
+	 * reuse it as long as the classes of the arguments do not change.
+	 * 
+	 * @param operator
+	 *            The Operator to be evaluated
+	 * @param format1
+	 *            The class of the first argument to the operation
+	 * @param format2
+	 *            The class of the second argument to the operation
+	 * @return The OperatorAction for the given Operator and classes if this
+	 *         OperatorLibrary has such an OperatorAction; null otherwise
+	 */
+	public OperatorAction getAction(Operator operator, Class<?> format1,
+		Class<?> format2);
+
+	/**
+	 * Returns the LazyOperatorAction that would be used to evaluate the given
+	 * Operator when the first argument is of the given class, so that an
+	 * evaluator can avoid evaluating the second argument before the
+	 * OperatorAction is known.
+	 * 
+	 * Since the class of the second argument is not yet known, this is the
+	 * OperatorAction that getAction would return for two arguments of the
+	 * given class, if that OperatorAction is a LazyOperatorAction. This relies
+	 * on validation having ensured that the second argument is legal for the
+	 * operator.
+	 * 
+	 * @param operator
+	 *            The Operator to be evaluated
+	 * @param format1
+	 *            The class of the first argument to the operation
+	 * @return The LazyOperatorAction for the given Operator and class if this
+	 *         OperatorLibrary has such an OperatorAction; null otherwise
+	 */
+	public LazyOperatorAction getLazyAction(Operator operator,
+		Class<?> format1);
+
 	/**
 	 * Processes an "abstract" version of the operation, performing a prediction
 	 * of the returned Class rather than on actual objects.
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A PureFunction is a Function whose result depends only on the values of its
+ * arguments.
+ * 
+ * This is optional metadata: A Function that does not implement PureFunction
+ * is simply never assumed to be pure. A Function should only implement
+ * PureFunction if all of the following are true:
+ * 
+ * (1) evaluate() does not depend on any variable, the ScopeInstance, or any
+ * other state that is not an argument to the Function.
+ * 
+ * (2) evaluate() evaluates every argument (so the arguments can safely be
+ * evaluated before evaluate() is called, even if the Function is not called).
+ * 
+ * (3) evaluate() returns equal results when called with arguments that have
+ * equal values.
+ * 
+ * The result of a PureFunction may therefore be reused for any later call
+ * with arguments of equal value (see MemoizingLibrary).
+ */
+public interface PureFunction extends Function
+{
+	//Marker interface
+}
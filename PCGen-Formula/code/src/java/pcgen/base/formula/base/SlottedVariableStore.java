@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A SlottedVariableStore is a VariableStore that can provide a stable
+ * VariableSlot for each VariableID.
+ * 
+ * This allows a reference to a variable to be resolved (to a VariableSlot)
+ * once, after which the value of the variable can be read without any further
+ * lookup in the VariableStore.
+ */
+public interface SlottedVariableStore extends VariableStore
+{
+
+	/**
+	 * Returns the VariableSlot in this SlottedVariableStore for the given
+	 * VariableID.
+	 * 
+	 * The same VariableSlot is returned for each call with an equal VariableID.
+	 * A VariableSlot is returned even if no value is (yet) stored for the given
+	 * VariableID; the VariableSlot will contain the value once it is stored.
+	 * 
+	 * @param <T>
+	 *            The format of the variable for which the VariableSlot should
+	 *            be returned
+	 * @param varID
+	 *            The VariableID for which the VariableSlot should be returned
+	 * @return The VariableSlot in this SlottedVariableStore for the given
+	 *         VariableID
+	 * @throws IllegalArgumentException
+	 *             if the given VariableID is null
+	 */
+	public <T> VariableSlot<T> getSlot(VariableID<T> varID);
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A StoreVariableSlot is a VariableSlot that reads the value of a variable
+ * from a VariableStore on each request.
+ * 
+ * This is used for a VariableStore that is not a SlottedVariableStore, so that
+ * a reference to a variable can still be resolved to a VariableSlot once. It
+ * does not avoid the lookup in the VariableStore, but does avoid resolving the
+ * VariableID each time the value is requested.
+ * 
+ * @param <T>
+ *            The format of the variable for which this StoreVariableSlot
+ *            holds the value
+ */
+public class StoreVariableSlot<T> implements VariableSlot<T>
+{
+
+	/**
+	 * The VariableStore containing the value of the variable.
+	 */
+	private final VariableStore store;
+
+	/**
+	 * The VariableID of the variable.
+	 */
+	private final VariableID<T> varID;
+
+	/**
+	 * Constructs a new StoreVariableSlot for the given VariableID in the given
+	 * VariableStore.
+	 * 
+	 * @param store
+	 *            The VariableStore containing the value of the variable
+	 * @param varID
+	 *            The VariableID of the variable
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public StoreVariableSlot(VariableStore store, VariableID<T> varID)
+	{
+		if (store == null)
+		{
+			throw new IllegalArgumentException("VariableStore cannot be null");
+		}
+		if (varID == null)
+		{
+			throw new IllegalArgumentException("VariableID cannot be null");
+		}
+		this.store = store;
+		this.varID = varID;
+	}
+
+	@Override
+	public VariableID<T> getVariableID()
+	{
+		return varID;
+	}
+
+	@Override
+	public boolean isSet()
+	{
+		return store.containsKey(varID);
+	}
+
+	@Override
+	public T getValue()
+	{
+		return store.get(varID);
+	}
+}
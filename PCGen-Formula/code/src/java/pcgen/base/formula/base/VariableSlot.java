@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+/**
+ * A VariableSlot is a stable handle to the storage location of the value of a
+ * single variable (as identified by a VariableID) in a VariableStore.
+ * 
+ * A VariableSlot allows the value of a variable to be read without repeating
+ * the lookup of the VariableID in the VariableStore. A VariableSlot reflects
+ * any later changes to the value of the variable in the VariableStore from
+ * which it was obtained.
+ * 
+ * @param <T>
+ *            The format of the variable for which this VariableSlot holds the
+ *            value
+ */
+public interface VariableSlot<T>
+{
+
+	/**
+	 * Returns the VariableID of the variable for which this VariableSlot holds
+	 * the value.
+	 * 
+	 * @return The VariableID of the variable for which this VariableSlot holds
+	 *         the value
+	 */
+	public VariableID<T> getVariableID();
+
+	/**
+	 * Returns true if this VariableSlot contains a value; false otherwise.
+	 * 
+	 * If this method returns true, then it is guaranteed that the getValue
+	 * method will not return null.
+	 * 
+	 * @return true if this VariableSlot contains a value; false otherwise
+	 */
+	public boolean isSet();
+
+	/**
+	 * Returns the value in this VariableSlot. Will return null if there is no
+	 * value stored for the variable.
+	 * 
+	 * @return The value in this VariableSlot
+	 */
+	public T getValue();
+}
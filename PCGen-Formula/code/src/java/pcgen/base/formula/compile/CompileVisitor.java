@@ -0,0 +1,366 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import java.lang.reflect.Modifier;
+
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FunctionBinding;
+import pcgen.base.formula.parse.ASTArithmetic;
+import pcgen.base.formula.parse.ASTEquality;
+import pcgen.base.formula.parse.ASTExpon;
+import pcgen.base.formula.parse.ASTFParen;
+import pcgen.base.formula.parse.ASTGeometric;
+import pcgen.base.formula.parse.ASTLogical;
+import pcgen.base.formula.parse.ASTNum;
+import pcgen.base.formula.parse.ASTPCGenBracket;
+import pcgen.base.formula.parse.ASTPCGenLookup;
+import pcgen.base.formula.parse.ASTPCGenSingleWord;
+import pcgen.base.formula.parse.ASTParen;
+import pcgen.base.formula.parse.ASTQuotString;
+import pcgen.base.formula.parse.ASTRelational;
+import pcgen.base.formula.parse.ASTRoot;
+import pcgen.base.formula.parse.ASTUnary;
+import pcgen.base.formula.parse.FormulaParserVisitor;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.formula.visitor.VisitorUtilities;
+
+/**
+ * CompileVisitor visits a formula in tree form in order to produce a tree of
+ * CompiledNode objects which will produce the same result as evaluating the
+ * original tree with an EvaluateVisitor.
+ * 
+ * Each method on CompileVisitor returns the CompiledNode for the visited node.
+ * The data parameter to the methods is ignored.
+ * 
+ * CompileVisitor does not modify the visited tree, and the produced
+ * CompiledNode objects may continue to reference portions of the visited tree
+ * (for example, the arguments to a Function). Since those portions of the tree
+ * will not be visited by CompileVisitor until the CompiledNode is evaluated,
+ * the visited tree must not be modified after compilation.
+ * 
+ * The produced tree of CompiledNode objects is bound to the FormulaManager
+ * given to the CompileVisitor (e.g. the Function objects are looked up in the
+ * FunctionLibrary of that FormulaManager). It must therefore only be evaluated
+ * with an EvaluateVisitor using that FormulaManager.
+ * 
+ * Like EvaluateVisitor, CompileVisitor does not validate the formula. A portion
+ * of a formula that cannot be compiled is evaluated by the EvaluateVisitor, so
+ * an invalid formula will fail in the same way as it would have if it were not
+ * compiled.
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public class CompileVisitor implements FormulaParserVisitor
+{
+
+	/**
+	 * The FormulaManager used to get information about functions and other key
+	 * parameters of a Formula.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * Constructs a new CompileVisitor which will produce CompiledNode objects
+	 * bound to the given FormulaManager.
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to get information about functions and
+	 *            other key parameters of a Formula
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public CompileVisitor(FormulaManager fm)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		this.fm = fm;
+	}
+
+	/**
+	 * Compiles the tree starting with the given node.
+	 * 
+	 * @param node
+	 *            The root of the tree to be compiled
+	 * @return The CompiledNode for the given tree
+	 * @throws IllegalArgumentException
+	 *             if the given node is null
+	 */
+	public CompiledNode compile(Node node)
+	{
+		if (node == null)
+		{
+			throw new IllegalArgumentException("Cannot compile null node");
+		}
+		return (CompiledNode) node.jjtAccept(this, null);
+	}
+
+	/**
+	 * Visits a SimpleNode. Because this cannot be processed, due to lack of
+	 * knowledge as to the exact type of SimpleNode encountered, the node is
+	 * visited, which - through double dispatch - will result in another method
+	 * on this CompileVisitor being called.
+	 * 
+	 * @see pcgen.base.formula.parse.FormulaParserVisitor#visit(pcgen.base.formula.parse.SimpleNode,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public Object visit(SimpleNode node, Object data)
+	{
+		//Delegate to the appropriate class
+		return node.jjtAccept(this, data);
+	}
+
+	/**
+	 * Compiles the (single) child of this node, as a root is simply a
+	 * structural placeholder.
+	 */
+	@Override
+	public Object visit(ASTRoot node, Object data)
+	{
+		return compileSingleChild(node);
+	}
+
+	/**
+	 * Compiles the node, based on the Operator in the node.
+	 */
+	@Override
+	public Object visit(ASTLogical node, Object data)
+	{
+		return compileOperatorNode(node);
+	}
+
+	/**
+	 * Compiles the node, based on the Operator in the node.
+	 */
+	@Override
+	public Object visit(ASTEquality node, Object data)
+	{
+		return compileOperatorNode(node);
+	}
+
+	/**
+	 * Compiles the node, based on the Operator in the node.
+	 */
+	@Override
+	public Object visit(ASTRelational node, Object data)
+	{
+		return compileOperatorNode(node);
+	}
+
+	/**
+	 * Compiles the node, based on the Operator in the node.
+	 */
+	@Override
+	public Object visit(ASTArithmetic node, Object data)
+	{
+		return compileOperatorNode(node);
+	}
+
+	/**
+	 * Compiles the node, based on the Operator in the node.
+	 */
+	@Override
+	public Object visit(ASTGeometric node, Object data)
+	{
+		return compileOperatorNode(node);
+	}
+
+	/**
+	 * Compiles the node, which is a unary negation.
+	 */
+	@Override
+	public Object visit(ASTUnary node, Object data)
+	{
+		if (node.jjtGetNumChildren() != 1)
+		{
+			return new InterpretedNode(node);
+		}
+		return new NegateNode(compile(node.jjtGetChild(0)));
+	}
+
+	/**
+	 * Compiles the exponential node. The base is raised to the (combined)
+	 * exponent by an OperatorNode, so the exponent (^) operator is processed
+	 * by the OperatorLibrary, like any other operator.
+	 */
+	@Override
+	public Object visit(ASTExpon node, Object data)
+	{
+		Operator op = node.getOperator();
+		int childCount = node.jjtGetNumChildren();
+		if ((op == null) || (childCount < 2))
+		{
+			return new InterpretedNode(node);
+		}
+		CompiledNode exponent;
+		if (childCount == 2)
+		{
+			exponent = compile(node.jjtGetChild(1));
+		}
+		else
+		{
+			CompiledNode[] exponents = new CompiledNode[childCount - 1];
+			for (int i = 1; i < childCount; i++)
+			{
+				exponents[i - 1] = compile(node.jjtGetChild(i));
+			}
+			exponent = new ExponentProductNode(exponents);
+		}
+		return new OperatorNode(op, fm.getOperatorLibrary(),
+			compile(node.jjtGetChild(0)), exponent, null);
+	}
+
+	/**
+	 * Compiles the (single) child of this node, as grouping parenthesis are
+	 * logically present only to define order of operations (now implicit in the
+	 * tree structure).
+	 */
+	@Override
+	public Object visit(ASTParen node, Object data)
+	{
+		return compileSingleChild(node);
+	}
+
+	/**
+	 * Returns a CompiledNode for the numeric value of the node (as represented
+	 * in the NumericMode of the FormulaManager).
+	 */
+	@Override
+	public Object visit(ASTNum node, Object data)
+	{
+		Number value = VisitorUtilities.getNumber(node, fm.getNumericMode());
+		if (value == null)
+		{
+			return new InterpretedNode(node);
+		}
+		return new ConstantNode(value);
+	}
+
+	/**
+	 * Compiles a function encountered in the formula. The Function is looked up
+	 * in the FunctionLibrary once, rather than on each evaluation.
+	 */
+	@Override
+	public Object visit(ASTPCGenLookup node, Object data)
+	{
+		FunctionBinding binding =
+				VisitorUtilities.getFunctionBinding(fm.getLibrary(), node);
+		if (binding == null)
+		{
+			return new InterpretedNode(node);
+		}
+		return new FunctionNode(binding.getFunction(), binding.getArguments());
+	}
+
+	/**
+	 * Compiles a variable within the formula. Since the VariableID is dependent
+	 * on the ScopeInstance in which the formula is evaluated, the variable is
+	 * resolved to a VariableSlot (which is then reused) upon evaluation.
+	 */
+	@Override
+	public Object visit(ASTPCGenSingleWord node, Object data)
+	{
+		return new VariableNode(node);
+	}
+
+	/**
+	 * This type of node is ONLY encountered as part of a function. Reaching
+	 * this node indicates a tree structure problem in the formula, which will
+	 * be reported by EvaluateVisitor upon evaluation.
+	 */
+	@Override
+	public Object visit(ASTPCGenBracket node, Object data)
+	{
+		return new InterpretedNode(node);
+	}
+
+	/**
+	 * This type of node is ONLY encountered as part of a function. Reaching
+	 * this node indicates a tree structure problem in the formula, which will
+	 * be reported by EvaluateVisitor upon evaluation.
+	 */
+	@Override
+	public Object visit(ASTFParen node, Object data)
+	{
+		return new InterpretedNode(node);
+	}
+
+	/**
+	 * Returns a CompiledNode for the contents of the quoted String.
+	 */
+	@Override
+	public Object visit(ASTQuotString node, Object data)
+	{
+		//The quotes are stripped by the parser
+		return new ConstantNode(node.getText());
+	}
+
+	/**
+	 * Compiles an operator node. If the node does not have an Operator or does
+	 * not have exactly 2 children, it is left to EvaluateVisitor to report the
+	 * problem upon evaluation. Any OperatorBinding resolved during validation
+	 * is passed to the OperatorNode.
+	 */
+	private CompiledNode compileOperatorNode(SimpleNode node)
+	{
+		Operator op = node.getOperator();
+		if ((op == null) || (node.jjtGetNumChildren() != 2))
+		{
+			return new InterpretedNode(node);
+		}
+		return new OperatorNode(op, fm.getOperatorLibrary(),
+			compile(node.jjtGetChild(0)), compile(node.jjtGetChild(1)),
+			node.getOperatorBinding());
+	}
+
+	/**
+	 * Compiles the single child of the given node. If the node does not have
+	 * exactly one child, it is left to EvaluateVisitor to report the problem
+	 * upon evaluation.
+	 */
+	private CompiledNode compileSingleChild(SimpleNode node)
+	{
+		if (node.jjtGetNumChildren() != 1)
+		{
+			return new InterpretedNode(node);
+		}
+		return compile(node.jjtGetChild(0));
+	}
+
+	/**
+	 * Returns the given Class if it is known to be the exact Class of any
+	 * object assignable to the given Class (i.e. it is a final class);
+	 * otherwise returns null.
+	 * 
+	 * @param format
+	 *            The Class to be checked
+	 * @return The given Class if it is a final class; null otherwise
+	 */
+	static Class<?> exactClass(Class<?> format)
+	{
+		if ((format != null) && Modifier.isFinal(format.getModifiers()))
+		{
+			return format;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+
+/**
+ * A CompiledNode is an executable node in a compiled formula tree.
+ * 
+ * A CompiledNode is produced by a CompileVisitor from a tree of nodes produced
+ * by the parser. A CompiledNode is immutable (other than internal caching) and
+ * may be evaluated from multiple threads.
+ * 
+ * A CompiledNode can be evaluated either to an Object or into a NumericResult.
+ * Evaluating into a NumericResult allows Number-typed portions of a formula to
+ * be evaluated on primitive values, without creating an Integer or Double for
+ * each intermediate result.
+ */
+public abstract class CompiledNode
+{
+
+	/**
+	 * Evaluates this CompiledNode, returning the result.
+	 * 
+	 * @param visitor
+	 *            The EvaluateVisitor providing the context (ScopeInstance and
+	 *            FormulaManager) in which this CompiledNode is evaluated. Also
+	 *            used to evaluate any portion of the formula that was not
+	 *            compiled.
+	 * @return The result of evaluating this CompiledNode
+	 */
+	public abstract Object evaluate(EvaluateVisitor visitor);
+
+	/**
+	 * Evaluates this CompiledNode, placing the result into the given
+	 * NumericResult. The result is the same as the result of evaluate(), but
+	 * CompiledNode objects that produce Numbers may avoid creating an Integer
+	 * or Double object.
+	 * 
+	 * @param visitor
+	 *            The EvaluateVisitor providing the context (ScopeInstance and
+	 *            FormulaManager) in which this CompiledNode is evaluated
+	 * @param result
+	 *            The NumericResult into which the result is placed
+	 */
+	public void evaluate(EvaluateVisitor visitor, NumericResult result)
+	{
+		result.set(evaluate(visitor));
+	}
+
+	/**
+	 * Returns the exact Class of the object returned by evaluate, if it is
+	 * known when the tree is compiled. Returns null if the exact Class is not
+	 * known (e.g. if the result is a Number that may be an Integer or a
+	 * Double).
+	 * 
+	 * @return The exact Class of the object returned by evaluate, or null if
+	 *         the Class is not known
+	 */
+	Class<?> getResultClass()
+	{
+		return null;
+	}
+}
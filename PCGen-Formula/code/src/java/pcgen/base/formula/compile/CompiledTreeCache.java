@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.parse.SimpleNode;
+
+/**
+ * A CompiledTreeCache holds a parsed tree along with the compiled form of that
+ * tree (see CompileVisitor).
+ * 
+ * The compiled form is kept for the FormulaManager for which it was most
+ * recently requested, and is compiled again if it is requested for a
+ * different FormulaManager. A CompiledTreeCache is intended to be held by the
+ * formula that owns the parsed tree, so that the compiled form is shared by
+ * every ScopeInformation evaluating that formula and is discarded along with
+ * the formula.
+ * 
+ * A CompiledTreeCache may be used from multiple threads. Two threads that
+ * request the compiled form at the same time may both compile the tree; one of
+ * the compiled forms is then kept.
+ */
+public final class CompiledTreeCache
+{
+
+	/**
+	 * The root of the parsed tree.
+	 */
+	private final SimpleNode root;
+
+	/**
+	 * The compiled form of the parsed tree, along with the FormulaManager for
+	 * which it was compiled. This is replaced (never modified), so it is safe
+	 * to be read and written from multiple threads.
+	 */
+	private volatile Compilation compilation;
+
+	/**
+	 * Constructs a new CompiledTreeCache for the parsed tree with the given
+	 * root. The tree is not compiled until the compiled form is requested.
+	 * 
+	 * @param root
+	 *            The root of the parsed tree
+	 * @throws IllegalArgumentException
+	 *             if the given root is null
+	 */
+	public CompiledTreeCache(SimpleNode root)
+	{
+		if (root == null)
+		{
+			throw new IllegalArgumentException("Root cannot be null");
+		}
+		this.root = root;
+	}
+
+	/**
+	 * Returns the root of the parsed tree held by this CompiledTreeCache.
+	 * 
+	 * @return The root of the parsed tree held by this CompiledTreeCache
+	 */
+	public SimpleNode getRoot()
+	{
+		return root;
+	}
+
+	/**
+	 * Returns the compiled form of the parsed tree for the given
+	 * FormulaManager, compiling the tree if it was last compiled for a
+	 * different FormulaManager (or has not yet been compiled).
+	 * 
+	 * @param fm
+	 *            The FormulaManager for which the compiled form is needed
+	 * @return The compiled form of the parsed tree for the given
+	 *         FormulaManager
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public CompiledNode getCompiledTree(FormulaManager fm)
+	{
+		Compilation current = compilation;
+		if ((current == null) || (current.fm != fm))
+		{
+			current = new Compilation(fm, new CompileVisitor(fm).compile(root));
+			compilation = current;
+		}
+		return current.tree;
+	}
+
+	/**
+	 * A Compilation is an immutable pairing of a FormulaManager with the tree
+	 * compiled for that FormulaManager.
+	 */
+	private static final class Compilation
+	{
+		/**
+		 * The FormulaManager for which the tree was compiled.
+		 */
+		private final FormulaManager fm;
+
+		/**
+		 * The compiled tree.
+		 */
+		private final CompiledNode tree;
+
+		private Compilation(FormulaManager fm, CompiledNode tree)
+		{
+			this.fm = fm;
+			this.tree = tree;
+		}
+	}
+}
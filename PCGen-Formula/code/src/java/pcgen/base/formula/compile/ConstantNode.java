@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+
+/**
+ * A ConstantNode is a CompiledNode that returns a value that was determined
+ * when the formula was compiled (such as a number or a quoted String).
+ */
+final class ConstantNode extends CompiledNode
+{
+
+	/**
+	 * The value returned by this ConstantNode.
+	 */
+	private final Object value;
+
+	/**
+	 * Constructs a new ConstantNode returning the given value.
+	 * 
+	 * @param value
+	 *            The value returned by this ConstantNode
+	 */
+	ConstantNode(Object value)
+	{
+		this.value = value;
+	}
+
+	@Override
+	public Object evaluate(EvaluateVisitor visitor)
+	{
+		visitor.countVisit();
+		return value;
+	}
+
+	@Override
+	public void evaluate(EvaluateVisitor visitor, NumericResult result)
+	{
+		visitor.countVisit();
+		result.set(value);
+	}
+
+	@Override
+	Class<?> getResultClass()
+	{
+		return value.getClass();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+import pcgen.base.formula.visitor.VisitorUtilities;
+
+/**
+ * An ExponentProductNode is a CompiledNode that combines the exponents of a
+ * chained exponent (e.g. the 3^2 in 2^3^2), consistent with EvaluateVisitor:
+ * X^Y^Z == X^(Y*Z). The base is then raised to the combined exponent by an
+ * OperatorNode.
+ */
+final class ExponentProductNode extends CompiledNode
+{
+
+	/**
+	 * The CompiledNode objects providing the exponents, in order.
+	 */
+	private final CompiledNode[] exponents;
+
+	/**
+	 * Constructs a new ExponentProductNode for the given exponents.
+	 * 
+	 * @param exponents
+	 *            The CompiledNode objects providing the exponents (must have
+	 *            at least two elements)
+	 */
+	ExponentProductNode(CompiledNode[] exponents)
+	{
+		this.exponents = exponents;
+	}
+
+	@Override
+	public Object evaluate(EvaluateVisitor visitor)
+	{
+		visitor.countVisit();
+		Number exponent = (Number) exponents[0].evaluate(visitor);
+		for (int i = 1; i < exponents.length; i++)
+		{
+			exponent =
+					VisitorUtilities.combineExponents(exponent,
+						(Number) exponents[i].evaluate(visitor));
+		}
+		return exponent;
+	}
+
+	@Override
+	public void evaluate(EvaluateVisitor visitor, NumericResult result)
+	{
+		visitor.countVisit();
+		exponents[0].evaluate(visitor, result);
+		boolean integral = result.isInt();
+		long intProduct = result.getInt();
+		boolean fixed = result.isFixed();
+		long fixedProduct = result.getFixed();
+		double product = result.getDouble();
+		for (int i = 1; i < exponents.length; i++)
+		{
+			exponents[i].evaluate(visitor, result);
+			if (integral && result.isInt())
+			{
+				intProduct *= result.getInt();
+				integral = (intProduct == (int) intProduct);
+			}
+			else
+			{
+				integral = false;
+			}
+			if (fixed && result.isFixed())
+			{
+				fixedProduct =
+						FixedPoint.multiply(fixedProduct, result.getFixed());
+			}
+			else
+			{
+				fixed = false;
+			}
+			product *= result.getDouble();
+		}
+		if (integral)
+		{
+			result.setInt((int) intProduct);
+		}
+		else if (fixed)
+		{
+			result.setFixed(fixedProduct);
+		}
+		else
+		{
+			result.setDouble(product);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+
+/**
+ * A FunctionNode is a CompiledNode that calls a Function which was looked up
+ * in the FunctionLibrary when the tree was compiled.
+ * 
+ * The arguments to the Function remain nodes of the parsed tree (as required
+ * by the Function interface), and are evaluated by the Function using the
+ * EvaluateVisitor.
+ */
+final class FunctionNode extends CompiledNode
+{
+
+	/**
+	 * The Function called by this FunctionNode.
+	 */
+	private final Function function;
+
+	/**
+	 * The arguments to the Function.
+	 */
+	private final Node[] args;
+
+	/**
+	 * Constructs a new FunctionNode for the given Function and arguments.
+	 * 
+	 * @param function
+	 *            The Function called by this FunctionNode
+	 * @param args
+	 *            The arguments to the Function
+	 */
+	FunctionNode(Function function, Node[] args)
+	{
+		this.function = function;
+		this.args = args;
+	}
+
+	@Override
+	public Object evaluate(EvaluateVisitor visitor)
+	{
+		return visitor.evaluateFunction(function, args);
+	}
+}
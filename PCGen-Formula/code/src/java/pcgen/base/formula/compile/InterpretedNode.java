@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+
+/**
+ * An InterpretedNode is a CompiledNode for a portion of a formula that could
+ * not be compiled. It is evaluated by visiting the underlying node with the
+ * EvaluateVisitor.
+ */
+final class InterpretedNode extends CompiledNode
+{
+
+	/**
+	 * The underlying node to be evaluated by the EvaluateVisitor.
+	 */
+	private final Node node;
+
+	/**
+	 * Constructs a new InterpretedNode for the given underlying node.
+	 * 
+	 * @param node
+	 *            The underlying node to be evaluated by the EvaluateVisitor
+	 */
+	InterpretedNode(Node node)
+	{
+		this.node = node;
+	}
+
+	@Override
+	public Object evaluate(EvaluateVisitor visitor)
+	{
+		return node.jjtAccept(visitor, null);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+import pcgen.base.formula.visitor.VisitorUtilities;
+
+/**
+ * A NegateNode is a CompiledNode that performs a unary minus on the result of
+ * another CompiledNode.
+ */
+final class NegateNode extends CompiledNode
+{
+
+	/**
+	 * The CompiledNode providing the value to be negated.
+	 */
+	private final CompiledNode child;
+
+	/**
+	 * Constructs a new NegateNode for the given CompiledNode.
+	 * 
+	 * @param child
+	 *            The CompiledNode providing the value to be negated
+	 */
+	NegateNode(CompiledNode child)
+	{
+		this.child = child;
+	}
+
+	@Override
+	public Object evaluate(EvaluateVisitor visitor)
+	{
+		visitor.countVisit();
+		return VisitorUtilities.negate((Number) child.evaluate(visitor));
+	}
+
+	@Override
+	public void evaluate(EvaluateVisitor visitor, NumericResult result)
+	{
+		visitor.countVisit();
+		child.evaluate(visitor, result);
+		if (result.isInt())
+		{
+			result.setInt(-result.getInt());
+		}
+		else if (result.isFixed())
+		{
+			result.setFixed(FixedPoint.negate(result.getFixed()));
+		}
+		else
+		{
+			result.setDouble(-result.getDouble());
+		}
+	}
+
+	@Override
+	Class<?> getResultClass()
+	{
+		Class<?> childClass = child.getResultClass();
+		if (Integer.class.equals(childClass)
+			|| FixedPoint.class.equals(childClass))
+		{
+			return childClass;
+		}
+		return (childClass == null) ? null : Double.class;
+	}
+}
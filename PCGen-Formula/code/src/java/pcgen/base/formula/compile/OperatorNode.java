@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.base.DeferredOperand;
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.FixedPointOperatorAction;
+import pcgen.base.formula.base.LazyOperatorAction;
+import pcgen.base.formula.base.NumericOperatorAction;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.OperatorBinding;
+import pcgen.base.formula.base.OperatorLibrary;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+
+/**
+ * An OperatorNode is a CompiledNode that performs an Operator on the results
+ * of two other CompiledNode objects.
+ * 
+ * The OperatorAction used to perform the Operator is resolved from the
+ * OperatorLibrary based on the classes of the two arguments. If those classes
+ * are known when the tree is compiled, the OperatorAction is resolved at that
+ * time. Otherwise, the OperatorAction is resolved on first evaluation and
+ * reused as long as subsequent evaluations encounter arguments of the same
+ * classes.
+ * 
+ * If the resolved OperatorAction is a NumericOperatorAction and both arguments
+ * are Integer or Double values, the operation is performed on primitive
+ * values, so no Integer or Double objects are created for the arguments or for
+ * the result (until the result is requested as an Object). Similarly, if the
+ * resolved OperatorAction is a FixedPointOperatorAction and both arguments are
+ * FixedPoint values, the operation is performed on the scaled long values.
+ * 
+ * If the OperatorAction for the class of the first argument is a
+ * LazyOperatorAction, the second argument is only evaluated if the
+ * LazyOperatorAction requires it.
+ */
+final class OperatorNode extends CompiledNode
+{
+
+	/**
+	 * The Operator performed by this OperatorNode.
+	 */
+	private final Operator operator;
+
+	/**
+	 * The OperatorLibrary from which the OperatorAction is resolved.
+	 */
+	private final OperatorLibrary library;
+
+	/**
+	 * The CompiledNode providing the first argument to the Operator.
+	 */
+	private final CompiledNode left;
+
+	/**
+	 * The CompiledNode providing the second argument to the Operator.
+	 */
+	private final CompiledNode right;
+
+	/**
+	 * The OperatorAction most recently resolved, along with the classes of the
+	 * arguments for which it was resolved. This is replaced (never modified),
+	 * so it is safe to be read and written from multiple threads.
+	 */
+	private ActionBinding binding;
+
+	/**
+	 * Constructs a new OperatorNode for the given Operator and arguments.
+	 * 
+	 * @param operator
+	 *            The Operator performed by this OperatorNode
+	 * @param library
+	 *            The OperatorLibrary from which the OperatorAction is resolved
+	 * @param left
+	 *            The CompiledNode providing the first argument
+	 * @param right
+	 *            The CompiledNode providing the second argument
+	 * @param validated
+	 *            The OperatorBinding resolved when the underlying node was
+	 *            validated (may be null)
+	 */
+	OperatorNode(Operator operator, OperatorLibrary library,
+		CompiledNode left, CompiledNode right, OperatorBinding validated)
+	{
+		this.operator = operator;
+		this.library = library;
+		this.left = left;
+		this.right = right;
+		Class<?> leftClass = left.getResultClass();
+		Class<?> rightClass = right.getResultClass();
+		if ((leftClass != null) && (rightClass != null))
+		{
+			OperatorAction action =
+					library.getAction(operator, leftClass, rightClass);
+			if (action != null)
+			{
+				binding = new ActionBinding(leftClass, rightClass, action);
+			}
+		}
+		if ((binding == null) && (validated != null)
+			&& (validated.getLibrary() == library))
+		{
+			binding =
+					new ActionBinding(validated.getFormat1(),
+						validated.getFormat2(), validated.getAction());
+		}
+	}
+
+	@Override
+	public Object evaluate(EvaluateVisitor visitor)
+	{
+		NumericResult result = new NumericResult();
+		evaluate(visitor, result);
+		return result.get();
+	}
+
+	@Override
+	public void evaluate(EvaluateVisitor visitor, NumericResult result)
+	{
+		visitor.countVisit();
+		left.evaluate(visitor, result);
+		boolean leftInt = result.isInt();
+		boolean leftPrimitive = leftInt || result.isDouble();
+		boolean leftFixed = result.isFixed();
+		int leftIntValue = result.getInt();
+		long leftFixedValue = result.getFixed();
+		double leftDoubleValue = leftPrimitive ? result.getDouble() : 0.0d;
+		Object leftObject =
+				(leftPrimitive || leftFixed) ? null : result.get();
+		Class<?> leftClass = result.getResultClass();
+		LazyOperatorAction lazyAction = getLazyAction(leftClass);
+		if (lazyAction != null)
+		{
+			result.set(lazyAction.evaluateLazily(result.get(),
+				new DeferredNode(right, visitor)));
+			return;
+		}
+		right.evaluate(visitor, result);
+		Class<?> rightClass = result.getResultClass();
+		OperatorAction action = getAction(leftClass, rightClass);
+		if (leftPrimitive && (action instanceof NumericOperatorAction)
+			&& (result.isInt() || result.isDouble()))
+		{
+			NumericOperatorAction numericAction = (NumericOperatorAction) action;
+			if (leftInt && result.isInt())
+			{
+				numericAction.evaluate(leftIntValue, result.getInt(), result);
+			}
+			else
+			{
+				numericAction.evaluate(leftDoubleValue, result.getDouble(),
+					result);
+			}
+			return;
+		}
+		if (leftFixed && (action instanceof FixedPointOperatorAction)
+			&& result.isFixed())
+		{
+			((FixedPointOperatorAction) action).evaluate(leftFixedValue,
+				result.getFixed(), result);
+			return;
+		}
+		Object l;
+		if (leftPrimitive)
+		{
+			l =
+					leftInt ? Integer.valueOf(leftIntValue) : Double
+						.valueOf(leftDoubleValue);
+		}
+		else if (leftFixed)
+		{
+			l = FixedPoint.fromScaled(leftFixedValue);
+		}
+		else
+		{
+			l = leftObject;
+		}
+		Object r = result.get();
+		if (action == null)
+		{
+			//Let the library report the failure
+			result.set(library.evaluate(operator, l, r));
+		}
+		else
+		{
+			result.set(action.evaluate(l, r));
+		}
+	}
+
+	/**
+	 * Returns the LazyOperatorAction for the given class of the first
+	 * argument, or null if the Operator is not lazy for that class. The
+	 * current ActionBinding is used if it was resolved for the given class;
+	 * otherwise the OperatorLibrary is asked, so the second argument is not
+	 * evaluated merely because no ActionBinding has been resolved yet.
+	 */
+	private LazyOperatorAction getLazyAction(Class<?> leftClass)
+	{
+		ActionBinding current = binding;
+		if ((current != null) && (current.leftClass == leftClass))
+		{
+			return current.lazyAction;
+		}
+		return (leftClass == null) ? null : library.getLazyAction(operator,
+			leftClass);
+	}
+
+	/**
+	 * Returns the OperatorAction for the given argument classes, or null if
+	 * there is no OperatorAction for the given classes.
+	 */
+	private OperatorAction getAction(Class<?> leftClass, Class<?> rightClass)
+	{
+		if ((leftClass == null) || (rightClass == null))
+		{
+			return null;
+		}
+		ActionBinding current = binding;
+		if ((current == null) || (current.leftClass != leftClass)
+			|| (current.rightClass != rightClass))
+		{
+			OperatorAction action =
+					library.getAction(operator, leftClass, rightClass);
+			if (action == null)
+			{
+				return null;
+			}
+			current = new ActionBinding(leftClass, rightClass, action);
+			binding = current;
+		}
+		return current.action;
+	}
+
+	@Override
+	Class<?> getResultClass()
+	{
+		Class<?> leftClass = left.getResultClass();
+		Class<?> rightClass = right.getResultClass();
+		if ((leftClass == null) || (rightClass == null))
+		{
+			return null;
+		}
+		return CompileVisitor.exactClass(library.processAbstract(operator,
+			leftClass, rightClass));
+	}
+
+	/**
+	 * An ActionBinding is an immutable pairing of the classes of two arguments
+	 * with the OperatorAction resolved for those classes.
+	 */
+	private static final class ActionBinding
+	{
+		/**
+		 * The class of the first argument.
+		 */
+		private final Class<?> leftClass;
+
+		/**
+		 * The class of the second argument.
+		 */
+		private final Class<?> rightClass;
+
+		/**
+		 * The OperatorAction resolved for the two classes.
+		 */
+		private final OperatorAction action;
+
+		/**
+		 * The OperatorAction resolved for the two classes, if it is a
+		 * LazyOperatorAction; null otherwise.
+		 */
+		private final LazyOperatorAction lazyAction;
+
+		private ActionBinding(Class<?> leftClass, Class<?> rightClass,
+			OperatorAction action)
+		{
+			this.leftClass = leftClass;
+			this.rightClass = rightClass;
+			this.action = action;
+			lazyAction =
+					(action instanceof LazyOperatorAction)
+						? (LazyOperatorAction) action : null;
+		}
+	}
+
+	/**
+	 * A DeferredNode is a DeferredOperand which evaluates a CompiledNode.
+	 */
+	private static final class DeferredNode implements DeferredOperand
+	{
+		/**
+		 * The CompiledNode to be evaluated.
+		 */
+		private final CompiledNode node;
+
+		/**
+		 * The EvaluateVisitor providing the context of the evaluation.
+		 */
+		private final EvaluateVisitor visitor;
+
+		private DeferredNode(CompiledNode node, EvaluateVisitor visitor)
+		{
+			this.node = node;
+			this.visitor = visitor;
+		}
+
+		@Override
+		public Object getValue()
+		{
+			return node.evaluate(visitor);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.compile;
+
+import pcgen.base.formula.base.VariableSlot;
+import pcgen.base.formula.parse.ASTPCGenSingleWord;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+
+/**
+ * A VariableNode is a CompiledNode that returns the value of a variable.
+ * 
+ * The variable depends on the ScopeInstance in which the formula is evaluated,
+ * so the VariableSlot is obtained from the EvaluateVisitor (which resolves the
+ * variable once for its ScopeInstance) rather than being held by the
+ * VariableNode. This allows a compiled tree to be shared by evaluations in
+ * many ScopeInstance objects (see BatchFormulaEvaluator) and threads, without
+ * any state in the tree that changes with the ScopeInstance.
+ */
+final class VariableNode extends CompiledNode
+{
+
+	/**
+	 * The underlying node, used if the variable cannot be resolved (so that
+	 * the EvaluateVisitor can report the problem).
+	 */
+	private final ASTPCGenSingleWord node;
+
+	/**
+	 * The name of the variable.
+	 */
+	private final String varName;
+
+	/**
+	 * Constructs a new VariableNode for the given node.
+	 * 
+	 * @param node
+	 *            The underlying node containing the name of the variable
+	 */
+	VariableNode(ASTPCGenSingleWord node)
+	{
+		this.node = node;
+		this.varName = node.getText();
+	}
+
+	@Override
+	public Object evaluate(EvaluateVisitor visitor)
+	{
+		visitor.countVisit();
+		VariableSlot<?> slot = visitor.getVariableSlot(varName);
+		if ((slot != null) && slot.isSet())
+		{
+			return slot.getValue();
+		}
+		//Let the EvaluateVisitor report the problem
+		return node.jjtAccept(visitor, null);
+	}
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+/**
+ * pcgen.base.formula.compile is a package that converts the tree of objects
+ * produced by the parser into a tree of executable nodes.
+ * 
+ * The executable nodes resolve as much as possible (e.g. the OperatorAction to
+ * be used by an operator, or the Function to be called) when the tree is
+ * compiled, rather than each time the formula is evaluated. Any portion of a
+ * formula that cannot be compiled is evaluated by falling back on the
+ * EvaluateVisitor, so a compiled tree always produces the same result as the
+ * tree from which it was compiled.
+ * 
+ * A compiled tree is bound to the FormulaManager used to compile it. It must
+ * only be evaluated with an EvaluateVisitor using that same FormulaManager.
+ */
+package pcgen.base.formula.compile;
@@ -17,11 +17,16 @@
  */
 package pcgen.base.formula.function;
 
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.PureFunction;
+
 /**
  * AbsFunction returns the absolute value of the given argument. The same
  * conditions/rules apply as those in Java.lang.Math.abs(double)
+ * 
+ * The absolute value of a FixedPoint is a FixedPoint.
  */
-public class AbsFunction extends AbstractUnaryFunction
+public class AbsFunction extends AbstractUnaryFunction implements PureFunction
 {
 
 	/**
@@ -49,6 +54,12 @@ public class AbsFunction extends AbstractUnaryFunction
 		{
 			return Integer.valueOf(Math.abs(((Integer) n).intValue()));
 		}
+		if (n instanceof FixedPoint)
+		{
+			long scaled = ((FixedPoint) n).getScaled();
+			return (scaled < 0L) ? FixedPoint.fromScaled(FixedPoint
+				.negate(scaled)) : n;
+		}
 		return Double.valueOf(Math.abs(n.doubleValue()));
 	}
 
@@ -78,7 +78,7 @@ public abstract class AbstractNaryFunction implements Function
 			Class<?> format =
 					semantics.getInfo(FormulaSemanticsUtilities.SEM_FORMAT)
 						.getFormat();
-			if (!format.equals(Number.class))
+			if (!visitor.isNumberFormat(format))
 			{
 				FormulaSemanticsUtilities.setInvalid(semantics,
 					"Parse Error: Invalid Value Format: " + format
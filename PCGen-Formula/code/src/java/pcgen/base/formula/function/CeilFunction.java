@@ -17,11 +17,17 @@
  */
 package pcgen.base.formula.function;
 
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.PureFunction;
+
 /**
  * CeilFunction rounds the value of a Number to the next highest integer value.
  * The same situations/rules apply as those in java.lang.Math.ceil(double)
+ * 
+ * The result for a FixedPoint is a FixedPoint, which is calculated exactly
+ * (see FixedPoint.ceil(long)).
  */
-public class CeilFunction extends AbstractUnaryFunction
+public class CeilFunction extends AbstractUnaryFunction implements PureFunction
 {
 
 	/**
@@ -49,6 +55,11 @@ public class CeilFunction extends AbstractUnaryFunction
 		{
 			return n;
 		}
+		if (n instanceof FixedPoint)
+		{
+			return FixedPoint.fromScaled(FixedPoint.ceil(((FixedPoint) n)
+				.getScaled()));
+		}
 		return Integer.valueOf((int) Math.ceil(n.doubleValue()));
 	}
 
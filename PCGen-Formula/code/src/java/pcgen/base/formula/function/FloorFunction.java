@@ -17,11 +17,17 @@
  */
 package pcgen.base.formula.function;
 
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.PureFunction;
+
 /**
  * FloorFunction rounds the value of a Number to the next lowest integer value.
  * * The same situations/rules apply as those in java.lang.Math.floor(double)
+ * 
+ * The result for a FixedPoint is a FixedPoint, which is calculated exactly
+ * (see FixedPoint.floor(long)).
  */
-public class FloorFunction extends AbstractUnaryFunction
+public class FloorFunction extends AbstractUnaryFunction implements PureFunction
 {
 
 	/**
@@ -49,6 +55,11 @@ public class FloorFunction extends AbstractUnaryFunction
 		{
 			return n;
 		}
+		if (n instanceof FixedPoint)
+		{
+			return FixedPoint.fromScaled(FixedPoint.floor(((FixedPoint) n)
+				.getScaled()));
+		}
 		return Integer.valueOf((int) Math.floor(n.doubleValue()));
 	}
 
@@ -17,12 +17,14 @@
  */
 package pcgen.base.formula.function;
 
+import pcgen.base.formula.base.PureFunction;
+
 /**
  * MaxFunction calculates the maximum value of two or more arguments. The same
  * situations/boundary condition rules apply as those in
  * java.lang.Math.max(double, double).
  */
-public class MaxFunction extends AbstractNaryFunction
+public class MaxFunction extends AbstractNaryFunction implements PureFunction
 {
 
 	/**
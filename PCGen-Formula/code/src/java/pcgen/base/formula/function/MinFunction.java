@@ -17,12 +17,14 @@
  */
 package pcgen.base.formula.function;
 
+import pcgen.base.formula.base.PureFunction;
+
 /**
  * MinFunction calculates the minimum value of two or more arguments. The same
  * situations/boundary condition rules apply as those in
  * java.lang.Math.min(double, double).
  */
-public class MinFunction extends AbstractNaryFunction
+public class MinFunction extends AbstractNaryFunction implements PureFunction
 {
 
 	/**
@@ -17,12 +17,18 @@
  */
 package pcgen.base.formula.function;
 
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.PureFunction;
+
 /**
  * RoundFunction rounds the value of a Number to the nearest integer value. For
  * any value that is equally distant between two integers, the same rules apply
  * as those in java.lang.Math.round(double)
+ * 
+ * The result for a FixedPoint is a FixedPoint, which is calculated exactly
+ * (see FixedPoint.round(long)).
  */
-public class RoundFunction extends AbstractUnaryFunction
+public class RoundFunction extends AbstractUnaryFunction implements PureFunction
 {
 
 	/**
@@ -51,6 +57,11 @@ public class RoundFunction extends AbstractUnaryFunction
 		{
 			return n;
 		}
+		if (n instanceof FixedPoint)
+		{
+			return FixedPoint.fromScaled(FixedPoint.round(((FixedPoint) n)
+				.getScaled()));
+		}
 		return Integer.valueOf((int) Math.round(n.doubleValue()));
 	}
 
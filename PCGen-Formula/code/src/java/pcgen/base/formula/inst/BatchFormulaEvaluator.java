@@ -0,0 +1,346 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pcgen.base.formula.base.EvaluationMonitor;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.ScopeInstance;
+import pcgen.base.formula.base.VariableSlot;
+import pcgen.base.formula.compile.CompileVisitor;
+import pcgen.base.formula.compile.CompiledNode;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+
+/**
+ * A BatchFormulaEvaluator resolves a single formula in each of a list of
+ * ScopeInstance objects (for example, the same formula for every item of
+ * equipment).
+ * 
+ * The work that does not depend on the ScopeInstance (looking up operators and
+ * functions, see FormulaCompiler) is performed once for the batch, rather than
+ * once for each ScopeInstance. Each ScopeInstance then only requires its
+ * variables to be resolved. The compiled formula holds no state that depends
+ * on the ScopeInstance: The variables are resolved (once per ScopeInstance) by
+ * an EvaluateVisitor that is reused by each task for the ScopeInstance
+ * objects it processes.
+ * 
+ * If a BatchFormulaEvaluator is constructed with a ForkJoinPool, the batch is
+ * split across the threads of the ForkJoinPool. Otherwise the batch is
+ * processed in the calling thread. The results are placed in the order of the
+ * ScopeInstance objects, regardless of the order in which the ScopeInstance
+ * objects were actually processed.
+ * 
+ * The libraries of the FormulaManager (functions, operators, variables) and
+ * the values of the variables are only read during an evaluation. They MUST
+ * NOT be modified while an evaluation is in progress.
+ * 
+ * The EvaluationBudget of the FormulaManager applies to the evaluation of the
+ * formula in each ScopeInstance, not to the batch as a whole.
+ */
+public class BatchFormulaEvaluator
+{
+
+	/**
+	 * The number of ScopeInstance objects below which a task processes the
+	 * ScopeInstance objects directly rather than splitting the work further.
+	 */
+	private static final int THRESHOLD = 64;
+
+	/**
+	 * The FormulaManager used to evaluate the formulas.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The ForkJoinPool on which the batch is processed; null if the batch is
+	 * processed in the calling thread.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructs a new BatchFormulaEvaluator which will evaluate formulas with
+	 * the given FormulaManager, in the calling thread.
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to evaluate the formulas
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public BatchFormulaEvaluator(FormulaManager fm)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		this.fm = fm;
+		this.pool = null;
+	}
+
+	/**
+	 * Constructs a new BatchFormulaEvaluator which will evaluate formulas with
+	 * the given FormulaManager, splitting each batch across the threads of the
+	 * given ForkJoinPool.
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to evaluate the formulas
+	 * @param pool
+	 *            The ForkJoinPool on which each batch is processed
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public BatchFormulaEvaluator(FormulaManager fm, ForkJoinPool pool)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		if (pool == null)
+		{
+			throw new IllegalArgumentException("ForkJoinPool cannot be null");
+		}
+		this.fm = fm;
+		this.pool = pool;
+	}
+
+	/**
+	 * Resolves the given formula in each of the given ScopeInstance objects,
+	 * placing the result for the ScopeInstance at a given index in the List
+	 * into the given array at the same index.
+	 * 
+	 * The formula must be valid in each of the given ScopeInstance objects. As
+	 * with resolving the formula directly, an exception encountered while
+	 * resolving the formula is thrown from this method (in which case the
+	 * contents of the given array are undefined).
+	 * 
+	 * @param <T>
+	 *            The Format (Class) of object returned by the formula
+	 * @param formula
+	 *            The formula to be resolved
+	 * @param scopes
+	 *            The ScopeInstance objects in which the formula is to be
+	 *            resolved
+	 * @param results
+	 *            The array into which the results are placed; must be at least
+	 *            as long as the List of ScopeInstance objects
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null, if the List contains a null
+	 *             ScopeInstance, or if the array is too short
+	 */
+	public <T> void evaluate(ComplexNEPFormula<T> formula,
+		List<? extends ScopeInstance> scopes, T[] results)
+	{
+		if (formula == null)
+		{
+			throw new IllegalArgumentException("Cannot evaluate null formula");
+		}
+		if (scopes == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot evaluate with null list of ScopeInstance");
+		}
+		if (results == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot evaluate into null results");
+		}
+		ScopeInstance[] instances =
+				scopes.toArray(new ScopeInstance[scopes.size()]);
+		if (results.length < instances.length)
+		{
+			throw new IllegalArgumentException("Results (length "
+				+ results.length + ") cannot hold results for "
+				+ instances.length + " ScopeInstance objects");
+		}
+		for (ScopeInstance scopeInst : instances)
+		{
+			if (scopeInst == null)
+			{
+				throw new IllegalArgumentException(
+					"Cannot evaluate in null ScopeInstance in " + scopes);
+			}
+		}
+		CompiledNode compiled =
+				new CompileVisitor(fm).compile(formula.getRoot());
+		EvaluateTask task =
+				new EvaluateTask(formula, compiled, instances, results, 0,
+					instances.length);
+		if (pool == null)
+		{
+			task.evaluate();
+		}
+		else
+		{
+			pool.invoke(task);
+		}
+	}
+
+	/**
+	 * An EvaluateTask processes a contiguous range of the ScopeInstance
+	 * objects of a batch, splitting the range in half until it is small
+	 * enough to be processed directly.
+	 */
+	private final class EvaluateTask extends RecursiveAction
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		/** The formula being evaluated (reported if the budget is exceeded). */
+		private final Object formula;
+
+		/** The compiled form of the formula, shared by every task. */
+		private final CompiledNode compiled;
+
+		/** The ScopeInstance objects of the whole batch. */
+		private final ScopeInstance[] instances;
+
+		/** The results of the whole batch, in the order of the instances. */
+		private final Object[] results;
+
+		/** The index of the first ScopeInstance processed by this task. */
+		private final int start;
+
+		/** The index after the last ScopeInstance processed by this task. */
+		private final int end;
+
+		private EvaluateTask(Object formula, CompiledNode compiled,
+			ScopeInstance[] instances, Object[] results, int start, int end)
+		{
+			this.formula = formula;
+			this.compiled = compiled;
+			this.instances = instances;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start <= THRESHOLD)
+			{
+				evaluate();
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(
+				new EvaluateTask(formula, compiled, instances, results, start,
+					middle),
+				new EvaluateTask(formula, compiled, instances, results, middle,
+					end));
+		}
+
+		/**
+		 * Evaluates the compiled formula for each ScopeInstance in the range
+		 * of this EvaluateTask.
+		 */
+		private void evaluate()
+		{
+			if (start == end)
+			{
+				return;
+			}
+			BatchVisitor visitor = new BatchVisitor(fm, instances[start]);
+			for (int i = start; i < end; i++)
+			{
+				visitor.setScopeInstance(instances[i]);
+				EvaluationMonitor monitor =
+						EvaluationMonitor.start(fm, instances[i], formula);
+				try
+				{
+					results[i] = compiled.evaluate(visitor);
+				}
+				finally
+				{
+					EvaluationMonitor.finish(monitor);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A BatchVisitor is an EvaluateVisitor used by a single EvaluateTask (and
+	 * thus a single thread) to evaluate the formula in each ScopeInstance of
+	 * its range in turn.
+	 * 
+	 * The VariableSlot objects resolved for the current ScopeInstance are held
+	 * by the BatchVisitor (rather than by the compiled formula, which is shared
+	 * by every task) until it moves to another ScopeInstance. This avoids
+	 * creating an EvaluateVisitor (and its concurrent map of VariableSlot
+	 * objects) for each ScopeInstance.
+	 */
+	private static final class BatchVisitor extends EvaluateVisitor
+	{
+
+		/**
+		 * The ScopeInstance in which the formula is currently evaluated.
+		 */
+		private ScopeInstance scopeInst;
+
+		/**
+		 * The VariableSlot for each variable name that has been resolved in
+		 * the current ScopeInstance.
+		 */
+		private final Map<String, VariableSlot<?>> slots = new HashMap<>();
+
+		private BatchVisitor(FormulaManager fm, ScopeInstance scopeInst)
+		{
+			super(fm, scopeInst);
+			this.scopeInst = scopeInst;
+		}
+
+		/**
+		 * Sets the ScopeInstance in which the formula is evaluated, discarding
+		 * the VariableSlot objects resolved in any other ScopeInstance.
+		 */
+		private void setScopeInstance(ScopeInstance scopeInstance)
+		{
+			if (scopeInst != scopeInstance)
+			{
+				scopeInst = scopeInstance;
+				slots.clear();
+			}
+		}
+
+		@Override
+		public ScopeInstance getScopeInstance()
+		{
+			return scopeInst;
+		}
+
+		@Override
+		public VariableSlot<?> getVariableSlot(String varName)
+		{
+			VariableSlot<?> slot = slots.get(varName);
+			if (slot == null)
+			{
+				slot = resolveVariableSlot(getFormulaManager(), scopeInst,
+					varName);
+				if (slot != null)
+				{
+					slots.put(varName, slot);
+				}
+			}
+			return slot;
+		}
+	}
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+
+/**
+ * A BatchFormulaLoader parses and validates a batch of FormulaDefinition
+ * objects in parallel.
+ * 
+ * Parsing and validating one formula is independent of parsing and validating
+ * any other formula, so if a BatchFormulaLoader is constructed with a
+ * ForkJoinPool, the batch is split across the threads of the ForkJoinPool.
+ * Otherwise the batch is processed in the calling thread. The results are
+ * reported in the order of the FormulaDefinition objects provided to the load
+ * method, regardless of the order in which the formulas were actually
+ * processed.
+ * 
+ * A ForkJoinPool provided to a BatchFormulaLoader remains owned by the caller:
+ * The BatchFormulaLoader never shuts it down, so the caller is responsible for
+ * shutting it down once it is no longer needed.
+ * 
+ * The libraries of the FormulaManager (functions, operators, variables) are
+ * only read during a load. They MUST NOT be modified while a load is in
+ * progress.
+ */
+public class BatchFormulaLoader
+{
+
+	/**
+	 * The number of FormulaDefinition objects below which a task processes
+	 * the definitions directly rather than splitting the work further.
+	 */
+	private static final int THRESHOLD = 32;
+
+	/**
+	 * The FormulaManager used to validate the formulas.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The FormulaFactory used to parse the formulas.
+	 */
+	private final FormulaFactory factory;
+
+	/**
+	 * The ForkJoinPool on which the formulas are parsed and validated; null if
+	 * the formulas are processed in the calling thread.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructs a new BatchFormulaLoader which will validate formulas with the
+	 * given FormulaManager, in the calling thread. A new FormulaFactory is used
+	 * to parse the formulas.
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to validate the formulas
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public BatchFormulaLoader(FormulaManager fm)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		this.fm = fm;
+		this.factory = new FormulaFactory();
+		this.pool = null;
+	}
+
+	/**
+	 * Constructs a new BatchFormulaLoader which will validate formulas with the
+	 * given FormulaManager, parse formulas with the given FormulaFactory and
+	 * process them on the given ForkJoinPool.
+	 * 
+	 * The given ForkJoinPool remains owned by the caller, which is responsible
+	 * for shutting it down once it is no longer needed (the BatchFormulaLoader
+	 * never shuts it down).
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to validate the formulas
+	 * @param factory
+	 *            The FormulaFactory used to parse the formulas
+	 * @param pool
+	 *            The ForkJoinPool on which the formulas are processed
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public BatchFormulaLoader(FormulaManager fm, FormulaFactory factory,
+		ForkJoinPool pool)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		if (factory == null)
+		{
+			throw new IllegalArgumentException("FormulaFactory cannot be null");
+		}
+		if (pool == null)
+		{
+			throw new IllegalArgumentException("ForkJoinPool cannot be null");
+		}
+		this.fm = fm;
+		this.factory = factory;
+		this.pool = pool;
+	}
+
+	/**
+	 * Parses and validates the given FormulaDefinition objects.
+	 * 
+	 * @param definitions
+	 *            The FormulaDefinition objects to be parsed and validated
+	 * @return A Result containing the formulas and any failures, in the order
+	 *         of the given FormulaDefinition objects
+	 * @throws IllegalArgumentException
+	 *             if the given List is null or contains a null
+	 *             FormulaDefinition
+	 */
+	public Result load(List<? extends FormulaDefinition<?>> definitions)
+	{
+		if (definitions == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot load null list of FormulaDefinition");
+		}
+		FormulaDefinition<?>[] defs =
+				definitions.toArray(new FormulaDefinition<?>[definitions.size()]);
+		for (FormulaDefinition<?> def : defs)
+		{
+			if (def == null)
+			{
+				throw new IllegalArgumentException(
+					"Cannot load null FormulaDefinition in " + definitions);
+			}
+		}
+		ComplexNEPFormula<?>[] formulas = new ComplexNEPFormula<?>[defs.length];
+		FormulaSemantics[] semantics = new FormulaSemantics[defs.length];
+		if (pool == null)
+		{
+			for (int i = 0; i < defs.length; i++)
+			{
+				load(defs[i], formulas, semantics, i);
+			}
+		}
+		else
+		{
+			pool.invoke(new LoadTask(defs, formulas, semantics, 0,
+				defs.length));
+		}
+		List<Failure> failures = new ArrayList<>();
+		for (int i = 0; i < defs.length; i++)
+		{
+			if (formulas[i] == null)
+			{
+				failures.add(new Failure(i, defs[i], semantics[i]));
+			}
+		}
+		return new Result(Arrays.asList(formulas), failures);
+	}
+
+	/**
+	 * Parses and validates a single FormulaDefinition, placing the
+	 * ComplexNEPFormula (if valid) and the FormulaSemantics into the given
+	 * arrays at the given index.
+	 */
+	private <T> void load(FormulaDefinition<T> def,
+		ComplexNEPFormula<?>[] formulas, FormulaSemantics[] semantics,
+		int index)
+	{
+		ComplexNEPFormula<T> formula;
+		try
+		{
+			formula = factory.getFormula(def.getExpression());
+		}
+		catch (IllegalArgumentException e)
+		{
+			FormulaSemantics parseFailure =
+					FormulaSemanticsUtilities.getInitializedSemantics();
+			FormulaSemanticsUtilities.setInvalid(parseFailure,
+				"Parse Error: " + def.getExpression() + " could not be parsed: "
+					+ e.getMessage());
+			semantics[index] = parseFailure;
+			return;
+		}
+		FormulaSemantics result =
+				formula.isValid(fm, def.getLegalScope(), def.getFormatManager());
+		semantics[index] = result;
+		if (result.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid())
+		{
+			formulas[index] = formula;
+		}
+	}
+
+	/**
+	 * A LoadTask processes a contiguous range of the FormulaDefinition objects
+	 * of a load, splitting the range in half until it is small enough to be
+	 * processed directly.
+	 */
+	private final class LoadTask extends RecursiveAction
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		/** The FormulaDefinition objects of the whole load. */
+		private final FormulaDefinition<?>[] defs;
+
+		/** The valid formulas of the whole load, in the order of the defs. */
+		private final ComplexNEPFormula<?>[] formulas;
+
+		/** The FormulaSemantics of the whole load, in the order of the defs. */
+		private final FormulaSemantics[] semantics;
+
+		/** The index of the first FormulaDefinition processed by this task. */
+		private final int start;
+
+		/** The index after the last FormulaDefinition processed by this task. */
+		private final int end;
+
+		private LoadTask(FormulaDefinition<?>[] defs,
+			ComplexNEPFormula<?>[] formulas, FormulaSemantics[] semantics,
+			int start, int end)
+		{
+			this.defs = defs;
+			this.formulas = formulas;
+			this.semantics = semantics;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start <= THRESHOLD)
+			{
+				for (int i = start; i < end; i++)
+				{
+					load(defs[i], formulas, semantics, i);
+				}
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new LoadTask(defs, formulas, semantics, start, middle),
+				new LoadTask(defs, formulas, semantics, middle, end));
+		}
+	}
+
+	/**
+	 * A Result is the outcome of loading a batch of FormulaDefinition objects.
+	 */
+	public static class Result
+	{
+
+		/**
+		 * The formulas, in the order of the FormulaDefinition objects. null for
+		 * any FormulaDefinition that failed to parse or was not valid.
+		 */
+		private final List<ComplexNEPFormula<?>> formulas;
+
+		/**
+		 * The failures, in the order of the FormulaDefinition objects.
+		 */
+		private final List<Failure> failures;
+
+		private Result(List<ComplexNEPFormula<?>> formulas,
+			List<Failure> failures)
+		{
+			this.formulas = Collections.unmodifiableList(formulas);
+			this.failures = Collections.unmodifiableList(failures);
+		}
+
+		/**
+		 * Returns the formulas that were loaded, in the order of the
+		 * FormulaDefinition objects provided to the load. The List contains
+		 * null at the index of any FormulaDefinition that failed to parse or
+		 * was not valid.
+		 * 
+		 * @return The (unmodifiable) List of formulas that were loaded
+		 */
+		public List<ComplexNEPFormula<?>> getFormulas()
+		{
+			return formulas;
+		}
+
+		/**
+		 * Returns the failures of the load, in the order of the
+		 * FormulaDefinition objects provided to the load.
+		 * 
+		 * @return The (unmodifiable) List of failures of the load
+		 */
+		public List<Failure> getFailures()
+		{
+			return failures;
+		}
+
+		/**
+		 * Returns true if every FormulaDefinition was successfully parsed and
+		 * validated.
+		 * 
+		 * @return true if every FormulaDefinition was successfully parsed and
+		 *         validated; false otherwise
+		 */
+		public boolean isSuccessful()
+		{
+			return failures.isEmpty();
+		}
+	}
+
+	/**
+	 * A Failure identifies a FormulaDefinition that failed to parse or was not
+	 * valid, along with the FormulaSemantics explaining the failure.
+	 */
+	public static class Failure
+	{
+
+		/**
+		 * The index of the FormulaDefinition in the load.
+		 */
+		private final int index;
+
+		/**
+		 * The FormulaDefinition that failed.
+		 */
+		private final FormulaDefinition<?> definition;
+
+		/**
+		 * The FormulaSemantics explaining the failure.
+		 */
+		private final FormulaSemantics semantics;
+
+		private Failure(int index, FormulaDefinition<?> definition,
+			FormulaSemantics semantics)
+		{
+			this.index = index;
+			this.definition = definition;
+			this.semantics = semantics;
+		}
+
+		/**
+		 * Returns the index of the failed FormulaDefinition in the List
+		 * provided to the load.
+		 * 
+		 * @return The index of the failed FormulaDefinition
+		 */
+		public int getIndex()
+		{
+			return index;
+		}
+
+		/**
+		 * Returns the FormulaDefinition that failed.
+		 * 
+		 * @return The FormulaDefinition that failed
+		 */
+		public FormulaDefinition<?> getDefinition()
+		{
+			return definition;
+		}
+
+		/**
+		 * Returns the FormulaSemantics explaining the failure.
+		 * 
+		 * @return The FormulaSemantics explaining the failure
+		 */
+		public FormulaSemantics getSemantics()
+		{
+			return semantics;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Failure at " + index + " (" + definition + "): "
+				+ semantics.getInfo(FormulaSemanticsUtilities.SEM_REPORT)
+					.getReport();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.EvaluationMonitor;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.compile.CompiledNode;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A CompiledNEPFormula is a ComplexNEPFormula that has been compiled (see
+ * FormulaCompiler) into a tree of CompiledNode objects for a specific
+ * FormulaManager.
+ * 
+ * When resolved in a ScopeInformation whose base FormulaManager (see
+ * ScopeInformation.getBaseFormulaManager()) is the FormulaManager for which
+ * the CompiledNEPFormula was compiled, the compiled tree is evaluated. When
+ * resolved in any other ScopeInformation, the CompiledNEPFormula falls back on
+ * the original ComplexNEPFormula. In either case the result is the same.
+ * 
+ * @param <T>
+ *            The Format (Class) of object returned by this CompiledNEPFormula
+ */
+public class CompiledNEPFormula<T> implements NEPFormula<T>
+{
+
+	/**
+	 * The ComplexNEPFormula from which this CompiledNEPFormula was compiled.
+	 */
+	private final ComplexNEPFormula<T> formula;
+
+	/**
+	 * The FormulaManager for which this CompiledNEPFormula was compiled.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The root of the compiled tree.
+	 */
+	private final CompiledNode compiledRoot;
+
+	/**
+	 * Constructs a new CompiledNEPFormula.
+	 * 
+	 * @param formula
+	 *            The ComplexNEPFormula from which this CompiledNEPFormula was
+	 *            compiled
+	 * @param fm
+	 *            The FormulaManager for which this CompiledNEPFormula was
+	 *            compiled
+	 * @param compiledRoot
+	 *            The root of the compiled tree
+	 */
+	CompiledNEPFormula(ComplexNEPFormula<T> formula, FormulaManager fm,
+		CompiledNode compiledRoot)
+	{
+		this.formula = formula;
+		this.fm = fm;
+		this.compiledRoot = compiledRoot;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T resolve(ScopeInformation scopeInfo)
+	{
+		if (scopeInfo == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula with null ScopeInformation");
+		}
+		if (scopeInfo.getBaseFormulaManager() != fm)
+		{
+			return formula.resolve(scopeInfo);
+		}
+		EvaluationMonitor monitor =
+				EvaluationMonitor.start(fm, scopeInfo.getScope(), this);
+		try
+		{
+			@SuppressWarnings("unchecked")
+			T result =
+					(T) compiledRoot.evaluate(scopeInfo.getEvaluateVisitor());
+			return result;
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+	}
+
+	/**
+	 * Resolves this CompiledNEPFormula in the context of the given
+	 * ScopeInformation, placing the result into the given NumericResult. The
+	 * result is the same as the result of resolve(ScopeInformation), but a
+	 * Number-typed formula may be resolved without creating an Integer or
+	 * Double object (the caller can box the result only when it needs an
+	 * Object, e.g. to place the result into a VariableStore).
+	 * 
+	 * @param scopeInfo
+	 *            The ScopeInformation providing the context in which the
+	 *            CompiledNEPFormula is to be resolved
+	 * @param result
+	 *            The NumericResult into which the result is placed
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public void resolve(ScopeInformation scopeInfo, NumericResult result)
+	{
+		if (scopeInfo == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula with null ScopeInformation");
+		}
+		if (result == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula into null NumericResult");
+		}
+		if (scopeInfo.getBaseFormulaManager() != fm)
+		{
+			result.set(formula.resolve(scopeInfo));
+			return;
+		}
+		EvaluationMonitor monitor =
+				EvaluationMonitor.start(fm, scopeInfo.getScope(), this);
+		try
+		{
+			compiledRoot.evaluate(scopeInfo.getEvaluateVisitor(), result);
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void getDependencies(ScopeInformation scopeInfo,
+		DependencyManager depManager)
+	{
+		formula.getDependencies(scopeInfo, depManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FormulaSemantics isValid(FormulaManager formulaManager,
+		LegalScope legalScope, FormatManager<T> formatManager)
+	{
+		return formula.isValid(formulaManager, legalScope, formatManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString()
+	{
+		return formula.toString();
+	}
+}
@@ -23,6 +23,7 @@ import pcgen.base.formula.base.DependencyManager;
 import pcgen.base.formula.base.FormulaManager;
 import pcgen.base.formula.base.FormulaSemantics;
 import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.compile.CompiledTreeCache;
 import pcgen.base.formula.parse.FormulaParser;
 import pcgen.base.formula.parse.ParseException;
 import pcgen.base.formula.parse.SimpleNode;
@@ -55,9 +56,19 @@ public class ComplexNEPFormula<T> implements NEPFormula<T>
 	 * resulting tree is shared, a ComplexNEPFormula is not immutable; it is up
 	 * to the behavior of the visitor to ensure that it treats the
 	 * ComplexNEPFormula in an appropriate fashion.
+	 * 
+	 * The tree may also be shared with other ComplexNEPFormula objects (see
+	 * FormulaFactory), so visitors MUST NOT modify the tree.
 	 */
 	private final SimpleNode root;
 
+	/**
+	 * The CompiledTreeCache holding the compiled form of the tree, used if
+	 * this ComplexNEPFormula is resolved with a FormulaManager that uses
+	 * EvaluationMode.COMPILED.
+	 */
+	private final CompiledTreeCache compiledTree;
+
 	/**
 	 * Construct a new ComplexNEPFormula from the given String. This calculates
 	 * the tree of objects representing the calculation to be performed by the
@@ -86,6 +97,30 @@ public class ComplexNEPFormula<T> implements NEPFormula<T>
 		{
 			throw new IllegalArgumentException(e);
 		}
+		compiledTree = new CompiledTreeCache(root);
+	}
+
+	/**
+	 * Construct a new ComplexNEPFormula from the given root node of an already
+	 * parsed tree. The tree may be shared with other ComplexNEPFormula objects,
+	 * and thus MUST NOT be modified after construction (other than the caches
+	 * held by its nodes, see SimpleNode).
+	 * 
+	 * @param root
+	 *            The root node of the tree representing the calculation to be
+	 *            performed by the ComplexNEPFormula
+	 * @throws IllegalArgumentException
+	 *             if the given root is null
+	 */
+	ComplexNEPFormula(SimpleNode root)
+	{
+		if (root == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot make formula from null root");
+		}
+		this.root = root;
+		compiledTree = new CompiledTreeCache(root);
 	}
 
 	/**
@@ -123,7 +158,7 @@ public class ComplexNEPFormula<T> implements NEPFormula<T>
 				"Cannot resolve formula with null ScopeInformation");
 		}
 		@SuppressWarnings("unchecked")
-		T result = (T) scopeInfo.evaluate(root);
+		T result = (T) scopeInfo.evaluateTree(compiledTree);
 		return result;
 	}
 
@@ -179,6 +214,19 @@ public class ComplexNEPFormula<T> implements NEPFormula<T>
 		return fm.isValid(root, legalScope, formatManager);
 	}
 
+	/**
+	 * Returns the root node of the tree representing the calculation of this
+	 * ComplexNEPFormula. The tree MUST NOT be modified (other than the caches
+	 * held by its nodes, see SimpleNode).
+	 * 
+	 * @return The root node of the tree representing the calculation of this
+	 *         ComplexNEPFormula
+	 */
+	SimpleNode getRoot()
+	{
+		return root;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
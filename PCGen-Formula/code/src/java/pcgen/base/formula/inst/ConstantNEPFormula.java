@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A ConstantNEPFormula is a ComplexNEPFormula that was determined to be static
+ * (see FormulaOptimizer), and thus was evaluated once, in advance, for a
+ * specific FormulaManager.
+ * 
+ * When resolved in a ScopeInformation whose base FormulaManager (see
+ * ScopeInformation.getBaseFormulaManager()) is the FormulaManager for which
+ * the ConstantNEPFormula was produced, the precomputed value is returned. When
+ * resolved in any other ScopeInformation, the ConstantNEPFormula falls back on
+ * the original ComplexNEPFormula.
+ * 
+ * @param <T>
+ *            The Format (Class) of object returned by this ConstantNEPFormula
+ */
+public class ConstantNEPFormula<T> implements NEPFormula<T>
+{
+
+	/**
+	 * The ComplexNEPFormula from which this ConstantNEPFormula was produced.
+	 */
+	private final ComplexNEPFormula<T> formula;
+
+	/**
+	 * The FormulaManager for which this ConstantNEPFormula was produced.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The precomputed value of the formula.
+	 */
+	private final T value;
+
+	/**
+	 * Constructs a new ConstantNEPFormula.
+	 * 
+	 * @param formula
+	 *            The ComplexNEPFormula from which this ConstantNEPFormula was
+	 *            produced
+	 * @param fm
+	 *            The FormulaManager for which this ConstantNEPFormula was
+	 *            produced
+	 * @param value
+	 *            The precomputed value of the formula
+	 */
+	ConstantNEPFormula(ComplexNEPFormula<T> formula, FormulaManager fm,
+		T value)
+	{
+		this.formula = formula;
+		this.fm = fm;
+		this.value = value;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T resolve(ScopeInformation scopeInfo)
+	{
+		if (scopeInfo == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula with null ScopeInformation");
+		}
+		if (scopeInfo.getBaseFormulaManager() != fm)
+		{
+			return formula.resolve(scopeInfo);
+		}
+		return value;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void getDependencies(ScopeInformation scopeInfo,
+		DependencyManager depManager)
+	{
+		formula.getDependencies(scopeInfo, depManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FormulaSemantics isValid(FormulaManager formulaManager,
+		LegalScope legalScope, FormatManager<T> formatManager)
+	{
+		return formula.isValid(formulaManager, legalScope, formatManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString()
+	{
+		return formula.toString();
+	}
+}
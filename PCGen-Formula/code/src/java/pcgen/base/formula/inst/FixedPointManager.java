@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A FixedPointManager is a FormatManager that provides services for
+ * FixedPoint values. It is the FormatManager for variables of a FormulaManager
+ * with the FIXED_POINT NumericMode.
+ */
+public class FixedPointManager implements FormatManager<FixedPoint>
+{
+
+	/**
+	 * Converts the given String to a FixedPoint. The String must be a decimal
+	 * number (e.g. "-2.25"); if it has more digits after the decimal point
+	 * than a FixedPoint can hold, the value is rounded.
+	 * 
+	 * @see pcgen.base.util.FormatManager#convert(java.lang.String)
+	 */
+	@Override
+	public FixedPoint convert(String s)
+	{
+		return FixedPoint.valueOf(s);
+	}
+
+	/**
+	 * Converts the given FixedPoint to a String.
+	 * 
+	 * @see pcgen.base.util.FormatManager#unconvert(java.lang.Object)
+	 */
+	@Override
+	public String unconvert(FixedPoint fp)
+	{
+		return fp.toString();
+	}
+
+	/**
+	 * Returns the FixedPoint class.
+	 * 
+	 * @see pcgen.base.util.FormatManager#getManagedClass()
+	 */
+	@Override
+	public Class<FixedPoint> getManagedClass()
+	{
+		return FixedPoint.class;
+	}
+
+	/**
+	 * Returns the identifier used to indicate the FixedPoint format.
+	 * 
+	 * @see pcgen.base.util.FormatManager#getIdentifierType()
+	 */
+	@Override
+	public String getIdentifierType()
+	{
+		return "FIXED";
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 37;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		return o instanceof FixedPointManager;
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.EvaluationMonitor;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.parse.FlatTree;
+import pcgen.base.formula.visitor.FlatTreeEvaluator;
+import pcgen.base.formula.visitor.ReconstructionVisitor;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A FlatNEPFormula is a formula that stores its parsed tree as a FlatTree
+ * rather than as a tree of SimpleNode objects.
+ * 
+ * A FlatNEPFormula produces the same results as a ComplexNEPFormula for the
+ * same expression, but retains significantly less memory. It is intended for
+ * formulas that are loaded once and retained for a long time.
+ * 
+ * The FlatTree is evaluated directly (see FlatTreeEvaluator), so resolving a
+ * FlatNEPFormula does not create a SimpleNode tree (other than a temporary
+ * tree for the arguments of any functions in the formula, since a Function
+ * receives its arguments as nodes). Only the Function resolved for each call
+ * is retained by the FlatTree, so the memory held by a FlatNEPFormula does not
+ * grow once it is evaluated. Validation, dependencies and the String
+ * representation of the formula are processed on a temporary SimpleNode tree,
+ * since those are not expected to be performed frequently.
+ * 
+ * Note that a FlatNEPFormula is always evaluated directly, regardless of the
+ * EvaluationMode of the FormulaManager.
+ * 
+ * @param <T>
+ *            The Format (Class) of object returned by this FlatNEPFormula
+ */
+public class FlatNEPFormula<T> implements NEPFormula<T>
+{
+
+	/**
+	 * The FlatTree for this FlatNEPFormula.
+	 */
+	private final FlatTree tree;
+
+	/**
+	 * Constructs a new FlatNEPFormula from the given String.
+	 * 
+	 * @param expression
+	 *            The String representation of the formula
+	 * @throws IllegalArgumentException
+	 *             if the given String is null or does not represent a
+	 *             well-structured Formula
+	 */
+	public FlatNEPFormula(String expression)
+	{
+		this(new ComplexNEPFormula<T>(expression));
+	}
+
+	/**
+	 * Constructs a new FlatNEPFormula equivalent to the given
+	 * ComplexNEPFormula. The FlatNEPFormula does not retain a reference to the
+	 * given ComplexNEPFormula.
+	 * 
+	 * @param formula
+	 *            The ComplexNEPFormula to be represented by a FlatNEPFormula
+	 * @throws IllegalArgumentException
+	 *             if the given ComplexNEPFormula is null
+	 */
+	public FlatNEPFormula(ComplexNEPFormula<T> formula)
+	{
+		if (formula == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot make FlatNEPFormula from null formula");
+		}
+		tree = FlatTree.flatten(formula.getRoot());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T resolve(ScopeInformation scopeInfo)
+	{
+		if (scopeInfo == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula with null ScopeInformation");
+		}
+		EvaluationMonitor monitor =
+				EvaluationMonitor.start(scopeInfo.getFormulaManager(),
+					scopeInfo.getScope(), this);
+		try
+		{
+			@SuppressWarnings("unchecked")
+			T result =
+					(T) FlatTreeEvaluator.evaluate(tree,
+						scopeInfo.getEvaluateVisitor());
+			return result;
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void getDependencies(ScopeInformation scopeInfo,
+		DependencyManager depManager)
+	{
+		if (scopeInfo == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot get formula dependencies with null ScopeInformation");
+		}
+		if (depManager == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot get formula dependencies with null DependencyManager");
+		}
+		scopeInfo.getDependencies(tree.toTree(), depManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FormulaSemantics isValid(FormulaManager fm, LegalScope legalScope,
+		FormatManager<T> formatManager)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula with null FormulaManager");
+		}
+		return fm.isValid(tree.toTree(), legalScope, formatManager);
+	}
+
+	/**
+	 * Returns the FlatTree for this FlatNEPFormula.
+	 * 
+	 * @return The FlatTree for this FlatNEPFormula
+	 */
+	FlatTree getTree()
+	{
+		return tree;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		tree.accept(new ReconstructionVisitor(), sb);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionLibrary;
+import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.OperatorLibrary;
+import pcgen.base.formula.library.GenericFunction;
+import pcgen.base.formula.parse.ASTPCGenBracket;
+import pcgen.base.formula.parse.ASTPCGenLookup;
+import pcgen.base.formula.parse.FormulaParserTreeConstants;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.NodeUtilities;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.formula.visitor.ReconstructionVisitor;
+
+/**
+ * A FormulaBundle is a set of formulas loaded from the binary form written by a
+ * FormulaBundleWriter. This allows formulas to be parsed and validated once
+ * (e.g. at build time), and then loaded without parsing the formulas again.
+ * 
+ * The binary form contains the parsed tree of each formula, along with a
+ * signature of the grammar, of the Function and OperatorAction objects used by
+ * the formulas and of the NumericMode. When a FormulaBundle is loaded, the
+ * signature is checked against the FormulaManager with which it is loaded,
+ * and the load fails if the formulas may not behave as they did when the
+ * bundle was written (e.g. if a function used by a formula is now provided by
+ * a different class, or the formula of a GenericFunction has changed).
+ * 
+ * A FormulaBundle loaded from a file uses a memory-mapped FileChannel. The
+ * tree of a formula is only built when the formula is requested (see
+ * getFormula), and a new tree is built each time the formula is requested. A
+ * FormulaBundle is thread-safe.
+ */
+public final class FormulaBundle
+{
+
+	/**
+	 * The identifier at the start of the binary form of a FormulaBundle.
+	 */
+	static final int MAGIC = 0x50434746;
+
+	/**
+	 * The version of the binary form of a FormulaBundle.
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * The Charset used to encode Strings in the binary form.
+	 */
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Indicates a missing entry (e.g. a node without text) in the binary form.
+	 */
+	static final int NONE = -1;
+
+	/**
+	 * Indicates an Integer in the number pool of the binary form.
+	 */
+	static final byte INTEGER = 0;
+
+	/**
+	 * Indicates a Double in the number pool of the binary form.
+	 */
+	static final byte DOUBLE = 1;
+
+	/**
+	 * The pairs of formats for which the OperatorAction of each Operator is
+	 * captured in the signature of the OperatorLibrary.
+	 */
+	private static final Class<?>[][] FORMAT_PAIRS = {
+		{Number.class, Number.class}, {FixedPoint.class, FixedPoint.class},
+		{Boolean.class, Boolean.class}};
+
+	/**
+	 * The binary form of the FormulaBundle.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The String pool of the FormulaBundle.
+	 */
+	private final String[] strings;
+
+	/**
+	 * The number pool of the FormulaBundle.
+	 */
+	private final Number[] numbers;
+
+	/**
+	 * The position in the buffer of the tree of each formula, keyed by the
+	 * expression of the formula.
+	 */
+	private final Map<String, Integer> offsets;
+
+	/**
+	 * Constructs a new FormulaBundle.
+	 */
+	private FormulaBundle(ByteBuffer buffer, String[] strings,
+		Number[] numbers, Map<String, Integer> offsets)
+	{
+		this.buffer = buffer;
+		this.strings = strings;
+		this.numbers = numbers;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Loads a FormulaBundle from the given file, using a memory-mapped
+	 * FileChannel.
+	 * 
+	 * @param path
+	 *            The file containing the binary form of the FormulaBundle
+	 * @param fm
+	 *            The FormulaManager with which the formulas will be used
+	 * @return The FormulaBundle loaded from the given file
+	 * @throws IOException
+	 *             if the file cannot be read, is not a valid FormulaBundle or
+	 *             does not match the given FormulaManager
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public static FormulaBundle load(Path path, FormulaManager fm)
+		throws IOException
+	{
+		if (path == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot load FormulaBundle from null Path");
+		}
+		try (FileChannel channel =
+				FileChannel.open(path, StandardOpenOption.READ))
+		{
+			return load(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				channel.size()), fm);
+		}
+	}
+
+	/**
+	 * Loads a FormulaBundle from the given ByteBuffer. The contents of the
+	 * ByteBuffer from its current position are used; the position of the given
+	 * ByteBuffer is not changed. The contents of the ByteBuffer MUST NOT be
+	 * modified after the FormulaBundle is loaded.
+	 * 
+	 * @param source
+	 *            The ByteBuffer containing the binary form of the
+	 *            FormulaBundle
+	 * @param fm
+	 *            The FormulaManager with which the formulas will be used
+	 * @return The FormulaBundle loaded from the given ByteBuffer
+	 * @throws IOException
+	 *             if the ByteBuffer does not contain a valid FormulaBundle, or
+	 *             the FormulaBundle does not match the given FormulaManager
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public static FormulaBundle load(ByteBuffer source, FormulaManager fm)
+		throws IOException
+	{
+		if (source == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot load FormulaBundle from null ByteBuffer");
+		}
+		if (fm == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot load FormulaBundle with null FormulaManager");
+		}
+		ByteBuffer buffer = source.slice();
+		try
+		{
+			if (buffer.getInt() != MAGIC)
+			{
+				throw new IOException("Not a FormulaBundle");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION)
+			{
+				throw new IOException("Unsupported FormulaBundle version: "
+					+ version + " (expected " + VERSION + ")");
+			}
+			checkGrammar(buffer);
+			String[] strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++)
+			{
+				strings[i] = readString(buffer);
+			}
+			Number[] numbers = readNumbers(buffer);
+			checkFunctions(buffer, strings, fm.getLibrary());
+			checkOperators(buffer, strings, fm);
+			int formulaCount = buffer.getInt();
+			Map<String, Integer> offsets = new HashMap<>(formulaCount * 2);
+			for (int i = 0; i < formulaCount; i++)
+			{
+				String expression = strings[buffer.getInt()];
+				int length = buffer.getInt();
+				if ((length < 0) || (length > buffer.remaining()))
+				{
+					throw new IOException("Invalid formula length: " + length);
+				}
+				offsets.put(expression, buffer.position());
+				buffer.position(buffer.position() + length);
+			}
+			return new FormulaBundle(buffer, strings, numbers, offsets);
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException
+				| NegativeArraySizeException e)
+		{
+			throw new IOException("Corrupt FormulaBundle", e);
+		}
+	}
+
+	/**
+	 * Returns a ComplexNEPFormula for the given expression, or null if the
+	 * given expression is not in this FormulaBundle. A new tree is built each
+	 * time this method is called.
+	 * 
+	 * @param <T>
+	 *            The Format (Class) of object returned by the ComplexNEPFormula
+	 * @param expression
+	 *            The String representation of the formula
+	 * @return A ComplexNEPFormula for the given expression, or null if the
+	 *         given expression is not in this FormulaBundle
+	 * @throws IOException
+	 *             if the tree of the formula is corrupt
+	 */
+	public <T> ComplexNEPFormula<T> getFormula(String expression)
+		throws IOException
+	{
+		Integer offset = offsets.get(expression);
+		if (offset == null)
+		{
+			return null;
+		}
+		//Duplicate, so that concurrent reads do not share a position
+		ByteBuffer local = buffer.duplicate();
+		local.position(offset.intValue());
+		try
+		{
+			return new ComplexNEPFormula<>(readNode(local));
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException
+				| NegativeArraySizeException | IllegalArgumentException e)
+		{
+			//IllegalArgumentException indicates an invalid node type
+			throw new IOException("Corrupt FormulaBundle (formula: "
+				+ expression + ")", e);
+		}
+	}
+
+	/**
+	 * Returns the expressions of the formulas in this FormulaBundle.
+	 * 
+	 * @return The expressions of the formulas in this FormulaBundle
+	 */
+	public Collection<String> getExpressions()
+	{
+		return Collections.unmodifiableCollection(offsets.keySet());
+	}
+
+	/**
+	 * Returns the number of formulas in this FormulaBundle.
+	 * 
+	 * @return The number of formulas in this FormulaBundle
+	 */
+	public int size()
+	{
+		return offsets.size();
+	}
+
+	/**
+	 * Reads a node (and its children, recursively) from the given ByteBuffer.
+	 */
+	private SimpleNode readNode(ByteBuffer local)
+	{
+		SimpleNode node = NodeUtilities.createNode(local.get());
+		int operator = local.get();
+		if (operator != NONE)
+		{
+			node.setOperator(Operator.values()[operator]);
+		}
+		int text = local.getInt();
+		if (text != NONE)
+		{
+			node.setToken(strings[text]);
+		}
+		int value = local.getInt();
+		if (value != NONE)
+		{
+			node.setValue(numbers[value]);
+		}
+		int childCount = local.getShort();
+		Node[] children = new Node[childCount];
+		for (int i = 0; i < childCount; i++)
+		{
+			children[i] = readNode(local);
+		}
+		NodeUtilities.addChildren(node, children);
+		return node;
+	}
+
+	/**
+	 * Checks that the grammar signature in the given ByteBuffer matches the
+	 * current grammar.
+	 */
+	private static void checkGrammar(ByteBuffer buffer) throws IOException
+	{
+		String[] nodeNames = FormulaParserTreeConstants.jjtNodeName;
+		Operator[] operators = Operator.values();
+		boolean matches = (buffer.getInt() == nodeNames.length);
+		for (int i = 0; matches && (i < nodeNames.length); i++)
+		{
+			matches = nodeNames[i].equals(readString(buffer));
+		}
+		matches = matches && (buffer.getInt() == operators.length);
+		for (int i = 0; matches && (i < operators.length); i++)
+		{
+			matches = operators[i].getSymbol().equals(readString(buffer));
+		}
+		if (!matches)
+		{
+			throw new IOException(
+				"FormulaBundle was written with a different grammar");
+		}
+	}
+
+	/**
+	 * Reads the number pool from the given ByteBuffer.
+	 */
+	private static Number[] readNumbers(ByteBuffer buffer) throws IOException
+	{
+		Number[] numbers = new Number[buffer.getInt()];
+		for (int i = 0; i < numbers.length; i++)
+		{
+			byte type = buffer.get();
+			if (type == INTEGER)
+			{
+				numbers[i] = Integer.valueOf(buffer.getInt());
+			}
+			else if (type == DOUBLE)
+			{
+				numbers[i] = Double.valueOf(buffer.getDouble());
+			}
+			else
+			{
+				throw new IOException("Invalid number type: " + type);
+			}
+		}
+		return numbers;
+	}
+
+	/**
+	 * Checks that the Function signatures in the given ByteBuffer match the
+	 * given FunctionLibrary.
+	 */
+	private static void checkFunctions(ByteBuffer buffer, String[] strings,
+		FunctionLibrary library) throws IOException
+	{
+		int functionCount = buffer.getInt();
+		for (int i = 0; i < functionCount; i++)
+		{
+			String name = strings[buffer.getInt()];
+			boolean bracket = (buffer.get() != 0);
+			String expected = readOptionalString(buffer, strings);
+			String actual = getFunctionSignature(library, name, bracket);
+			if (!equals(expected, actual))
+			{
+				throw new IOException("Function " + name
+					+ " was provided by " + expected + " but is now provided by "
+					+ actual);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the NumericMode and the OperatorAction signatures in the
+	 * given ByteBuffer match the given FormulaManager.
+	 */
+	private static void checkOperators(ByteBuffer buffer, String[] strings,
+		FormulaManager fm) throws IOException
+	{
+		String mode = strings[buffer.getInt()];
+		if (!mode.equals(fm.getNumericMode().name()))
+		{
+			throw new IOException("Formulas were written for NumericMode "
+				+ mode + " but are loaded with NumericMode "
+				+ fm.getNumericMode());
+		}
+		OperatorLibrary library = fm.getOperatorLibrary();
+		int operatorCount = buffer.getInt();
+		for (int i = 0; i < operatorCount; i++)
+		{
+			Operator operator = Operator.values()[buffer.get()];
+			String[] actual = getOperatorSignature(library, operator);
+			for (int j = 0; j < actual.length; j++)
+			{
+				String expected = readOptionalString(buffer, strings);
+				if (!equals(expected, actual[j]))
+				{
+					throw new IOException("Operator "
+						+ operator.getSymbol() + " was provided by " + expected
+						+ " but is now provided by " + actual[j]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the signature of the Function with the given name in the given
+	 * FunctionLibrary (the name of the class of the Function, or null if there
+	 * is no such Function).
+	 * 
+	 * The signature of a GenericFunction also includes its formula, and the
+	 * signature of each Function called (directly or indirectly) by that
+	 * formula, since the behavior of a GenericFunction is defined by its
+	 * formula rather than by its class.
+	 * 
+	 * @param library
+	 *            The FunctionLibrary containing the Function
+	 * @param name
+	 *            The name of the Function
+	 * @param bracket
+	 *            true if the Function is a bracket function; false otherwise
+	 * @return The signature of the Function with the given name
+	 */
+	static String getFunctionSignature(FunctionLibrary library, String name,
+		boolean bracket)
+	{
+		Function function = bracket ? library.getBracketFunction(name)
+			: library.getFunction(name);
+		if (function == null)
+		{
+			return null;
+		}
+		StringBuilder sb = new StringBuilder(function.getClass().getName());
+		if (function instanceof GenericFunction)
+		{
+			Set<String> visited = new HashSet<>();
+			visited.add(getCallName(name, bracket));
+			appendFormula(library, (GenericFunction) function, sb, visited);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the formula of the given GenericFunction, and the signature of
+	 * each Function called by that formula (that is not in the given set of
+	 * visited calls), to the given StringBuilder.
+	 */
+	private static void appendFormula(FunctionLibrary library,
+		GenericFunction function, StringBuilder sb, Set<String> visited)
+	{
+		sb.append('(');
+		function.getRoot().jjtAccept(new ReconstructionVisitor(), sb);
+		sb.append(')');
+		appendCalls(library, function.getRoot(), sb, visited);
+	}
+
+	/**
+	 * Appends the signature of each Function called within the given node
+	 * (that is not in the given set of visited calls) to the given
+	 * StringBuilder.
+	 */
+	private static void appendCalls(FunctionLibrary library, Node node,
+		StringBuilder sb, Set<String> visited)
+	{
+		if (node instanceof ASTPCGenLookup)
+		{
+			String name = ((SimpleNode) node.jjtGetChild(0)).getText();
+			boolean bracket = node.jjtGetChild(1) instanceof ASTPCGenBracket;
+			String call = getCallName(name, bracket);
+			if (visited.add(call))
+			{
+				Function called = bracket ? library.getBracketFunction(name)
+					: library.getFunction(name);
+				sb.append(' ').append(call).append('=');
+				if (called == null)
+				{
+					//e.g. arg(n), which is only available within the formula
+					sb.append("null");
+				}
+				else
+				{
+					sb.append(called.getClass().getName());
+					if (called instanceof GenericFunction)
+					{
+						appendFormula(library, (GenericFunction) called, sb,
+							visited);
+					}
+				}
+			}
+		}
+		int childCount = node.jjtGetNumChildren();
+		for (int i = 0; i < childCount; i++)
+		{
+			appendCalls(library, node.jjtGetChild(i), sb, visited);
+		}
+	}
+
+	/**
+	 * Returns the name of a call to the Function with the given name, as it
+	 * appears in a formula (e.g. "max()" or "input[]").
+	 */
+	private static String getCallName(String name, boolean bracket)
+	{
+		return name + (bracket ? "[]" : "()");
+	}
+
+	/**
+	 * Returns the signature of the given Operator in the given OperatorLibrary
+	 * (the name of the class of the OperatorAction used for each of the pairs
+	 * of formats in FORMAT_PAIRS, or null if there is no such OperatorAction).
+	 * 
+	 * The pairs of formats include FixedPoint, so that adding (or removing)
+	 * the FixedPoint OperatorActions changes the signature even if the
+	 * OperatorActions for any Number are unchanged.
+	 * 
+	 * @param library
+	 *            The OperatorLibrary containing the OperatorActions
+	 * @param operator
+	 *            The Operator
+	 * @return The signature of the given Operator
+	 */
+	static String[] getOperatorSignature(OperatorLibrary library,
+		Operator operator)
+	{
+		String[] signature = new String[FORMAT_PAIRS.length];
+		for (int i = 0; i < FORMAT_PAIRS.length; i++)
+		{
+			OperatorAction action = library.getAction(operator,
+				FORMAT_PAIRS[i][0], FORMAT_PAIRS[i][1]);
+			signature[i] = (action == null) ? null : action.getClass().getName();
+		}
+		return signature;
+	}
+
+	/**
+	 * Reads the index of a String in the String pool from the given
+	 * ByteBuffer, returning the String (or null if the index is NONE).
+	 */
+	private static String readOptionalString(ByteBuffer buffer,
+		String[] strings)
+	{
+		int index = buffer.getInt();
+		return (index == NONE) ? null : strings[index];
+	}
+
+	/**
+	 * Returns true if the given Strings are equal (or both null).
+	 */
+	private static boolean equals(String s1, String s2)
+	{
+		return (s1 == null) ? (s2 == null) : s1.equals(s2);
+	}
+
+	/**
+	 * Reads a String from the given ByteBuffer.
+	 */
+	private static String readString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
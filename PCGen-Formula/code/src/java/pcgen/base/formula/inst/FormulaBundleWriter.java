@@ -0,0 +1,394 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.parse.ASTPCGenBracket;
+import pcgen.base.formula.parse.ASTPCGenLookup;
+import pcgen.base.formula.parse.FormulaParserTreeConstants;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A FormulaBundleWriter writes the binary form of a set of validated formulas,
+ * to be loaded as a FormulaBundle.
+ * 
+ * The binary form is (all values are big-endian):
+ * 
+ * (1) Header: The identifier and version of the binary form
+ * 
+ * (2) Grammar: The names of the node types and the symbols of the Operators
+ * 
+ * (3) String pool: The text of the nodes, names of Functions, class names and
+ * the expressions of the formulas
+ * 
+ * (4) Number pool: The values of the numerical nodes
+ * 
+ * (5) Functions: The name and signature (the class, and for a
+ * GenericFunction its formula) of each Function used by the formulas
+ * 
+ * (6) Operators: The NumericMode, and the classes of the OperatorActions for
+ * each Operator used by the formulas
+ * 
+ * (7) Formulas: The expression of each formula and the nodes of the tree of
+ * each formula (in pre-order: type, Operator, text, value, child count)
+ */
+public class FormulaBundleWriter
+{
+
+	/**
+	 * The FormulaManager with which formulas are validated.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The FormulaFactory used to parse the formulas.
+	 */
+	private final FormulaFactory factory = new FormulaFactory();
+
+	/**
+	 * The root of the tree of each formula, keyed by the expression of the
+	 * formula.
+	 */
+	private final Map<String, SimpleNode> formulas = new LinkedHashMap<>();
+
+	/**
+	 * Constructs a new FormulaBundleWriter which will validate formulas with
+	 * the given FormulaManager.
+	 * 
+	 * @param fm
+	 *            The FormulaManager with which formulas will be validated
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public FormulaBundleWriter(FormulaManager fm)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		this.fm = fm;
+	}
+
+	/**
+	 * Adds the formula with the given expression to this FormulaBundleWriter.
+	 * The formula must be valid for the given LegalScope and FormatManager.
+	 * Adding an expression that has already been added has no effect.
+	 * 
+	 * @param <T>
+	 *            The Format (Class) of object returned by the formula
+	 * @param expression
+	 *            The String representation of the formula
+	 * @param legalScope
+	 *            The LegalScope in which the formula is to be validated
+	 * @param formatManager
+	 *            The FormatManager indicating the format of the result of the
+	 *            formula
+	 * @throws IllegalArgumentException
+	 *             if the given expression is null, does not represent a
+	 *             well-structured Formula, or is not valid
+	 */
+	public <T> void addFormula(String expression, LegalScope legalScope,
+		FormatManager<T> formatManager)
+	{
+		if (formulas.containsKey(expression))
+		{
+			return;
+		}
+		ComplexNEPFormula<T> formula = factory.getFormula(expression);
+		FormulaSemantics semantics =
+				formula.isValid(fm, legalScope, formatManager);
+		if (!semantics.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid())
+		{
+			throw new IllegalArgumentException("Cannot add invalid formula "
+				+ expression + ": "
+				+ semantics.getInfo(FormulaSemanticsUtilities.SEM_REPORT)
+					.getReport());
+		}
+		formulas.put(expression, formula.getRoot());
+	}
+
+	/**
+	 * Returns the number of formulas added to this FormulaBundleWriter.
+	 * 
+	 * @return The number of formulas added to this FormulaBundleWriter
+	 */
+	public int size()
+	{
+		return formulas.size();
+	}
+
+	/**
+	 * Writes the binary form of the formulas added to this FormulaBundleWriter
+	 * to the given OutputStream. The OutputStream is not closed.
+	 * 
+	 * @param out
+	 *            The OutputStream to which the binary form is written
+	 * @throws IOException
+	 *             if the binary form cannot be written (including if a node
+	 *             has more than Short.MAX_VALUE children)
+	 */
+	public void write(OutputStream out) throws IOException
+	{
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		Map<Number, Integer> numbers = new LinkedHashMap<>();
+		Set<String> functions = new LinkedHashSet<>();
+		Set<String> bracketFunctions = new LinkedHashSet<>();
+		Set<Operator> operators = EnumSet.noneOf(Operator.class);
+		for (Map.Entry<String, SimpleNode> me : formulas.entrySet())
+		{
+			addString(strings, me.getKey());
+			collect(me.getValue(), strings, numbers, functions,
+				bracketFunctions, operators);
+		}
+		//Signatures are also in the String pool
+		for (String name : functions)
+		{
+			addString(strings, FormulaBundle.getFunctionSignature(
+				fm.getLibrary(), name, false));
+		}
+		for (String name : bracketFunctions)
+		{
+			addString(strings, FormulaBundle.getFunctionSignature(
+				fm.getLibrary(), name, true));
+		}
+		addString(strings, fm.getNumericMode().name());
+		for (Operator operator : operators)
+		{
+			for (String className : FormulaBundle.getOperatorSignature(
+				fm.getOperatorLibrary(), operator))
+			{
+				addString(strings, className);
+			}
+		}
+
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeInt(FormulaBundle.MAGIC);
+		dos.writeInt(FormulaBundle.VERSION);
+		writeGrammar(dos);
+		dos.writeInt(strings.size());
+		for (String string : strings.keySet())
+		{
+			writeString(dos, string);
+		}
+		writeNumbers(dos, numbers);
+		dos.writeInt(functions.size() + bracketFunctions.size());
+		writeFunctions(dos, strings, functions, false);
+		writeFunctions(dos, strings, bracketFunctions, true);
+		dos.writeInt(getIndex(strings, fm.getNumericMode().name()));
+		dos.writeInt(operators.size());
+		for (Operator operator : operators)
+		{
+			dos.writeByte(operator.ordinal());
+			for (String className : FormulaBundle.getOperatorSignature(
+				fm.getOperatorLibrary(), operator))
+			{
+				dos.writeInt(getIndex(strings, className));
+			}
+		}
+		dos.writeInt(formulas.size());
+		for (Map.Entry<String, SimpleNode> me : formulas.entrySet())
+		{
+			ByteArrayOutputStream tree = new ByteArrayOutputStream();
+			writeNode(new DataOutputStream(tree), me.getValue(), strings,
+				numbers);
+			dos.writeInt(getIndex(strings, me.getKey()));
+			dos.writeInt(tree.size());
+			tree.writeTo(dos);
+		}
+		dos.flush();
+	}
+
+	/**
+	 * Collects the text, values, Functions and Operators used by the given
+	 * node (and its children, recursively).
+	 */
+	private static void collect(SimpleNode node, Map<String, Integer> strings,
+		Map<Number, Integer> numbers, Set<String> functions,
+		Set<String> bracketFunctions, Set<Operator> operators)
+	{
+		addString(strings, node.getText());
+		Object value = node.getValue();
+		if (value != null)
+		{
+			if (!(value instanceof Integer) && !(value instanceof Double))
+			{
+				throw new IllegalStateException(
+					"Unable to write value of class "
+						+ value.getClass().getName());
+			}
+			if (!numbers.containsKey(value))
+			{
+				numbers.put((Number) value, numbers.size());
+			}
+		}
+		if (node.getOperator() != null)
+		{
+			operators.add(node.getOperator());
+		}
+		if (node instanceof ASTPCGenLookup)
+		{
+			String name = ((SimpleNode) node.jjtGetChild(0)).getText();
+			if (node.jjtGetChild(1) instanceof ASTPCGenBracket)
+			{
+				bracketFunctions.add(name);
+			}
+			else
+			{
+				functions.add(name);
+			}
+		}
+		int childCount = node.jjtGetNumChildren();
+		for (int i = 0; i < childCount; i++)
+		{
+			collect((SimpleNode) node.jjtGetChild(i), strings, numbers,
+				functions, bracketFunctions, operators);
+		}
+	}
+
+	/**
+	 * Writes the given node (and its children, recursively).
+	 */
+	private static void writeNode(DataOutputStream dos, SimpleNode node,
+		Map<String, Integer> strings, Map<Number, Integer> numbers)
+		throws IOException
+	{
+		Operator operator = node.getOperator();
+		Object value = node.getValue();
+		dos.writeByte(node.getId());
+		dos.writeByte((operator == null) ? FormulaBundle.NONE : operator
+			.ordinal());
+		dos.writeInt(getIndex(strings, node.getText()));
+		dos.writeInt((value == null) ? FormulaBundle.NONE : numbers.get(value)
+			.intValue());
+		int childCount = node.jjtGetNumChildren();
+		if (childCount > Short.MAX_VALUE)
+		{
+			throw new IOException("Cannot write node with " + childCount
+				+ " children (maximum is " + Short.MAX_VALUE + ")");
+		}
+		dos.writeShort(childCount);
+		for (int i = 0; i < childCount; i++)
+		{
+			writeNode(dos, (SimpleNode) node.jjtGetChild(i), strings, numbers);
+		}
+	}
+
+	/**
+	 * Writes the signature of the current grammar.
+	 */
+	private static void writeGrammar(DataOutputStream dos) throws IOException
+	{
+		String[] nodeNames = FormulaParserTreeConstants.jjtNodeName;
+		dos.writeInt(nodeNames.length);
+		for (String nodeName : nodeNames)
+		{
+			writeString(dos, nodeName);
+		}
+		Operator[] operators = Operator.values();
+		dos.writeInt(operators.length);
+		for (Operator operator : operators)
+		{
+			writeString(dos, operator.getSymbol());
+		}
+	}
+
+	/**
+	 * Writes the number pool.
+	 */
+	private static void writeNumbers(DataOutputStream dos,
+		Map<Number, Integer> numbers) throws IOException
+	{
+		dos.writeInt(numbers.size());
+		for (Number number : numbers.keySet())
+		{
+			if (number instanceof Integer)
+			{
+				dos.writeByte(FormulaBundle.INTEGER);
+				dos.writeInt(number.intValue());
+			}
+			else
+			{
+				dos.writeByte(FormulaBundle.DOUBLE);
+				dos.writeDouble(number.doubleValue());
+			}
+		}
+	}
+
+	/**
+	 * Writes the signatures of the given Functions.
+	 */
+	private void writeFunctions(DataOutputStream dos,
+		Map<String, Integer> strings, Set<String> names, boolean bracket)
+		throws IOException
+	{
+		for (String name : names)
+		{
+			dos.writeInt(getIndex(strings, name));
+			dos.writeBoolean(bracket);
+			dos.writeInt(getIndex(strings, FormulaBundle.getFunctionSignature(
+				fm.getLibrary(), name, bracket)));
+		}
+	}
+
+	/**
+	 * Writes the given String.
+	 */
+	private static void writeString(DataOutputStream dos, String string)
+		throws IOException
+	{
+		byte[] bytes = string.getBytes(FormulaBundle.UTF_8);
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+	}
+
+	/**
+	 * Adds the given String (if not null) to the given String pool.
+	 */
+	private static void addString(Map<String, Integer> strings, String string)
+	{
+		if ((string != null) && !strings.containsKey(string))
+		{
+			strings.put(string, strings.size());
+		}
+	}
+
+	/**
+	 * Returns the index of the given String in the given String pool, or NONE
+	 * if the given String is null.
+	 */
+	private static int getIndex(Map<String, Integer> strings, String string)
+	{
+		return (string == null) ? FormulaBundle.NONE : strings.get(string)
+			.intValue();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.compile.CompileVisitor;
+import pcgen.base.formula.vm.ProgramCompiler;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A FormulaCompiler converts ComplexNEPFormula objects into CompiledNEPFormula
+ * objects (or ProgramNEPFormula objects) for a specific FormulaManager.
+ * 
+ * Compilation is optional: A CompiledNEPFormula produces the same results as
+ * the ComplexNEPFormula from which it was compiled, but avoids repeating work
+ * (such as looking up OperatorActions and Functions) each time the formula is
+ * resolved.
+ * 
+ * A ProgramNEPFormula also produces the same results, but is executed as a
+ * flat FormulaProgram rather than as a tree, which bounds the depth of
+ * recursion and the objects created during evaluation.
+ */
+public class FormulaCompiler
+{
+
+	/**
+	 * The FormulaManager for which formulas are compiled.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The CompileVisitor used to compile the formulas.
+	 */
+	private final CompileVisitor compileVisitor;
+
+	/**
+	 * The ProgramCompiler used to lower the formulas into FormulaPrograms.
+	 */
+	private final ProgramCompiler programCompiler;
+
+	/**
+	 * Constructs a new FormulaCompiler which will compile formulas for the
+	 * given FormulaManager.
+	 * 
+	 * @param fm
+	 *            The FormulaManager for which formulas will be compiled
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public FormulaCompiler(FormulaManager fm)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		this.fm = fm;
+		compileVisitor = new CompileVisitor(fm);
+		programCompiler = new ProgramCompiler(fm);
+	}
+
+	/**
+	 * Compiles the given ComplexNEPFormula. The ComplexNEPFormula must be valid
+	 * for the given LegalScope and FormatManager.
+	 * 
+	 * @param <T>
+	 *            The Format (Class) of object returned by the formula
+	 * @param formula
+	 *            The ComplexNEPFormula to be compiled
+	 * @param legalScope
+	 *            The LegalScope in which the formula is to be validated
+	 * @param formatManager
+	 *            The FormatManager indicating the format of the result of the
+	 *            formula
+	 * @return A CompiledNEPFormula for the given ComplexNEPFormula
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null or if the ComplexNEPFormula is not
+	 *             valid
+	 */
+	public <T> CompiledNEPFormula<T> compile(ComplexNEPFormula<T> formula,
+		LegalScope legalScope, FormatManager<T> formatManager)
+	{
+		validate(formula, legalScope, formatManager);
+		return new CompiledNEPFormula<>(formula, fm,
+			compileVisitor.compile(formula.getRoot()));
+	}
+
+	/**
+	 * Lowers the given ComplexNEPFormula into a FormulaProgram. The
+	 * ComplexNEPFormula must be valid for the given LegalScope and
+	 * FormatManager.
+	 * 
+	 * @param <T>
+	 *            The Format (Class) of object returned by the formula
+	 * @param formula
+	 *            The ComplexNEPFormula to be lowered
+	 * @param legalScope
+	 *            The LegalScope in which the formula is to be validated
+	 * @param formatManager
+	 *            The FormatManager indicating the format of the result of the
+	 *            formula
+	 * @return A ProgramNEPFormula for the given ComplexNEPFormula
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null or if the ComplexNEPFormula is not
+	 *             valid
+	 */
+	public <T> ProgramNEPFormula<T> compileProgram(
+		ComplexNEPFormula<T> formula, LegalScope legalScope,
+		FormatManager<T> formatManager)
+	{
+		validate(formula, legalScope, formatManager);
+		return new ProgramNEPFormula<>(formula, fm,
+			programCompiler.compile(formula.getRoot()));
+	}
+
+	/**
+	 * Validates the given ComplexNEPFormula (which also binds the operators of
+	 * the formula to the OperatorActions to be used).
+	 */
+	private <T> void validate(ComplexNEPFormula<T> formula,
+		LegalScope legalScope, FormatManager<T> formatManager)
+	{
+		if (formula == null)
+		{
+			throw new IllegalArgumentException("Cannot compile null formula");
+		}
+		FormulaSemantics semantics =
+				formula.isValid(fm, legalScope, formatManager);
+		if (!semantics.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid())
+		{
+			throw new IllegalArgumentException("Cannot compile invalid formula "
+				+ formula + ": "
+				+ semantics.getInfo(FormulaSemanticsUtilities.SEM_REPORT)
+					.getReport());
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A FormulaDefinition is the definition of a formula as it is loaded from data:
+ * the expression of the formula, the LegalScope in which the formula must be
+ * valid, and the FormatManager indicating the format of the result of the
+ * formula.
+ * 
+ * FormulaDefinition is immutable.
+ * 
+ * @param <T>
+ *            The Format (Class) of object returned by the formula
+ */
+public class FormulaDefinition<T>
+{
+
+	/**
+	 * The String representation of the formula.
+	 */
+	private final String expression;
+
+	/**
+	 * The LegalScope in which the formula must be valid.
+	 */
+	private final LegalScope legalScope;
+
+	/**
+	 * The FormatManager indicating the format of the result of the formula.
+	 */
+	private final FormatManager<T> formatManager;
+
+	/**
+	 * Constructs a new FormulaDefinition for the given expression, LegalScope
+	 * and FormatManager.
+	 * 
+	 * @param expression
+	 *            The String representation of the formula
+	 * @param legalScope
+	 *            The LegalScope in which the formula must be valid
+	 * @param formatManager
+	 *            The FormatManager indicating the format of the result of the
+	 *            formula
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public FormulaDefinition(String expression, LegalScope legalScope,
+		FormatManager<T> formatManager)
+	{
+		if (expression == null)
+		{
+			throw new IllegalArgumentException("Expression cannot be null");
+		}
+		if (legalScope == null)
+		{
+			throw new IllegalArgumentException("LegalScope cannot be null");
+		}
+		if (formatManager == null)
+		{
+			throw new IllegalArgumentException("FormatManager cannot be null");
+		}
+		this.expression = expression;
+		this.legalScope = legalScope;
+		this.formatManager = formatManager;
+	}
+
+	/**
+	 * Returns the String representation of the formula.
+	 * 
+	 * @return The String representation of the formula
+	 */
+	public String getExpression()
+	{
+		return expression;
+	}
+
+	/**
+	 * Returns the LegalScope in which the formula must be valid.
+	 * 
+	 * @return The LegalScope in which the formula must be valid
+	 */
+	public LegalScope getLegalScope()
+	{
+		return legalScope;
+	}
+
+	/**
+	 * Returns the FormatManager indicating the format of the result of the
+	 * formula.
+	 * 
+	 * @return The FormatManager indicating the format of the result of the
+	 *         formula
+	 */
+	public FormatManager<T> getFormatManager()
+	{
+		return formatManager;
+	}
+
+	@Override
+	public String toString()
+	{
+		return expression;
+	}
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pcgen.base.formula.parse.CharSequenceParser;
+import pcgen.base.formula.parse.ParseException;
+import pcgen.base.formula.parse.SimpleNode;
+
+/**
+ * A FormulaFactory is a source of ComplexNEPFormula objects that avoids
+ * repeatedly parsing identical expressions.
+ *
+ * The FormulaFactory maintains a bounded cache of parsed trees, keyed by the
+ * exact (case-sensitive) text of the expression. When a formula is requested
+ * for an expression that has already been parsed, the resulting
+ * ComplexNEPFormula shares the tree of the previous parse rather than building
+ * a new tree.
+ *
+ * Because trees are shared between ComplexNEPFormula objects (and potentially
+ * between threads), the structure of the trees produced by a FormulaFactory
+ * MUST be treated as immutable. Any process that wishes to alter a tree must
+ * make a copy of the tree before doing so. The only permitted mutation of a
+ * shared tree is the caching of resolved bindings (and other derived values)
+ * on its nodes while the tree is processed. These caches do not change the
+ * result of processing the tree, and are safe to write from multiple threads
+ * (see SimpleNode).
+ *
+ * A FormulaFactory is thread-safe. Once the cache reaches its capacity, the
+ * least recently added expressions are evicted (in approximately the order in
+ * which they were added). Expressions that fail to parse are not cached.
+ *
+ * The FormulaFactory tracks the number of cache hits, misses and evictions in
+ * order to allow the effectiveness of the cache to be assessed.
+ *
+ * A FormulaFactory may optionally share subtrees between different
+ * expressions. If subtree sharing is enabled, each newly parsed tree is
+ * interned, so that a subtree (such as floor(LVL/2)) that is structurally
+ * identical to a subtree of a previously parsed expression is represented by
+ * the node from the previous expression. Numeric literals are compared by
+ * their decoded value, so the text of a numeric literal may be replaced by the
+ * text of an equivalent literal (e.g. 1.00 may be reconstructed as 1.0).
+ * A shared subtree is evicted with the last expression in the cache that uses
+ * it, so subtree sharing does not hold nodes beyond the capacity of the cache.
+ * (A tree that has been evicted remains valid for any ComplexNEPFormula using
+ * it, but is not shared with expressions parsed later.) The FormulaFactory
+ * tracks the number of nodes that were shared in order to allow the
+ * effectiveness of sharing to be assessed.
+ */
+public class FormulaFactory
+{
+
+	/**
+	 * The default maximum number of expressions held in the cache of a
+	 * FormulaFactory.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The maximum number of expressions held in the cache.
+	 */
+	private final int capacity;
+
+	/**
+	 * The cache of root nodes, keyed by the expression which was parsed to
+	 * produce the root node.
+	 */
+	private final ConcurrentMap<String, SimpleNode> cache =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * The expressions in the cache, in the order they were added to the cache.
+	 * Used to identify the expressions to be evicted.
+	 */
+	private final Queue<String> additionOrder =
+			new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The number of requests that were satisfied by the cache.
+	 */
+	private final AtomicLong hitCount = new AtomicLong();
+
+	/**
+	 * The number of requests that required an expression to be parsed.
+	 */
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * The number of expressions that have been evicted from the cache.
+	 */
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * The NodeInterner used to share subtrees between expressions. null if
+	 * subtree sharing is not enabled.
+	 */
+	private final NodeInterner interner;
+
+	/**
+	 * Constructs a new FormulaFactory with a cache of the default capacity.
+	 */
+	public FormulaFactory()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a new FormulaFactory with a cache of the given capacity.
+	 *
+	 * @param capacity
+	 *            The maximum number of expressions to be held in the cache of
+	 *            the FormulaFactory
+	 * @throws IllegalArgumentException
+	 *             if the given capacity is less than one
+	 */
+	public FormulaFactory(int capacity)
+	{
+		this(capacity, false);
+	}
+
+	/**
+	 * Constructs a new FormulaFactory with a cache of the given capacity, and
+	 * which shares identical subtrees between expressions if requested.
+	 *
+	 * @param capacity
+	 *            The maximum number of expressions to be held in the cache of
+	 *            the FormulaFactory
+	 * @param shareSubtrees
+	 *            true if structurally identical subtrees should be shared
+	 *            between expressions; false otherwise
+	 * @throws IllegalArgumentException
+	 *             if the given capacity is less than one
+	 */
+	public FormulaFactory(int capacity, boolean shareSubtrees)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException(
+				"FormulaFactory capacity must be positive, was: " + capacity);
+		}
+		this.capacity = capacity;
+		interner = shareSubtrees ? new NodeInterner() : null;
+	}
+
+	/**
+	 * Returns a ComplexNEPFormula for the given expression. If the expression
+	 * has previously been parsed (and has not been evicted from the cache),
+	 * the returned ComplexNEPFormula will share the tree produced by that
+	 * previous parse.
+	 *
+	 * @param <T>
+	 *            The Format (Class) of object returned by the ComplexNEPFormula
+	 * @param expression
+	 *            The String representation of the formula
+	 * @return A ComplexNEPFormula for the given expression
+	 * @throws IllegalArgumentException
+	 *             if the given String is null or does not represent a
+	 *             well-structured Formula
+	 */
+	public <T> ComplexNEPFormula<T> getFormula(String expression)
+	{
+		return new ComplexNEPFormula<>(getRoot(expression));
+	}
+
+	/**
+	 * Returns the root node of the tree for the given expression. If the
+	 * expression has previously been parsed (and has not been evicted from the
+	 * cache), the root node produced by that previous parse is returned.
+	 *
+	 * The returned tree is shared and MUST NOT be modified (other than the
+	 * caches held by its nodes, see SimpleNode).
+	 *
+	 * @param expression
+	 *            The String representation of the formula
+	 * @return The root node of the tree for the given expression
+	 * @throws IllegalArgumentException
+	 *             if the given String is null or does not represent a
+	 *             well-structured Formula
+	 */
+	public SimpleNode getRoot(String expression)
+	{
+		if (expression == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot make formula from null String");
+		}
+		SimpleNode root = cache.get(expression);
+		if (root != null)
+		{
+			hitCount.incrementAndGet();
+			return root;
+		}
+		missCount.incrementAndGet();
+		root = parse(expression);
+		if (interner != null)
+		{
+			root = interner.intern(root);
+		}
+		SimpleNode existing = cache.putIfAbsent(expression, root);
+		if (existing != null)
+		{
+			//Another thread parsed the same expression first; share its tree
+			release(root);
+			return existing;
+		}
+		additionOrder.add(expression);
+		evict();
+		return root;
+	}
+
+	/**
+	 * Parses the given expression into a new tree. This uses
+	 * CharSequenceParser (which produces the same tree as FormulaParser) to
+	 * avoid the overhead of FormulaParser when many formulas are parsed.
+	 */
+	private SimpleNode parse(String expression)
+	{
+		try
+		{
+			return new CharSequenceParser().parse(expression);
+		}
+		catch (ParseException e)
+		{
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Removes the oldest expressions from the cache until the cache is within
+	 * capacity.
+	 */
+	private void evict()
+	{
+		while (cache.size() > capacity)
+		{
+			String oldest = additionOrder.poll();
+			if (oldest == null)
+			{
+				return;
+			}
+			SimpleNode evicted = cache.remove(oldest);
+			if (evicted != null)
+			{
+				evictionCount.incrementAndGet();
+				release(evicted);
+			}
+		}
+	}
+
+	/**
+	 * Releases the shared subtrees of the given tree, which is no longer held
+	 * in the cache.
+	 */
+	private void release(SimpleNode root)
+	{
+		if (interner != null)
+		{
+			interner.release(root);
+		}
+	}
+
+	/**
+	 * Returns the number of requests to this FormulaFactory that were
+	 * satisfied by a previously parsed tree.
+	 *
+	 * @return The number of cache hits
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of requests to this FormulaFactory that required the
+	 * expression to be parsed.
+	 *
+	 * @return The number of cache misses
+	 */
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the number of expressions that have been evicted from the cache
+	 * of this FormulaFactory because the cache was at capacity.
+	 *
+	 * @return The number of cache evictions
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	/**
+	 * Returns true if this FormulaFactory shares structurally identical
+	 * subtrees between expressions.
+	 *
+	 * @return true if this FormulaFactory shares subtrees; false otherwise
+	 */
+	public boolean isSharingSubtrees()
+	{
+		return interner != null;
+	}
+
+	/**
+	 * Returns the number of parsed nodes that were replaced by a structurally
+	 * identical node from a previously parsed expression. Always zero if this
+	 * FormulaFactory does not share subtrees.
+	 *
+	 * @return The number of parsed nodes that were replaced by a shared node
+	 */
+	public long getSharedNodeCount()
+	{
+		return (interner == null) ? 0 : interner.getSharedCount();
+	}
+
+	/**
+	 * Returns the number of nodes that have been parsed (and checked for
+	 * sharing) by this FormulaFactory. Always zero if this FormulaFactory does
+	 * not share subtrees.
+	 *
+	 * @return The number of nodes that have been checked for sharing
+	 */
+	public long getInternedNodeCount()
+	{
+		return (interner == null) ? 0 : interner.getInternCount();
+	}
+
+	/**
+	 * Returns the number of distinct nodes currently available for sharing
+	 * in this FormulaFactory. Always zero if this FormulaFactory does not
+	 * share subtrees.
+	 *
+	 * @return The number of distinct nodes currently available for sharing
+	 */
+	public int getDistinctNodeCount()
+	{
+		return (interner == null) ? 0 : interner.size();
+	}
+
+	/**
+	 * Returns the number of expressions currently held in the cache of this
+	 * FormulaFactory.
+	 *
+	 * @return The number of expressions currently held in the cache
+	 */
+	public int size()
+	{
+		return cache.size();
+	}
+
+	/**
+	 * Returns the maximum number of expressions held in the cache of this
+	 * FormulaFactory.
+	 *
+	 * @return The maximum number of expressions held in the cache
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Removes all expressions (and any shared subtrees) from the cache of this
+	 * FormulaFactory. The statistics of the FormulaFactory are not reset.
+	 */
+	public void clear()
+	{
+		cache.clear();
+		additionOrder.clear();
+		if (interner != null)
+		{
+			interner.clear();
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.base.EvaluationMonitor;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.ScopeInstance;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.formula.visitor.ConstantFoldingVisitor;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+import pcgen.base.formula.visitor.FunctionExpansionVisitor;
+import pcgen.base.formula.visitor.SimplifyingVisitor;
+import pcgen.base.formula.visitor.StaticVisitor;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A FormulaOptimizer produces optimized versions of ComplexNEPFormula objects
+ * for a specific FormulaManager.
+ * 
+ * If the entire formula is static (see StaticVisitor), the formula is
+ * evaluated once and a ConstantNEPFormula is produced. Otherwise, the static
+ * portions of the formula are replaced with their values (see
+ * ConstantFoldingVisitor), so that they are not calculated each time the
+ * formula is resolved, and the formula is then simplified (see
+ * SimplifyingVisitor) to an OptimizedNEPFormula.
+ * 
+ * Optimization is optional: The optimized formula produces the same results as
+ * the ComplexNEPFormula from which it was produced, and the optimized formula
+ * has the same String representation as the original formula. The exception
+ * is if the FormulaOptimizer was constructed to allow inexact simplification,
+ * in which case results may differ in corner cases (see SimplifyingVisitor).
+ * 
+ * A FormulaOptimizer may optionally expand calls to a GenericFunction in
+ * place (see FunctionExpansionVisitor) before the formula is folded and
+ * simplified. Expansion does not alter the result of a formula, but is
+ * limited by a maximum number of nodes for each expanded call, as a
+ * GenericFunction used many times in a formula can produce a large tree.
+ */
+public class FormulaOptimizer
+{
+
+	/**
+	 * The FormulaManager for which formulas are optimized.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The StaticVisitor used to determine if a formula is static.
+	 */
+	private final StaticVisitor staticVisitor;
+
+	/**
+	 * Indicates whether simplifications that do not always produce exactly the
+	 * same result as the original formula are allowed.
+	 */
+	private final boolean allowInexact;
+
+	/**
+	 * The maximum number of nodes in the tree produced by expanding a call to
+	 * a GenericFunction; zero if calls are not expanded.
+	 */
+	private final int expansionLimit;
+
+	/**
+	 * Constructs a new FormulaOptimizer which will optimize formulas for the
+	 * given FormulaManager. Only simplifications that produce exactly the same
+	 * result as the original formula will be performed.
+	 * 
+	 * @param fm
+	 *            The FormulaManager for which formulas will be optimized
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public FormulaOptimizer(FormulaManager fm)
+	{
+		this(fm, false);
+	}
+
+	/**
+	 * Constructs a new FormulaOptimizer which will optimize formulas for the
+	 * given FormulaManager.
+	 * 
+	 * @param fm
+	 *            The FormulaManager for which formulas will be optimized
+	 * @param allowInexact
+	 *            true if simplifications that do not always produce exactly
+	 *            the same result as the original formula are allowed; false
+	 *            otherwise
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public FormulaOptimizer(FormulaManager fm, boolean allowInexact)
+	{
+		this(fm, allowInexact, 0);
+	}
+
+	/**
+	 * Constructs a new FormulaOptimizer which will optimize formulas for the
+	 * given FormulaManager, expanding calls to a GenericFunction if the given
+	 * expansion limit is positive.
+	 * 
+	 * @param fm
+	 *            The FormulaManager for which formulas will be optimized
+	 * @param allowInexact
+	 *            true if simplifications that do not always produce exactly
+	 *            the same result as the original formula are allowed; false
+	 *            otherwise
+	 * @param expansionLimit
+	 *            The maximum number of nodes in the tree produced by expanding
+	 *            a call to a GenericFunction; zero if calls to a
+	 *            GenericFunction should not be expanded
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null or the given expansion
+	 *             limit is negative
+	 */
+	public FormulaOptimizer(FormulaManager fm, boolean allowInexact,
+		int expansionLimit)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		this.fm = fm;
+		if (expansionLimit < 0)
+		{
+			throw new IllegalArgumentException(
+				"Expansion limit cannot be negative, was: " + expansionLimit);
+		}
+		this.allowInexact = allowInexact;
+		this.expansionLimit = expansionLimit;
+		staticVisitor = new StaticVisitor(fm.getLibrary());
+	}
+
+	/**
+	 * Optimizes the given ComplexNEPFormula. The ComplexNEPFormula must be
+	 * valid for the LegalScope of the given ScopeInstance and the given
+	 * FormatManager.
+	 * 
+	 * Static portions of the formula are evaluated in the given ScopeInstance.
+	 * 
+	 * @param <T>
+	 *            The Format (Class) of object returned by the formula
+	 * @param formula
+	 *            The ComplexNEPFormula to be optimized
+	 * @param scopeInst
+	 *            The ScopeInstance in which the formula is to be validated and
+	 *            static portions of the formula are to be evaluated
+	 * @param formatManager
+	 *            The FormatManager indicating the format of the result of the
+	 *            formula
+	 * @return An optimized NEPFormula for the given ComplexNEPFormula (which
+	 *         will be the given ComplexNEPFormula if no optimization was
+	 *         possible)
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null or if the ComplexNEPFormula is not
+	 *             valid
+	 */
+	public <T> NEPFormula<T> optimize(ComplexNEPFormula<T> formula,
+		ScopeInstance scopeInst, FormatManager<T> formatManager)
+	{
+		if (formula == null)
+		{
+			throw new IllegalArgumentException("Cannot optimize null formula");
+		}
+		if (scopeInst == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot optimize formula with null ScopeInstance");
+		}
+		FormulaSemantics semantics =
+				formula.isValid(fm, scopeInst.getLegalScope(), formatManager);
+		if (!semantics.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid())
+		{
+			throw new IllegalArgumentException("Cannot optimize invalid formula "
+				+ formula + ": "
+				+ semantics.getInfo(FormulaSemanticsUtilities.SEM_REPORT)
+					.getReport());
+		}
+		EvaluationMonitor monitor =
+				EvaluationMonitor.start(fm, scopeInst, formula);
+		try
+		{
+			return optimizeValid(formula, scopeInst);
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+	}
+
+	/**
+	 * Returns an optimized NEPFormula for the given (valid) ComplexNEPFormula.
+	 * 
+	 * The evaluation of the static portions of the formula is charged to a
+	 * single EvaluationMonitor, so the optimization of a formula is bounded by
+	 * the EvaluationBudget of the FormulaManager. A portion of the formula
+	 * which cannot be evaluated within the EvaluationBudget is not optimized.
+	 */
+	private <T> NEPFormula<T> optimizeValid(ComplexNEPFormula<T> formula,
+		ScopeInstance scopeInst)
+	{
+		SimpleNode root = formula.getRoot();
+		if (((Boolean) staticVisitor.visit(root, null)).booleanValue())
+		{
+			try
+			{
+				@SuppressWarnings("unchecked")
+				T value = (T) new EvaluateVisitor(fm, scopeInst).visit(root, null);
+				return new ConstantNEPFormula<>(formula, fm, value);
+			}
+			catch (RuntimeException e)
+			{
+				//Leave it to fail at resolution (and not cache the failure)
+				return formula;
+			}
+		}
+		SimpleNode expanded = root;
+		if (expansionLimit > 0)
+		{
+			expanded =
+					new FunctionExpansionVisitor(fm.getLibrary(), expansionLimit)
+						.expand(root);
+		}
+		SimpleNode folded =
+				new ConstantFoldingVisitor(fm, scopeInst).fold(expanded);
+		SimpleNode simplified =
+				new SimplifyingVisitor(fm, scopeInst, allowInexact)
+					.simplify(folded);
+		if (simplified == root)
+		{
+			return formula;
+		}
+		return new OptimizedNEPFormula<>(formula, fm, simplified);
+	}
+}
@@ -30,9 +30,22 @@ import pcgen.base.formula.operator.bool.BooleanAnd;
 import pcgen.base.formula.operator.bool.BooleanEquals;
 import pcgen.base.formula.operator.bool.BooleanNotEqual;
 import pcgen.base.formula.operator.bool.BooleanOr;
+import pcgen.base.formula.operator.fixed.FixedPointAdd;
+import pcgen.base.formula.operator.fixed.FixedPointDivide;
+import pcgen.base.formula.operator.fixed.FixedPointEquals;
+import pcgen.base.formula.operator.fixed.FixedPointExponent;
+import pcgen.base.formula.operator.fixed.FixedPointGreaterThan;
+import pcgen.base.formula.operator.fixed.FixedPointGreaterThanOrEqualTo;
+import pcgen.base.formula.operator.fixed.FixedPointLessThan;
+import pcgen.base.formula.operator.fixed.FixedPointLessThanOrEqualTo;
+import pcgen.base.formula.operator.fixed.FixedPointMultiply;
+import pcgen.base.formula.operator.fixed.FixedPointNotEqual;
+import pcgen.base.formula.operator.fixed.FixedPointRemainder;
+import pcgen.base.formula.operator.fixed.FixedPointSubtract;
 import pcgen.base.formula.operator.number.NumberAdd;
 import pcgen.base.formula.operator.number.NumberDivide;
 import pcgen.base.formula.operator.number.NumberEquals;
+import pcgen.base.formula.operator.number.NumberExponent;
 import pcgen.base.formula.operator.number.NumberGreaterThan;
 import pcgen.base.formula.operator.number.NumberGreaterThanOrEqualTo;
 import pcgen.base.formula.operator.number.NumberLessThan;
@@ -90,6 +103,7 @@ public final class FormulaUtilities
 		opLib.addAction(new NumberAdd());
 		opLib.addAction(new NumberDivide());
 		opLib.addAction(new NumberEquals());
+		opLib.addAction(new NumberExponent());
 		opLib.addAction(new NumberGreaterThan());
 		opLib.addAction(new NumberGreaterThanOrEqualTo());
 		opLib.addAction(new NumberLessThan());
@@ -100,4 +114,34 @@ public final class FormulaUtilities
 		opLib.addAction(new NumberSubtract());
 	}
 
+	/**
+	 * Load the FixedPoint operators, followed by the "built-in" operators, into
+	 * the given OperatorLibrary. This is required for a FormulaManager with the
+	 * FIXED_POINT NumericMode.
+	 * 
+	 * The FixedPoint operators are loaded first, so that an operation on a
+	 * FixedPoint value is performed by the FixedPoint operators (and returns a
+	 * FixedPoint), rather than by the operators for any Number.
+	 * 
+	 * @param opLib
+	 *            The OperatorLibrary to which the FixedPoint and built in
+	 *            operators should be added.
+	 */
+	public static void loadFixedPointOperators(OperatorLibrary opLib)
+	{
+		opLib.addAction(new FixedPointAdd());
+		opLib.addAction(new FixedPointDivide());
+		opLib.addAction(new FixedPointEquals());
+		opLib.addAction(new FixedPointExponent());
+		opLib.addAction(new FixedPointGreaterThan());
+		opLib.addAction(new FixedPointGreaterThanOrEqualTo());
+		opLib.addAction(new FixedPointLessThan());
+		opLib.addAction(new FixedPointLessThanOrEqualTo());
+		opLib.addAction(new FixedPointMultiply());
+		opLib.addAction(new FixedPointNotEqual());
+		opLib.addAction(new FixedPointRemainder());
+		opLib.addAction(new FixedPointSubtract());
+		loadBuiltInOperators(opLib);
+	}
+
 }
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.NodeUtilities;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.parse.SimpleNode;
+
+/**
+ * A NodeInterner ensures that structurally identical subtrees are represented
+ * by a single (shared) node.
+ * 
+ * Two subtrees are structurally identical if the nodes are of the same type
+ * with the same Operator and the same literal, and their children are
+ * structurally identical. Numeric literals are compared by their decoded value
+ * (so 1.0 and 1.00 are identical, but 1 and 1.0 are not, as one is an Integer
+ * and the other is a Double). Since only one node is retained for identical
+ * numeric literals, the original text of a numeric literal in a formula may be
+ * replaced with an equivalent text (the first one that was interned).
+ * 
+ * Interning is bottom-up: The children of a node are interned first, so
+ * identical children are always the same object, and comparing the children
+ * of two nodes only requires an identity comparison.
+ * 
+ * The parent of a shared node is the parent of the node when it was first
+ * interned. The parent of a shared node is therefore not meaningful and must
+ * not be used. Interned trees MUST NOT be modified.
+ * 
+ * The NodeInterner counts the references to each canonical node (one for each
+ * time the node appears in a tree returned by intern). When a tree is no
+ * longer needed, it should be released, and canonical nodes that are no
+ * longer referenced by any tree are removed. This ensures the NodeInterner
+ * holds only the nodes of the trees that are in use. A released tree remains
+ * valid, but its nodes are no longer shared with trees interned later.
+ * 
+ * A NodeInterner is thread-safe.
+ */
+final class NodeInterner
+{
+
+	/**
+	 * The canonical nodes, keyed by their structure.
+	 */
+	private final ConcurrentMap<NodeKey, Canonical> nodes =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * The number of nodes that have been interned.
+	 */
+	private final AtomicLong internCount = new AtomicLong();
+
+	/**
+	 * The number of nodes that were replaced by an existing canonical node.
+	 */
+	private final AtomicLong sharedCount = new AtomicLong();
+
+	/**
+	 * Interns the tree with the given root, returning the canonical root. The
+	 * given tree is not modified, but nodes of the given tree may become
+	 * canonical nodes (and thus shared).
+	 * 
+	 * The returned tree holds a reference to each of its canonical nodes, and
+	 * should be released (see release(SimpleNode)) when it is no longer
+	 * needed.
+	 * 
+	 * @param root
+	 *            The root of the tree to be interned
+	 * @return The canonical node for the given root
+	 */
+	SimpleNode intern(SimpleNode root)
+	{
+		int childCount = root.jjtGetNumChildren();
+		Node[] children = new Node[childCount];
+		for (int i = 0; i < childCount; i++)
+		{
+			children[i] = intern((SimpleNode) root.jjtGetChild(i));
+		}
+		SimpleNode candidate = NodeUtilities.replaceChildren(root, children);
+		internCount.incrementAndGet();
+		NodeKey key = new NodeKey(candidate, children);
+		while (true)
+		{
+			Canonical existing = nodes.get(key);
+			if (existing == null)
+			{
+				existing = nodes.putIfAbsent(key, new Canonical(candidate));
+				if (existing == null)
+				{
+					return candidate;
+				}
+			}
+			if (existing.acquire())
+			{
+				sharedCount.incrementAndGet();
+				return existing.node;
+			}
+			//Released by another thread, so it can no longer be shared
+			nodes.remove(key, existing);
+		}
+	}
+
+	/**
+	 * Releases the tree with the given root, which must have been returned by
+	 * intern(SimpleNode). The reference held by the tree to each of its
+	 * canonical nodes is removed, and canonical nodes that are no longer
+	 * referenced are removed from this NodeInterner.
+	 * 
+	 * @param root
+	 *            The root of the tree to be released
+	 */
+	void release(SimpleNode root)
+	{
+		int childCount = root.jjtGetNumChildren();
+		Node[] children = new Node[childCount];
+		for (int i = 0; i < childCount; i++)
+		{
+			SimpleNode child = (SimpleNode) root.jjtGetChild(i);
+			release(child);
+			children[i] = child;
+		}
+		NodeKey key = new NodeKey(root, children);
+		Canonical canonical = nodes.get(key);
+		//May be absent if this NodeInterner was cleared
+		if ((canonical != null) && (canonical.node == root)
+			&& canonical.release())
+		{
+			nodes.remove(key, canonical);
+		}
+	}
+
+	/**
+	 * Returns the number of nodes that have been interned.
+	 * 
+	 * @return The number of nodes that have been interned
+	 */
+	long getInternCount()
+	{
+		return internCount.get();
+	}
+
+	/**
+	 * Returns the number of interned nodes that were replaced by an existing
+	 * (shared) node.
+	 * 
+	 * @return The number of interned nodes that were replaced by a shared node
+	 */
+	long getSharedCount()
+	{
+		return sharedCount.get();
+	}
+
+	/**
+	 * Returns the number of distinct nodes held by this NodeInterner.
+	 * 
+	 * @return The number of distinct nodes held by this NodeInterner
+	 */
+	int size()
+	{
+		return nodes.size();
+	}
+
+	/**
+	 * Removes all nodes from this NodeInterner. The statistics are not reset.
+	 */
+	void clear()
+	{
+		nodes.clear();
+	}
+
+	/**
+	 * A Canonical is a canonical node and the number of references to it from
+	 * the trees returned by intern(SimpleNode).
+	 */
+	private static final class Canonical
+	{
+
+		/**
+		 * The canonical node.
+		 */
+		private final SimpleNode node;
+
+		/**
+		 * The number of references to the canonical node. Once this reaches
+		 * zero, the canonical node can no longer be acquired.
+		 */
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		private Canonical(SimpleNode node)
+		{
+			this.node = node;
+		}
+
+		/**
+		 * Adds a reference to the canonical node, unless it has already been
+		 * released by every tree that referred to it.
+		 * 
+		 * @return true if a reference was added; false if the canonical node
+		 *         is no longer referenced
+		 */
+		private boolean acquire()
+		{
+			while (true)
+			{
+				int count = references.get();
+				if (count == 0)
+				{
+					return false;
+				}
+				if (references.compareAndSet(count, count + 1))
+				{
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Removes a reference to the canonical node.
+		 * 
+		 * @return true if the canonical node is no longer referenced
+		 */
+		private boolean release()
+		{
+			return references.decrementAndGet() == 0;
+		}
+	}
+
+	/**
+	 * A NodeKey identifies the structure of a node whose children have already
+	 * been interned.
+	 */
+	private static final class NodeKey
+	{
+
+		/** The ID (type) of the node, see FormulaParserTreeConstants. */
+		private final int id;
+
+		/** The Operator of the node, or null if it has no Operator. */
+		private final Operator operator;
+
+		/** The decoded value (if any) or text of the node, or null. */
+		private final Object literal;
+
+		/** The (already interned) children of the node. */
+		private final Node[] children;
+
+		/** The hash code of this NodeKey, calculated once. */
+		private final int hash;
+
+		private NodeKey(SimpleNode node, Node[] children)
+		{
+			id = node.getId();
+			operator = node.getOperator();
+			//Numbers are normalized to their decoded value
+			Object value = node.getValue();
+			literal = (value == null) ? node.getText() : value;
+			this.children = children;
+			int h = id * 31 + ((operator == null) ? 0 : operator.ordinal() + 1);
+			h = h * 31 + ((literal == null) ? 0 : literal.hashCode());
+			for (Node child : children)
+			{
+				h = h * 31 + System.identityHashCode(child);
+			}
+			hash = h;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof NodeKey))
+			{
+				return false;
+			}
+			NodeKey other = (NodeKey) o;
+			if ((hash != other.hash) || (id != other.id)
+				|| (operator != other.operator)
+				|| (children.length != other.children.length))
+			{
+				return false;
+			}
+			if ((literal == null) ? (other.literal != null) : !literal
+				.equals(other.literal))
+			{
+				return false;
+			}
+			for (int i = 0; i < children.length; i++)
+			{
+				if (children[i] != other.children[i])
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.compile.CompiledTreeCache;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.util.FormatManager;
+
+/**
+ * An OptimizedNEPFormula is a ComplexNEPFormula for which the tree has been
+ * optimized (see FormulaOptimizer) for a specific FormulaManager.
+ * 
+ * When resolved in a ScopeInformation whose base FormulaManager (see
+ * ScopeInformation.getBaseFormulaManager()) is the FormulaManager for which
+ * the OptimizedNEPFormula was produced, the optimized tree is evaluated. When
+ * resolved in any other ScopeInformation, the OptimizedNEPFormula falls back on
+ * the original ComplexNEPFormula.
+ * 
+ * The optimized tree is only used for resolution. Validation, dependencies and
+ * the String representation are all taken from the original ComplexNEPFormula
+ * (the dependencies of the original formula are a superset of the
+ * dependencies of the optimized tree).
+ * 
+ * @param <T>
+ *            The Format (Class) of object returned by this OptimizedNEPFormula
+ */
+public class OptimizedNEPFormula<T> implements NEPFormula<T>
+{
+
+	/**
+	 * The ComplexNEPFormula from which this OptimizedNEPFormula was produced.
+	 */
+	private final ComplexNEPFormula<T> formula;
+
+	/**
+	 * The FormulaManager for which this OptimizedNEPFormula was produced.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The root of the optimized tree.
+	 */
+	private final SimpleNode root;
+
+	/**
+	 * The CompiledTreeCache holding the compiled form of the optimized tree,
+	 * used if the FormulaManager uses EvaluationMode.COMPILED.
+	 */
+	private final CompiledTreeCache compiledTree;
+
+	/**
+	 * Constructs a new OptimizedNEPFormula.
+	 * 
+	 * @param formula
+	 *            The ComplexNEPFormula from which this OptimizedNEPFormula was
+	 *            produced
+	 * @param fm
+	 *            The FormulaManager for which this OptimizedNEPFormula was
+	 *            produced
+	 * @param root
+	 *            The root of the optimized tree
+	 */
+	OptimizedNEPFormula(ComplexNEPFormula<T> formula, FormulaManager fm,
+		SimpleNode root)
+	{
+		this.formula = formula;
+		this.fm = fm;
+		this.root = root;
+		compiledTree = new CompiledTreeCache(root);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T resolve(ScopeInformation scopeInfo)
+	{
+		if (scopeInfo == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula with null ScopeInformation");
+		}
+		if (scopeInfo.getBaseFormulaManager() != fm)
+		{
+			return formula.resolve(scopeInfo);
+		}
+		@SuppressWarnings("unchecked")
+		T result = (T) scopeInfo.evaluateTree(compiledTree);
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void getDependencies(ScopeInformation scopeInfo,
+		DependencyManager depManager)
+	{
+		formula.getDependencies(scopeInfo, depManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FormulaSemantics isValid(FormulaManager formulaManager,
+		LegalScope legalScope, FormatManager<T> formatManager)
+	{
+		return formula.isValid(formulaManager, legalScope, formatManager);
+	}
+
+	/**
+	 * Returns the root node of the optimized tree. The tree MUST NOT be
+	 * modified.
+	 * 
+	 * @return The root node of the optimized tree
+	 */
+	SimpleNode getRoot()
+	{
+		return root;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString()
+	{
+		return formula.toString();
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.EvaluationMonitor;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.vm.FormulaProgram;
+import pcgen.base.util.FormatManager;
+
+/**
+ * A ProgramNEPFormula is a ComplexNEPFormula that has been lowered (see
+ * FormulaCompiler) into a FormulaProgram for a specific FormulaManager.
+ * 
+ * When resolved in a ScopeInformation whose base FormulaManager (see
+ * ScopeInformation.getBaseFormulaManager()) is the FormulaManager for which
+ * the ProgramNEPFormula was lowered, the FormulaProgram is executed. When
+ * resolved in any other ScopeInformation, the ProgramNEPFormula falls back on
+ * the original ComplexNEPFormula. In either case the result is the same.
+ * 
+ * @param <T>
+ *            The Format (Class) of object returned by this ProgramNEPFormula
+ */
+public class ProgramNEPFormula<T> implements NEPFormula<T>
+{
+
+	/**
+	 * The ComplexNEPFormula from which this ProgramNEPFormula was lowered.
+	 */
+	private final ComplexNEPFormula<T> formula;
+
+	/**
+	 * The FormulaManager for which this ProgramNEPFormula was lowered.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The FormulaProgram lowered from the ComplexNEPFormula.
+	 */
+	private final FormulaProgram program;
+
+	/**
+	 * Constructs a new ProgramNEPFormula.
+	 * 
+	 * @param formula
+	 *            The ComplexNEPFormula from which this ProgramNEPFormula was
+	 *            lowered
+	 * @param fm
+	 *            The FormulaManager for which this ProgramNEPFormula was
+	 *            lowered
+	 * @param program
+	 *            The FormulaProgram lowered from the ComplexNEPFormula
+	 */
+	ProgramNEPFormula(ComplexNEPFormula<T> formula, FormulaManager fm,
+		FormulaProgram program)
+	{
+		this.formula = formula;
+		this.fm = fm;
+		this.program = program;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T resolve(ScopeInformation scopeInfo)
+	{
+		if (scopeInfo == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula with null ScopeInformation");
+		}
+		if (scopeInfo.getBaseFormulaManager() != fm)
+		{
+			return formula.resolve(scopeInfo);
+		}
+		EvaluationMonitor monitor =
+				EvaluationMonitor.start(fm, scopeInfo.getScope(), this);
+		try
+		{
+			@SuppressWarnings("unchecked")
+			T result = (T) program.execute(scopeInfo.getEvaluateVisitor());
+			return result;
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+	}
+
+	/**
+	 * Resolves this ProgramNEPFormula in the context of the given
+	 * ScopeInformation, placing the result into the given NumericResult. The
+	 * result is the same as the result of resolve(ScopeInformation), but a
+	 * Number-typed formula may be resolved without creating an Integer or
+	 * Double object (the caller can box the result only when it needs an
+	 * Object, e.g. to place the result into a VariableStore).
+	 * 
+	 * @param scopeInfo
+	 *            The ScopeInformation providing the context in which the
+	 *            ProgramNEPFormula is to be resolved
+	 * @param result
+	 *            The NumericResult into which the result is placed
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public void resolve(ScopeInformation scopeInfo, NumericResult result)
+	{
+		if (scopeInfo == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula with null ScopeInformation");
+		}
+		if (result == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot resolve formula into null NumericResult");
+		}
+		if (scopeInfo.getBaseFormulaManager() != fm)
+		{
+			result.set(formula.resolve(scopeInfo));
+			return;
+		}
+		EvaluationMonitor monitor =
+				EvaluationMonitor.start(fm, scopeInfo.getScope(), this);
+		try
+		{
+			program.execute(scopeInfo.getEvaluateVisitor(), result);
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+	}
+
+	/**
+	 * Returns the FormulaProgram executed by this ProgramNEPFormula.
+	 * 
+	 * @return The FormulaProgram executed by this ProgramNEPFormula
+	 */
+	public FormulaProgram getProgram()
+	{
+		return program;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void getDependencies(ScopeInformation scopeInfo,
+		DependencyManager depManager)
+	{
+		formula.getDependencies(scopeInfo, depManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FormulaSemantics isValid(FormulaManager formulaManager,
+		LegalScope legalScope, FormatManager<T> formatManager)
+	{
+		return formula.isValid(formulaManager, legalScope, formatManager);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString()
+	{
+		return formula.toString();
+	}
+}
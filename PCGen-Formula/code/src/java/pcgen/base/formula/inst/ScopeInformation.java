@@ -18,8 +18,15 @@
 package pcgen.base.formula.inst;
 
 import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.EvaluationMode;
+import pcgen.base.formula.base.EvaluationMonitor;
 import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FunctionLibrary;
 import pcgen.base.formula.base.ScopeInstance;
+import pcgen.base.formula.compile.CompileVisitor;
+import pcgen.base.formula.compile.CompiledNode;
+import pcgen.base.formula.compile.CompiledTreeCache;
+import pcgen.base.formula.library.InputValueLibrary;
 import pcgen.base.formula.parse.SimpleNode;
 import pcgen.base.formula.visitor.DependencyVisitor;
 import pcgen.base.formula.visitor.EvaluateVisitor;
@@ -37,6 +44,29 @@ import pcgen.base.formula.visitor.StaticVisitor;
  * instantiated but then effectively cached as long as that ScopeInformation is
  * reused - especially valuable for things like the global context which in the
  * future we can create once for the PC and never have to recreate...).
+ * 
+ * If the FormulaManager uses EvaluationMode.COMPILED, the compiled form of a
+ * parsed tree is taken from the CompiledTreeCache of the formula being
+ * evaluated (see evaluateTree), so each formula is compiled once rather than
+ * once for each ScopeInformation.
+ * 
+ * If the FormulaManager has a limited EvaluationBudget, each evaluation (see
+ * evaluate) is monitored, and fails with an EvaluationBudgetExceededException
+ * if it exceeds the EvaluationBudget.
+ * 
+ * A ScopeInformation also provides (see getInputInformation) a child
+ * ScopeInformation in which the value() function returns an input value, such
+ * as the previous value of a variable being processed by a Solver. The child
+ * ScopeInformation (and its cached visitors) is reused for each input value.
+ * 
+ * A ScopeInformation is thread-safe: The visitors it caches hold no state
+ * specific to a single evaluation, so a visitor that is lazily instantiated
+ * more than once (by threads racing to instantiate it) is harmless. The input
+ * value used by value() is held separately for each thread, so formulas with
+ * different input values can be resolved concurrently (see resolveWithInput).
+ * Formulas may therefore be resolved through a ScopeInformation from many
+ * threads at once, as long as the libraries of the FormulaManager are not
+ * modified while doing so.
  */
 public class ScopeInformation
 {
@@ -46,19 +76,25 @@ public class ScopeInformation
 	 * indicate whether a parsed tree has a static value or depends on the wider
 	 * context (e.g. a variable is not static). Lazily Instantiated.
 	 */
-	private StaticVisitor staticVisitor;
+	private volatile StaticVisitor staticVisitor;
 
 	/**
 	 * The EvaluateVisitor for this ScopeInformation. Calculates the result of a
 	 * parsed tree. Lazily Instantiated.
 	 */
-	private EvaluateVisitor evaluateVisitor;
+	private volatile EvaluateVisitor evaluateVisitor;
 
 	/**
 	 * The DependencyVisitor for this ScopeInformation. Captures the
 	 * dependencies for a parsed tree. Lazily Instantiated.
 	 */
-	private DependencyVisitor variableVisitor;
+	private volatile DependencyVisitor variableVisitor;
+
+	/**
+	 * The child ScopeInformation (and its InputValueLibrary) used to process
+	 * formulas with an input value. Lazily Instantiated.
+	 */
+	private volatile InputContext inputContext;
 
 	/**
 	 * The FormulaManager for this ScopeInformation, which stores things like
@@ -66,6 +102,13 @@ public class ScopeInformation
 	 */
 	private final FormulaManager fm;
 
+	/**
+	 * The FormulaManager which resolves every Function (other than value())
+	 * in the same way as the FormulaManager for this ScopeInformation. See
+	 * getBaseFormulaManager().
+	 */
+	private final FormulaManager baseManager;
+
 	/**
 	 * The Scope in which the formula resides.
 	 */
@@ -83,6 +126,16 @@ public class ScopeInformation
 	 *             if any parameter is null
 	 */
 	public ScopeInformation(FormulaManager fm, ScopeInstance scopeInst)
+	{
+		this(fm, scopeInst, fm);
+	}
+
+	/**
+	 * Constructs a new from the provided FormulaManager and ScopeInstance,
+	 * with the given base FormulaManager (see getBaseFormulaManager()).
+	 */
+	private ScopeInformation(FormulaManager fm, ScopeInstance scopeInst,
+		FormulaManager baseManager)
 	{
 		if (fm == null)
 		{
@@ -94,6 +147,7 @@ public class ScopeInformation
 		}
 		this.fm = fm;
 		this.varScope = scopeInst;
+		this.baseManager = baseManager;
 	}
 
 	/**
@@ -109,6 +163,9 @@ public class ScopeInformation
 	 *         false otherwise
 	 * @throws IllegalArgumentException
 	 *             if the given root is null
+	 * @throws pcgen.base.formula.base.EvaluationBudgetExceededException
+	 *             if the static check exceeds the EvaluationBudget of the
+	 *             FormulaManager
 	 */
 	public boolean isStatic(SimpleNode root)
 	{
@@ -117,11 +174,22 @@ public class ScopeInformation
 			throw new IllegalArgumentException(
 				"Cannot check for static value with null root");
 		}
-		if (staticVisitor == null)
+		StaticVisitor visitor = staticVisitor;
+		if (visitor == null)
+		{
+			visitor = new StaticVisitor(fm.getLibrary());
+			staticVisitor = visitor;
+		}
+		EvaluationMonitor monitor = EvaluationMonitor.startAnalysis(fm,
+			varScope.getLegalScope(), root);
+		try
+		{
+			return ((Boolean) visitor.visit(root, null)).booleanValue();
+		}
+		finally
 		{
-			staticVisitor = new StaticVisitor(fm.getLibrary());
+			EvaluationMonitor.finish(monitor);
 		}
-		return ((Boolean) staticVisitor.visit(root, null)).booleanValue();
 	}
 
 	/**
@@ -129,12 +197,18 @@ public class ScopeInformation
 	 * starting with with the given SimpleNode as the root of the parsed tree of
 	 * the formula.
 	 * 
+	 * If the FormulaManager uses EvaluationMode.COMPILED, the tree is compiled
+	 * for this evaluation only (see evaluateTree(CompiledTreeCache)).
+	 * 
 	 * @param root
 	 *            The starting node in a parsed tree of a formula, to be used
 	 *            for the evaluation
 	 * @return true The result of evaluating the formula
 	 * @throws IllegalArgumentException
 	 *             if the given root is null
+	 * @throws pcgen.base.formula.base.EvaluationBudgetExceededException
+	 *             if the evaluation exceeds the EvaluationBudget of the
+	 *             FormulaManager
 	 */
 	public Object evaluate(SimpleNode root)
 	{
@@ -142,11 +216,77 @@ public class ScopeInformation
 		{
 			throw new IllegalArgumentException("Cannot evaluate with null root");
 		}
-		if (evaluateVisitor == null)
+		return evaluate(root, null);
+	}
+
+	/**
+	 * Returns the Object indicating the result of evaluating the formula with
+	 * the parsed tree held by the given CompiledTreeCache.
+	 * 
+	 * If the FormulaManager uses EvaluationMode.COMPILED, the compiled form of
+	 * the tree is taken from the CompiledTreeCache (compiling the tree if
+	 * necessary). A formula that is evaluated repeatedly should therefore be
+	 * evaluated through this method rather than evaluate(SimpleNode), which
+	 * compiles the tree for each evaluation.
+	 * 
+	 * @param tree
+	 *            The CompiledTreeCache holding the parsed tree of the formula
+	 * @return The result of evaluating the formula
+	 * @throws IllegalArgumentException
+	 *             if the given CompiledTreeCache is null
+	 * @throws pcgen.base.formula.base.EvaluationBudgetExceededException
+	 *             if the evaluation exceeds the EvaluationBudget of the
+	 *             FormulaManager
+	 */
+	public Object evaluateTree(CompiledTreeCache tree)
+	{
+		if (tree == null)
 		{
-			evaluateVisitor = new EvaluateVisitor(fm, varScope);
+			throw new IllegalArgumentException("Cannot evaluate with null tree");
 		}
-		return evaluateVisitor.visit(root, null);
+		return evaluate(tree.getRoot(), tree);
+	}
+
+	/**
+	 * Evaluates the parsed tree with the given root, using the given
+	 * CompiledTreeCache (if not null) for the compiled form of the tree.
+	 */
+	private Object evaluate(SimpleNode root, CompiledTreeCache tree)
+	{
+		EvaluationMonitor monitor = EvaluationMonitor.start(fm, varScope, root);
+		try
+		{
+			if (fm.getEvaluationMode() == EvaluationMode.COMPILED)
+			{
+				CompiledNode compiled =
+						(tree == null) ? new CompileVisitor(fm).compile(root)
+							: tree.getCompiledTree(fm);
+				return compiled.evaluate(getEvaluateVisitor());
+			}
+			return getEvaluateVisitor().visit(root, null);
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+	}
+
+	/**
+	 * Returns the EvaluateVisitor used by this ScopeInformation to evaluate
+	 * formulas.
+	 * 
+	 * @return The EvaluateVisitor used by this ScopeInformation to evaluate
+	 *         formulas
+	 */
+	public EvaluateVisitor getEvaluateVisitor()
+	{
+		EvaluateVisitor visitor = evaluateVisitor;
+		if (visitor == null)
+		{
+			visitor = new EvaluateVisitor(fm, varScope);
+			evaluateVisitor = visitor;
+		}
+		return visitor;
 	}
 
 	/**
@@ -165,6 +305,9 @@ public class ScopeInformation
 	 *            formula to be processed
 	 * @throws IllegalArgumentException
 	 *             if any parameter is null
+	 * @throws pcgen.base.formula.base.EvaluationBudgetExceededException
+	 *             if the dependency check exceeds the EvaluationBudget of the
+	 *             FormulaManager
 	 */
 	public void getDependencies(SimpleNode root, DependencyManager fdm)
 	{
@@ -178,11 +321,134 @@ public class ScopeInformation
 			throw new IllegalArgumentException(
 				"Cannot get dependencies with null DependencyManager");
 		}
-		if (variableVisitor == null)
+		DependencyVisitor visitor = variableVisitor;
+		if (visitor == null)
+		{
+			visitor = new DependencyVisitor(fm, varScope);
+			variableVisitor = visitor;
+		}
+		EvaluationMonitor monitor = EvaluationMonitor.startAnalysis(fm,
+			varScope.getLegalScope(), root);
+		try
 		{
-			variableVisitor = new DependencyVisitor(fm, varScope);
+			visitor.visit(root, fdm);
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+	}
+
+	/**
+	 * Returns a ScopeInformation (for the same ScopeInstance as this
+	 * ScopeInformation) in which the value() function returns the given input
+	 * value.
+	 * 
+	 * The same ScopeInformation is returned each time this method is called
+	 * (with only the input value changing), so that the FormulaManager and
+	 * visitors of the returned ScopeInformation are only built once. As a
+	 * result, the returned ScopeInformation returns the given input value only
+	 * until this method is next called by the same thread. (Each thread has
+	 * its own input value.) See resolveWithInput for a method that restores
+	 * the previous input value, so that it can be used while another formula
+	 * is being resolved with an input value.
+	 * 
+	 * @param input
+	 *            The value to be returned by the value() function when a
+	 *            formula is processed in the returned ScopeInformation
+	 * @return A ScopeInformation in which the value() function returns the
+	 *         given input value
+	 */
+	public ScopeInformation getInputInformation(Object input)
+	{
+		InputContext context = getInputContext();
+		context.library.setInputValue(input);
+		return context.info;
+	}
+
+	/**
+	 * Resolves the given formula (with this ScopeInformation's ScopeInstance)
+	 * such that the value() function returns the given input value.
+	 * 
+	 * The input value of the current thread is restored once the formula is
+	 * resolved, so this method may be called while another formula is being
+	 * resolved with an input value, and may be called from multiple threads
+	 * at once.
+	 * 
+	 * @param <T>
+	 *            The Format (Class) of object returned by the formula
+	 * @param formula
+	 *            The formula to be resolved
+	 * @param input
+	 *            The value to be returned by the value() function while the
+	 *            formula is resolved
+	 * @return The result of resolving the formula
+	 * @throws IllegalArgumentException
+	 *             if the given formula is null
+	 */
+	public <T> T resolveWithInput(NEPFormula<T> formula, Object input)
+	{
+		if (formula == null)
+		{
+			throw new IllegalArgumentException("Cannot resolve null formula");
+		}
+		InputContext context = getInputContext();
+		Object previous = context.library.getInputValue();
+		context.library.setInputValue(input);
+		try
+		{
+			return formula.resolve(context.info);
+		}
+		finally
+		{
+			context.library.setInputValue(previous);
 		}
-		variableVisitor.visit(root, fdm);
+	}
+
+	/**
+	 * Returns the InputContext of this ScopeInformation, creating it if
+	 * necessary.
+	 */
+	private InputContext getInputContext()
+	{
+		InputContext context = inputContext;
+		if (context == null)
+		{
+			FunctionLibrary baseLibrary = fm.getLibrary();
+			InputValueLibrary library = new InputValueLibrary(baseLibrary);
+			/*
+			 * The input library only adds value(), so a formula prepared for
+			 * the base FormulaManager (e.g. compiled) remains valid in the
+			 * child, unless the base library has its own value() function
+			 */
+			FormulaManager childManager = fm.swapFunctionLibrary(library);
+			FormulaManager childBase =
+					(baseLibrary.getFunction("value") == null) ? baseManager
+						: childManager;
+			context = new InputContext(library, new ScopeInformation(
+				childManager, varScope, childBase));
+			inputContext = context;
+		}
+		return context;
+	}
+
+	/**
+	 * Returns the base FormulaManager of this ScopeInformation. A formula
+	 * prepared in advance for the base FormulaManager (e.g. compiled, see
+	 * FormulaCompiler) may be resolved in this ScopeInformation without being
+	 * prepared again.
+	 * 
+	 * This is the FormulaManager for this ScopeInformation, except for a
+	 * ScopeInformation returned by getInputInformation(). Such a
+	 * ScopeInformation only adds the value() function to the FormulaManager
+	 * of its parent, so it shares the base FormulaManager of its parent
+	 * (unless the parent already has a value() function).
+	 * 
+	 * @return The base FormulaManager of this ScopeInformation
+	 */
+	public FormulaManager getBaseFormulaManager()
+	{
+		return baseManager;
 	}
 
 	/**
@@ -208,4 +474,29 @@ public class ScopeInformation
 	{
 		return fm;
 	}
+
+	/**
+	 * An InputContext is an immutable pairing of the InputValueLibrary and the
+	 * child ScopeInformation using that InputValueLibrary. These are paired so
+	 * that a thread always sets the input value on the InputValueLibrary used
+	 * by the ScopeInformation it resolves with.
+	 */
+	private static final class InputContext
+	{
+		/**
+		 * The InputValueLibrary holding the input value.
+		 */
+		private final InputValueLibrary library;
+
+		/**
+		 * The ScopeInformation using the InputValueLibrary.
+		 */
+		private final ScopeInformation info;
+
+		private InputContext(InputValueLibrary library, ScopeInformation info)
+		{
+			this.library = library;
+			this.info = info;
+		}
+	}
 }
@@ -17,11 +17,19 @@
  */
 package pcgen.base.formula.inst;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.base.EvaluationBudget;
+import pcgen.base.formula.base.EvaluationBudgetExceededException;
+import pcgen.base.formula.base.EvaluationMode;
+import pcgen.base.formula.base.EvaluationMonitor;
 import pcgen.base.formula.base.FormulaManager;
 import pcgen.base.formula.base.FormulaSemantics;
 import pcgen.base.formula.base.FunctionLibrary;
 import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.base.NumericMode;
 import pcgen.base.formula.base.OperatorLibrary;
 import pcgen.base.formula.base.VariableLibrary;
 import pcgen.base.formula.base.VariableStore;
@@ -41,16 +49,22 @@ import pcgen.base.util.FormatManager;
  * lazily instantiated but then effectively cached as long as that
  * FormulaManager is reused - especially valuable for things like the global
  * context which in the future we can create once for the PC and never have to
- * recreate...)
+ * recreate...). A SemanticsVisitor is specific to a LegalScope, so one
+ * SemanticsVisitor is cached for each LegalScope. SemanticsVisitor holds no
+ * state between visits, so the cached SemanticsVisitor objects may be used
+ * concurrently, and isValid may be called from multiple threads.
  */
 public class SimpleFormulaManager implements FormulaManager
 {
 
 	/**
-	 * The SemanticsVisitor for this FormulaManager. Can return the
-	 * FormulaSemantics for a parsed tree. Lazily Instantiated.
+	 * The SemanticsVisitor objects for this FormulaManager, keyed by the
+	 * LegalScope for which each SemanticsVisitor was built. Each can return
+	 * the FormulaSemantics for a parsed tree. Lazily Instantiated (per
+	 * LegalScope).
 	 */
-	private SemanticsVisitor semanticsVisitor;
+	private final ConcurrentMap<LegalScope, SemanticsVisitor> semanticsVisitors =
+			new ConcurrentHashMap<>();
 
 	/**
 	 * The FunctionLibrary used to store valid functions in this FormulaManager.
@@ -74,6 +88,24 @@ public class SimpleFormulaManager implements FormulaManager
 	 */
 	private final VariableStore results;
 
+	/**
+	 * The EvaluationMode indicating how formulas are evaluated when using this
+	 * FormulaManager.
+	 */
+	private final EvaluationMode evaluationMode;
+
+	/**
+	 * The NumericMode indicating how numbers are represented in formulas when
+	 * using this FormulaManager.
+	 */
+	private final NumericMode numericMode;
+
+	/**
+	 * The EvaluationBudget which bounds the evaluation of a formula when using
+	 * this FormulaManager.
+	 */
+	private final EvaluationBudget evaluationBudget;
+
 	/**
 	 * Constructs a new FormulaManager from the provided FunctionLibrary,
 	 * OperatorLibrary, VariableLibrary, and VariableStore.
@@ -95,6 +127,106 @@ public class SimpleFormulaManager implements FormulaManager
 	public SimpleFormulaManager(FunctionLibrary ftnLibrary,
 		OperatorLibrary opLibrary, VariableLibrary varLibrary,
 		VariableStore resultStore)
+	{
+		this(ftnLibrary, opLibrary, varLibrary, resultStore,
+			EvaluationMode.INTERPRETED);
+	}
+
+	/**
+	 * Constructs a new FormulaManager from the provided FunctionLibrary,
+	 * OperatorLibrary, VariableLibrary, VariableStore and EvaluationMode.
+	 * 
+	 * @param ftnLibrary
+	 *            The FunctionLibrary used to store valid functions in this
+	 *            FormulaManager
+	 * @param opLibrary
+	 *            The OperatorLibrary used to store valid operators in this
+	 *            FormulaManager
+	 * @param varLibrary
+	 *            The VariableLibrary used to get VariableIDs
+	 * @param resultStore
+	 *            The VariableStore used to hold variables values for items
+	 *            processed through this FormulaManager
+	 * @param evaluationMode
+	 *            The EvaluationMode indicating how formulas are evaluated when
+	 *            using this FormulaManager
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public SimpleFormulaManager(FunctionLibrary ftnLibrary,
+		OperatorLibrary opLibrary, VariableLibrary varLibrary,
+		VariableStore resultStore, EvaluationMode evaluationMode)
+	{
+		this(ftnLibrary, opLibrary, varLibrary, resultStore, evaluationMode,
+			NumericMode.STANDARD);
+	}
+
+	/**
+	 * Constructs a new FormulaManager from the provided FunctionLibrary,
+	 * OperatorLibrary, VariableLibrary, VariableStore, EvaluationMode and
+	 * NumericMode.
+	 * 
+	 * @param ftnLibrary
+	 *            The FunctionLibrary used to store valid functions in this
+	 *            FormulaManager
+	 * @param opLibrary
+	 *            The OperatorLibrary used to store valid operators in this
+	 *            FormulaManager
+	 * @param varLibrary
+	 *            The VariableLibrary used to get VariableIDs
+	 * @param resultStore
+	 *            The VariableStore used to hold variables values for items
+	 *            processed through this FormulaManager
+	 * @param evaluationMode
+	 *            The EvaluationMode indicating how formulas are evaluated when
+	 *            using this FormulaManager
+	 * @param numericMode
+	 *            The NumericMode indicating how numbers are represented in
+	 *            formulas when using this FormulaManager
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public SimpleFormulaManager(FunctionLibrary ftnLibrary,
+		OperatorLibrary opLibrary, VariableLibrary varLibrary,
+		VariableStore resultStore, EvaluationMode evaluationMode,
+		NumericMode numericMode)
+	{
+		this(ftnLibrary, opLibrary, varLibrary, resultStore, evaluationMode,
+			numericMode, EvaluationBudget.UNLIMITED);
+	}
+
+	/**
+	 * Constructs a new FormulaManager from the provided FunctionLibrary,
+	 * OperatorLibrary, VariableLibrary, VariableStore, EvaluationMode,
+	 * NumericMode and EvaluationBudget.
+	 * 
+	 * @param ftnLibrary
+	 *            The FunctionLibrary used to store valid functions in this
+	 *            FormulaManager
+	 * @param opLibrary
+	 *            The OperatorLibrary used to store valid operators in this
+	 *            FormulaManager
+	 * @param varLibrary
+	 *            The VariableLibrary used to get VariableIDs
+	 * @param resultStore
+	 *            The VariableStore used to hold variables values for items
+	 *            processed through this FormulaManager
+	 * @param evaluationMode
+	 *            The EvaluationMode indicating how formulas are evaluated when
+	 *            using this FormulaManager
+	 * @param numericMode
+	 *            The NumericMode indicating how numbers are represented in
+	 *            formulas when using this FormulaManager
+	 * @param evaluationBudget
+	 *            The EvaluationBudget which bounds the evaluation of a formula
+	 *            when using this FormulaManager
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public SimpleFormulaManager(FunctionLibrary ftnLibrary,
+		OperatorLibrary opLibrary, VariableLibrary varLibrary,
+		VariableStore resultStore, EvaluationMode evaluationMode,
+		NumericMode numericMode, EvaluationBudget evaluationBudget)
 	{
 		if (ftnLibrary == null)
 		{
@@ -116,10 +248,28 @@ public class SimpleFormulaManager implements FormulaManager
 			throw new IllegalArgumentException(
 				"Cannot build FormulaManager with null VariableStore");
 		}
+		if (evaluationMode == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot build FormulaManager with null EvaluationMode");
+		}
+		if (numericMode == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot build FormulaManager with null NumericMode");
+		}
+		if (evaluationBudget == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot build FormulaManager with null EvaluationBudget");
+		}
 		this.ftnLibrary = ftnLibrary;
 		this.opLibrary = opLibrary;
 		this.varLibrary = varLibrary;
 		this.results = resultStore;
+		this.evaluationMode = evaluationMode;
+		this.numericMode = numericMode;
+		this.evaluationBudget = evaluationBudget;
 	}
 
 	/**
@@ -172,6 +322,11 @@ public class SimpleFormulaManager implements FormulaManager
 	 * Returns the FormulaSemantics for the formula starting with with the given
 	 * SimpleNode as the root of the parsed tree of the formula.
 	 * 
+	 * The validation is bounded by the EvaluationBudget of this
+	 * FormulaManager (see EvaluationMonitor.startAnalysis()). A formula whose
+	 * validation exceeds the EvaluationBudget (e.g. one calling a
+	 * GenericFunction which calls itself) is not valid.
+	 * 
 	 * @param root
 	 *            The starting node in a parsed tree of a formula, to be used
 	 *            for the semantics evaluation
@@ -194,18 +349,44 @@ public class SimpleFormulaManager implements FormulaManager
 			throw new IllegalArgumentException(
 				"Cannot determine validity with null root");
 		}
+		if (legalScope == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot determine validity with null LegalScope");
+		}
 		if (formatManager == null)
 		{
 			throw new IllegalArgumentException(
 				"Cannot determine validity with null FormatManager");
 		}
+		SemanticsVisitor semanticsVisitor = semanticsVisitors.get(legalScope);
 		if (semanticsVisitor == null)
 		{
 			semanticsVisitor = new SemanticsVisitor(this, legalScope);
+			SemanticsVisitor existing =
+					semanticsVisitors.putIfAbsent(legalScope, semanticsVisitor);
+			if (existing != null)
+			{
+				semanticsVisitor = existing;
+			}
 		}
 		FormulaSemantics semantics =
 				FormulaSemanticsUtilities.getInitializedSemantics();
-		semanticsVisitor.visit(root, semantics);
+		EvaluationMonitor monitor =
+				EvaluationMonitor.startAnalysis(this, legalScope, root);
+		try
+		{
+			semanticsVisitor.visit(root, semantics);
+		}
+		catch (EvaluationBudgetExceededException e)
+		{
+			FormulaSemanticsUtilities.setInvalid(semantics, e.getMessage());
+			return semantics;
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
 		if (!semantics.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid())
 		{
 			return semantics;
@@ -239,7 +420,44 @@ public class SimpleFormulaManager implements FormulaManager
 	 */
 	public FormulaManager swapFunctionLibrary(FunctionLibrary ftnLib)
 	{
-		return new SimpleFormulaManager(ftnLib, opLibrary, varLibrary, results);
+		return new SimpleFormulaManager(ftnLib, opLibrary, varLibrary, results,
+			evaluationMode, numericMode, evaluationBudget);
+	}
+
+	/**
+	 * Returns the EvaluationMode indicating how formulas are evaluated when
+	 * using this FormulaManager.
+	 * 
+	 * @return The EvaluationMode indicating how formulas are evaluated when
+	 *         using this FormulaManager
+	 */
+	public EvaluationMode getEvaluationMode()
+	{
+		return evaluationMode;
+	}
+
+	/**
+	 * Returns the NumericMode indicating how numbers are represented in
+	 * formulas when using this FormulaManager.
+	 * 
+	 * @return The NumericMode indicating how numbers are represented in
+	 *         formulas when using this FormulaManager
+	 */
+	public NumericMode getNumericMode()
+	{
+		return numericMode;
+	}
+
+	/**
+	 * Returns the EvaluationBudget which bounds the evaluation of a formula
+	 * when using this FormulaManager.
+	 * 
+	 * @return The EvaluationBudget which bounds the evaluation of a formula
+	 *         when using this FormulaManager
+	 */
+	public EvaluationBudget getEvaluationBudget()
+	{
+		return evaluationBudget;
 	}
 
 }
@@ -18,7 +18,10 @@
 package pcgen.base.formula.inst;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import pcgen.base.formula.base.LazyOperatorAction;
 import pcgen.base.formula.base.OperatorAction;
 import pcgen.base.formula.base.OperatorLibrary;
 import pcgen.base.formula.parse.Operator;
@@ -27,10 +30,25 @@ import pcgen.base.util.HashMapToList;
 /**
  * SimpleOperatorLibrary is a simple implementation of the OperatorLibrary
  * interface.
+ * 
+ * The OperatorAction for a given Operator and pair of argument classes is
+ * resolved once and then memoized in a dispatch table (indexed by the ordinal
+ * of the Operator and then by the argument classes), so repeated evaluation
+ * does not repeatedly search the available OperatorActions. The dispatch
+ * table for an Operator is discarded whenever an OperatorAction for that
+ * Operator is added.
+ * 
+ * Evaluation may be performed from multiple threads, but OperatorActions must
+ * not be added while the SimpleOperatorLibrary is in use by other threads.
  */
 public class SimpleOperatorLibrary implements OperatorLibrary
 {
 
+	/**
+	 * The Dispatch indicating no OperatorAction is available.
+	 */
+	private static final Dispatch NO_DISPATCH = new Dispatch(null, null);
+
 	/**
 	 * HashMapToList from the Operators to the available OperatorActions for the
 	 * Operator.
@@ -38,13 +56,34 @@ public class SimpleOperatorLibrary implements OperatorLibrary
 	private final HashMapToList<Operator, OperatorAction> actionMTL =
 			new HashMapToList<Operator, OperatorAction>();
 
+	/**
+	 * The dispatch table, indexed by the ordinal of the Operator, then by the
+	 * class of the first argument and then by the class of the second argument.
+	 */
+	private final DispatchTable[] dispatchTable;
+
+	/**
+	 * Constructs a new (empty) SimpleOperatorLibrary.
+	 */
+	public SimpleOperatorLibrary()
+	{
+		Operator[] operators = Operator.values();
+		dispatchTable = new DispatchTable[operators.length];
+		for (int i = 0; i < operators.length; i++)
+		{
+			dispatchTable[i] = new DispatchTable();
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void addAction(OperatorAction action)
 	{
-		actionMTL.addToListFor(action.getOperator(), action);
+		Operator operator = action.getOperator();
+		actionMTL.addToListFor(operator, action);
+		dispatchTable[operator.ordinal()].clear();
 	}
 
 	/**
@@ -53,26 +92,38 @@ public class SimpleOperatorLibrary implements OperatorLibrary
 	@Override
 	public Object evaluate(Operator operator, Object o1, Object o2)
 	{
-		List<OperatorAction> actionList = actionMTL.getListFor(operator);
-		if (actionList != null)
+		OperatorAction action =
+				getDispatch(operator, o1.getClass(), o2.getClass()).action;
+		if (action == null)
 		{
-			for (OperatorAction action : actionList)
-			{
-				/*
-				 * null indicates the OperatorAction can't evaluate these, but
-				 * we should try another in list (don't unconditionally fail
-				 * because another OperatorAction might work)
-				 */
-				if (action.abstractEvaluate(o1.getClass(), o2.getClass()) != null)
-				{
-					return action.evaluate(o1, o2);
-				}
-			}
+			throw new IllegalStateException(
+				"Evaluate called on invalid Operator: " + operator.getSymbol()
+					+ " cannot process " + o1.getClass().getSimpleName()
+					+ " and " + o2.getClass().getSimpleName());
 		}
-		throw new IllegalStateException("Evaluate called on invalid Operator: "
-			+ operator.getSymbol() + " cannot process "
-			+ o1.getClass().getSimpleName() + " and "
-			+ o2.getClass().getSimpleName());
+		return action.evaluate(o1, o2);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public OperatorAction getAction(Operator operator, Class<?> format1,
+		Class<?> format2)
+	{
+		return getDispatch(operator, format1, format2).action;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public LazyOperatorAction getLazyAction(Operator operator,
+		Class<?> format1)
+	{
+		OperatorAction action = getDispatch(operator, format1, format1).action;
+		return (action instanceof LazyOperatorAction)
+			? (LazyOperatorAction) action : null;
 	}
 
 	/**
@@ -81,6 +132,50 @@ public class SimpleOperatorLibrary implements OperatorLibrary
 	@Override
 	public Class<?> processAbstract(Operator operator, Class<?> format1,
 		Class<?> format2)
+	{
+		return getDispatch(operator, format1, format2).format;
+	}
+
+	/**
+	 * Returns the Dispatch for the given Operator and argument classes, from
+	 * the dispatch table if available.
+	 */
+	private Dispatch getDispatch(Operator operator, Class<?> format1,
+		Class<?> format2)
+	{
+		if ((format1 == null) || (format2 == null))
+		{
+			//Not cached, let the OperatorActions deal with null
+			return resolveDispatch(operator, format1, format2);
+		}
+		DispatchTable operatorTable = dispatchTable[operator.ordinal()];
+		ConcurrentMap<Class<?>, Dispatch> firstTable =
+				operatorTable.get(format1);
+		if (firstTable == null)
+		{
+			firstTable = new ConcurrentHashMap<>();
+			ConcurrentMap<Class<?>, Dispatch> existing =
+					operatorTable.putIfAbsent(format1, firstTable);
+			if (existing != null)
+			{
+				firstTable = existing;
+			}
+		}
+		Dispatch dispatch = firstTable.get(format2);
+		if (dispatch == null)
+		{
+			dispatch = resolveDispatch(operator, format1, format2);
+			firstTable.put(format2, dispatch);
+		}
+		return dispatch;
+	}
+
+	/**
+	 * Searches the available OperatorActions for the given Operator to find
+	 * the first OperatorAction that can process the given argument classes.
+	 */
+	private Dispatch resolveDispatch(Operator operator, Class<?> format1,
+		Class<?> format2)
 	{
 		List<OperatorAction> actionList = actionMTL.getListFor(operator);
 		if (actionList != null)
@@ -90,16 +185,50 @@ public class SimpleOperatorLibrary implements OperatorLibrary
 				Class<?> result = action.abstractEvaluate(format1, format2);
 				/*
 				 * null indicates the OperatorAction can't evaluate these, but
-				 * try another (don't unconditionally return result because
-				 * another OperatorAction might work)
+				 * try another (don't unconditionally fail because another
+				 * OperatorAction might work)
 				 */
 				if (result != null)
 				{
-					return result;
+					return new Dispatch(action, result);
 				}
 			}
 		}
-		return null;
+		return NO_DISPATCH;
+	}
+
+	/**
+	 * A DispatchTable is the dispatch table for a single Operator, from the
+	 * class of the first argument to a map from the class of the second
+	 * argument to the Dispatch for the pair of classes.
+	 */
+	private static final class DispatchTable extends
+			ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, Dispatch>>
+	{
+		private static final long serialVersionUID = 1L;
 	}
 
+	/**
+	 * A Dispatch is the result of resolving an Operator for a pair of argument
+	 * classes: The OperatorAction to be used and the format it produces.
+	 */
+	private static final class Dispatch
+	{
+		/**
+		 * The OperatorAction for the argument classes (null if none).
+		 */
+		private final OperatorAction action;
+
+		/**
+		 * The format produced by the OperatorAction for the argument classes
+		 * (null if none).
+		 */
+		private final Class<?> format;
+
+		private Dispatch(OperatorAction action, Class<?> format)
+		{
+			this.action = action;
+			this.format = format;
+		}
+	}
 }
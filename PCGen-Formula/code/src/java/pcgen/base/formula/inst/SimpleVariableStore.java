@@ -17,10 +17,12 @@
  */
 package pcgen.base.formula.inst;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import pcgen.base.formula.base.SlottedVariableStore;
 import pcgen.base.formula.base.VariableID;
+import pcgen.base.formula.base.VariableSlot;
 import pcgen.base.formula.base.WriteableVariableStore;
 
 /**
@@ -34,15 +36,27 @@ import pcgen.base.formula.base.WriteableVariableStore;
  * SimpleVariableStore operates much like a Map in that items can be added
  * multiple times, and old values are overwritten by the newer value. The
  * exception is that null values are not allowed.
+ * 
+ * Each value is held in a VariableSlot, which is created the first time a
+ * value is stored for (or a VariableSlot is requested for) a VariableID. The
+ * VariableSlot for a VariableID is never replaced, so a VariableSlot obtained
+ * from getSlot will reflect all later values stored for that VariableID.
+ * 
+ * SimpleVariableStore is thread-safe: values may be read (including through a
+ * VariableSlot) from multiple threads while values are being stored. Storing
+ * values for the same VariableID from multiple threads at once is safe, but
+ * the value returned by put is then not guaranteed to be the value that was
+ * replaced.
  */
-public class SimpleVariableStore implements WriteableVariableStore
+public class SimpleVariableStore implements WriteableVariableStore,
+		SlottedVariableStore
 {
 
 	/**
 	 * The underlying map serving as the storage for this SimpleVariableStore.
 	 */
-	private final Map<VariableID<?>, Object> resultsMap =
-			new HashMap<VariableID<?>, Object>();
+	private final ConcurrentMap<VariableID<?>, Slot<?>> resultsMap =
+			new ConcurrentHashMap<VariableID<?>, Slot<?>>();
 
 	/**
 	 * Returns the value in this SimpleVariableStore for the given VariableID.
@@ -57,7 +71,8 @@ public class SimpleVariableStore implements WriteableVariableStore
 	@Override
 	public <T> T get(VariableID<T> varID)
 	{
-		return (T) resultsMap.get(varID);
+		Slot<T> slot = (Slot<T>) resultsMap.get(varID);
+		return (slot == null) ? null : slot.value;
 	}
 
 	/**
@@ -72,7 +87,8 @@ public class SimpleVariableStore implements WriteableVariableStore
 	@Override
 	public boolean containsKey(VariableID<?> varID)
 	{
-		return resultsMap.containsKey(varID);
+		Slot<?> slot = resultsMap.get(varID);
+		return (slot != null) && (slot.value != null);
 	}
 
 	/**
@@ -101,9 +117,91 @@ public class SimpleVariableStore implements WriteableVariableStore
 					+ varFormat.getSimpleName() + " but got "
 					+ value.getClass().getSimpleName());
 		}
-		@SuppressWarnings("unchecked")
-		T obj = (T) resultsMap.put(varID, value);
+		Slot<T> slot = findSlot(varID);
+		T obj = slot.value;
+		slot.value = value;
 		return obj;
 	}
 
+	/**
+	 * Returns the VariableSlot in this SimpleVariableStore for the given
+	 * VariableID, creating an empty VariableSlot if no value has been stored
+	 * for the given VariableID.
+	 * 
+	 * @see pcgen.base.formula.base.SlottedVariableStore#getSlot(pcgen.base.formula.base.VariableID)
+	 */
+	@Override
+	public <T> VariableSlot<T> getSlot(VariableID<T> varID)
+	{
+		if (varID == null)
+		{
+			throw new IllegalArgumentException("VariableID cannot be null");
+		}
+		return findSlot(varID);
+	}
+
+	/**
+	 * Returns the Slot for the given VariableID, creating (and storing) an
+	 * empty Slot if necessary.
+	 */
+	private <T> Slot<T> findSlot(VariableID<T> varID)
+	{
+		@SuppressWarnings("unchecked")
+		Slot<T> slot = (Slot<T>) resultsMap.get(varID);
+		if (slot == null)
+		{
+			slot = new Slot<T>(varID);
+			@SuppressWarnings("unchecked")
+			Slot<T> existing = (Slot<T>) resultsMap.putIfAbsent(varID, slot);
+			if (existing != null)
+			{
+				return existing;
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * A Slot is the VariableSlot holding the value of a single VariableID in a
+	 * SimpleVariableStore.
+	 * 
+	 * @param <T>
+	 *            The format of the variable for which this Slot holds the value
+	 */
+	private static final class Slot<T> implements VariableSlot<T>
+	{
+		/**
+		 * The VariableID of the variable for which this Slot holds the value.
+		 */
+		private final VariableID<T> varID;
+
+		/**
+		 * The value of the variable; null if no value has been stored.
+		 */
+		private volatile T value;
+
+		private Slot(VariableID<T> varID)
+		{
+			this.varID = varID;
+		}
+
+		@Override
+		public VariableID<T> getVariableID()
+		{
+			return varID;
+		}
+
+		@Override
+		public boolean isSet()
+		{
+			return value != null;
+		}
+
+		@Override
+		public T getValue()
+		{
+			return value;
+		}
+	}
+
 }
@@ -23,6 +23,7 @@ import pcgen.base.formula.analysis.ArgumentDependencyManager;
 import pcgen.base.formula.analysis.DependencyKeyUtilities;
 import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
 import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.EvaluationMonitor;
 import pcgen.base.formula.base.FormulaSemantics;
 import pcgen.base.formula.base.Function;
 import pcgen.base.formula.parse.ASTNum;
@@ -32,6 +33,7 @@ import pcgen.base.formula.visitor.DependencyVisitor;
 import pcgen.base.formula.visitor.EvaluateVisitor;
 import pcgen.base.formula.visitor.SemanticsVisitor;
 import pcgen.base.formula.visitor.StaticVisitor;
+import pcgen.base.formula.visitor.VisitorUtilities;
 
 /**
  * ArgFunction is a one-argument function designed to delegate to a value
@@ -80,8 +82,18 @@ public class ArgFunction implements Function
 	public Boolean isStatic(StaticVisitor visitor, Node[] args)
 	{
 		ASTNum node = (ASTNum) args[0];
-		int argNum = Integer.parseInt(node.getText());
-		return (Boolean) visitor.visit((SimpleNode) masterArgs[argNum], null);
+		int argNum = VisitorUtilities.getNumber(node).intValue();
+		EvaluationMonitor monitor =
+				EvaluationMonitor.enterAnalysisCall(FUNCTION_NAME);
+		try
+		{
+			return (Boolean) visitor.visit((SimpleNode) masterArgs[argNum],
+				null);
+		}
+		finally
+		{
+			EvaluationMonitor.exitAnalysisCall(monitor);
+		}
 	}
 
 	/**
@@ -115,29 +127,36 @@ public class ArgFunction implements Function
 					+ ": " + node);
 			return;
 		}
-		String nodeText = ((ASTNum) node).getText();
-		try
-		{
-			int argNum = Integer.parseInt(nodeText);
-			if ((argNum < 0) || (argNum >= masterArgs.length))
-			{
-				FormulaSemanticsUtilities.setInvalid(semantics,
-					"Function " + FUNCTION_NAME
-						+ " received incorrect # of arguments, expected: "
-						+ (argNum + 1) + " got " + masterArgs.length + " "
-						+ Arrays.asList(masterArgs));
-				return;
-			}
-			assertArgs(semantics, argNum);
-			Node n = masterArgs[argNum];
-			n.jjtAccept(visitor, semantics);
-		}
-		catch (NumberFormatException e)
+		Number value = VisitorUtilities.getNumber((ASTNum) node);
+		if (!(value instanceof Integer))
 		{
 			FormulaSemanticsUtilities
 				.setInvalid(semantics, "Parse Error: Invalid Class: "
 					+ node.getClass().getName()
 					+ " found in operable location (class cannot be evaluated)");
+			return;
+		}
+		int argNum = value.intValue();
+		if ((argNum < 0) || (argNum >= masterArgs.length))
+		{
+			FormulaSemanticsUtilities.setInvalid(semantics,
+				"Function " + FUNCTION_NAME
+					+ " received incorrect # of arguments, expected: "
+					+ (argNum + 1) + " got " + masterArgs.length + " "
+					+ Arrays.asList(masterArgs));
+			return;
+		}
+		assertArgs(semantics, argNum);
+		Node n = masterArgs[argNum];
+		EvaluationMonitor monitor =
+				EvaluationMonitor.enterAnalysisCall(FUNCTION_NAME);
+		try
+		{
+			n.jjtAccept(visitor, semantics);
+		}
+		finally
+		{
+			EvaluationMonitor.exitAnalysisCall(monitor);
 		}
 	}
 
@@ -160,7 +179,7 @@ public class ArgFunction implements Function
 	public Object evaluate(EvaluateVisitor visitor, Node[] args)
 	{
 		ASTNum node = (ASTNum) args[0];
-		int argNum = Integer.parseInt(node.getText());
+		int argNum = VisitorUtilities.getNumber(node).intValue();
 		return visitor.visit((SimpleNode) masterArgs[argNum], null);
 	}
 
@@ -178,13 +197,22 @@ public class ArgFunction implements Function
 		DependencyManager fdm, Node[] args)
 	{
 		ASTNum node = (ASTNum) args[0];
-		int argNum = Integer.parseInt(node.getText());
+		int argNum = VisitorUtilities.getNumber(node).intValue();
 		ArgumentDependencyManager argManager =
 				fdm.getDependency(DependencyKeyUtilities.DEP_ARGUMENT);
 		if (argManager != null)
 		{
 			argManager.addArgument(argNum);
 		}
-		visitor.visit((SimpleNode) masterArgs[argNum], fdm);
+		EvaluationMonitor monitor =
+				EvaluationMonitor.enterAnalysisCall(FUNCTION_NAME);
+		try
+		{
+			visitor.visit((SimpleNode) masterArgs[argNum], fdm);
+		}
+		finally
+		{
+			EvaluationMonitor.exitAnalysisCall(monitor);
+		}
 	}
 }
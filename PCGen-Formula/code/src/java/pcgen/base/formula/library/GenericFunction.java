@@ -22,6 +22,7 @@ import java.util.Arrays;
 import pcgen.base.formula.analysis.ArgumentDependencyManager;
 import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
 import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.EvaluationMonitor;
 import pcgen.base.formula.base.FormulaManager;
 import pcgen.base.formula.base.FormulaSemantics;
 import pcgen.base.formula.base.Function;
@@ -101,6 +102,22 @@ public class GenericFunction implements Function
 		return functionName;
 	}
 
+	/**
+	 * Returns the root node of the tree representing the calculation of this
+	 * GenericFunction (in which arg(n) refers to the n-th argument of a call
+	 * to this GenericFunction). This allows a call to this GenericFunction to
+	 * be expanded in place (see FunctionExpansionVisitor).
+	 * 
+	 * The returned tree is shared and MUST NOT be modified.
+	 * 
+	 * @return The root node of the tree representing the calculation of this
+	 *         GenericFunction
+	 */
+	public SimpleNode getRoot()
+	{
+		return root;
+	}
+
 	/**
 	 * Checks if the given arguments are valid using the given SemanticsVisitor.
 	 * This will validate that the number (and format) of given arguments
@@ -123,7 +140,16 @@ public class GenericFunction implements Function
 		@SuppressWarnings("PMD.PrematureDeclaration")
 		ArgumentDependencyManager original =
 				semantics.removeInfo(FormulaSemanticsUtilities.SEM_ARGS);
-		subVisitor.visit(root, semantics);
+		EvaluationMonitor monitor =
+				EvaluationMonitor.enterAnalysisCall(functionName);
+		try
+		{
+			subVisitor.visit(root, semantics);
+		}
+		finally
+		{
+			EvaluationMonitor.exitAnalysisCall(monitor);
+		}
 		ArgumentDependencyManager myArgs =
 				semantics.getInfo(FormulaSemanticsUtilities.SEM_ARGS);
 		if (myArgs == null)
@@ -185,7 +211,16 @@ public class GenericFunction implements Function
 		FunctionLibrary argLibrary =
 				new ArgWrappingLibrary(visitor.getLibrary(), args);
 		StaticVisitor subVisitor = new StaticVisitor(argLibrary);
-		return (Boolean) subVisitor.visit(root, null);
+		EvaluationMonitor monitor =
+				EvaluationMonitor.enterAnalysisCall(functionName);
+		try
+		{
+			return (Boolean) subVisitor.visit(root, null);
+		}
+		finally
+		{
+			EvaluationMonitor.exitAnalysisCall(monitor);
+		}
 	}
 
 	/**
@@ -213,7 +248,16 @@ public class GenericFunction implements Function
 		FormulaManager withArgs = getManager(args, visitor.getFormulaManager());
 		ScopeInstance scopeInstance = visitor.getScopeInstance();
 		DependencyVisitor dcv = new DependencyVisitor(withArgs, scopeInstance);
-		dcv.visit(root, fdm);
+		EvaluationMonitor monitor =
+				EvaluationMonitor.enterAnalysisCall(functionName);
+		try
+		{
+			dcv.visit(root, fdm);
+		}
+		finally
+		{
+			EvaluationMonitor.exitAnalysisCall(monitor);
+		}
 	}
 
 	private FormulaManager getManager(Node[] args, FormulaManager formulaManager)
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.library;
+
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionLibrary;
+
+/**
+ * An InputValueLibrary is a FunctionLibrary that contains two things: a
+ * Default FunctionLibrary for most functions, and a changeable input value
+ * contained by the function "value".
+ * 
+ * Unlike ValueWrappingLibrary, an InputValueLibrary (and the Function it
+ * returns for "value") can be reused for many input values. This allows a
+ * FormulaManager (and the visitors built upon it) to be built once and then
+ * used to process a formula for each input value, rather than being rebuilt
+ * for each input value.
+ * 
+ * Note that the "value" function returns the input value at the time the
+ * function is evaluated, not at the time the function was retrieved from the
+ * InputValueLibrary. The input value is held separately for each thread, so
+ * an InputValueLibrary can be used to process formulas from multiple threads
+ * at once (each with its own input value). The input value of a thread must
+ * not be changed while that thread is processing a formula using the
+ * InputValueLibrary.
+ */
+public class InputValueLibrary implements FunctionLibrary
+{
+	/**
+	 * The underlying FunctionLibrary of this InputValueLibrary.
+	 */
+	private final FunctionLibrary functionLibrary;
+
+	/**
+	 * The Function returned for "value", which returns the current input value
+	 * of this InputValueLibrary.
+	 */
+	private final Function valueFunction = new InputValueFunction();
+
+	/**
+	 * The current result of calling the value() function, for each thread.
+	 */
+	private final ThreadLocal<Object> inputValue = new ThreadLocal<>();
+
+	/**
+	 * Constructs a new InputValueLibrary with the given underlying
+	 * FunctionLibrary.
+	 * 
+	 * @param functionLibrary
+	 *            The underlying FunctionLibrary of this InputValueLibrary
+	 * @throws IllegalArgumentException
+	 *             if the given FunctionLibrary is null
+	 */
+	public InputValueLibrary(FunctionLibrary functionLibrary)
+	{
+		if (functionLibrary == null)
+		{
+			throw new IllegalArgumentException(
+				"FunctionLibrary cannot be null");
+		}
+		this.functionLibrary = functionLibrary;
+	}
+
+	/**
+	 * Sets the value to be returned when the value() function is called by
+	 * the current thread.
+	 * 
+	 * @param inputValue
+	 *            The value to be returned when the value() function is called
+	 */
+	public void setInputValue(Object inputValue)
+	{
+		this.inputValue.set(inputValue);
+	}
+
+	/**
+	 * Returns the value to be returned when the value() function is called by
+	 * the current thread.
+	 * 
+	 * @return The value to be returned when the value() function is called
+	 *         by the current thread
+	 */
+	public Object getInputValue()
+	{
+		return inputValue.get();
+	}
+
+	/**
+	 * Unsupported, since this is designed to be a dynamic FunctionLibrary.
+	 */
+	@Override
+	public void addFunction(Function function)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Function getFunction(String functionName)
+	{
+		if (functionName.equalsIgnoreCase("value"))
+		{
+			return valueFunction;
+		}
+		return functionLibrary.getFunction(functionName);
+	}
+
+	/**
+	 * Unsupported, since this is designed to be a dynamic FunctionLibrary.
+	 */
+	@Override
+	public void addBracketFunction(Function function)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Function getBracketFunction(String functionName)
+	{
+		return functionLibrary.getBracketFunction(functionName);
+	}
+
+	/**
+	 * A ValueFunction that represents the current input value of the
+	 * InputValueLibrary.
+	 */
+	private class InputValueFunction extends ValueFunction
+	{
+		/**
+		 * Constructs a new InputValueFunction.
+		 */
+		InputValueFunction()
+		{
+			super(null);
+		}
+
+		/**
+		 * Returns the current input value (for the current thread) of the
+		 * InputValueLibrary.
+		 */
+		@Override
+		protected Object getInput()
+		{
+			return inputValue.get();
+		}
+	}
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.library;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionLibrary;
+import pcgen.base.formula.base.PureFunction;
+import pcgen.base.formula.parse.FormulaParserTreeConstants;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.NodeUtilities;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.formula.visitor.DependencyVisitor;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+import pcgen.base.formula.visitor.SemanticsVisitor;
+import pcgen.base.formula.visitor.StaticVisitor;
+
+/**
+ * A MemoizingLibrary is a FunctionLibrary that wraps an underlying
+ * FunctionLibrary and reuses the results of calls to each PureFunction in the
+ * underlying FunctionLibrary.
+ * 
+ * When a PureFunction is called, the arguments are evaluated, and if the same
+ * PureFunction has already been called with arguments of equal value, the
+ * previous result is returned without calling the PureFunction. Functions
+ * that are not a PureFunction (and all bracket functions) are returned
+ * unchanged from the underlying FunctionLibrary.
+ * 
+ * The results are held until the MemoizingLibrary is cleared. The intent is
+ * that a MemoizingLibrary is used for a single solve (e.g. one recalculation
+ * of the variables of a character), and cleared before the next solve. The
+ * number of results held is bounded: Once the MemoizingLibrary holds its
+ * capacity of results, further results are not held (but previously held
+ * results are still reused).
+ * 
+ * The MemoizingLibrary tracks the number of calls that reused a previous
+ * result (hits) and the number of calls that required the PureFunction to be
+ * called (misses) in order to allow the effectiveness of memoization to be
+ * assessed.
+ * 
+ * A MemoizingLibrary is thread-safe, provided the underlying FunctionLibrary
+ * is not modified while the MemoizingLibrary is in use.
+ */
+public class MemoizingLibrary implements FunctionLibrary
+{
+
+	/**
+	 * The default maximum number of results held by a MemoizingLibrary.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The underlying FunctionLibrary of this MemoizingLibrary.
+	 */
+	private final FunctionLibrary functionLibrary;
+
+	/**
+	 * The maximum number of results held by this MemoizingLibrary.
+	 */
+	private final int capacity;
+
+	/**
+	 * The MemoizedFunction for each PureFunction that has been returned by
+	 * this MemoizingLibrary. Ensures the same Function is returned for each
+	 * call to getFunction (so that bindings to the Function remain valid).
+	 */
+	private final ConcurrentMap<Function, MemoizedFunction> wrappers =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * The results of previous calls, keyed by the PureFunction and the values
+	 * of the arguments.
+	 */
+	private final ConcurrentMap<CallKey, Object> results =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * The number of calls that reused a previous result.
+	 */
+	private final AtomicLong hitCount = new AtomicLong();
+
+	/**
+	 * The number of calls that required a PureFunction to be called.
+	 */
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * Constructs a new MemoizingLibrary with the given underlying
+	 * FunctionLibrary, which holds up to the default capacity of results.
+	 * 
+	 * @param functionLibrary
+	 *            The underlying FunctionLibrary of this MemoizingLibrary
+	 * @throws IllegalArgumentException
+	 *             if the given FunctionLibrary is null
+	 */
+	public MemoizingLibrary(FunctionLibrary functionLibrary)
+	{
+		this(functionLibrary, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a new MemoizingLibrary with the given underlying
+	 * FunctionLibrary, which holds up to the given number of results.
+	 * 
+	 * @param functionLibrary
+	 *            The underlying FunctionLibrary of this MemoizingLibrary
+	 * @param capacity
+	 *            The maximum number of results to be held by the
+	 *            MemoizingLibrary
+	 * @throws IllegalArgumentException
+	 *             if the given FunctionLibrary is null or the given capacity
+	 *             is less than one
+	 */
+	public MemoizingLibrary(FunctionLibrary functionLibrary, int capacity)
+	{
+		if (functionLibrary == null)
+		{
+			throw new IllegalArgumentException(
+				"Underlying FunctionLibrary cannot be null");
+		}
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException(
+				"MemoizingLibrary capacity must be positive, was: " + capacity);
+		}
+		this.functionLibrary = functionLibrary;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Unsupported, since this is designed to be a wrapping FunctionLibrary.
+	 */
+	@Override
+	public void addFunction(Function function)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns the Function with the given function name. If the Function in
+	 * the underlying FunctionLibrary is a PureFunction, the returned Function
+	 * reuses the results of previous calls.
+	 */
+	@Override
+	public Function getFunction(String functionName)
+	{
+		Function function = functionLibrary.getFunction(functionName);
+		if (!(function instanceof PureFunction))
+		{
+			return function;
+		}
+		MemoizedFunction wrapper = wrappers.get(function);
+		if (wrapper == null)
+		{
+			wrapper = new MemoizedFunction(function);
+			MemoizedFunction existing = wrappers.putIfAbsent(function, wrapper);
+			if (existing != null)
+			{
+				wrapper = existing;
+			}
+		}
+		return wrapper;
+	}
+
+	/**
+	 * Unsupported, since this is designed to be a wrapping FunctionLibrary.
+	 */
+	@Override
+	public void addBracketFunction(Function function)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns the bracket Function with the given function name from the
+	 * underlying FunctionLibrary (bracket functions are not memoized).
+	 */
+	@Override
+	public Function getBracketFunction(String functionName)
+	{
+		return functionLibrary.getBracketFunction(functionName);
+	}
+
+	/**
+	 * Removes all results held by this MemoizingLibrary. This should be called
+	 * between solves. The statistics of the MemoizingLibrary are not reset.
+	 */
+	public void clear()
+	{
+		results.clear();
+	}
+
+	/**
+	 * Returns the number of results currently held by this MemoizingLibrary.
+	 * 
+	 * @return The number of results currently held by this MemoizingLibrary
+	 */
+	public int size()
+	{
+		return results.size();
+	}
+
+	/**
+	 * Returns the maximum number of results held by this MemoizingLibrary.
+	 * 
+	 * @return The maximum number of results held by this MemoizingLibrary
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of calls to a PureFunction that reused the result of
+	 * a previous call.
+	 * 
+	 * @return The number of calls that reused a previous result
+	 */
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of calls to a PureFunction that required the
+	 * PureFunction to be called.
+	 * 
+	 * @return The number of calls that required the PureFunction to be called
+	 */
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the fraction (from 0.0 to 1.0) of calls to a PureFunction that
+	 * reused the result of a previous call. Returns 0.0 if no PureFunction has
+	 * been called.
+	 * 
+	 * @return The fraction of calls that reused a previous result
+	 */
+	public double getHitRate()
+	{
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		return (total == 0) ? 0.0 : ((double) hits) / total;
+	}
+
+	/**
+	 * A MemoizedFunction wraps a PureFunction, reusing the results of previous
+	 * calls held by the MemoizingLibrary.
+	 */
+	private final class MemoizedFunction implements PureFunction
+	{
+		/**
+		 * The underlying PureFunction.
+		 */
+		private final Function function;
+
+		private MemoizedFunction(Function function)
+		{
+			this.function = function;
+		}
+
+		@Override
+		public String getFunctionName()
+		{
+			return function.getFunctionName();
+		}
+
+		@Override
+		public Boolean isStatic(StaticVisitor visitor, Node[] args)
+		{
+			return function.isStatic(visitor, args);
+		}
+
+		@Override
+		public void allowArgs(SemanticsVisitor visitor, Node[] args,
+			FormulaSemantics semantics)
+		{
+			function.allowArgs(visitor, args, semantics);
+		}
+
+		/**
+		 * Evaluates the arguments and returns the result of a previous call
+		 * with arguments of equal value, if available. Otherwise, calls the
+		 * underlying PureFunction with the values of the arguments (so the
+		 * arguments are not evaluated again).
+		 */
+		@Override
+		public Object evaluate(EvaluateVisitor visitor, Node[] args)
+		{
+			Object[] values = new Object[args.length];
+			for (int i = 0; i < args.length; i++)
+			{
+				values[i] = args[i].jjtAccept(visitor, null);
+			}
+			CallKey key = new CallKey(function, values);
+			Object result = results.get(key);
+			if (result != null)
+			{
+				hitCount.incrementAndGet();
+				return result;
+			}
+			missCount.incrementAndGet();
+			result = function.evaluate(visitor, asConstants(args, values));
+			if ((result != null) && (results.size() < capacity))
+			{
+				results.putIfAbsent(key, result);
+			}
+			return result;
+		}
+
+		@Override
+		public void getDependencies(DependencyVisitor visitor,
+			DependencyManager manager, Node[] args)
+		{
+			function.getDependencies(visitor, manager, args);
+		}
+	}
+
+	/**
+	 * Returns the arguments to be passed to a PureFunction, given the original
+	 * arguments and the values of those arguments.
+	 * 
+	 * Each argument with a Number or String value is replaced by a constant
+	 * node containing that value, so that the PureFunction does not evaluate
+	 * the original argument again. Without this, nested calls that miss
+	 * (e.g. once the MemoizingLibrary is at capacity) would evaluate the
+	 * innermost argument 2^depth times. An argument with any other value is
+	 * passed unchanged (and is therefore evaluated again).
+	 * 
+	 * @param args
+	 *            The original arguments
+	 * @param values
+	 *            The values of the original arguments
+	 * @return The arguments to be passed to the PureFunction
+	 */
+	private static Node[] asConstants(Node[] args, Object[] values)
+	{
+		Node[] constants = new Node[args.length];
+		for (int i = 0; i < args.length; i++)
+		{
+			Object value = values[i];
+			int id;
+			if (value instanceof Number)
+			{
+				id = FormulaParserTreeConstants.JJTNUM;
+			}
+			else if (value instanceof String)
+			{
+				id = FormulaParserTreeConstants.JJTQUOTSTRING;
+			}
+			else
+			{
+				constants[i] = args[i];
+				continue;
+			}
+			SimpleNode constant = NodeUtilities.createNode(id);
+			constant.setToken(value.toString());
+			constant.setValue(value);
+			constants[i] = constant;
+		}
+		return constants;
+	}
+
+	/**
+	 * A CallKey identifies a call to a PureFunction by the PureFunction and
+	 * the values of the arguments.
+	 */
+	private static final class CallKey
+	{
+		/**
+		 * The PureFunction that was called.
+		 */
+		private final Function function;
+
+		/**
+		 * The values of the arguments.
+		 */
+		private final Object[] values;
+
+		/**
+		 * The hash code of this CallKey, calculated once since it is used for
+		 * every lookup.
+		 */
+		private final int hash;
+
+		private CallKey(Function function, Object[] values)
+		{
+			this.function = function;
+			this.values = values;
+			hash =
+					31 * System.identityHashCode(function)
+						+ Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o instanceof CallKey)
+			{
+				CallKey other = (CallKey) o;
+				return (function == other.function)
+					&& Arrays.equals(values, other.values);
+			}
+			return false;
+		}
+	}
+}
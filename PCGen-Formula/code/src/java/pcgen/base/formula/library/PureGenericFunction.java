@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.library;
+
+import pcgen.base.formula.base.PureFunction;
+import pcgen.base.formula.parse.SimpleNode;
+
+/**
+ * A PureGenericFunction is a GenericFunction that is known to be a
+ * PureFunction.
+ * 
+ * It is the responsibility of the code constructing a PureGenericFunction to
+ * ensure that the formula is pure: It must not refer to any variable, and may
+ * only call functions that are themselves pure (or the arg function). In
+ * addition, the formula must refer to every argument in a location that is
+ * always evaluated (e.g. not only in one branch of the if function).
+ */
+public class PureGenericFunction extends GenericFunction implements
+		PureFunction
+{
+
+	/**
+	 * Constructs a new PureGenericFunction with the given name and formula.
+	 * 
+	 * @param name
+	 *            The name of the PureGenericFunction
+	 * @param root
+	 *            The root of the tree for the formula of the
+	 *            PureGenericFunction
+	 */
+	public PureGenericFunction(String name, SimpleNode root)
+	{
+		super(name, root);
+	}
+}
@@ -94,7 +94,7 @@ public class ValueFunction implements Function
 		if (args.length == 0)
 		{
 			semantics.setInfo(FormulaSemanticsUtilities.SEM_FORMAT,
-				new FormulaFormat(input.getClass()));
+				new FormulaFormat(getInput().getClass()));
 			return;
 		}
 		FormulaSemanticsUtilities.setInvalid(semantics, "Function "
@@ -111,6 +111,16 @@ public class ValueFunction implements Function
 	 */
 	@Override
 	public Object evaluate(EvaluateVisitor visitor, Node[] args)
+	{
+		return getInput();
+	}
+
+	/**
+	 * Returns the "previous value" represented by this ValueFunction.
+	 * 
+	 * @return The "previous value" represented by this ValueFunction
+	 */
+	protected Object getInput()
 	{
 		return input;
 	}
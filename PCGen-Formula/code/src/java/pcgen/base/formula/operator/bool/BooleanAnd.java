@@ -17,13 +17,14 @@
  */
 package pcgen.base.formula.operator.bool;
 
-import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.DeferredOperand;
+import pcgen.base.formula.base.LazyOperatorAction;
 import pcgen.base.formula.parse.Operator;
 
 /**
  * BooleanAnd performs the AND operation on two Boolean values.
  */
-public class BooleanAnd implements OperatorAction
+public class BooleanAnd implements LazyOperatorAction
 {
 
 	/**
@@ -77,4 +78,22 @@ public class BooleanAnd implements OperatorAction
 		return Boolean.valueOf(left && right);
 	}
 
+	/**
+	 * Performs a logical AND on the given arguments, only evaluating the second
+	 * argument if the first argument is true.
+	 * 
+	 * @see pcgen.base.formula.base.LazyOperatorAction#evaluateLazily(java.lang.Object,
+	 *      pcgen.base.formula.base.DeferredOperand)
+	 */
+	@Override
+	public Object evaluateLazily(Object l, DeferredOperand r)
+	{
+		if (!((Boolean) l).booleanValue())
+		{
+			return Boolean.FALSE;
+		}
+		//Cast is intentional, in order to catch Object r not being boolean
+		return Boolean.valueOf(((Boolean) r.getValue()).booleanValue());
+	}
+
 }
@@ -17,13 +17,14 @@
  */
 package pcgen.base.formula.operator.bool;
 
-import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.DeferredOperand;
+import pcgen.base.formula.base.LazyOperatorAction;
 import pcgen.base.formula.parse.Operator;
 
 /**
  * BooleanOr performs the OR operation on two Boolean values.
  */
-public class BooleanOr implements OperatorAction
+public class BooleanOr implements LazyOperatorAction
 {
 
 	/**
@@ -77,4 +78,22 @@ public class BooleanOr implements OperatorAction
 		return Boolean.valueOf(left || right);
 	}
 
+	/**
+	 * Performs a logical OR on the given arguments, only evaluating the second
+	 * argument if the first argument is false.
+	 * 
+	 * @see pcgen.base.formula.base.LazyOperatorAction#evaluateLazily(java.lang.Object,
+	 *      pcgen.base.formula.base.DeferredOperand)
+	 */
+	@Override
+	public Object evaluateLazily(Object l, DeferredOperand r)
+	{
+		if (((Boolean) l).booleanValue())
+		{
+			return Boolean.TRUE;
+		}
+		//Cast is intentional, in order to catch Object r not being boolean
+		return Boolean.valueOf(((Boolean) r.getValue()).booleanValue());
+	}
+
 }
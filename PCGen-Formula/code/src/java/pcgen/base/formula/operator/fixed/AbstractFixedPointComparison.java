@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.operator.fixed;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.FixedPointOperatorAction;
+import pcgen.base.formula.base.NumericResult;
+
+/**
+ * AbstractFixedPointComparison is a FixedPointOperatorAction that compares two
+ * numbers, at least one of which is a FixedPoint, and returns a Boolean.
+ * 
+ * Any other Number (e.g. an Integer returned by a Function) is converted to a
+ * FixedPoint before the comparison is performed. Since FixedPoint values are
+ * exact, the comparison is exact. The comparison itself is delegated to
+ * compare(long, long), which is performed on the scaled values.
+ */
+public abstract class AbstractFixedPointComparison implements
+		FixedPointOperatorAction
+{
+
+	/**
+	 * Cache of the Number class.
+	 */
+	private static final Class<Number> NUMBER_CLASS = Number.class;
+
+	/**
+	 * Cache of the FixedPoint class.
+	 */
+	private static final Class<FixedPoint> FIXED_POINT_CLASS =
+			FixedPoint.class;
+
+	/**
+	 * Performs Abstract Evaluation, checking that the two arguments are
+	 * Number.class, at least one of which is FixedPoint.class, and returns
+	 * Boolean.class.
+	 * 
+	 * @see pcgen.base.formula.base.OperatorAction#abstractEvaluate(java.lang.Class,
+	 *      java.lang.Class)
+	 */
+	@Override
+	public Class<?> abstractEvaluate(Class<?> format1, Class<?> format2)
+	{
+		if (NUMBER_CLASS.isAssignableFrom(format1)
+			&& NUMBER_CLASS.isAssignableFrom(format2)
+			&& (FIXED_POINT_CLASS.isAssignableFrom(format1) || FIXED_POINT_CLASS
+				.isAssignableFrom(format2)))
+		{
+			return Boolean.class;
+		}
+		return null;
+	}
+
+	/**
+	 * Performs the comparison on the given arguments.
+	 * 
+	 * @see pcgen.base.formula.base.OperatorAction#evaluate(java.lang.Object,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public Object evaluate(Object l, Object r)
+	{
+		return Boolean.valueOf(compare(FixedPoint.toScaled((Number) l),
+			FixedPoint.toScaled((Number) r)));
+	}
+
+	/**
+	 * Performs the comparison on the given scaled arguments.
+	 * 
+	 * @see pcgen.base.formula.base.FixedPointOperatorAction#evaluate(long,
+	 *      long, pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(long left, long right, NumericResult result)
+	{
+		result.set(Boolean.valueOf(compare(left, right)));
+	}
+
+	/**
+	 * Performs the comparison on the given scaled FixedPoint values.
+	 * 
+	 * @param left
+	 *            The scaled value of the first argument to the comparison
+	 * @param right
+	 *            The scaled value of the second argument to the comparison
+	 * @return The result of the comparison
+	 */
+	protected abstract boolean compare(long left, long right);
+
+}
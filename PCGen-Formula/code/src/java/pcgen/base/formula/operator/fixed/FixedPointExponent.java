@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.operator.fixed;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.parse.Operator;
+
+/**
+ * FixedPointExponent raises a FixedPoint value to the power of another
+ * FixedPoint value. See FixedPoint.pow(long, long) for how the result is
+ * calculated.
+ */
+public class FixedPointExponent extends AbstractFixedPointArithmetic
+{
+
+	/**
+	 * Indicates that FixedPointExponent Performs Exponentiation.
+	 * 
+	 * @see pcgen.base.formula.base.OperatorAction#getOperator()
+	 */
+	@Override
+	public Operator getOperator()
+	{
+		return Operator.EXP;
+	}
+
+	/**
+	 * Raises the first of the given scaled arguments to the power of the
+	 * second.
+	 * 
+	 * @see pcgen.base.formula.operator.fixed.AbstractFixedPointArithmetic#calculate(long,
+	 *      long)
+	 */
+	@Override
+	protected long calculate(long left, long right)
+	{
+		return FixedPoint.pow(left, right);
+	}
+
+}
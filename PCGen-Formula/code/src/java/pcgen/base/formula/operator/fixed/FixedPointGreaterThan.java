@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.operator.fixed;
+
+import pcgen.base.formula.parse.Operator;
+
+/**
+ * FixedPointGreaterThan performs the greater than comparison on two FixedPoint
+ * values.
+ */
+public class FixedPointGreaterThan extends AbstractFixedPointComparison
+{
+
+	/**
+	 * Indicates that FixedPointGreaterThan Performs a greater than comparison.
+	 * 
+	 * @see pcgen.base.formula.base.OperatorAction#getOperator()
+	 */
+	@Override
+	public Operator getOperator()
+	{
+		return Operator.GT;
+	}
+
+	/**
+	 * Performs a greater than comparison on the given scaled arguments.
+	 * 
+	 * @see pcgen.base.formula.operator.fixed.AbstractFixedPointComparison#compare(long,
+	 *      long)
+	 */
+	@Override
+	protected boolean compare(long left, long right)
+	{
+		return left > right;
+	}
+
+}
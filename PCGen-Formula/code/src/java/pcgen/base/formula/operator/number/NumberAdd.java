@@ -17,13 +17,14 @@
  */
 package pcgen.base.formula.operator.number;
 
-import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.NumericOperatorAction;
+import pcgen.base.formula.base.NumericResult;
 import pcgen.base.formula.parse.Operator;
 
 /**
  * NumberAdd performs addition on two Number values.
  */
-public class NumberAdd implements OperatorAction
+public class NumberAdd implements NumericOperatorAction
 {
 
 	/**
@@ -76,4 +77,28 @@ public class NumberAdd implements OperatorAction
 		return ((Number) l).doubleValue() + ((Number) r).doubleValue();
 	}
 
+	/**
+	 * Performs addition on the given int arguments.
+	 * 
+	 * @see pcgen.base.formula.base.NumericOperatorAction#evaluate(int, int,
+	 *      pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(int left, int right, NumericResult result)
+	{
+		result.setInt(left + right);
+	}
+
+	/**
+	 * Performs addition on the given double arguments.
+	 * 
+	 * @see pcgen.base.formula.base.NumericOperatorAction#evaluate(double,
+	 *      double, pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(double left, double right, NumericResult result)
+	{
+		result.setDouble(left + right);
+	}
+
 }
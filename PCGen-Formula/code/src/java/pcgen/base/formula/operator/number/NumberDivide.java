@@ -17,13 +17,14 @@
  */
 package pcgen.base.formula.operator.number;
 
-import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.NumericOperatorAction;
+import pcgen.base.formula.base.NumericResult;
 import pcgen.base.formula.parse.Operator;
 
 /**
  * NumberDivide performs division on two Number values.
  */
-public class NumberDivide implements OperatorAction
+public class NumberDivide implements NumericOperatorAction
 {
 
 	/**
@@ -81,4 +82,36 @@ public class NumberDivide implements OperatorAction
 		return ((Number) l).doubleValue() / ((Number) r).doubleValue();
 	}
 
+	/**
+	 * Performs division on the given int arguments.
+	 * 
+	 * @see pcgen.base.formula.base.NumericOperatorAction#evaluate(int, int,
+	 *      pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(int left, int right, NumericResult result)
+	{
+		//Integer result only if exact (consistent with evaluate)
+		if ((left % right) == 0)
+		{
+			result.setInt(left / right);
+		}
+		else
+		{
+			result.setDouble((double) left / right);
+		}
+	}
+
+	/**
+	 * Performs division on the given double arguments.
+	 * 
+	 * @see pcgen.base.formula.base.NumericOperatorAction#evaluate(double,
+	 *      double, pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(double left, double right, NumericResult result)
+	{
+		result.setDouble(left / right);
+	}
+
 }
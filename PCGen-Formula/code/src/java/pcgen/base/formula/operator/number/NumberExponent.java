@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.operator.number;
+
+import pcgen.base.formula.base.NumericOperatorAction;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.parse.Operator;
+
+/**
+ * NumberExponent performs exponentiation on two Number values.
+ * 
+ * If both values are Integer objects and the exponent is not negative, the
+ * result is calculated by exponentiation by squaring and is an Integer. If the
+ * result would overflow an Integer (or the exponent is negative, or either
+ * value is not an Integer), the result is calculated using
+ * java.lang.Math.pow(double, double) and is a Double.
+ */
+public class NumberExponent implements NumericOperatorAction
+{
+
+	/**
+	 * Cache of the Number class.
+	 */
+	private static final Class<Number> NUMBER_CLASS = Number.class;
+
+	/**
+	 * Indicates that an integral result could not be calculated without
+	 * overflow. Never a valid result, since valid results are within the
+	 * range of an int.
+	 */
+	private static final long OVERFLOW = Long.MIN_VALUE;
+
+	/**
+	 * Indicates that NumberExponent Performs Exponentiation.
+	 * 
+	 * @see pcgen.base.formula.base.OperatorAction#getOperator()
+	 */
+	@Override
+	public Operator getOperator()
+	{
+		return Operator.EXP;
+	}
+
+	/**
+	 * Performs Abstract Evaluation, checking that the two arguments are
+	 * Number.class and returns Number.class.
+	 * 
+	 * @see pcgen.base.formula.base.OperatorAction#abstractEvaluate(java.lang.Class,
+	 *      java.lang.Class)
+	 */
+	@Override
+	public Class<?> abstractEvaluate(Class<?> format1, Class<?> format2)
+	{
+		if (NUMBER_CLASS.isAssignableFrom(format1)
+			&& NUMBER_CLASS.isAssignableFrom(format2))
+		{
+			return NUMBER_CLASS;
+		}
+		return null;
+	}
+
+	/**
+	 * Performs exponentiation on the given arguments.
+	 * 
+	 * @see pcgen.base.formula.base.OperatorAction#evaluate(java.lang.Object,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public Object evaluate(Object l, Object r)
+	{
+		if (l instanceof Integer && r instanceof Integer)
+		{
+			int base = ((Integer) l).intValue();
+			int exponent = ((Integer) r).intValue();
+			long result = power(base, exponent);
+			if (result != OVERFLOW)
+			{
+				return Integer.valueOf((int) result);
+			}
+		}
+		return Math.pow(((Number) l).doubleValue(), ((Number) r).doubleValue());
+	}
+
+	/**
+	 * Performs exponentiation on the given int arguments.
+	 * 
+	 * @see pcgen.base.formula.base.NumericOperatorAction#evaluate(int, int,
+	 *      pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(int left, int right, NumericResult result)
+	{
+		long value = power(left, right);
+		if (value == OVERFLOW)
+		{
+			result.setDouble(Math.pow(left, right));
+		}
+		else
+		{
+			result.setInt((int) value);
+		}
+	}
+
+	/**
+	 * Performs exponentiation on the given double arguments.
+	 * 
+	 * @see pcgen.base.formula.base.NumericOperatorAction#evaluate(double,
+	 *      double, pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(double left, double right, NumericResult result)
+	{
+		result.setDouble(Math.pow(left, right));
+	}
+
+	/**
+	 * Returns the given base raised to the given exponent, calculated by
+	 * exponentiation by squaring. Returns OVERFLOW if the exponent is negative
+	 * (the result is not integral) or if the result is outside the range of an
+	 * int.
+	 */
+	private static long power(int base, int exponent)
+	{
+		if (exponent < 0)
+		{
+			return OVERFLOW;
+		}
+		long result = 1L;
+		long square = base;
+		int remaining = exponent;
+		while (remaining != 0)
+		{
+			if ((remaining & 1) != 0)
+			{
+				//Both within the range of an int, so the product fits a long
+				result *= square;
+				if (result != (int) result)
+				{
+					return OVERFLOW;
+				}
+			}
+			remaining >>= 1;
+			if (remaining != 0)
+			{
+				square *= square;
+				//The square will be multiplied into the result (the highest
+				//bit of the exponent is always set), so overflow is certain
+				if (square > Integer.MAX_VALUE)
+				{
+					return OVERFLOW;
+				}
+			}
+		}
+		return result;
+	}
+
+}
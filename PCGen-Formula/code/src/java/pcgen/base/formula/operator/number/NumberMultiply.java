@@ -17,13 +17,14 @@
  */
 package pcgen.base.formula.operator.number;
 
-import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.NumericOperatorAction;
+import pcgen.base.formula.base.NumericResult;
 import pcgen.base.formula.parse.Operator;
 
 /**
  * NumberMultiply performs multiplication on two Number values.
  */
-public class NumberMultiply implements OperatorAction
+public class NumberMultiply implements NumericOperatorAction
 {
 
 	/**
@@ -84,4 +85,36 @@ public class NumberMultiply implements OperatorAction
 		return lDbl * rDbl;
 	}
 
+	/**
+	 * Performs multiplication on the given int arguments.
+	 * 
+	 * @see pcgen.base.formula.base.NumericOperatorAction#evaluate(int, int,
+	 *      pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(int left, int right, NumericResult result)
+	{
+		result.setInt(left * right);
+	}
+
+	/**
+	 * Performs multiplication on the given double arguments.
+	 * 
+	 * @see pcgen.base.formula.base.NumericOperatorAction#evaluate(double,
+	 *      double, pcgen.base.formula.base.NumericResult)
+	 */
+	@Override
+	public void evaluate(double left, double right, NumericResult result)
+	{
+		//Special case (consistent with evaluate)
+		if ((left == 0.0d) || (right == 0.0d))
+		{
+			result.setInt(0);
+		}
+		else
+		{
+			result.setDouble(left * right);
+		}
+	}
+
 }
@@ -0,0 +1,797 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.parse;
+
+/**
+ * A CharSequenceParser is an alternative to FormulaParser that parses a formula
+ * directly from a CharSequence.
+ * 
+ * FormulaParser (generated from formula.jjt) reads the formula through a
+ * Reader and builds a Token object (and String) for each token in the formula.
+ * CharSequenceParser instead tracks each token as a range of indexes within
+ * the CharSequence, and only builds a String for the text that is stored in
+ * the resulting tree (e.g. the names of variables).
+ * 
+ * CharSequenceParser implements the grammar in formula.jjt and produces a tree
+ * of exactly the same shape (node types, Operators, text and values) as
+ * FormulaParser. Any change to formula.jjt MUST be reflected in
+ * CharSequenceParser. The tokens are matched as the token manager generated by
+ * JavaCC matches them: the longest possible match is used, and if two tokens
+ * match the same length of text, the token defined first in formula.jjt is
+ * used.
+ * 
+ * The one intended difference from FormulaParser is that text that cannot be
+ * matched to any token results in a ParseException (FormulaParser throws a
+ * TokenMgrError).
+ * 
+ * A CharSequenceParser may be used to parse many formulas (which will then
+ * share the values in the ConstantPool of the CharSequenceParser), but is not
+ * thread-safe.
+ */
+public class CharSequenceParser
+{
+
+	/*
+	 * The token kinds, in the order the tokens are defined in formula.jjt (the
+	 * order is significant when two tokens match the same length of text)
+	 */
+	private static final int EOF = 0;
+	private static final int PLUS = 1;
+	private static final int MINUS = 2;
+	private static final int MULT = 3;
+	private static final int DIV = 4;
+	private static final int REM = 5;
+	private static final int POW = 6;
+	private static final int COMMA = 7;
+	private static final int OPENPAREN = 8;
+	private static final int CLOSEPAREN = 9;
+	private static final int OPENBRACKET = 10;
+	private static final int CLOSEBRACKET = 11;
+	private static final int GT = 12;
+	private static final int LT = 13;
+	private static final int GTEQ = 14;
+	private static final int LTEQ = 15;
+	private static final int EQUAL = 16;
+	private static final int NOTEQUAL = 17;
+	private static final int AND = 18;
+	private static final int OR = 19;
+	private static final int FULLSTOP = 20;
+	private static final int VARIABLE = 21;
+	private static final int INT = 22;
+	private static final int STRING_FORBIDDEN = 23;
+	private static final int STRING_ESCAPED = 24;
+	private static final int STRING_LITERAL = 25;
+
+	/**
+	 * Indicates no token could be matched.
+	 */
+	private static final int NO_MATCH = -1;
+
+	/**
+	 * The ConstantPool used to decode the numeric literals in the formula.
+	 */
+	private final ConstantPool constantPool = new ConstantPool();
+
+	/**
+	 * The formula being parsed.
+	 */
+	private CharSequence text;
+
+	/**
+	 * The length of the formula being parsed.
+	 */
+	private int length;
+
+	/**
+	 * The kind of the current token.
+	 */
+	private int kind;
+
+	/**
+	 * The index of the first character of the current token.
+	 */
+	private int tokenStart;
+
+	/**
+	 * The index after the last character of the current token.
+	 */
+	private int tokenEnd;
+
+	/**
+	 * The index after the last character of the token most recently matched
+	 * by scan().
+	 */
+	private int scanEnd;
+
+	/**
+	 * Parses the given formula, returning the root of the tree representing
+	 * the formula.
+	 * 
+	 * @param formula
+	 *            The formula to be parsed
+	 * @return The root of the tree representing the formula
+	 * @throws ParseException
+	 *             if the given formula does not represent a well-structured
+	 *             Formula
+	 * @throws IllegalArgumentException
+	 *             if the given formula is null
+	 */
+	public SimpleNode parse(CharSequence formula) throws ParseException
+	{
+		if (formula == null)
+		{
+			throw new IllegalArgumentException("Cannot parse null formula");
+		}
+		text = formula;
+		length = formula.length();
+		tokenEnd = 0;
+		try
+		{
+			advance();
+			SimpleNode root = createNode(FormulaParserTreeConstants.JJTROOT);
+			if (startsExpression())
+			{
+				NodeUtilities.addChildren(root, logicalExpr());
+			}
+			expect(EOF);
+			return root;
+		}
+		finally
+		{
+			text = null;
+		}
+	}
+
+	/*
+	 * The productions of the grammar. Each corresponds to the production of
+	 * the same name in formula.jjt
+	 */
+
+	private SimpleNode logicalExpr() throws ParseException
+	{
+		SimpleNode left = equalityExpr();
+		while ((kind == OR) || (kind == AND))
+		{
+			Operator operator = (kind == OR) ? Operator.OR : Operator.AND;
+			advance();
+			left = createBinary(FormulaParserTreeConstants.JJTLOGICAL,
+				operator, left, equalityExpr());
+		}
+		return left;
+	}
+
+	private SimpleNode equalityExpr() throws ParseException
+	{
+		SimpleNode left = relationalExpr();
+		while ((kind == EQUAL) || (kind == NOTEQUAL))
+		{
+			Operator operator = (kind == EQUAL) ? Operator.EQ : Operator.NEQ;
+			advance();
+			left = createBinary(FormulaParserTreeConstants.JJTEQUALITY,
+				operator, left, relationalExpr());
+		}
+		return left;
+	}
+
+	private SimpleNode relationalExpr() throws ParseException
+	{
+		SimpleNode left = arithmeticExpr();
+		while (true)
+		{
+			Operator operator;
+			switch (kind)
+			{
+				case LT:
+					operator = Operator.LT;
+					break;
+				case GT:
+					operator = Operator.GT;
+					break;
+				case LTEQ:
+					operator = Operator.LE;
+					break;
+				case GTEQ:
+					operator = Operator.GE;
+					break;
+				default:
+					return left;
+			}
+			advance();
+			left = createBinary(FormulaParserTreeConstants.JJTRELATIONAL,
+				operator, left, arithmeticExpr());
+		}
+	}
+
+	private SimpleNode arithmeticExpr() throws ParseException
+	{
+		SimpleNode left = geometricExpr();
+		while ((kind == PLUS) || (kind == MINUS))
+		{
+			Operator operator = (kind == PLUS) ? Operator.ADD : Operator.SUB;
+			advance();
+			left = createBinary(FormulaParserTreeConstants.JJTARITHMETIC,
+				operator, left, geometricExpr());
+		}
+		return left;
+	}
+
+	private SimpleNode geometricExpr() throws ParseException
+	{
+		SimpleNode left = unaryExpr();
+		while (true)
+		{
+			Operator operator;
+			switch (kind)
+			{
+				case MULT:
+					operator = Operator.MUL;
+					break;
+				case DIV:
+					operator = Operator.DIV;
+					break;
+				case REM:
+					operator = Operator.REM;
+					break;
+				default:
+					return left;
+			}
+			advance();
+			left = createBinary(FormulaParserTreeConstants.JJTGEOMETRIC,
+				operator, left, unaryExpr());
+		}
+	}
+
+	private SimpleNode unaryExpr() throws ParseException
+	{
+		if (kind != MINUS)
+		{
+			return exponExpr();
+		}
+		advance();
+		SimpleNode unary = createNode(FormulaParserTreeConstants.JJTUNARY);
+		NodeUtilities.addChildren(unary, exponExpr());
+		return unary;
+	}
+
+	private SimpleNode exponExpr() throws ParseException
+	{
+		SimpleNode first = primitiveExpr();
+		if (kind != POW)
+		{
+			return first;
+		}
+		SimpleNode expon = createNode(FormulaParserTreeConstants.JJTEXPON);
+		expon.setOperator(Operator.EXP);
+		NodeUtilities.addChildren(expon, first);
+		while (kind == POW)
+		{
+			advance();
+			NodeUtilities.addChildren(expon, primitiveExpr());
+		}
+		return expon;
+	}
+
+	private SimpleNode primitiveExpr() throws ParseException
+	{
+		switch (kind)
+		{
+			case OPENPAREN:
+				return parenExpr();
+			case INT:
+			case FULLSTOP:
+				return numberExpr();
+			case REM:
+			case VARIABLE:
+				return lookupExpr();
+			default:
+				throw unexpected();
+		}
+	}
+
+	private SimpleNode parenExpr() throws ParseException
+	{
+		advance();
+		SimpleNode paren = createNode(FormulaParserTreeConstants.JJTPAREN);
+		NodeUtilities.addChildren(paren, logicalExpr());
+		expect(CLOSEPAREN);
+		return paren;
+	}
+
+	private SimpleNode numberExpr() throws ParseException
+	{
+		String image;
+		if (kind == INT)
+		{
+			int start = tokenStart;
+			advance();
+			if ((kind == FULLSTOP) && (scan(tokenEnd) == INT))
+			{
+				//LOOKAHEAD(2) matched <FULLSTOP> <INT>
+				advance();
+				image = text.subSequence(start, tokenEnd).toString();
+				advance();
+			}
+			else
+			{
+				image = text.subSequence(start, tokenStart).toString();
+			}
+		}
+		else
+		{
+			advance();
+			if (kind != INT)
+			{
+				throw unexpected();
+			}
+			image = "." + tokenText();
+			advance();
+		}
+		SimpleNode num = createNode(FormulaParserTreeConstants.JJTNUM);
+		num.setToken(image);
+		num.setValue(constantPool.getNumber(image));
+		return num;
+	}
+
+	private SimpleNode lookupExpr() throws ParseException
+	{
+		SimpleNode word = pcgenSingleWord();
+		SimpleNode args;
+		if (kind == OPENBRACKET)
+		{
+			args = pcgenBracketGroup();
+		}
+		else if (kind == OPENPAREN)
+		{
+			args = parenGroup();
+		}
+		else
+		{
+			return word;
+		}
+		SimpleNode lookup =
+				createNode(FormulaParserTreeConstants.JJTPCGENLOOKUP);
+		NodeUtilities.addChildren(lookup, word, args);
+		return lookup;
+	}
+
+	private SimpleNode pcgenSingleWord() throws ParseException
+	{
+		String prefix = null;
+		if (kind == REM)
+		{
+			prefix = tokenText();
+			advance();
+		}
+		if (kind != VARIABLE)
+		{
+			throw unexpected();
+		}
+		String image;
+		if (prefix == null)
+		{
+			image = tokenText();
+		}
+		else
+		{
+			if (prefix.lastIndexOf(" ") == prefix.length() - 1)
+			{
+				throw new ParseException("Found Word with embedded space: "
+					+ prefix + tokenText());
+			}
+			image = prefix + tokenText();
+		}
+		advance();
+		SimpleNode word =
+				createNode(FormulaParserTreeConstants.JJTPCGENSINGLEWORD);
+		word.setToken(image);
+		return word;
+	}
+
+	private SimpleNode pcgenBracketGroup() throws ParseException
+	{
+		advance();
+		SimpleNode bracket =
+				createNode(FormulaParserTreeConstants.JJTPCGENBRACKET);
+		NodeUtilities.addChildren(bracket, pcgenSingleWord());
+		expect(CLOSEBRACKET);
+		return bracket;
+	}
+
+	private SimpleNode parenGroup() throws ParseException
+	{
+		advance();
+		SimpleNode fparen = createNode(FormulaParserTreeConstants.JJTFPAREN);
+		if ((kind == STRING_LITERAL) || startsExpression())
+		{
+			NodeUtilities.addChildren(fparen, functionExpr());
+			while (kind == COMMA)
+			{
+				advance();
+				NodeUtilities.addChildren(fparen, functionExpr());
+			}
+		}
+		expect(CLOSEPAREN);
+		return fparen;
+	}
+
+	private SimpleNode functionExpr() throws ParseException
+	{
+		if (kind != STRING_LITERAL)
+		{
+			return logicalExpr();
+		}
+		SimpleNode string =
+				createNode(FormulaParserTreeConstants.JJTQUOTSTRING);
+		string.setToken(text.subSequence(tokenStart + 1, tokenEnd - 1)
+			.toString());
+		advance();
+		return string;
+	}
+
+	/**
+	 * Returns true if the current token can start a logicalExpr.
+	 */
+	private boolean startsExpression()
+	{
+		switch (kind)
+		{
+			case MINUS:
+			case OPENPAREN:
+			case INT:
+			case FULLSTOP:
+			case REM:
+			case VARIABLE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Consumes the current token, which must be of the given kind.
+	 */
+	private void expect(int expected) throws ParseException
+	{
+		if (kind != expected)
+		{
+			throw unexpected();
+		}
+		if (kind != EOF)
+		{
+			advance();
+		}
+	}
+
+	/**
+	 * Returns a ParseException indicating the current token was not expected.
+	 */
+	private ParseException unexpected()
+	{
+		if (kind == EOF)
+		{
+			return new ParseException("Encountered end of formula in: "
+				+ text);
+		}
+		return new ParseException("Encountered \"" + tokenText()
+			+ "\" at index " + tokenStart + " in: " + text);
+	}
+
+	/**
+	 * Returns the text of the current token.
+	 */
+	private String tokenText()
+	{
+		return text.subSequence(tokenStart, tokenEnd).toString();
+	}
+
+	private static SimpleNode createNode(int id)
+	{
+		return NodeUtilities.createNode(id);
+	}
+
+	private static SimpleNode createBinary(int id, Operator operator,
+		SimpleNode left, SimpleNode right)
+	{
+		SimpleNode node = createNode(id);
+		node.setOperator(operator);
+		NodeUtilities.addChildren(node, left, right);
+		return node;
+	}
+
+	/*
+	 * The token manager
+	 */
+
+	/**
+	 * Moves to the next token in the formula.
+	 */
+	private void advance() throws ParseException
+	{
+		tokenStart = tokenEnd;
+		kind = scan(tokenStart);
+		if (kind == NO_MATCH)
+		{
+			throw new ParseException("Lexical error at index " + tokenStart
+				+ ": encountered \"" + text.charAt(tokenStart) + "\" in: "
+				+ text);
+		}
+		tokenEnd = scanEnd;
+	}
+
+	/**
+	 * Matches the token starting at the given index, returning the kind of the
+	 * token (and setting scanEnd to the index after the token). Returns
+	 * NO_MATCH if no token can be matched.
+	 */
+	private int scan(int start)
+	{
+		scanEnd = start;
+		if (start >= length)
+		{
+			return EOF;
+		}
+		int best = scanOperator(start);
+		char c = text.charAt(start);
+		if (best == NO_MATCH)
+		{
+			if (c == '.')
+			{
+				best = FULLSTOP;
+				scanEnd = start + 1;
+			}
+			else if (isBasicLetter(c))
+			{
+				best = VARIABLE;
+				scanEnd = scanVariable(start);
+			}
+			else if (isDigit(c))
+			{
+				best = INT;
+				int end = start + 1;
+				while ((end < length) && isDigit(text.charAt(end)))
+				{
+					end++;
+				}
+				scanEnd = end;
+			}
+			else if (c == '"')
+			{
+				int end = scanStringLiteral(start);
+				if (end != NO_MATCH)
+				{
+					best = STRING_LITERAL;
+					scanEnd = end;
+				}
+			}
+			else if (c == '\\')
+			{
+				if ((start + 1 < length) && isEscaped(text.charAt(start + 1)))
+				{
+					best = STRING_ESCAPED;
+					scanEnd = start + 2;
+				}
+			}
+			else if ((c != '\n') && (c != '\r'))
+			{
+				best = STRING_FORBIDDEN;
+				scanEnd = start + 1;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Matches an operator token (with optional surrounding spaces) starting at
+	 * the given index, returning the kind of token (and setting scanEnd), or
+	 * NO_MATCH if no operator token can be matched.
+	 * 
+	 * Note that an operator token is always the longest match when it can be
+	 * matched (no other token can contain the operator characters).
+	 */
+	private int scanOperator(int start)
+	{
+		int index = start;
+		while ((index < length) && (text.charAt(index) == ' '))
+		{
+			index++;
+		}
+		if (index >= length)
+		{
+			return NO_MATCH;
+		}
+		char c = text.charAt(index);
+		char next = (index + 1 < length) ? text.charAt(index + 1) : 0;
+		int operator;
+		int size = 1;
+		switch (c)
+		{
+			case '+':
+				operator = PLUS;
+				break;
+			case '-':
+				operator = MINUS;
+				break;
+			case '*':
+				operator = MULT;
+				break;
+			case '/':
+				operator = DIV;
+				break;
+			case '%':
+				operator = REM;
+				break;
+			case '^':
+				operator = POW;
+				break;
+			case ',':
+				operator = COMMA;
+				break;
+			case '(':
+				operator = OPENPAREN;
+				break;
+			case ')':
+				operator = CLOSEPAREN;
+				break;
+			case '[':
+				operator = OPENBRACKET;
+				break;
+			case ']':
+				operator = CLOSEBRACKET;
+				break;
+			case '>':
+				operator = (next == '=') ? GTEQ : GT;
+				break;
+			case '<':
+				operator = (next == '=') ? LTEQ : LT;
+				break;
+			case '=':
+				operator = (next == '=') ? EQUAL : NO_MATCH;
+				break;
+			case '!':
+				operator = (next == '=') ? NOTEQUAL : NO_MATCH;
+				break;
+			case '&':
+				operator = (next == '&') ? AND : NO_MATCH;
+				break;
+			case '|':
+				operator = (next == '|') ? OR : NO_MATCH;
+				break;
+			default:
+				operator = NO_MATCH;
+		}
+		if (operator == NO_MATCH)
+		{
+			return NO_MATCH;
+		}
+		if ((operator >= GTEQ) && (operator <= OR))
+		{
+			size = 2;
+		}
+		index += size;
+		while ((index < length) && (text.charAt(index) == ' '))
+		{
+			index++;
+		}
+		scanEnd = index;
+		return operator;
+	}
+
+	/**
+	 * Returns the index after the longest VARIABLE token starting at the given
+	 * index (which must contain a BASIC_LETTER):
+	 * 
+	 * BASIC_LETTER ( ( MID_LETTER )* ( "=" ( MID_LETTER )* )? FINAL_LETTER )?
+	 */
+	private int scanVariable(int start)
+	{
+		int end = start + 1;
+		boolean equalsFound = false;
+		for (int index = start + 1; index < length; index++)
+		{
+			char c = text.charAt(index);
+			if (isFinalLetter(c))
+			{
+				end = index + 1;
+			}
+			else if (c == '=')
+			{
+				if (equalsFound)
+				{
+					break;
+				}
+				equalsFound = true;
+			}
+			else if (!isMidLetter(c))
+			{
+				break;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Returns the index after the STRING_LITERAL token starting at the given
+	 * index (which must contain a quote), or NO_MATCH if the String is not
+	 * terminated.
+	 */
+	private int scanStringLiteral(int start)
+	{
+		int index = start + 1;
+		while (index < length)
+		{
+			char c = text.charAt(index);
+			if (c == '"')
+			{
+				return index + 1;
+			}
+			else if (c == '\\')
+			{
+				if ((index + 1 >= length) || !isEscaped(text.charAt(index + 1)))
+				{
+					return NO_MATCH;
+				}
+				index += 2;
+			}
+			else if ((c == '\n') || (c == '\r'))
+			{
+				return NO_MATCH;
+			}
+			else
+			{
+				index++;
+			}
+		}
+		return NO_MATCH;
+	}
+
+	private static boolean isEscaped(char c)
+	{
+		return "ntbrf\\'\"".indexOf(c) != -1;
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return (c >= '0') && (c <= '9');
+	}
+
+	private static boolean isBasicLetter(char c)
+	{
+		return ((c >= 'A') && (c <= 'Z'))
+			|| ((c >= 'a') && (c <= 'z'))
+			|| ((c >= '\u00c0') && (c <= '\u00d6'))
+			|| ((c >= '\u00d8') && (c <= '\u00f6'))
+			|| ((c >= '\u00f8') && (c <= '\u00ff'))
+			|| ((c >= '\u0100') && (c <= '\u1fff'))
+			|| ((c >= '\u3040') && (c <= '\u318f'))
+			|| ((c >= '\u3300') && (c <= '\u337f'))
+			|| ((c >= '\u3400') && (c <= '\u3d2d'))
+			|| ((c >= '\u4e00') && (c <= '\u9fff'))
+			|| ((c >= '\uf900') && (c <= '\ufaff'));
+	}
+
+	private static boolean isFinalLetter(char c)
+	{
+		return (c == '~') || isDigit(c) || isBasicLetter(c);
+	}
+
+	private static boolean isMidLetter(char c)
+	{
+		return (c == '_') || (c == ' ') || (c == ':') || (c == '.')
+			|| (c == '%') || isFinalLetter(c);
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.parse;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A ConstantPool holds the decoded values of the numeric literals in a
+ * formula.
+ * 
+ * A ConstantPool is used by the parser so that each numeric literal is decoded
+ * once (when the formula is parsed), rather than each time the formula is
+ * processed. Each FormulaParser has its own ConstantPool, so identical literals
+ * within a formula share the same decoded value.
+ * 
+ * Decoding follows the "integer-if-possible" rule of the formula system: A
+ * literal is decoded to an Integer if it has no decimal point and is within
+ * the range of an Integer; otherwise it is decoded to a Double.
+ */
+public class ConstantPool
+{
+
+	/**
+	 * The decoded values, keyed by the text of the numeric literal.
+	 */
+	private final Map<String, Number> numbers = new HashMap<>();
+
+	/**
+	 * Returns the decoded value of the given numeric literal. If the literal
+	 * has been previously decoded by this ConstantPool, the previously decoded
+	 * value is returned.
+	 * 
+	 * @param text
+	 *            The text of the numeric literal
+	 * @return The decoded value of the given numeric literal, or null if the
+	 *         given text is not a numeric literal
+	 */
+	public Number getNumber(String text)
+	{
+		Number value = numbers.get(text);
+		if (value == null)
+		{
+			value = decodeNumber(text);
+			if (value != null)
+			{
+				numbers.put(text, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Decodes the given numeric literal into an Integer (if possible) or a
+	 * Double.
+	 * 
+	 * The literals produced by the parser (digits with an optional decimal
+	 * point) are decoded without the use of exceptions. Other text is decoded
+	 * as Integer.valueOf or Double.valueOf would decode it.
+	 * 
+	 * @param text
+	 *            The text of the numeric literal
+	 * @return The decoded value of the given numeric literal, or null if the
+	 *         given text is not a numeric literal
+	 */
+	public static Number decodeNumber(String text)
+	{
+		if (text == null)
+		{
+			return null;
+		}
+		int length = text.length();
+		int dotLoc = -1;
+		int digitCount = 0;
+		for (int i = 0; i < length; i++)
+		{
+			char c = text.charAt(i);
+			if (c == '.')
+			{
+				if (dotLoc != -1)
+				{
+					return decodeOther(text);
+				}
+				dotLoc = i;
+			}
+			else if ((c >= '0') && (c <= '9'))
+			{
+				digitCount++;
+			}
+			else
+			{
+				return decodeOther(text);
+			}
+		}
+		if (digitCount == 0)
+		{
+			return null;
+		}
+		if (dotLoc != -1)
+		{
+			return Double.valueOf(text);
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++)
+		{
+			value = value * 10 + (text.charAt(i) - '0');
+			if (value > Integer.MAX_VALUE)
+			{
+				return Double.valueOf(text);
+			}
+		}
+		return Integer.valueOf((int) value);
+	}
+
+	/**
+	 * Decodes text that is not in the form of a numeric literal produced by
+	 * the parser (e.g. text with a sign or an exponent).
+	 */
+	private static Number decodeOther(String text)
+	{
+		try
+		{
+			return Integer.valueOf(text);
+		}
+		catch (NumberFormatException e)
+		{
+			try
+			{
+				return Double.valueOf(text);
+			}
+			catch (NumberFormatException e2)
+			{
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pcgen.base.formula.base.FunctionBinding;
+import pcgen.base.formula.base.OperatorBinding;
+
+/**
+ * A FlatTree is an immutable, compact representation of a parsed tree.
+ * 
+ * Rather than one SimpleNode object per node (each with a parent reference, an
+ * array of children, a parser reference and other fields), a FlatTree stores
+ * the nodes in parallel primitive arrays, indexed by the position of the node
+ * in a pre-order traversal of the tree:
+ * 
+ * - The kind of each node (the node ID, see FormulaParserTreeConstants)
+ * 
+ * - The ordinal of the Operator of each node (or NO_OPERATOR)
+ * 
+ * - The index one past the last node in the subtree of each node. Since the
+ * nodes are stored in pre-order, the first child of a node (if any) is the
+ * node immediately after it, and the next sibling of a node starts at the end
+ * of the subtree of that node.
+ * 
+ * - The index of the literal of each node (or NO_LITERAL). The literal is the
+ * text of the node and (for numeric nodes) the decoded value of the node.
+ * 
+ * A FlatTree is intended for formulas that are retained for a long time, where
+ * the memory consumed by the parsed trees is significant. Processes that
+ * require SimpleNode objects (such as the visitors) can either work directly on
+ * the arrays, or use toNode (or accept) to materialize a temporary SimpleNode
+ * tree for some or all of the FlatTree.
+ * 
+ * Other than the OperatorBinding of each operator node and the FunctionBinding
+ * of each function call node (which, as with SimpleNode, may be set by any
+ * process that has resolved the OperatorAction or Function for the node), the
+ * FlatTree is never modified. The arrays holding these are only created once
+ * an OperatorBinding or FunctionBinding is set.
+ */
+public final class FlatTree
+{
+
+	/**
+	 * The value in the operator array indicating the node has no Operator.
+	 */
+	public static final byte NO_OPERATOR = -1;
+
+	/**
+	 * The value in the literal array indicating the node has no literal.
+	 */
+	public static final int NO_LITERAL = -1;
+
+	/**
+	 * The Operator objects, indexed by ordinal.
+	 */
+	private static final Operator[] OPERATORS = Operator.values();
+
+	/**
+	 * The kind (node ID) of each node.
+	 */
+	private final byte[] kinds;
+
+	/**
+	 * The ordinal of the Operator of each node, or NO_OPERATOR.
+	 */
+	private final byte[] operators;
+
+	/**
+	 * The index one past the last node in the subtree of each node.
+	 */
+	private final int[] ends;
+
+	/**
+	 * The index of the literal of each node (in texts and values), or
+	 * NO_LITERAL.
+	 */
+	private final int[] literals;
+
+	/**
+	 * The text of each literal.
+	 */
+	private final String[] texts;
+
+	/**
+	 * The decoded value of each literal (null if the literal has no decoded
+	 * value).
+	 */
+	private final Object[] values;
+
+	/**
+	 * The OperatorBinding of each node, or null if no OperatorBinding has been
+	 * set on any node. Lazily Instantiated.
+	 */
+	private volatile OperatorBinding[] bindings;
+
+	/**
+	 * The FunctionBinding of each node, or null if no FunctionBinding has been
+	 * set on any node. Lazily Instantiated.
+	 */
+	private volatile FunctionBinding[] functionBindings;
+
+	private FlatTree(byte[] kinds, byte[] operators, int[] ends,
+		int[] literals, String[] texts, Object[] values)
+	{
+		this.kinds = kinds;
+		this.operators = operators;
+		this.ends = ends;
+		this.literals = literals;
+		this.texts = texts;
+		this.values = values;
+	}
+
+	/**
+	 * Returns a FlatTree for the tree with the given root. The given tree is
+	 * not modified, and is not referenced by the returned FlatTree.
+	 * 
+	 * @param root
+	 *            The root of the tree to be represented by a FlatTree
+	 * @return A FlatTree representing the tree with the given root
+	 * @throws IllegalArgumentException
+	 *             if the given root is null
+	 */
+	public static FlatTree flatten(SimpleNode root)
+	{
+		if (root == null)
+		{
+			throw new IllegalArgumentException("Cannot flatten null root");
+		}
+		int size = countNodes(root);
+		byte[] kinds = new byte[size];
+		byte[] operators = new byte[size];
+		int[] ends = new int[size];
+		int[] literals = new int[size];
+		List<String> texts = new ArrayList<>();
+		List<Object> values = new ArrayList<>();
+		OperatorBinding[] bindings = new OperatorBinding[size];
+		fill(root, 0, kinds, operators, ends, literals, texts, values,
+			bindings);
+		FlatTree tree =
+				new FlatTree(kinds, operators, ends, literals,
+					texts.toArray(new String[texts.size()]), values.toArray());
+		for (OperatorBinding binding : bindings)
+		{
+			if (binding != null)
+			{
+				//Only retain the bindings if there is something to retain
+				tree.bindings = bindings;
+				break;
+			}
+		}
+		return tree;
+	}
+
+	private static int countNodes(Node node)
+	{
+		int count = 1;
+		int childCount = node.jjtGetNumChildren();
+		for (int i = 0; i < childCount; i++)
+		{
+			count += countNodes(node.jjtGetChild(i));
+		}
+		return count;
+	}
+
+	/**
+	 * Places the given node (and its subtree) into the arrays starting at the
+	 * given index. Returns the index one past the end of the subtree.
+	 */
+	private static int fill(Node node, int index, byte[] kinds,
+		byte[] operators, int[] ends, int[] literals, List<String> texts,
+		List<Object> values, OperatorBinding[] bindings)
+	{
+		SimpleNode simple = (SimpleNode) node;
+		kinds[index] = (byte) simple.getId();
+		Operator op = simple.getOperator();
+		operators[index] = (op == null) ? NO_OPERATOR : (byte) op.ordinal();
+		bindings[index] = simple.getOperatorBinding();
+		String text = simple.getText();
+		Object value = simple.getValue();
+		if ((text == null) && (value == null))
+		{
+			literals[index] = NO_LITERAL;
+		}
+		else
+		{
+			literals[index] = texts.size();
+			texts.add(text);
+			values.add(value);
+		}
+		int next = index + 1;
+		int childCount = node.jjtGetNumChildren();
+		for (int i = 0; i < childCount; i++)
+		{
+			next =
+					fill(node.jjtGetChild(i), next, kinds, operators, ends,
+						literals, texts, values, bindings);
+		}
+		ends[index] = next;
+		return next;
+	}
+
+	/**
+	 * Returns the number of nodes in this FlatTree.
+	 * 
+	 * @return The number of nodes in this FlatTree
+	 */
+	public int size()
+	{
+		return kinds.length;
+	}
+
+	/**
+	 * Returns the kind (node ID, see FormulaParserTreeConstants) of the node
+	 * at the given index.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @return The kind of the node at the given index
+	 */
+	public int getKind(int index)
+	{
+		return kinds[index];
+	}
+
+	/**
+	 * Returns the Operator of the node at the given index, or null if the node
+	 * has no Operator.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @return The Operator of the node at the given index, or null
+	 */
+	public Operator getOperator(int index)
+	{
+		byte ordinal = operators[index];
+		return (ordinal == NO_OPERATOR) ? null : OPERATORS[ordinal];
+	}
+
+	/**
+	 * Returns the OperatorBinding of the node at the given index, or null if no
+	 * OperatorBinding has been set for the node.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @return The OperatorBinding of the node at the given index, or null
+	 */
+	public OperatorBinding getOperatorBinding(int index)
+	{
+		OperatorBinding[] current = bindings;
+		return (current == null) ? null : current[index];
+	}
+
+	/**
+	 * Sets the OperatorBinding of the node at the given index. This may be
+	 * called by any process (e.g. evaluation) that has resolved the
+	 * OperatorAction for the Operator of the node.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @param binding
+	 *            The OperatorBinding for the node
+	 */
+	public void setOperatorBinding(int index, OperatorBinding binding)
+	{
+		OperatorBinding[] current = bindings;
+		if (current == null)
+		{
+			//A racing creation may lose a binding, which is just resolved again
+			current = new OperatorBinding[kinds.length];
+			bindings = current;
+		}
+		current[index] = binding;
+	}
+
+	/**
+	 * Returns the FunctionBinding of the node at the given index, or null if
+	 * no FunctionBinding has been set for the node.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @return The FunctionBinding of the node at the given index, or null
+	 */
+	public FunctionBinding getFunctionBinding(int index)
+	{
+		FunctionBinding[] current = functionBindings;
+		return (current == null) ? null : current[index];
+	}
+
+	/**
+	 * Sets the FunctionBinding of the node at the given index. This may be
+	 * called by any process (e.g. evaluation) that has resolved the Function
+	 * called by the node.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @param binding
+	 *            The FunctionBinding for the node
+	 */
+	public void setFunctionBinding(int index, FunctionBinding binding)
+	{
+		FunctionBinding[] current = functionBindings;
+		if (current == null)
+		{
+			//A racing creation may lose a binding, which is just resolved again
+			current = new FunctionBinding[kinds.length];
+			functionBindings = current;
+		}
+		current[index] = binding;
+	}
+
+	/**
+	 * Returns the text of the node at the given index, or null if the node has
+	 * no text.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @return The text of the node at the given index, or null
+	 */
+	public String getText(int index)
+	{
+		int literal = literals[index];
+		return (literal == NO_LITERAL) ? null : texts[literal];
+	}
+
+	/**
+	 * Returns the decoded value of the node at the given index, or null if the
+	 * node has no decoded value.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @return The decoded value of the node at the given index, or null
+	 */
+	public Object getValue(int index)
+	{
+		int literal = literals[index];
+		return (literal == NO_LITERAL) ? null : values[literal];
+	}
+
+	/**
+	 * Returns the index one past the last node in the subtree of the node at
+	 * the given index. This is the index of the next sibling of the node (if
+	 * it has one).
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @return The index one past the last node in the subtree of the node at
+	 *         the given index
+	 */
+	public int getEnd(int index)
+	{
+		return ends[index];
+	}
+
+	/**
+	 * Returns the number of children of the node at the given index.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @return The number of children of the node at the given index
+	 */
+	public int getChildCount(int index)
+	{
+		int count = 0;
+		int end = ends[index];
+		for (int child = index + 1; child < end; child = ends[child])
+		{
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the index of the child (at the given position) of the node at
+	 * the given index.
+	 * 
+	 * @param index
+	 *            The index of the node
+	 * @param position
+	 *            The position of the child (zero for the first child)
+	 * @return The index of the child of the node at the given index
+	 * @throws IndexOutOfBoundsException
+	 *             if the node does not have a child at the given position
+	 */
+	public int getChild(int index, int position)
+	{
+		int end = ends[index];
+		int child = index + 1;
+		for (int i = 0; i < position; i++)
+		{
+			child = ends[child];
+		}
+		if ((position < 0) || (child >= end))
+		{
+			throw new IndexOutOfBoundsException("Node " + index
+				+ " has no child at position " + position);
+		}
+		return child;
+	}
+
+	/**
+	 * Materializes a new SimpleNode tree for the entire FlatTree. The returned
+	 * tree is not referenced by the FlatTree, and may be modified or discarded
+	 * by the caller.
+	 * 
+	 * @return The root of a new SimpleNode tree equivalent to this FlatTree
+	 */
+	public SimpleNode toTree()
+	{
+		return toNode(0);
+	}
+
+	/**
+	 * Materializes a new SimpleNode tree for the subtree of the node at the
+	 * given index. The returned tree is not referenced by the FlatTree, and may
+	 * be modified or discarded by the caller. The OperatorBinding and
+	 * FunctionBinding of each node are carried over to the new tree.
+	 * 
+	 * @param index
+	 *            The index of the node at the root of the subtree
+	 * @return A new SimpleNode tree equivalent to the subtree of the node at
+	 *         the given index
+	 */
+	public SimpleNode toNode(int index)
+	{
+		SimpleNode node = NodeUtilities.createNode(kinds[index]);
+		node.setOperator(getOperator(index));
+		node.setOperatorBinding(getOperatorBinding(index));
+		node.setFunctionBinding(getFunctionBinding(index));
+		int literal = literals[index];
+		if (literal != NO_LITERAL)
+		{
+			node.setToken(texts[literal]);
+			node.setValue(values[literal]);
+		}
+		int end = ends[index];
+		int position = 0;
+		for (int child = index + 1; child < end; child = ends[child])
+		{
+			SimpleNode childNode = toNode(child);
+			node.jjtAddChild(childNode, position++);
+			childNode.jjtSetParent(node);
+		}
+		return node;
+	}
+
+	/**
+	 * Copies the OperatorBinding and FunctionBinding objects of a SimpleNode
+	 * tree materialized by toNode back into this FlatTree, so that any
+	 * OperatorAction or Function resolved while processing the SimpleNode tree
+	 * is reused the next time the subtree is materialized.
+	 * 
+	 * @param index
+	 *            The index of the node from which the SimpleNode tree was
+	 *            materialized
+	 * @param node
+	 *            The root of the SimpleNode tree returned by toNode(index)
+	 */
+	public void retainBindings(int index, SimpleNode node)
+	{
+		OperatorBinding operatorBinding = node.getOperatorBinding();
+		if ((operatorBinding != null)
+			&& (operatorBinding != getOperatorBinding(index)))
+		{
+			setOperatorBinding(index, operatorBinding);
+		}
+		FunctionBinding functionBinding = node.getFunctionBinding();
+		if ((functionBinding != null)
+			&& (functionBinding != getFunctionBinding(index)))
+		{
+			setFunctionBinding(index, functionBinding);
+		}
+		int child = index + 1;
+		int childCount = node.jjtGetNumChildren();
+		for (int i = 0; i < childCount; i++)
+		{
+			retainBindings(child, (SimpleNode) node.jjtGetChild(i));
+			child = ends[child];
+		}
+	}
+
+	/**
+	 * Visits this FlatTree with the given FormulaParserVisitor. A temporary
+	 * SimpleNode tree is materialized for the visit, so any FormulaParserVisitor
+	 * (e.g. DependencyVisitor or SemanticsVisitor) may be used.
+	 * 
+	 * @param visitor
+	 *            The FormulaParserVisitor to visit this FlatTree
+	 * @param data
+	 *            The data to be passed to the FormulaParserVisitor
+	 * @return The result of the visit
+	 */
+	public Object accept(FormulaParserVisitor visitor, Object data)
+	{
+		return toTree().jjtAccept(visitor, data);
+	}
+}
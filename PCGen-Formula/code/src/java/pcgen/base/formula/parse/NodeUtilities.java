@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.parse;
+
+/**
+ * NodeUtilities are a set of common behaviors used to build new trees of nodes
+ * (for example, when a process produces an altered copy of a tree, rather than
+ * modifying a tree that may be shared).
+ */
+public final class NodeUtilities
+{
+
+	/**
+	 * Private Constructor for Utility Class.
+	 */
+	private NodeUtilities()
+	{
+	}
+
+	/**
+	 * Returns a new node (with no children) of the type indicated by the given
+	 * ID. The ID is as defined in FormulaParserTreeConstants.
+	 * 
+	 * @param id
+	 *            The ID indicating the type of node to be returned
+	 * @return A new node of the type indicated by the given ID
+	 * @throws IllegalArgumentException
+	 *             if the given ID is not a valid ID for a node
+	 */
+	@SuppressWarnings("PMD.CyclomaticComplexity")
+	public static SimpleNode createNode(int id)
+	{
+		switch (id)
+		{
+			case FormulaParserTreeConstants.JJTROOT:
+				return new ASTRoot(id);
+			case FormulaParserTreeConstants.JJTLOGICAL:
+				return new ASTLogical(id);
+			case FormulaParserTreeConstants.JJTEQUALITY:
+				return new ASTEquality(id);
+			case FormulaParserTreeConstants.JJTRELATIONAL:
+				return new ASTRelational(id);
+			case FormulaParserTreeConstants.JJTARITHMETIC:
+				return new ASTArithmetic(id);
+			case FormulaParserTreeConstants.JJTGEOMETRIC:
+				return new ASTGeometric(id);
+			case FormulaParserTreeConstants.JJTUNARY:
+				return new ASTUnary(id);
+			case FormulaParserTreeConstants.JJTEXPON:
+				return new ASTExpon(id);
+			case FormulaParserTreeConstants.JJTPAREN:
+				return new ASTParen(id);
+			case FormulaParserTreeConstants.JJTNUM:
+				return new ASTNum(id);
+			case FormulaParserTreeConstants.JJTPCGENLOOKUP:
+				return new ASTPCGenLookup(id);
+			case FormulaParserTreeConstants.JJTPCGENSINGLEWORD:
+				return new ASTPCGenSingleWord(id);
+			case FormulaParserTreeConstants.JJTPCGENBRACKET:
+				return new ASTPCGenBracket(id);
+			case FormulaParserTreeConstants.JJTFPAREN:
+				return new ASTFParen(id);
+			case FormulaParserTreeConstants.JJTQUOTSTRING:
+				return new ASTQuotString(id);
+			default:
+				throw new IllegalArgumentException("Invalid node ID: " + id);
+		}
+	}
+
+	/**
+	 * Returns a new node of the same type as the given node, with the same
+	 * Operator, text and value as the given node. The returned node has no
+	 * children.
+	 * 
+	 * @param node
+	 *            The node to be copied
+	 * @return A new node of the same type as the given node, with the same
+	 *         Operator, text and value as the given node
+	 */
+	public static SimpleNode copyNode(SimpleNode node)
+	{
+		SimpleNode copy = createNode(node.getId());
+		copy.setOperator(node.getOperator());
+		copy.setToken(node.getText());
+		copy.setValue(node.getValue());
+		return copy;
+	}
+
+	/**
+	 * Adds the given nodes as the children of the given parent node. The given
+	 * nodes are added after any children the parent node already has.
+	 * 
+	 * A given node that already has a parent is shared with another tree (and
+	 * that tree may itself be shared, see FormulaFactory). Such a node keeps
+	 * its existing parent, so that the other tree is not modified. Only nodes
+	 * without a parent have their parent set to the given parent node.
+	 * 
+	 * @param parent
+	 *            The node to which the children will be added
+	 * @param children
+	 *            The nodes to be added as children of the parent node
+	 */
+	public static void addChildren(SimpleNode parent, Node... children)
+	{
+		int offset = parent.jjtGetNumChildren();
+		for (int i = 0; i < children.length; i++)
+		{
+			Node child = children[i];
+			parent.jjtAddChild(child, offset + i);
+			if (child.jjtGetParent() == null)
+			{
+				child.jjtSetParent(parent);
+			}
+		}
+	}
+
+	/**
+	 * Returns a node equivalent to the given node, but with the given
+	 * children. If the given children are identical to the children of the
+	 * given node, then the given node is returned. Otherwise a copy of the
+	 * given node (see copyNode) with the given children is returned. The given
+	 * node is never modified.
+	 * 
+	 * @param node
+	 *            The node for which the children are being replaced
+	 * @param children
+	 *            The children of the node to be returned
+	 * @return The given node, or a copy of the given node with the given
+	 *         children
+	 */
+	public static SimpleNode replaceChildren(SimpleNode node, Node[] children)
+	{
+		int childCount = node.jjtGetNumChildren();
+		boolean changed = (childCount != children.length);
+		for (int i = 0; !changed && (i < childCount); i++)
+		{
+			changed = (node.jjtGetChild(i) != children[i]);
+		}
+		if (!changed)
+		{
+			return node;
+		}
+		SimpleNode copy = copyNode(node);
+		addChildren(copy, children);
+		return copy;
+	}
+}
@@ -20,6 +20,34 @@
 
 package pcgen.base.formula.parse;
 
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.FunctionBinding;
+import pcgen.base.formula.base.OperatorBinding;
+
+/**
+ * A SimpleNode is a node in the tree produced by parsing a formula.
+ * 
+ * The structure of a tree (the children, Operator, text and value of each
+ * node) is set while the tree is built, and is not modified once the tree may
+ * be shared (see FormulaFactory). Processes that produce a different tree
+ * build new nodes rather than modifying existing nodes.
+ * 
+ * The only state of a SimpleNode that may be written while the tree is shared
+ * is a set of caches: The OperatorBinding, the FunctionBinding and the
+ * FIXED_POINT value. These are written by processes such as SemanticsVisitor
+ * and EvaluateVisitor, potentially from multiple threads at the same time.
+ * This is a permitted (benign) mutation of a shared tree, because:
+ * 
+ * (1) A cache never changes the result of processing the tree. A binding is
+ * only used after it is checked against the libraries in use (and is resolved
+ * again if it does not match), and the FIXED_POINT value is derived only from
+ * the text and value of the node.
+ * 
+ * (2) Each cached object is immutable and holds its state in final fields, so
+ * any thread that reads a reference to a cached object (even without
+ * synchronization) sees the fully constructed object. A thread that reads a
+ * stale or null reference simply resolves the cached object again.
+ */
 public class SimpleNode implements Node
 {
 	private Node parent;
@@ -113,11 +141,53 @@ public class SimpleNode implements Node
 	/**
 	 * The String containing the text for the node, if any. This is only loaded
 	 * for text-related nodes (variables, formula names, etc.). This does
-	 * include numerical nodes, as they are stored as a String until the formula
-	 * is visited.
+	 * include numerical nodes, in order to preserve the original form of the
+	 * number (the decoded number is available as the value of the node).
 	 */
 	private String text;
 
+	/**
+	 * The decoded value of the node, if any. This is loaded for numerical
+	 * nodes, so that the number does not need to be decoded each time the
+	 * formula is visited.
+	 * 
+	 * Note that a numerical node may also be the result of replacing a static
+	 * portion of a formula with its value (see ConstantFoldingVisitor). In that
+	 * case the text of the node is the text of the replaced portion of the
+	 * formula, and the value is the only valid source of the number.
+	 */
+	private Object value;
+
+	/**
+	 * The OperatorBinding for this node, if any. This is a cache of the
+	 * OperatorAction most recently resolved for the Operator of this node; it
+	 * is not part of the structure of the tree.
+	 * 
+	 * The OperatorBinding is immutable and is replaced (never modified), so it
+	 * may be read and written from multiple threads.
+	 */
+	private OperatorBinding operatorBinding;
+
+	/**
+	 * The FunctionBinding for this node, if any. This is a cache of the
+	 * Function (and arguments) most recently resolved for a function call
+	 * node; it is not part of the structure of the tree.
+	 * 
+	 * The FunctionBinding is immutable and is replaced (never modified), so it
+	 * may be read and written from multiple threads.
+	 */
+	private FunctionBinding functionBinding;
+
+	/**
+	 * The value of this node in the FIXED_POINT NumericMode, if it has been
+	 * decoded. This is a cache of the value derived from the text and value
+	 * of a numerical node; it is not part of the structure of the tree.
+	 * 
+	 * The FixedPoint is immutable, and the same value is derived by every
+	 * thread, so it may be read and written from multiple threads.
+	 */
+	private FixedPoint fixedPointValue;
+
 	/**
 	 * Sets the Operator for this Node. Under normal circumstances, this method
 	 * should only be called by the parser, not by any method at runtime.
@@ -143,6 +213,19 @@ public class SimpleNode implements Node
 		text = s;
 	}
 
+	/**
+	 * Sets the decoded value of the node. Under normal circumstances, this
+	 * method should only be called by the parser, not by any method at
+	 * runtime.
+	 * 
+	 * @param value
+	 *            The decoded value of the node
+	 */
+	public void setValue(Object value)
+	{
+		this.value = value;
+	}
+
 	/**
 	 * Returns the ID of this node. The ID is a numerical representation of the
 	 * type of node in the tree. It is arguably redundant information to the
@@ -181,4 +264,90 @@ public class SimpleNode implements Node
 	{
 		return text;
 	}
+
+	/**
+	 * Returns the decoded value of this node, if any. Null may be returned if
+	 * no decoded value has been set.
+	 * 
+	 * @return The decoded value of this node, if any. Null is a legal return
+	 *         value if no decoded value has been set.
+	 */
+	public Object getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * Sets the OperatorBinding for this node. This may be called by any
+	 * process (e.g. validation or evaluation) that has resolved the
+	 * OperatorAction for the Operator of this node.
+	 * 
+	 * @param binding
+	 *            The OperatorBinding for this node
+	 */
+	public void setOperatorBinding(OperatorBinding binding)
+	{
+		operatorBinding = binding;
+	}
+
+	/**
+	 * Returns the OperatorBinding for this node, if any. Null may be returned
+	 * if the OperatorAction for this node has not been resolved.
+	 * 
+	 * @return The OperatorBinding for this node, if any. Null is a legal return
+	 *         value if no OperatorBinding has been set.
+	 */
+	public OperatorBinding getOperatorBinding()
+	{
+		return operatorBinding;
+	}
+
+	/**
+	 * Sets the FunctionBinding for this node. This may be called by any
+	 * process (e.g. evaluation) that has resolved the Function for a function
+	 * call node.
+	 * 
+	 * @param binding
+	 *            The FunctionBinding for this node
+	 */
+	public void setFunctionBinding(FunctionBinding binding)
+	{
+		functionBinding = binding;
+	}
+
+	/**
+	 * Returns the FunctionBinding for this node, if any. Null may be returned
+	 * if the Function for this node has not been resolved.
+	 * 
+	 * @return The FunctionBinding for this node, if any. Null is a legal return
+	 *         value if no FunctionBinding has been set.
+	 */
+	public FunctionBinding getFunctionBinding()
+	{
+		return functionBinding;
+	}
+
+	/**
+	 * Sets the value of this node in the FIXED_POINT NumericMode. This may be
+	 * called by any process that has decoded the value of a numerical node.
+	 * 
+	 * @param value
+	 *            The value of this node in the FIXED_POINT NumericMode
+	 */
+	public void setFixedPointValue(FixedPoint value)
+	{
+		fixedPointValue = value;
+	}
+
+	/**
+	 * Returns the value of this node in the FIXED_POINT NumericMode, if any.
+	 * Null may be returned if the value has not been decoded.
+	 * 
+	 * @return The value of this node in the FIXED_POINT NumericMode, if any.
+	 *         Null is a legal return value if the value has not been decoded.
+	 */
+	public FixedPoint getFixedPointValue()
+	{
+		return fixedPointValue;
+	}
 }
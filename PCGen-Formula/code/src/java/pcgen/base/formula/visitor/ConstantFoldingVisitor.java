@@ -0,0 +1,414 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.visitor;
+
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.ScopeInstance;
+import pcgen.base.formula.parse.ASTArithmetic;
+import pcgen.base.formula.parse.ASTEquality;
+import pcgen.base.formula.parse.ASTExpon;
+import pcgen.base.formula.parse.ASTFParen;
+import pcgen.base.formula.parse.ASTGeometric;
+import pcgen.base.formula.parse.ASTLogical;
+import pcgen.base.formula.parse.ASTNum;
+import pcgen.base.formula.parse.ASTPCGenBracket;
+import pcgen.base.formula.parse.ASTPCGenLookup;
+import pcgen.base.formula.parse.ASTPCGenSingleWord;
+import pcgen.base.formula.parse.ASTParen;
+import pcgen.base.formula.parse.ASTQuotString;
+import pcgen.base.formula.parse.ASTRelational;
+import pcgen.base.formula.parse.ASTRoot;
+import pcgen.base.formula.parse.ASTUnary;
+import pcgen.base.formula.parse.FormulaParserTreeConstants;
+import pcgen.base.formula.parse.FormulaParserVisitor;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.NodeUtilities;
+import pcgen.base.formula.parse.SimpleNode;
+
+/**
+ * ConstantFoldingVisitor visits a formula in tree form in order to replace the
+ * static portions of the formula with the (precomputed) value of those
+ * portions.
+ * 
+ * As an example, "(3+4)*T" would have the "(3+4)" portion replaced with a
+ * single numerical node with the value 7, and "max(1,2)+T" would have the
+ * "max(1,2)" portion replaced with a single numerical node with the value 2.
+ * 
+ * ConstantFoldingVisitor NEVER modifies the tree it is given (as that tree may
+ * be shared, see FormulaFactory). Rather, each visit method returns the node
+ * that should be used in place of the node that was visited. If nothing within
+ * a node could be replaced, then the node itself is returned; otherwise a new
+ * node is returned (sharing any portions of the original tree that were not
+ * altered).
+ * 
+ * A replacement node has as its text the text of the portion of the formula it
+ * replaced, so that a formula reconstructed from the resulting tree (see
+ * ReconstructionVisitor) is identical to a formula reconstructed from the
+ * original tree.
+ * 
+ * Only portions of a formula that produce a Number are replaced, as there is no
+ * node available to represent other values. A portion of a formula that throws
+ * an exception when evaluated (such as "1/0") is not replaced, so that the
+ * exception is thrown when the formula is evaluated, as it would have been
+ * without ConstantFoldingVisitor.
+ * 
+ * ConstantFoldingVisitor relies upon StaticVisitor to determine if a Function
+ * is static. Since a static Function is evaluated by ConstantFoldingVisitor in
+ * the ScopeInstance provided at construction, this makes the assumption that a
+ * static Function will produce the same value regardless of the ScopeInstance
+ * in which it is evaluated (as defined in the contract of Function).
+ * 
+ * The tree provided to ConstantFoldingVisitor must be valid (see
+ * SemanticsVisitor). The data parameter to the methods is ignored.
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public class ConstantFoldingVisitor implements FormulaParserVisitor
+{
+
+	/**
+	 * The StaticVisitor used to determine if a function is static.
+	 */
+	private final StaticVisitor staticVisitor;
+
+	/**
+	 * The EvaluateVisitor used to calculate the value of static portions of a
+	 * formula.
+	 */
+	private final EvaluateVisitor evaluateVisitor;
+
+	/**
+	 * The ReconstructionVisitor used to capture the text of the portions of a
+	 * formula that are replaced.
+	 */
+	private final ReconstructionVisitor reconstructionVisitor =
+			new ReconstructionVisitor();
+
+	/**
+	 * Constructs a new ConstantFoldingVisitor that will use the given
+	 * FormulaManager and ScopeInstance to evaluate static portions of a
+	 * formula.
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to get information about functions
+	 *            and operators
+	 * @param scopeInst
+	 *            The ScopeInstance in which static portions of a formula are
+	 *            evaluated
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public ConstantFoldingVisitor(FormulaManager fm, ScopeInstance scopeInst)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException(
+				"FormulaManager cannot be null");
+		}
+		if (scopeInst == null)
+		{
+			throw new IllegalArgumentException("ScopeInstance cannot be null");
+		}
+		staticVisitor = new StaticVisitor(fm.getLibrary());
+		evaluateVisitor = new EvaluateVisitor(fm, scopeInst);
+	}
+
+	/**
+	 * Returns the root of a tree in which the static portions of the tree with
+	 * the given root have been replaced with the value of those portions. If
+	 * no portion of the tree could be replaced, the given root is returned.
+	 * 
+	 * @param root
+	 *            The root of the tree to be processed
+	 * @return The root of a tree in which the static portions of the tree with
+	 *         the given root have been replaced with the value of those
+	 *         portions
+	 * @throws IllegalArgumentException
+	 *             if the given root is null
+	 */
+	public SimpleNode fold(SimpleNode root)
+	{
+		if (root == null)
+		{
+			throw new IllegalArgumentException("Cannot fold null root");
+		}
+		return (SimpleNode) root.jjtAccept(this, null);
+	}
+
+	/**
+	 * Visits a SimpleNode. Because this cannot be processed, due to lack of
+	 * knowledge as to the exact type of SimpleNode encountered, the node is
+	 * visited, which - through double dispatch - will result in another method
+	 * on this ConstantFoldingVisitor being called.
+	 * 
+	 * @see pcgen.base.formula.parse.FormulaParserVisitor#visit(pcgen.base.formula.parse.SimpleNode,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public Object visit(SimpleNode node, Object data)
+	{
+		//Delegate to the appropriate class
+		return node.jjtAccept(this, null);
+	}
+
+	/**
+	 * Processes the children of this node. The root itself is never replaced.
+	 */
+	@Override
+	public Object visit(ASTRoot node, Object data)
+	{
+		return foldChildren(node);
+	}
+
+	/**
+	 * Processes the children of this node, replacing this node if all of the
+	 * (processed) children are constant.
+	 */
+	@Override
+	public Object visit(ASTLogical node, Object data)
+	{
+		return foldOperation(node);
+	}
+
+	/**
+	 * Processes the children of this node, replacing this node if all of the
+	 * (processed) children are constant.
+	 */
+	@Override
+	public Object visit(ASTEquality node, Object data)
+	{
+		return foldOperation(node);
+	}
+
+	/**
+	 * Processes the children of this node, replacing this node if all of the
+	 * (processed) children are constant.
+	 */
+	@Override
+	public Object visit(ASTRelational node, Object data)
+	{
+		return foldOperation(node);
+	}
+
+	/**
+	 * Processes the children of this node, replacing this node if all of the
+	 * (processed) children are constant.
+	 */
+	@Override
+	public Object visit(ASTArithmetic node, Object data)
+	{
+		return foldOperation(node);
+	}
+
+	/**
+	 * Processes the children of this node, replacing this node if all of the
+	 * (processed) children are constant.
+	 */
+	@Override
+	public Object visit(ASTGeometric node, Object data)
+	{
+		return foldOperation(node);
+	}
+
+	/**
+	 * Processes the child of this node, replacing this node if the (processed)
+	 * child is constant.
+	 */
+	@Override
+	public Object visit(ASTUnary node, Object data)
+	{
+		return foldOperation(node);
+	}
+
+	/**
+	 * Processes the children of this node, replacing this node if all of the
+	 * (processed) children are constant.
+	 */
+	@Override
+	public Object visit(ASTExpon node, Object data)
+	{
+		return foldOperation(node);
+	}
+
+	/**
+	 * Processes the child of this node, replacing this node if the (processed)
+	 * child is constant.
+	 */
+	@Override
+	public Object visit(ASTParen node, Object data)
+	{
+		return foldOperation(node);
+	}
+
+	/**
+	 * Numbers are already constant.
+	 */
+	@Override
+	public Object visit(ASTNum node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Processes the arguments of the function, and then replaces the function
+	 * if the (processed) function is static, as determined by StaticVisitor.
+	 */
+	@Override
+	public Object visit(ASTPCGenLookup node, Object data)
+	{
+		SimpleNode result = foldChildren(node);
+		if (((Boolean) staticVisitor.visit(result, null)).booleanValue())
+		{
+			return replace(node, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Variables are never constant.
+	 */
+	@Override
+	public Object visit(ASTPCGenSingleWord node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * The contents of brackets are interpreted by the function that contains
+	 * them, so they are not processed.
+	 */
+	@Override
+	public Object visit(ASTPCGenBracket node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Processes the arguments of a function.
+	 */
+	@Override
+	public Object visit(ASTFParen node, Object data)
+	{
+		return foldChildren(node);
+	}
+
+	/**
+	 * Quoted Strings are already constant.
+	 */
+	@Override
+	public Object visit(ASTQuotString node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Processes the children of the given node, and if all of the processed
+	 * children are constant, attempts to replace the node with its value.
+	 * 
+	 * @param node
+	 *            The node to be processed
+	 * @return The node to be used in place of the given node
+	 */
+	private SimpleNode foldOperation(SimpleNode node)
+	{
+		SimpleNode result = foldChildren(node);
+		int childCount = result.jjtGetNumChildren();
+		for (int i = 0; i < childCount; i++)
+		{
+			if (!isConstant(result.jjtGetChild(i)))
+			{
+				return result;
+			}
+		}
+		return replace(node, result);
+	}
+
+	/**
+	 * Processes the children of the given node. If none of the children were
+	 * replaced, the given node is returned; otherwise a copy of the given node
+	 * (with the replacement children) is returned.
+	 * 
+	 * @param node
+	 *            The node for which the children should be processed
+	 * @return The given node, or a copy of the given node with replacement
+	 *         children
+	 */
+	private SimpleNode foldChildren(SimpleNode node)
+	{
+		int childCount = node.jjtGetNumChildren();
+		Node[] children = new Node[childCount];
+		for (int i = 0; i < childCount; i++)
+		{
+			children[i] = (Node) node.jjtGetChild(i).jjtAccept(this, null);
+		}
+		return NodeUtilities.replaceChildren(node, children);
+	}
+
+	/**
+	 * Attempts to replace the given original node with a numerical node
+	 * containing the value of the given node. If the value is not a Number (or
+	 * the evaluation fails), then the given fallback node is returned.
+	 * 
+	 * Note that the original node is evaluated (rather than the fallback node)
+	 * so that any failure is identical to the failure that would have occurred
+	 * had the formula not been processed by ConstantFoldingVisitor.
+	 * 
+	 * @param original
+	 *            The node (from the original tree) to be replaced
+	 * @param fallback
+	 *            The node to be returned if the original node cannot be
+	 *            replaced
+	 * @return The replacement node for the given original node, or the
+	 *         fallback node if the original node cannot be replaced
+	 */
+	private SimpleNode replace(SimpleNode original, SimpleNode fallback)
+	{
+		Object value;
+		try
+		{
+			value = original.jjtAccept(evaluateVisitor, null);
+		}
+		catch (RuntimeException e)
+		{
+			//Leave it to fail at evaluation
+			return fallback;
+		}
+		if (!(value instanceof Number))
+		{
+			return fallback;
+		}
+		StringBuilder sb = new StringBuilder();
+		original.jjtAccept(reconstructionVisitor, sb);
+		SimpleNode replacement =
+				NodeUtilities.createNode(FormulaParserTreeConstants.JJTNUM);
+		replacement.setToken(sb.toString());
+		replacement.setValue(value);
+		return replacement;
+	}
+
+	/**
+	 * Returns true if the given node is a constant value.
+	 * 
+	 * @param node
+	 *            The node to be checked
+	 * @return true if the given node is a constant value; false otherwise
+	 */
+	private static boolean isConstant(Node node)
+	{
+		return (node instanceof ASTNum) || (node instanceof ASTQuotString);
+	}
+}
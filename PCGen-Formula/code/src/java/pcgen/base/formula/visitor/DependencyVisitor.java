@@ -21,7 +21,7 @@ import pcgen.base.formula.analysis.DependencyKeyUtilities;
 import pcgen.base.formula.analysis.VariableDependencyManager;
 import pcgen.base.formula.base.DependencyManager;
 import pcgen.base.formula.base.FormulaManager;
-import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionBinding;
 import pcgen.base.formula.base.ScopeInstance;
 import pcgen.base.formula.base.VariableID;
 import pcgen.base.formula.parse.ASTArithmetic;
@@ -48,6 +48,11 @@ import pcgen.base.formula.parse.SimpleNode;
  * Usually this will consist of the variables that the Formula refers to, but
  * user-defined Functions may define additional dependencies if they are
  * supported by the DependencyManager.
+ * 
+ * DependencyVisitor holds no state between visits (the dependencies are
+ * captured in the DependencyManager provided to each visit), so it may be used
+ * from multiple threads at once, provided each thread uses its own
+ * DependencyManager.
  */
 @SuppressWarnings("PMD.TooManyMethods")
 public class DependencyVisitor implements FormulaParserVisitor
@@ -208,16 +213,17 @@ public class DependencyVisitor implements FormulaParserVisitor
 	@Override
 	public Object visit(ASTPCGenLookup node, Object data)
 	{
-		Function function = VisitorUtilities.getFunction(fm.getLibrary(), node);
+		FunctionBinding binding =
+				VisitorUtilities.getFunctionBinding(fm.getLibrary(), node);
 		//TODO Is this an exception or does it add to FDM in some way... ??
-		if (function == null)
+		if (binding == null)
 		{
 			throw new IllegalStateException(node.getText()
 				+ " is not a valid function name");
 		}
-		Node[] args = VisitorUtilities.accumulateArguments(node.jjtGetChild(1));
 		DependencyManager fdm = (DependencyManager) data;
-		function.getDependencies(this, fdm, args);
+		binding.getFunction().getDependencies(this, fdm,
+			binding.getArguments());
 		return fdm;
 	}
 
@@ -17,11 +17,24 @@
  */
 package pcgen.base.formula.visitor;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import pcgen.base.formula.base.DeferredOperand;
+import pcgen.base.formula.base.EvaluationMonitor;
 import pcgen.base.formula.base.FormulaManager;
 import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionBinding;
+import pcgen.base.formula.base.LazyOperatorAction;
+import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.OperatorBinding;
+import pcgen.base.formula.base.OperatorLibrary;
 import pcgen.base.formula.base.ScopeInstance;
+import pcgen.base.formula.base.SlottedVariableStore;
+import pcgen.base.formula.base.StoreVariableSlot;
 import pcgen.base.formula.base.VariableID;
 import pcgen.base.formula.base.VariableLibrary;
+import pcgen.base.formula.base.VariableSlot;
 import pcgen.base.formula.base.VariableStore;
 import pcgen.base.formula.parse.ASTArithmetic;
 import pcgen.base.formula.parse.ASTEquality;
@@ -62,6 +75,22 @@ import pcgen.base.util.FormatManager;
  * Also, a user of EvaluateVisitor should ensure that DependencyVisitor has been
  * called and successfully processed to ensure that evaluation will run without
  * an Exception.
+ * 
+ * Since an EvaluateVisitor is specific to a ScopeInstance, each variable name
+ * encountered by the EvaluateVisitor is resolved only once (to a VariableSlot),
+ * and subsequent references to that variable read the value from the
+ * VariableSlot.
+ * 
+ * EvaluateVisitor holds no state specific to a single evaluation (the resolved
+ * VariableSlot objects are held in a concurrent map), so a single
+ * EvaluateVisitor may be used to evaluate formulas from multiple threads at
+ * once.
+ * 
+ * If the FormulaManager has a limited EvaluationBudget, each node visited and
+ * each Function called by EvaluateVisitor is charged to the EvaluationMonitor
+ * active on the evaluating thread (if any). The other evaluators (which rely
+ * on EvaluateVisitor) charge their work through countVisit() and
+ * evaluateFunction().
  */
 @SuppressWarnings("PMD.TooManyMethods")
 public class EvaluateVisitor implements FormulaParserVisitor
@@ -78,6 +107,19 @@ public class EvaluateVisitor implements FormulaParserVisitor
 	 */
 	private final FormulaManager fm;
 
+	/**
+	 * The VariableSlot for each variable name that has been resolved by this
+	 * EvaluateVisitor.
+	 */
+	private final ConcurrentMap<String, VariableSlot<?>> slots =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * Indicates whether the FormulaManager has a limited EvaluationBudget (and
+	 * thus whether work must be charged to the active EvaluationMonitor).
+	 */
+	private final boolean budgeted;
+
 	/**
 	 * Constructs a new EvaluateVisitor with the given items used to perform the
 	 * evaluation, as necessary.
@@ -102,6 +144,7 @@ public class EvaluateVisitor implements FormulaParserVisitor
 		}
 		this.fm = fm;
 		this.scopeInst = scopeInst;
+		budgeted = !fm.getEvaluationBudget().isUnlimited();
 	}
 
 	/**
@@ -186,15 +229,12 @@ public class EvaluateVisitor implements FormulaParserVisitor
 		 * by SemanticsVisitor.
 		 */
 		Number n = (Number) evaluateSingleNumericChild(node);
-		if (n instanceof Integer)
-		{
-			return Integer.valueOf(-((Integer) n).intValue());
-		}
-		return Double.valueOf(-n.doubleValue());
+		return VisitorUtilities.negate(n);
 	}
 
 	/**
-	 * Evaluates the exponential node.
+	 * Evaluates the exponential node. The exponent (^) operator is processed
+	 * by the OperatorLibrary, like any other operator.
 	 */
 	@Override
 	public Object visit(ASTExpon node, Object data)
@@ -203,6 +243,7 @@ public class EvaluateVisitor implements FormulaParserVisitor
 		 * Note we only support exponent (^) for Number.class. This was enforced
 		 * by SemanticsVisitor.
 		 */
+		countVisit();
 		int childCount = node.jjtGetNumChildren();
 
 		Number base = (Number) node.jjtGetChild(0).jjtAccept(this, null);
@@ -211,9 +252,10 @@ public class EvaluateVisitor implements FormulaParserVisitor
 		for (int i = 2; i < childCount; i++)
 		{
 			Number n = (Number) node.jjtGetChild(i).jjtAccept(this, null);
-			exponent = Double.valueOf(exponent.doubleValue() * n.doubleValue());
+			exponent = VisitorUtilities.combineExponents(exponent, n);
 		}
-		return Math.pow(base.doubleValue(), exponent.doubleValue());
+		return fm.getOperatorLibrary().evaluate(node.getOperator(), base,
+			exponent);
 	}
 
 	/**
@@ -233,15 +275,15 @@ public class EvaluateVisitor implements FormulaParserVisitor
 	@Override
 	public Object visit(ASTNum node, Object data)
 	{
-		String nodeText = node.getText();
-		try
-		{
-			return Integer.valueOf(nodeText);
-		}
-		catch (NumberFormatException e)
+		countVisit();
+		Number value = VisitorUtilities.getNumber(node, fm.getNumericMode());
+		if (value == null)
 		{
-			return Double.valueOf(nodeText);
+			throw new IllegalStateException(
+				"Evaluation called on invalid Formula (invalid number: "
+					+ node.getText() + ")");
 		}
+		return value;
 	}
 
 	/**
@@ -255,10 +297,57 @@ public class EvaluateVisitor implements FormulaParserVisitor
 	@Override
 	public Object visit(ASTPCGenLookup node, Object data)
 	{
-		Function function = VisitorUtilities.getFunction(fm.getLibrary(), node);
-		Node[] args = VisitorUtilities.accumulateArguments(node.jjtGetChild(1));
+		FunctionBinding binding =
+				VisitorUtilities.getFunctionBinding(fm.getLibrary(), node);
 		//evaluate the function
-		return function.evaluate(this, args);
+		return evaluateFunction(binding.getFunction(), binding.getArguments());
+	}
+
+	/**
+	 * Evaluates the given Function with the given arguments, charging the call
+	 * to the active EvaluationMonitor (if any).
+	 * 
+	 * @param function
+	 *            The Function to be evaluated
+	 * @param args
+	 *            The arguments to the Function
+	 * @return The result of evaluating the given Function
+	 */
+	public Object evaluateFunction(Function function, Node[] args)
+	{
+		EvaluationMonitor monitor =
+				budgeted ? EvaluationMonitor.getActive() : null;
+		if (monitor == null)
+		{
+			return function.evaluate(this, args);
+		}
+		monitor.countVisit();
+		monitor.enterCall(function.getFunctionName());
+		try
+		{
+			return function.evaluate(this, args);
+		}
+		finally
+		{
+			monitor.exitCall();
+		}
+	}
+
+	/**
+	 * Charges the visit of a node to the active EvaluationMonitor (if any).
+	 * Used by evaluators which do not visit the parsed tree, so that their
+	 * work is also bounded by the EvaluationBudget.
+	 */
+	public void countVisit()
+	{
+		if (budgeted)
+		{
+			EvaluationMonitor monitor = EvaluationMonitor.getActive();
+			if (monitor != null)
+			{
+				monitor.countVisit();
+			}
+		}
 	}
 
 	/**
@@ -270,19 +359,26 @@ public class EvaluateVisitor implements FormulaParserVisitor
 	@Override
 	public Object visit(ASTPCGenSingleWord node, Object data)
 	{
-		String varName = node.getText();
-		VariableLibrary varLibrary = fm.getFactory();
-		FormatManager<?> formatManager =
-				fm.getFactory().getVariableFormat(scopeInst.getLegalScope(),
-					varName);
-		if (formatManager != null)
+		countVisit();
+		return evaluateVariable(node.getText());
+	}
+
+	/**
+	 * Returns the value of the variable with the given name, in the
+	 * ScopeInstance of this EvaluateVisitor. This is the processing of a
+	 * variable within a formula, made available for representations of a
+	 * formula that do not have an ASTPCGenSingleWord node for the variable.
+	 * 
+	 * @param varName
+	 *            The name of the variable
+	 * @return The value of the variable with the given name
+	 */
+	public Object evaluateVariable(String varName)
+	{
+		VariableSlot<?> slot = getVariableSlot(varName);
+		if ((slot != null) && slot.isSet())
 		{
-			VariableID<?> id = varLibrary.getVariableID(scopeInst, varName);
-			VariableStore resolver = fm.getResolver();
-			if (resolver.containsKey(id))
-			{
-				return resolver.get(id);
-			}
+			return slot.getValue();
 		}
 		System.out.println("Evaluation called on invalid variable: '" + varName
 			+ "', assuming zero");
@@ -292,6 +388,80 @@ public class EvaluateVisitor implements FormulaParserVisitor
 		//				+ termName + ")");
 	}
 
+	/**
+	 * Returns the VariableSlot for the variable with the given name, in the
+	 * ScopeInstance of this EvaluateVisitor. The variable is resolved on the
+	 * first request for the given name; subsequent requests return the same
+	 * VariableSlot.
+	 * 
+	 * If the VariableStore of the FormulaManager is not a SlottedVariableStore,
+	 * then the returned VariableSlot reads the value from the VariableStore.
+	 * 
+	 * @param varName
+	 *            The name of the variable
+	 * @return The VariableSlot for the variable with the given name; null if
+	 *         the name is not a legal variable in the ScopeInstance of this
+	 *         EvaluateVisitor
+	 */
+	public VariableSlot<?> getVariableSlot(String varName)
+	{
+		VariableSlot<?> slot = slots.get(varName);
+		if (slot != null)
+		{
+			return slot;
+		}
+		slot = resolveVariableSlot(fm, scopeInst, varName);
+		if (slot == null)
+		{
+			//Not cached, as the variable may become legal later
+			return null;
+		}
+		VariableSlot<?> existing = slots.putIfAbsent(varName, slot);
+		return (existing == null) ? slot : existing;
+	}
+
+	/**
+	 * Resolves the VariableSlot for the variable with the given name, in the
+	 * given ScopeInstance, without caching the VariableSlot. This is the
+	 * resolution performed by getVariableSlot() on the first request for a
+	 * name, for use by an evaluator that caches the VariableSlot objects
+	 * itself.
+	 * 
+	 * @param fm
+	 *            The FormulaManager providing the VariableLibrary and the
+	 *            VariableStore
+	 * @param scopeInst
+	 *            The ScopeInstance in which the variable is resolved
+	 * @param varName
+	 *            The name of the variable
+	 * @return The VariableSlot for the variable with the given name; null if
+	 *         the name is not a legal variable in the given ScopeInstance
+	 */
+	public static VariableSlot<?> resolveVariableSlot(FormulaManager fm,
+		ScopeInstance scopeInst, String varName)
+	{
+		VariableLibrary varLibrary = fm.getFactory();
+		FormatManager<?> formatManager =
+				varLibrary.getVariableFormat(scopeInst.getLegalScope(),
+					varName);
+		if (formatManager == null)
+		{
+			return null;
+		}
+		return createSlot(fm, varLibrary.getVariableID(scopeInst, varName));
+	}
+
+	private static <T> VariableSlot<T> createSlot(FormulaManager fm,
+		VariableID<T> id)
+	{
+		VariableStore resolver = fm.getResolver();
+		if (resolver instanceof SlottedVariableStore)
+		{
+			return ((SlottedVariableStore) resolver).getSlot(id);
+		}
+		return new StoreVariableSlot<>(resolver, id);
+	}
+
 	/**
 	 * This type of node is ONLY encountered as part of a function. Since the
 	 * function should have "consumed" these elements and not called back into
@@ -332,6 +502,7 @@ public class EvaluateVisitor implements FormulaParserVisitor
 	@Override
 	public Object visit(ASTQuotString node, Object data)
 	{
+		countVisit();
 		//The quotes are stripped by the parser
 		return node.getText();
 	}
@@ -340,6 +511,12 @@ public class EvaluateVisitor implements FormulaParserVisitor
 	 * Evaluates an operator node. Must have 2 children and a node that contains
 	 * an Operator.
 	 * 
+	 * If the Operator is lazy for the class of the result of the first child
+	 * (see OperatorBinding.getLazyAction), the second child is only evaluated
+	 * if the LazyOperatorAction requires it (e.g. the second child of a
+	 * logical AND is not evaluated if the first child is false). This does not
+	 * depend on the node having been bound by an earlier evaluation.
+	 * 
 	 * @param node
 	 *            The node that contains an Operator and has exactly 2 children.
 	 * @return The result of the operation acting on the 2 children
@@ -358,9 +535,35 @@ public class EvaluateVisitor implements FormulaParserVisitor
 			throw new IllegalStateException(getClass().getSimpleName()
 				+ " must only have 2 children, was: " + childCount);
 		}
+		countVisit();
 		Object child1result = node.jjtGetChild(0).jjtAccept(this, null);
+		OperatorLibrary opLibrary = fm.getOperatorLibrary();
+		Class<?> class1 = child1result.getClass();
+		OperatorBinding binding = node.getOperatorBinding();
+		LazyOperatorAction lazyAction =
+				OperatorBinding.getLazyAction(binding, opLibrary, op, class1);
+		if (lazyAction != null)
+		{
+			return lazyAction.evaluateLazily(child1result,
+				new DeferredNode(node.jjtGetChild(1)));
+		}
 		Object child2result = node.jjtGetChild(1).jjtAccept(this, null);
-		return fm.getOperatorLibrary().evaluate(op, child1result, child2result);
+		Class<?> class2 = child2result.getClass();
+		OperatorAction action =
+				(binding == null) ? null : binding.getAction(opLibrary, class1,
+					class2);
+		if (action == null)
+		{
+			action = opLibrary.getAction(op, class1, class2);
+			if (action == null)
+			{
+				//Let the library report the failure
+				return opLibrary.evaluate(op, child1result, child2result);
+			}
+			node.setOperatorBinding(new OperatorBinding(opLibrary, class1,
+				class2, action));
+		}
+		return action.evaluate(child1result, child2result);
 	}
 
 	/**
@@ -380,6 +583,7 @@ public class EvaluateVisitor implements FormulaParserVisitor
 			throw new IllegalStateException(getClass().getSimpleName()
 				+ " must only have 1 child, was: " + childCount);
 		}
+		countVisit();
 		Node child = node.jjtGetChild(0);
 		return child.jjtAccept(this, null);
 	}
@@ -403,4 +607,27 @@ public class EvaluateVisitor implements FormulaParserVisitor
 	{
 		return fm;
 	}
+
+	/**
+	 * A DeferredNode is a DeferredOperand which evaluates a node of the parsed
+	 * tree with this EvaluateVisitor.
+	 */
+	private final class DeferredNode implements DeferredOperand
+	{
+		/**
+		 * The node to be evaluated.
+		 */
+		private final Node node;
+
+		private DeferredNode(Node node)
+		{
+			this.node = node;
+		}
+
+		@Override
+		public Object getValue()
+		{
+			return node.jjtAccept(EvaluateVisitor.this, null);
+		}
+	}
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.visitor;
+
+import pcgen.base.formula.base.DeferredOperand;
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.LazyOperatorAction;
+import pcgen.base.formula.base.NumericMode;
+import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.OperatorBinding;
+import pcgen.base.formula.base.OperatorLibrary;
+import pcgen.base.formula.parse.ConstantPool;
+import pcgen.base.formula.parse.FlatTree;
+import pcgen.base.formula.parse.FormulaParserTreeConstants;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.parse.SimpleNode;
+
+/**
+ * FlatTreeEvaluator evaluates a FlatTree, producing the same result as the
+ * EvaluateVisitor would produce for the equivalent SimpleNode tree.
+ * 
+ * The FlatTree is evaluated directly from its arrays. The only nodes that are
+ * materialized into SimpleNode objects are functions, since a Function
+ * receives its arguments as nodes. The materialized nodes are discarded after
+ * the function is evaluated, but the Function (and any OperatorAction)
+ * resolved on them is retained by the FlatTree (see
+ * FlatTree.retainBindings), so it is not resolved again on every evaluation.
+ * 
+ * As with EvaluateVisitor, the OperatorAction resolved for each operator node
+ * is stored as an OperatorBinding in the FlatTree, and the second argument of
+ * a LazyOperatorAction (e.g. a logical AND) is only evaluated if required.
+ * Each node evaluated is charged to the EvaluationBudget of the FormulaManager
+ * through the EvaluateVisitor (see EvaluateVisitor.countVisit()).
+ */
+public final class FlatTreeEvaluator
+{
+
+	private FlatTreeEvaluator()
+	{
+		//Do not instantiate utility class
+	}
+
+	/**
+	 * Evaluates the given FlatTree in the context (ScopeInstance and
+	 * FormulaManager) of the given EvaluateVisitor.
+	 * 
+	 * @param tree
+	 *            The FlatTree to be evaluated
+	 * @param visitor
+	 *            The EvaluateVisitor providing the context in which the
+	 *            FlatTree is evaluated
+	 * @return The result of evaluating the FlatTree
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public static Object evaluate(FlatTree tree, EvaluateVisitor visitor)
+	{
+		if (tree == null)
+		{
+			throw new IllegalArgumentException("Cannot evaluate null FlatTree");
+		}
+		if (visitor == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot evaluate with null EvaluateVisitor");
+		}
+		return evaluate(tree, 0, visitor);
+	}
+
+	@SuppressWarnings("PMD.CyclomaticComplexity")
+	private static Object evaluate(FlatTree tree, int index,
+		EvaluateVisitor visitor)
+	{
+		visitor.countVisit();
+		switch (tree.getKind(index))
+		{
+			case FormulaParserTreeConstants.JJTROOT:
+			case FormulaParserTreeConstants.JJTPAREN:
+				return evaluate(tree, singleChild(tree, index), visitor);
+			case FormulaParserTreeConstants.JJTLOGICAL:
+			case FormulaParserTreeConstants.JJTEQUALITY:
+			case FormulaParserTreeConstants.JJTRELATIONAL:
+			case FormulaParserTreeConstants.JJTARITHMETIC:
+			case FormulaParserTreeConstants.JJTGEOMETRIC:
+				return evaluateOperator(tree, index, visitor);
+			case FormulaParserTreeConstants.JJTUNARY:
+				//Only supported for Number.class (enforced by SemanticsVisitor)
+				Number n =
+						(Number) evaluate(tree, singleChild(tree, index),
+							visitor);
+				return VisitorUtilities.negate(n);
+			case FormulaParserTreeConstants.JJTEXPON:
+				return evaluateExponent(tree, index, visitor);
+			case FormulaParserTreeConstants.JJTNUM:
+				return getNumber(tree, index, visitor.getFormulaManager()
+					.getNumericMode());
+			case FormulaParserTreeConstants.JJTPCGENLOOKUP:
+				return evaluateFunction(tree, index, visitor);
+			case FormulaParserTreeConstants.JJTPCGENSINGLEWORD:
+				return visitor.evaluateVariable(tree.getText(index));
+			case FormulaParserTreeConstants.JJTQUOTSTRING:
+				return tree.getText(index);
+			default:
+				//Brackets and Function Parenthesis should be consumed by the function
+				throw new IllegalStateException(
+					"Evaluation called on invalid Formula (reached node "
+						+ FormulaParserTreeConstants.jjtNodeName[tree
+							.getKind(index)] + ")");
+		}
+	}
+
+	private static Object evaluateFunction(FlatTree tree, int index,
+		EvaluateVisitor visitor)
+	{
+		//Functions receive nodes, so materialize this subtree
+		SimpleNode node = tree.toNode(index);
+		Object result = visitor.visit(node, null);
+		tree.retainBindings(index, node);
+		return result;
+	}
+
+	private static Object evaluateOperator(FlatTree tree, int index,
+		EvaluateVisitor visitor)
+	{
+		Operator op = tree.getOperator(index);
+		if (op == null)
+		{
+			throw new IllegalStateException(
+				FormulaParserTreeConstants.jjtNodeName[tree.getKind(index)]
+					+ " must have an operator");
+		}
+		int first = index + 1;
+		int second = tree.getEnd(first);
+		if ((second >= tree.getEnd(index))
+			|| (tree.getEnd(second) != tree.getEnd(index)))
+		{
+			throw new IllegalStateException(
+				FormulaParserTreeConstants.jjtNodeName[tree.getKind(index)]
+					+ " must only have 2 children, was: "
+					+ tree.getChildCount(index));
+		}
+		Object child1result = evaluate(tree, first, visitor);
+		OperatorLibrary opLibrary =
+				visitor.getFormulaManager().getOperatorLibrary();
+		Class<?> class1 = child1result.getClass();
+		OperatorBinding binding = tree.getOperatorBinding(index);
+		LazyOperatorAction lazyAction =
+				OperatorBinding.getLazyAction(binding, opLibrary, op, class1);
+		if (lazyAction != null)
+		{
+			return lazyAction.evaluateLazily(child1result,
+				new DeferredIndex(tree, second, visitor));
+		}
+		Object child2result = evaluate(tree, second, visitor);
+		Class<?> class2 = child2result.getClass();
+		OperatorAction action =
+				(binding == null) ? null : binding.getAction(opLibrary, class1,
+					class2);
+		if (action == null)
+		{
+			action = opLibrary.getAction(op, class1, class2);
+			if (action == null)
+			{
+				//Let the library report the failure
+				return opLibrary.evaluate(op, child1result, child2result);
+			}
+			tree.setOperatorBinding(index, new OperatorBinding(opLibrary,
+				class1, class2, action));
+		}
+		return action.evaluate(child1result, child2result);
+	}
+
+	private static Object evaluateExponent(FlatTree tree, int index,
+		EvaluateVisitor visitor)
+	{
+		//Only supported for Number.class (enforced by SemanticsVisitor)
+		int end = tree.getEnd(index);
+		int child = index + 1;
+		Number base = (Number) evaluate(tree, child, visitor);
+		child = tree.getEnd(child);
+		Number exponent = (Number) evaluate(tree, child, visitor);
+		//"Cheat" to reduce calls to EXP in that X^Y^Z == X^(Y*Z)
+		for (child = tree.getEnd(child); child < end; child = tree.getEnd(child))
+		{
+			Number n = (Number) evaluate(tree, child, visitor);
+			exponent = VisitorUtilities.combineExponents(exponent, n);
+		}
+		return visitor.getFormulaManager().getOperatorLibrary()
+			.evaluate(tree.getOperator(index), base, exponent);
+	}
+
+	private static Number getNumber(FlatTree tree, int index,
+		NumericMode mode)
+	{
+		Object value = tree.getValue(index);
+		Number number;
+		if (value instanceof Number)
+		{
+			number = (Number) value;
+		}
+		else
+		{
+			number = ConstantPool.decodeNumber(tree.getText(index));
+			if (number == null)
+			{
+				throw new IllegalStateException(
+					"Evaluation called on invalid Formula (invalid number: "
+						+ tree.getText(index) + ")");
+			}
+		}
+		if (mode == NumericMode.FIXED_POINT)
+		{
+			FixedPoint fixed =
+					VisitorUtilities.getFixedPoint(tree.getText(index), number);
+			if (fixed == null)
+			{
+				throw new ArithmeticException("Cannot convert "
+					+ tree.getText(index) + " to a FixedPoint");
+			}
+			return fixed;
+		}
+		return number;
+	}
+
+	private static int singleChild(FlatTree tree, int index)
+	{
+		int child = index + 1;
+		int end = tree.getEnd(index);
+		if ((child >= end) || (tree.getEnd(child) != end))
+		{
+			throw new IllegalStateException(
+				FormulaParserTreeConstants.jjtNodeName[tree.getKind(index)]
+					+ " must only have 1 child, was: "
+					+ tree.getChildCount(index));
+		}
+		return child;
+	}
+
+	/**
+	 * A DeferredIndex is a DeferredOperand which evaluates the node at an index
+	 * of a FlatTree.
+	 */
+	private static final class DeferredIndex implements DeferredOperand
+	{
+		/**
+		 * The FlatTree containing the node to be evaluated.
+		 */
+		private final FlatTree tree;
+
+		/**
+		 * The index of the node to be evaluated.
+		 */
+		private final int index;
+
+		/**
+		 * The EvaluateVisitor providing the context of the evaluation.
+		 */
+		private final EvaluateVisitor visitor;
+
+		private DeferredIndex(FlatTree tree, int index, EvaluateVisitor visitor)
+		{
+			this.tree = tree;
+			this.index = index;
+			this.visitor = visitor;
+		}
+
+		@Override
+		public Object getValue()
+		{
+			return evaluate(tree, index, visitor);
+		}
+	}
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.visitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionLibrary;
+import pcgen.base.formula.library.GenericFunction;
+import pcgen.base.formula.parse.ASTArithmetic;
+import pcgen.base.formula.parse.ASTEquality;
+import pcgen.base.formula.parse.ASTExpon;
+import pcgen.base.formula.parse.ASTFParen;
+import pcgen.base.formula.parse.ASTGeometric;
+import pcgen.base.formula.parse.ASTLogical;
+import pcgen.base.formula.parse.ASTNum;
+import pcgen.base.formula.parse.ASTPCGenBracket;
+import pcgen.base.formula.parse.ASTPCGenLookup;
+import pcgen.base.formula.parse.ASTPCGenSingleWord;
+import pcgen.base.formula.parse.ASTParen;
+import pcgen.base.formula.parse.ASTQuotString;
+import pcgen.base.formula.parse.ASTRelational;
+import pcgen.base.formula.parse.ASTRoot;
+import pcgen.base.formula.parse.ASTUnary;
+import pcgen.base.formula.parse.FormulaParserTreeConstants;
+import pcgen.base.formula.parse.FormulaParserVisitor;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.NodeUtilities;
+import pcgen.base.formula.parse.SimpleNode;
+
+/**
+ * FunctionExpansionVisitor visits a formula in tree form in order to replace
+ * calls to a GenericFunction with the body of the GenericFunction, in which
+ * each arg(n) has been replaced by the n-th argument of the call.
+ * 
+ * As an example, if d20Mod is a GenericFunction defined as
+ * "floor((arg(0)-10)/2)", then "d20Mod(STR+2)" would be replaced with
+ * "(floor(((STR+2)-10)/2))". This avoids the overhead of a GenericFunction
+ * (which builds a new FunctionLibrary, FormulaManager and visitor for each
+ * call, and looks up each arg(n) in the body) when the formula is resolved.
+ * 
+ * FunctionExpansionVisitor NEVER modifies the tree it is given (as that tree
+ * may be shared, see FormulaFactory). Rather, each visit method returns the
+ * node that should be used in place of the node that was visited. If nothing
+ * within a node could be replaced, then the node itself is returned;
+ * otherwise a new node is returned (sharing any portions of the original tree
+ * that were not altered). Note that an argument used more than once in the
+ * body of a GenericFunction is shared by each use in the resulting tree.
+ * 
+ * A call is left as a call (although its arguments may be expanded) if:
+ * 
+ * (1) The GenericFunction is already being expanded (a recursive call), so
+ * that expansion always terminates.
+ * 
+ * (2) The body of the GenericFunction contains brackets, since the contents of
+ * brackets are interpreted by the function that contains them and arg(n)
+ * within brackets cannot be replaced.
+ * 
+ * (3) The expanded call would contain more nodes than the limit provided at
+ * construction, so that expansion cannot produce an excessively large tree.
+ * 
+ * The tree provided to FunctionExpansionVisitor must be valid (see
+ * SemanticsVisitor). The data parameter to the methods is ignored.
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public class FunctionExpansionVisitor implements FormulaParserVisitor
+{
+
+	/**
+	 * The name of the function used to refer to an argument within the body
+	 * of a GenericFunction.
+	 */
+	private static final String ARG_FUNCTION = "arg";
+
+	/**
+	 * The FunctionLibrary used to identify the GenericFunction objects to be
+	 * expanded.
+	 */
+	private final FunctionLibrary library;
+
+	/**
+	 * The maximum number of nodes in the tree produced by expanding a single
+	 * call.
+	 */
+	private final int maxNodes;
+
+	/**
+	 * The GenericFunction objects currently being expanded, used to prevent
+	 * expansion of recursive calls.
+	 */
+	private final List<Function> expanding = new ArrayList<>();
+
+	/**
+	 * The (expanded) arguments of the call currently being expanded; null if
+	 * no call is being expanded.
+	 */
+	private Node[] currentArgs;
+
+	/**
+	 * Indicates whether an arg(n) in the body currently being expanded could
+	 * not be replaced.
+	 */
+	private boolean unresolved;
+
+	/**
+	 * Constructs a new FunctionExpansionVisitor that will expand the
+	 * GenericFunction objects in the given FunctionLibrary.
+	 * 
+	 * @param library
+	 *            The FunctionLibrary used to identify the GenericFunction
+	 *            objects to be expanded
+	 * @param maxNodes
+	 *            The maximum number of nodes in the tree produced by expanding
+	 *            a single call
+	 * @throws IllegalArgumentException
+	 *             if the given FunctionLibrary is null or the given maximum
+	 *             number of nodes is less than one
+	 */
+	public FunctionExpansionVisitor(FunctionLibrary library, int maxNodes)
+	{
+		if (library == null)
+		{
+			throw new IllegalArgumentException(
+				"FunctionLibrary cannot be null");
+		}
+		if (maxNodes < 1)
+		{
+			throw new IllegalArgumentException(
+				"Maximum number of nodes must be positive, was: " + maxNodes);
+		}
+		this.library = library;
+		this.maxNodes = maxNodes;
+	}
+
+	/**
+	 * Returns the root of a tree in which the calls to a GenericFunction in
+	 * the tree with the given root have been replaced with the body of the
+	 * GenericFunction. If no call could be replaced, the given root is
+	 * returned.
+	 * 
+	 * @param root
+	 *            The root of the tree to be processed
+	 * @return The root of a tree in which the calls to a GenericFunction have
+	 *         been expanded
+	 * @throws IllegalArgumentException
+	 *             if the given root is null
+	 */
+	public SimpleNode expand(SimpleNode root)
+	{
+		if (root == null)
+		{
+			throw new IllegalArgumentException("Cannot expand null root");
+		}
+		return (SimpleNode) root.jjtAccept(this, null);
+	}
+
+	/**
+	 * Visits a SimpleNode. Because this cannot be processed, due to lack of
+	 * knowledge as to the exact type of SimpleNode encountered, the node is
+	 * visited, which - through double dispatch - will result in another method
+	 * on this FunctionExpansionVisitor being called.
+	 * 
+	 * @see pcgen.base.formula.parse.FormulaParserVisitor#visit(pcgen.base.formula.parse.SimpleNode,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public Object visit(SimpleNode node, Object data)
+	{
+		//Delegate to the appropriate class
+		return node.jjtAccept(this, null);
+	}
+
+	/**
+	 * Processes the children of this node.
+	 */
+	@Override
+	public Object visit(ASTRoot node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Processes the children of this node.
+	 */
+	@Override
+	public Object visit(ASTLogical node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Processes the children of this node.
+	 */
+	@Override
+	public Object visit(ASTEquality node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Processes the children of this node.
+	 */
+	@Override
+	public Object visit(ASTRelational node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Processes the children of this node.
+	 */
+	@Override
+	public Object visit(ASTArithmetic node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Processes the children of this node.
+	 */
+	@Override
+	public Object visit(ASTGeometric node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Processes the child of this node.
+	 */
+	@Override
+	public Object visit(ASTUnary node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Processes the children of this node.
+	 */
+	@Override
+	public Object visit(ASTExpon node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Processes the child of this node.
+	 */
+	@Override
+	public Object visit(ASTParen node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Numbers contain no function calls.
+	 */
+	@Override
+	public Object visit(ASTNum node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Replaces arg(n) within the body being expanded with the n-th argument,
+	 * and replaces a call to a GenericFunction with its (expanded) body.
+	 * Other functions have their arguments processed.
+	 */
+	@Override
+	public Object visit(ASTPCGenLookup node, Object data)
+	{
+		Node argNode = node.jjtGetChild(1);
+		if (!(argNode instanceof ASTFParen))
+		{
+			//Contents of brackets are not processed
+			return node;
+		}
+		String name = ((SimpleNode) node.jjtGetChild(0)).getText();
+		if ((currentArgs != null) && ARG_FUNCTION.equalsIgnoreCase(name))
+		{
+			return substituteArgument(node);
+		}
+		SimpleNode result = expandChildren(node);
+		Function function = library.getFunction(name);
+		if ((function instanceof GenericFunction)
+			&& !expanding.contains(function))
+		{
+			Node replacement = expandCall((GenericFunction) function,
+				result.jjtGetChild(1));
+			if (replacement != null)
+			{
+				return replacement;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Variables contain no function calls.
+	 */
+	@Override
+	public Object visit(ASTPCGenSingleWord node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * The contents of brackets are interpreted by the function that contains
+	 * them, so they are not processed.
+	 */
+	@Override
+	public Object visit(ASTPCGenBracket node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Processes the arguments of a function.
+	 */
+	@Override
+	public Object visit(ASTFParen node, Object data)
+	{
+		return expandChildren(node);
+	}
+
+	/**
+	 * Quoted Strings contain no function calls.
+	 */
+	@Override
+	public Object visit(ASTQuotString node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Returns the body of the given GenericFunction, with each arg(n) replaced
+	 * by the n-th of the arguments in the given node. Returns null if the call
+	 * cannot be expanded.
+	 * 
+	 * @param function
+	 *            The GenericFunction to be expanded
+	 * @param argNode
+	 *            The (expanded) node containing the arguments of the call
+	 * @return The node to be used in place of the call, or null if the call
+	 *         cannot be expanded
+	 */
+	private Node expandCall(GenericFunction function, Node argNode)
+	{
+		SimpleNode body = function.getRoot();
+		if (containsBrackets(body))
+		{
+			return null;
+		}
+		Node[] outerArgs = currentArgs;
+		boolean outerUnresolved = unresolved;
+		currentArgs = VisitorUtilities.accumulateArguments(argNode);
+		unresolved = false;
+		expanding.add(function);
+		SimpleNode expanded;
+		boolean failed;
+		try
+		{
+			expanded = (SimpleNode) body.jjtAccept(this, null);
+			failed = unresolved || (expanded.jjtGetNumChildren() != 1);
+		}
+		finally
+		{
+			expanding.remove(expanding.size() - 1);
+			currentArgs = outerArgs;
+			unresolved = outerUnresolved;
+		}
+		if (failed)
+		{
+			return null;
+		}
+		Node replacement = parenthesize(expanded.jjtGetChild(0));
+		if (exceedsLimit(replacement))
+		{
+			return null;
+		}
+		return replacement;
+	}
+
+	/**
+	 * Returns the argument referred to by the given arg(n) node (in a form
+	 * that can be safely used as an operand). If the argument cannot be
+	 * identified, the given node is returned, and the expansion of the current
+	 * call will be abandoned.
+	 * 
+	 * @param node
+	 *            The arg(n) node to be replaced
+	 * @return The node to be used in place of the given arg(n) node
+	 */
+	private Node substituteArgument(ASTPCGenLookup node)
+	{
+		Node argNode = node.jjtGetChild(1);
+		if (argNode.jjtGetNumChildren() == 1)
+		{
+			Node index = argNode.jjtGetChild(0);
+			if (index instanceof ASTNum)
+			{
+				Number value = VisitorUtilities.getNumber((ASTNum) index);
+				if (value instanceof Integer)
+				{
+					int argNum = value.intValue();
+					if ((argNum >= 0) && (argNum < currentArgs.length))
+					{
+						return parenthesize(currentArgs[argNum]);
+					}
+				}
+			}
+		}
+		unresolved = true;
+		return node;
+	}
+
+	/**
+	 * Processes the children of the given node. If none of the children were
+	 * replaced, the given node is returned; otherwise a copy of the given node
+	 * (with the replacement children) is returned.
+	 * 
+	 * @param node
+	 *            The node for which the children should be processed
+	 * @return The given node, or a copy of the given node with replacement
+	 *         children
+	 */
+	private SimpleNode expandChildren(SimpleNode node)
+	{
+		int childCount = node.jjtGetNumChildren();
+		Node[] children = new Node[childCount];
+		for (int i = 0; i < childCount; i++)
+		{
+			children[i] = (Node) node.jjtGetChild(i).jjtAccept(this, null);
+		}
+		return NodeUtilities.replaceChildren(node, children);
+	}
+
+	/**
+	 * Returns the given node, wrapped in parenthesis if the node is not a
+	 * single term, so that the node can be used as an operand of any operator
+	 * without changing the order of operations.
+	 */
+	private static Node parenthesize(Node node)
+	{
+		if ((node instanceof ASTParen) || (node instanceof ASTNum)
+			|| (node instanceof ASTPCGenSingleWord)
+			|| (node instanceof ASTPCGenLookup)
+			|| (node instanceof ASTQuotString))
+		{
+			return node;
+		}
+		SimpleNode paren =
+				NodeUtilities.createNode(FormulaParserTreeConstants.JJTPAREN);
+		NodeUtilities.addChildren(paren, node);
+		return paren;
+	}
+
+	/**
+	 * Returns true if the tree with the given root contains brackets.
+	 */
+	private static boolean containsBrackets(Node node)
+	{
+		if (node instanceof ASTPCGenBracket)
+		{
+			return true;
+		}
+		int childCount = node.jjtGetNumChildren();
+		for (int i = 0; i < childCount; i++)
+		{
+			if (containsBrackets(node.jjtGetChild(i)))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the tree with the given root contains more than the
+	 * maximum number of nodes.
+	 */
+	private boolean exceedsLimit(Node root)
+	{
+		return countNodes(root, maxNodes + 1) > maxNodes;
+	}
+
+	/**
+	 * Returns the number of nodes in the tree with the given root, counting
+	 * no further than the given limit.
+	 */
+	private static int countNodes(Node node, int limit)
+	{
+		int count = 1;
+		int childCount = node.jjtGetNumChildren();
+		for (int i = 0; (i < childCount) && (count < limit); i++)
+		{
+			count += countNodes(node.jjtGetChild(i), limit - count);
+		}
+		return count;
+	}
+}
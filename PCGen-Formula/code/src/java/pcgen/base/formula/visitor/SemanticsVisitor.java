@@ -26,6 +26,10 @@ import pcgen.base.formula.base.FormulaSemantics;
 import pcgen.base.formula.base.Function;
 import pcgen.base.formula.base.FunctionLibrary;
 import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.base.NumericMode;
+import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.OperatorBinding;
+import pcgen.base.formula.base.OperatorLibrary;
 import pcgen.base.formula.parse.ASTArithmetic;
 import pcgen.base.formula.parse.ASTEquality;
 import pcgen.base.formula.parse.ASTExpon;
@@ -232,7 +236,7 @@ public class SemanticsVisitor implements FormulaParserVisitor
 		Class<?> format =
 				semantics.getInfo(FormulaSemanticsUtilities.SEM_FORMAT)
 					.getFormat();
-		if (!format.equals(NUMBER_CLASS))
+		if (!isNumberFormat(format))
 		{
 			FormulaSemanticsUtilities.setInvalid(semantics,
 				"Parse Error: Invalid Value Format: " + format + " found in "
@@ -258,6 +262,14 @@ public class SemanticsVisitor implements FormulaParserVisitor
 					+ " expected to have an operator, none was found");
 			return semantics;
 		}
+		if (node.jjtGetNumChildren() < 2)
+		{
+			FormulaSemanticsUtilities.setInvalid(semantics,
+				getInvalidCountReport(node, 2));
+			return semantics;
+		}
+		Class<?> baseFormat = null;
+		Class<?> exponentFormat = null;
 		for (int i = 0; i < node.jjtGetNumChildren(); i++)
 		{
 			node.jjtGetChild(i).jjtAccept(this, semantics);
@@ -276,7 +288,7 @@ public class SemanticsVisitor implements FormulaParserVisitor
 			Class<?> format =
 					semantics.getInfo(FormulaSemanticsUtilities.SEM_FORMAT)
 						.getFormat();
-			if (!format.equals(NUMBER_CLASS))
+			if (!isNumberFormat(format))
 			{
 				FormulaSemanticsUtilities.setInvalid(semantics,
 					"Parse Error: Invalid Value Format: " + format
@@ -284,8 +296,40 @@ public class SemanticsVisitor implements FormulaParserVisitor
 						+ node.jjtGetChild(i).getClass().getName()
 						+ " found in location requiring a"
 						+ " Number (class cannot be evaluated)");
+				return semantics;
+			}
+			if (i == 0)
+			{
+				baseFormat = format;
+			}
+			else if ((exponentFormat == null)
+				|| exponentFormat.equals(format))
+			{
+				exponentFormat = format;
 			}
+			else
+			{
+				//See VisitorUtilities.combineExponents
+				exponentFormat = NUMBER_CLASS;
+			}
+		}
+		//The exponent is processed by the OperatorLibrary
+		Operator op = node.getOperator();
+		Class<?> returnedFormat =
+				fm.getOperatorLibrary().processAbstract(op, baseFormat,
+					exponentFormat);
+		if (returnedFormat == null)
+		{
+			FormulaSemanticsUtilities.setInvalid(semantics,
+				"Parse Error: Operator " + op.getSymbol()
+					+ " cannot process children: "
+					+ baseFormat.getSimpleName() + " and "
+					+ exponentFormat.getSimpleName() + " found in "
+					+ node.getClass().getName());
+			return semantics;
 		}
+		semantics.setInfo(FormulaSemanticsUtilities.SEM_FORMAT,
+			new FormulaFormat(returnedFormat));
 		return semantics;
 	}
 
@@ -313,17 +357,17 @@ public class SemanticsVisitor implements FormulaParserVisitor
 				getInvalidCountReport(node, 0));
 			return semantics;
 		}
-		try
-		{
-			Double.parseDouble(node.getText());
-			semantics.setInfo(FormulaSemanticsUtilities.SEM_FORMAT,
-				new FormulaFormat(NUMBER_CLASS));
-		}
-		catch (NumberFormatException e)
+		NumericMode mode = fm.getNumericMode();
+		if (VisitorUtilities.getNumber(node, mode) == null)
 		{
 			FormulaSemanticsUtilities.setInvalid(semantics, node.getClass()
 				+ " had invalid number: " + node.getText());
 		}
+		else
+		{
+			semantics.setInfo(FormulaSemanticsUtilities.SEM_FORMAT,
+				new FormulaFormat(VisitorUtilities.getNumberFormat(mode)));
+		}
 		return semantics;
 	}
 
@@ -539,8 +583,9 @@ public class SemanticsVisitor implements FormulaParserVisitor
 		Class<?> format2 =
 				semantics.getInfo(FormulaSemanticsUtilities.SEM_FORMAT)
 					.getFormat();
+		OperatorLibrary opLibrary = fm.getOperatorLibrary();
 		Class<?> returnedFormat =
-				fm.getOperatorLibrary().processAbstract(op, format1, format2);
+				opLibrary.processAbstract(op, format1, format2);
 		//null response means the library couldn't find an appropriate operator
 		if (returnedFormat == null)
 		{
@@ -551,6 +596,13 @@ public class SemanticsVisitor implements FormulaParserVisitor
 					+ node.getClass().getName());
 			return semantics;
 		}
+		//Bind the validated OperatorAction for reuse in evaluation
+		OperatorAction action = opLibrary.getAction(op, format1, format2);
+		if (action != null)
+		{
+			node.setOperatorBinding(new OperatorBinding(opLibrary, format1,
+				format2, action));
+		}
 		semantics.setInfo(FormulaSemanticsUtilities.SEM_FORMAT,
 			new FormulaFormat(returnedFormat));
 		return semantics;
@@ -583,6 +635,23 @@ public class SemanticsVisitor implements FormulaParserVisitor
 		return child.jjtAccept(this, data);
 	}
 
+	/**
+	 * Returns true if the given format is a format of numbers in a formula:
+	 * Number.class or the format of numbers in the NumericMode of the
+	 * FormulaManager (e.g. FixedPoint.class).
+	 * 
+	 * @param format
+	 *            The format to be checked
+	 * @return true if the given format is a format of numbers in a formula;
+	 *         false otherwise
+	 */
+	public boolean isNumberFormat(Class<?> format)
+	{
+		return format.equals(NUMBER_CLASS)
+			|| format.equals(VisitorUtilities.getNumberFormat(fm
+				.getNumericMode()));
+	}
+
 	/**
 	 * Returns the LegalScope in which this SemanticsVisitor is operating.
 	 * 
@@ -0,0 +1,611 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.visitor;
+
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.OperatorLibrary;
+import pcgen.base.formula.base.ScopeInstance;
+import pcgen.base.formula.function.IfFunction;
+import pcgen.base.formula.operator.number.NumberAdd;
+import pcgen.base.formula.operator.number.NumberDivide;
+import pcgen.base.formula.operator.number.NumberMultiply;
+import pcgen.base.formula.operator.number.NumberSubtract;
+import pcgen.base.formula.parse.ASTArithmetic;
+import pcgen.base.formula.parse.ASTEquality;
+import pcgen.base.formula.parse.ASTExpon;
+import pcgen.base.formula.parse.ASTFParen;
+import pcgen.base.formula.parse.ASTGeometric;
+import pcgen.base.formula.parse.ASTLogical;
+import pcgen.base.formula.parse.ASTNum;
+import pcgen.base.formula.parse.ASTPCGenBracket;
+import pcgen.base.formula.parse.ASTPCGenLookup;
+import pcgen.base.formula.parse.ASTPCGenSingleWord;
+import pcgen.base.formula.parse.ASTParen;
+import pcgen.base.formula.parse.ASTQuotString;
+import pcgen.base.formula.parse.ASTRelational;
+import pcgen.base.formula.parse.ASTRoot;
+import pcgen.base.formula.parse.ASTUnary;
+import pcgen.base.formula.parse.FormulaParserTreeConstants;
+import pcgen.base.formula.parse.FormulaParserVisitor;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.NodeUtilities;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.parse.SimpleNode;
+
+/**
+ * SimplifyingVisitor visits a formula in tree form in order to apply algebraic
+ * identities that reduce the work required to evaluate the formula.
+ * 
+ * SimplifyingVisitor NEVER modifies the tree it is given (as that tree may be
+ * shared, see FormulaFactory). Rather, each visit method returns the node that
+ * should be used in place of the node that was visited. If nothing within a
+ * node could be simplified, then the node itself is returned.
+ * 
+ * Note that the tree produced by SimplifyingVisitor does not reconstruct to the
+ * original formula (for example, parenthesis are removed, since the structure
+ * of the tree already captures the order of operations). The tree produced by
+ * SimplifyingVisitor is therefore only appropriate for evaluation.
+ * 
+ * The following simplifications are always performed, as they produce exactly
+ * the same result as the original formula for Integer and Double values (the
+ * classes of Number produced by the parser and by the built in operators):
+ * 
+ * (1) Parenthesis are removed: "(x)" becomes "x"
+ * 
+ * (2) Division by an Integer one is removed: "x/1" becomes "x"
+ * 
+ * (3) Subtraction of an Integer zero is removed: "x-0" becomes "x"
+ * 
+ * (4) Double negation is removed: "-(-x)" becomes "x"
+ * 
+ * (5) An if function with a static condition is replaced by the selected
+ * branch: "if(4>3,x,y)" becomes "x"
+ * 
+ * The following simplifications are only performed if inexact simplification
+ * is allowed, as they do not always produce exactly the same result as the
+ * original formula:
+ * 
+ * (6) Multiplication by an Integer one is removed: "x*1" and "1*x" become "x".
+ * This is inexact since NumberMultiply produces an Integer zero (rather than a
+ * Double) if either value is zero.
+ * 
+ * (7) Addition of an Integer zero is removed: "x+0" and "0+x" become "x". This
+ * is inexact since -0.0 + 0 is 0.0 (not -0.0).
+ * 
+ * (8) Integer constants are reassociated out of chains of addition and
+ * subtraction: "x+1+2" becomes "x+3" and "1+x-3" becomes "x+-2". This is
+ * inexact since Double addition is not associative.
+ * 
+ * Simplifications (2), (3), (6), (7) and (8) are only performed if the
+ * OperatorLibrary of the FormulaManager uses the built in OperatorAction for
+ * the Operator in question (e.g. NumberDivide for Operator.DIV) for both
+ * Integer and Double values, since the identities depend on the behavior of
+ * those OperatorActions.
+ * 
+ * The tree provided to SimplifyingVisitor must be valid (see
+ * SemanticsVisitor). The data parameter to the methods is ignored.
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public class SimplifyingVisitor implements FormulaParserVisitor
+{
+
+	/**
+	 * The Integer value zero.
+	 */
+	private static final Integer ZERO = Integer.valueOf(0);
+
+	/**
+	 * The Integer value one.
+	 */
+	private static final Integer ONE = Integer.valueOf(1);
+
+	/**
+	 * The FormulaManager used to get information about functions and
+	 * operators.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * The StaticVisitor used to determine if the condition of an if function
+	 * is static.
+	 */
+	private final StaticVisitor staticVisitor;
+
+	/**
+	 * The EvaluateVisitor used to calculate the value of a static condition of
+	 * an if function.
+	 */
+	private final EvaluateVisitor evaluateVisitor;
+
+	/**
+	 * Indicates whether simplifications that do not always produce exactly the
+	 * same result as the original formula are allowed.
+	 */
+	private final boolean allowInexact;
+
+	/**
+	 * Constructs a new SimplifyingVisitor that will use the given
+	 * FormulaManager and ScopeInstance.
+	 * 
+	 * @param fm
+	 *            The FormulaManager used to get information about functions
+	 *            and operators
+	 * @param scopeInst
+	 *            The ScopeInstance in which static conditions are evaluated
+	 * @param allowInexact
+	 *            true if simplifications that do not always produce exactly
+	 *            the same result as the original formula are allowed; false
+	 *            otherwise
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public SimplifyingVisitor(FormulaManager fm, ScopeInstance scopeInst,
+		boolean allowInexact)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException(
+				"FormulaManager cannot be null");
+		}
+		if (scopeInst == null)
+		{
+			throw new IllegalArgumentException("ScopeInstance cannot be null");
+		}
+		this.fm = fm;
+		this.allowInexact = allowInexact;
+		staticVisitor = new StaticVisitor(fm.getLibrary());
+		evaluateVisitor = new EvaluateVisitor(fm, scopeInst);
+	}
+
+	/**
+	 * Returns the root of a simplified version of the tree with the given
+	 * root. If no portion of the tree could be simplified, the given root is
+	 * returned.
+	 * 
+	 * @param root
+	 *            The root of the tree to be simplified
+	 * @return The root of a simplified version of the tree with the given root
+	 * @throws IllegalArgumentException
+	 *             if the given root is null
+	 */
+	public SimpleNode simplify(SimpleNode root)
+	{
+		if (root == null)
+		{
+			throw new IllegalArgumentException("Cannot simplify null root");
+		}
+		return (SimpleNode) root.jjtAccept(this, null);
+	}
+
+	/**
+	 * Visits a SimpleNode. Because this cannot be processed, due to lack of
+	 * knowledge as to the exact type of SimpleNode encountered, the node is
+	 * visited, which - through double dispatch - will result in another method
+	 * on this SimplifyingVisitor being called.
+	 * 
+	 * @see pcgen.base.formula.parse.FormulaParserVisitor#visit(pcgen.base.formula.parse.SimpleNode,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public Object visit(SimpleNode node, Object data)
+	{
+		//Delegate to the appropriate class
+		return node.jjtAccept(this, null);
+	}
+
+	/**
+	 * Simplifies the children of this node.
+	 */
+	@Override
+	public Object visit(ASTRoot node, Object data)
+	{
+		return simplifyChildren(node);
+	}
+
+	/**
+	 * Simplifies the children of this node.
+	 */
+	@Override
+	public Object visit(ASTLogical node, Object data)
+	{
+		return simplifyChildren(node);
+	}
+
+	/**
+	 * Simplifies the children of this node.
+	 */
+	@Override
+	public Object visit(ASTEquality node, Object data)
+	{
+		return simplifyChildren(node);
+	}
+
+	/**
+	 * Simplifies the children of this node.
+	 */
+	@Override
+	public Object visit(ASTRelational node, Object data)
+	{
+		return simplifyChildren(node);
+	}
+
+	/**
+	 * Simplifies the children of this node, and then removes the addition or
+	 * subtraction of zero, and reassociates Integer constants (if allowed).
+	 */
+	@Override
+	public Object visit(ASTArithmetic node, Object data)
+	{
+		SimpleNode result = simplifyChildren(node);
+		Node left = result.jjtGetChild(0);
+		Node right = result.jjtGetChild(1);
+		Operator op = result.getOperator();
+		if ((op == Operator.SUB) && isIntegerValue(right, ZERO)
+			&& isBuiltIn(Operator.SUB, NumberSubtract.class))
+		{
+			return left;
+		}
+		if (!allowInexact || !isBuiltIn(Operator.ADD, NumberAdd.class)
+			|| !isBuiltIn(Operator.SUB, NumberSubtract.class))
+		{
+			return result;
+		}
+		if (op == Operator.ADD)
+		{
+			if (isIntegerValue(right, ZERO))
+			{
+				return left;
+			}
+			if (isIntegerValue(left, ZERO))
+			{
+				return right;
+			}
+		}
+		return reassociate(result);
+	}
+
+	/**
+	 * Simplifies the children of this node, and then removes division by one,
+	 * and multiplication by one (if allowed).
+	 */
+	@Override
+	public Object visit(ASTGeometric node, Object data)
+	{
+		SimpleNode result = simplifyChildren(node);
+		Node left = result.jjtGetChild(0);
+		Node right = result.jjtGetChild(1);
+		Operator op = result.getOperator();
+		if ((op == Operator.DIV) && isIntegerValue(right, ONE)
+			&& isBuiltIn(Operator.DIV, NumberDivide.class))
+		{
+			return left;
+		}
+		if (allowInexact && (op == Operator.MUL)
+			&& isBuiltIn(Operator.MUL, NumberMultiply.class))
+		{
+			if (isIntegerValue(right, ONE))
+			{
+				return left;
+			}
+			if (isIntegerValue(left, ONE))
+			{
+				return right;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Simplifies the child of this node, and then removes double negation.
+	 */
+	@Override
+	public Object visit(ASTUnary node, Object data)
+	{
+		SimpleNode result = simplifyChildren(node);
+		Node child = result.jjtGetChild(0);
+		if (child instanceof ASTUnary)
+		{
+			return child.jjtGetChild(0);
+		}
+		return result;
+	}
+
+	/**
+	 * Simplifies the children of this node.
+	 */
+	@Override
+	public Object visit(ASTExpon node, Object data)
+	{
+		return simplifyChildren(node);
+	}
+
+	/**
+	 * Removes the parenthesis, returning the simplified child of this node.
+	 */
+	@Override
+	public Object visit(ASTParen node, Object data)
+	{
+		return node.jjtGetChild(0).jjtAccept(this, null);
+	}
+
+	/**
+	 * Numbers cannot be simplified.
+	 */
+	@Override
+	public Object visit(ASTNum node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Simplifies the arguments of the function, and then replaces an if
+	 * function with a static condition with the selected branch.
+	 */
+	@Override
+	public Object visit(ASTPCGenLookup node, Object data)
+	{
+		ASTPCGenLookup result = (ASTPCGenLookup) simplifyChildren(node);
+		Function function =
+				VisitorUtilities.getFunction(fm.getLibrary(), result);
+		if (function instanceof IfFunction)
+		{
+			Node[] args =
+					VisitorUtilities.accumulateArguments(result.jjtGetChild(1));
+			Object condition = evaluateStatic(args[0]);
+			if (condition instanceof Boolean)
+			{
+				return ((Boolean) condition).booleanValue() ? args[1] : args[2];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Variables cannot be simplified.
+	 */
+	@Override
+	public Object visit(ASTPCGenSingleWord node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * The contents of brackets are interpreted by the function that contains
+	 * them, so they are not simplified.
+	 */
+	@Override
+	public Object visit(ASTPCGenBracket node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Simplifies the arguments of a function.
+	 */
+	@Override
+	public Object visit(ASTFParen node, Object data)
+	{
+		return simplifyChildren(node);
+	}
+
+	/**
+	 * Quoted Strings cannot be simplified.
+	 */
+	@Override
+	public Object visit(ASTQuotString node, Object data)
+	{
+		return node;
+	}
+
+	/**
+	 * Simplifies the children of the given node. If none of the children were
+	 * simplified, the given node is returned; otherwise a copy of the given
+	 * node (with the simplified children) is returned.
+	 * 
+	 * @param node
+	 *            The node for which the children should be simplified
+	 * @return The given node, or a copy of the given node with simplified
+	 *         children
+	 */
+	private SimpleNode simplifyChildren(SimpleNode node)
+	{
+		int childCount = node.jjtGetNumChildren();
+		Node[] children = new Node[childCount];
+		for (int i = 0; i < childCount; i++)
+		{
+			children[i] = (Node) node.jjtGetChild(i).jjtAccept(this, null);
+		}
+		return NodeUtilities.replaceChildren(node, children);
+	}
+
+	/**
+	 * Reassociates Integer constants out of a chain of addition and
+	 * subtraction. The given node must be an ASTArithmetic node. Handles
+	 * "(x+c1)+c2", "(x-c1)+c2", "(c1+x)+c2" and the equivalents where c2 is
+	 * subtracted, where c1 and c2 are Integer constants.
+	 * 
+	 * @param node
+	 *            The ASTArithmetic node to be reassociated
+	 * @return The reassociated node, or the given node if it cannot be
+	 *         reassociated
+	 */
+	private SimpleNode reassociate(SimpleNode node)
+	{
+		Node left = node.jjtGetChild(0);
+		Integer outer = getInteger(node.jjtGetChild(1));
+		if ((outer == null) || !(left instanceof ASTArithmetic))
+		{
+			return node;
+		}
+		SimpleNode inner = (SimpleNode) left;
+		Operator innerOp = inner.getOperator();
+		Node other;
+		Integer innerValue = getInteger(inner.jjtGetChild(1));
+		if (innerValue == null)
+		{
+			innerValue = getInteger(inner.jjtGetChild(0));
+			if ((innerValue == null) || (innerOp != Operator.ADD))
+			{
+				return node;
+			}
+			other = inner.jjtGetChild(1);
+		}
+		else
+		{
+			other = inner.jjtGetChild(0);
+		}
+		//Integer math wraps identically regardless of association
+		int total = signed(innerOp, innerValue.intValue())
+			+ signed(node.getOperator(), outer.intValue());
+		if (total == 0)
+		{
+			return (SimpleNode) other;
+		}
+		SimpleNode result =
+				NodeUtilities.createNode(FormulaParserTreeConstants.JJTARITHMETIC);
+		result.setOperator(Operator.ADD);
+		NodeUtilities.addChildren(result, other, createInteger(total));
+		return result;
+	}
+
+	/**
+	 * Returns the given value, negated if the given Operator is subtraction.
+	 * 
+	 * @param op
+	 *            The Operator (addition or subtraction) applied to the value
+	 * @param value
+	 *            The value
+	 * @return The given value, negated if the given Operator is subtraction
+	 */
+	private static int signed(Operator op, int value)
+	{
+		return (op == Operator.SUB) ? -value : value;
+	}
+
+	/**
+	 * Returns a new numerical node with the given Integer value.
+	 * 
+	 * @param value
+	 *            The value of the numerical node
+	 * @return A new numerical node with the given Integer value
+	 */
+	private static SimpleNode createInteger(int value)
+	{
+		SimpleNode node =
+				NodeUtilities.createNode(FormulaParserTreeConstants.JJTNUM);
+		node.setToken(Integer.toString(value));
+		node.setValue(Integer.valueOf(value));
+		return node;
+	}
+
+	/**
+	 * Returns the Integer value of the given node, if the given node is a
+	 * numerical node with an Integer value.
+	 * 
+	 * @param node
+	 *            The node to be checked
+	 * @return The Integer value of the given node, or null if the given node
+	 *         is not a numerical node with an Integer value
+	 */
+	private static Integer getInteger(Node node)
+	{
+		if (node instanceof ASTNum)
+		{
+			Number n = VisitorUtilities.getNumber((ASTNum) node);
+			if (n instanceof Integer)
+			{
+				return (Integer) n;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the given node is a numerical node with the given
+	 * Integer value.
+	 * 
+	 * @param node
+	 *            The node to be checked
+	 * @param value
+	 *            The expected Integer value
+	 * @return true if the given node is a numerical node with the given
+	 *         Integer value; false otherwise
+	 */
+	private static boolean isIntegerValue(Node node, Integer value)
+	{
+		return value.equals(getInteger(node));
+	}
+
+	/**
+	 * Returns true if the OperatorLibrary uses an OperatorAction of exactly the
+	 * given class (not a subclass, which may alter the behavior) for the given
+	 * Operator for all combinations of Integer and Double values.
+	 * 
+	 * @param op
+	 *            The Operator to be checked
+	 * @param actionClass
+	 *            The expected class of the OperatorAction
+	 * @return true if the OperatorLibrary uses an OperatorAction of the given
+	 *         class for the given Operator; false otherwise
+	 */
+	private boolean isBuiltIn(Operator op,
+		Class<? extends OperatorAction> actionClass)
+	{
+		OperatorLibrary opLib = fm.getOperatorLibrary();
+		Class<?>[] formats = {Integer.class, Double.class};
+		for (Class<?> format1 : formats)
+		{
+			for (Class<?> format2 : formats)
+			{
+				OperatorAction action = opLib.getAction(op, format1, format2);
+				if ((action == null) || (action.getClass() != actionClass))
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the value of the given node if it is static, or null if the
+	 * node is not static (or fails to evaluate).
+	 * 
+	 * @param node
+	 *            The node to be evaluated
+	 * @return The value of the given node, or null if the node is not static
+	 */
+	private Object evaluateStatic(Node node)
+	{
+		if (!((Boolean) node.jjtAccept(staticVisitor, null)).booleanValue())
+		{
+			return null;
+		}
+		try
+		{
+			return node.jjtAccept(evaluateVisitor, null);
+		}
+		catch (RuntimeException e)
+		{
+			//Leave it to fail at evaluation
+			return null;
+		}
+	}
+}
@@ -17,7 +17,7 @@
  */
 package pcgen.base.formula.visitor;
 
-import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionBinding;
 import pcgen.base.formula.base.FunctionLibrary;
 import pcgen.base.formula.parse.ASTArithmetic;
 import pcgen.base.formula.parse.ASTEquality;
@@ -65,7 +65,8 @@ import pcgen.base.formula.parse.SimpleNode;
  * StaticVisitor does not accumulate results, since it is only detecting a
  * Boolean value. Therefore, the data parameter to the methods is ignored.
  * Rather, a "fast fail" implementation will return FALSE as soon as it is
- * detected.
+ * detected. StaticVisitor holds no state between visits, so it may be used
+ * from multiple threads at once.
  */
 @SuppressWarnings("PMD.TooManyMethods")
 public class StaticVisitor implements FormulaParserVisitor
@@ -235,9 +236,9 @@ public class StaticVisitor implements FormulaParserVisitor
 	@Override
 	public Object visit(ASTPCGenLookup node, Object data)
 	{
-		Function function = VisitorUtilities.getFunction(library, node);
-		Node[] args = VisitorUtilities.accumulateArguments(node.jjtGetChild(1));
-		return function.isStatic(this, args);
+		FunctionBinding binding =
+				VisitorUtilities.getFunctionBinding(library, node);
+		return binding.getFunction().isStatic(this, binding.getArguments());
 	}
 
 	/**
@@ -17,12 +17,17 @@
  */
 package pcgen.base.formula.visitor;
 
+import pcgen.base.formula.base.FixedPoint;
 import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionBinding;
 import pcgen.base.formula.base.FunctionLibrary;
+import pcgen.base.formula.base.NumericMode;
 import pcgen.base.formula.parse.ASTFParen;
+import pcgen.base.formula.parse.ASTNum;
 import pcgen.base.formula.parse.ASTPCGenBracket;
 import pcgen.base.formula.parse.ASTPCGenLookup;
 import pcgen.base.formula.parse.ASTPCGenSingleWord;
+import pcgen.base.formula.parse.ConstantPool;
 import pcgen.base.formula.parse.Node;
 
 /**
@@ -75,6 +80,214 @@ public final class VisitorUtilities
 		return function;
 	}
 
+	/**
+	 * Returns the FunctionBinding (the Function from the given FunctionLibrary
+	 * and the arguments) for the function call represented by the given node.
+	 * 
+	 * The FunctionBinding is cached on the given node, so repeated calls for
+	 * the same node and FunctionLibrary neither look up the Function nor build
+	 * a new array of arguments. The array of arguments in the returned
+	 * FunctionBinding is shared and MUST NOT be modified.
+	 * 
+	 * @param library
+	 *            The FunctionLibrary containing the Function to be returned
+	 * @param node
+	 *            The node which contains the function (this includes the
+	 *            function name and arguments)
+	 * @return The FunctionBinding for the given node; null if the
+	 *         FunctionLibrary does not contain the function
+	 */
+	public static FunctionBinding getFunctionBinding(FunctionLibrary library,
+		ASTPCGenLookup node)
+	{
+		FunctionBinding binding = node.getFunctionBinding();
+		if ((binding != null) && binding.isBoundTo(library))
+		{
+			return binding;
+		}
+		Function function = getFunction(library, node);
+		if (function == null)
+		{
+			return null;
+		}
+		binding =
+				new FunctionBinding(library, function,
+					accumulateArguments(node.jjtGetChild(1)));
+		node.setFunctionBinding(binding);
+		return binding;
+	}
+
+	/**
+	 * Combines two exponents of a chained exponent, consistent with X^Y^Z ==
+	 * X^(Y*Z). The product is an Integer if both exponents are Integer
+	 * objects and the product is within the range of an Integer, and a
+	 * FixedPoint if both exponents are FixedPoint objects; otherwise it is a
+	 * Double.
+	 * 
+	 * @param exponent
+	 *            The (combined) exponent to the left of the given next
+	 *            exponent
+	 * @param next
+	 *            The next exponent in the chain
+	 * @return The product of the two exponents
+	 */
+	public static Number combineExponents(Number exponent, Number next)
+	{
+		if ((exponent instanceof Integer) && (next instanceof Integer))
+		{
+			long product = (long) exponent.intValue() * next.intValue();
+			if (product == (int) product)
+			{
+				return Integer.valueOf((int) product);
+			}
+		}
+		if ((exponent instanceof FixedPoint) && (next instanceof FixedPoint))
+		{
+			return FixedPoint.fromScaled(FixedPoint.multiply(
+				((FixedPoint) exponent).getScaled(),
+				((FixedPoint) next).getScaled()));
+		}
+		return Double.valueOf(exponent.doubleValue() * next.doubleValue());
+	}
+
+	/**
+	 * Returns the negation of the given Number. The negation of an Integer is
+	 * an Integer and the negation of a FixedPoint is a FixedPoint; otherwise
+	 * the negation is a Double.
+	 * 
+	 * @param n
+	 *            The Number to be negated
+	 * @return The negation of the given Number
+	 */
+	public static Number negate(Number n)
+	{
+		if (n instanceof Integer)
+		{
+			return Integer.valueOf(-((Integer) n).intValue());
+		}
+		if (n instanceof FixedPoint)
+		{
+			return FixedPoint.fromScaled(FixedPoint
+				.negate(((FixedPoint) n).getScaled()));
+		}
+		return Double.valueOf(-n.doubleValue());
+	}
+
+	/**
+	 * Returns the format of the numbers in a formula for the given
+	 * NumericMode.
+	 * 
+	 * @param mode
+	 *            The NumericMode for which the format of numbers should be
+	 *            returned
+	 * @return The format of the numbers in a formula for the given NumericMode
+	 */
+	public static Class<? extends Number> getNumberFormat(NumericMode mode)
+	{
+		return (mode == NumericMode.FIXED_POINT) ? FixedPoint.class
+			: Number.class;
+	}
+
+	/**
+	 * Returns the numeric value of the given node. This is the value decoded
+	 * when the formula was parsed, if available; otherwise the text of the
+	 * node is decoded.
+	 * 
+	 * @param node
+	 *            The node for which the numeric value should be returned
+	 * @return The numeric value of the given node, or null if the node does
+	 *         not contain a valid number
+	 */
+	public static Number getNumber(ASTNum node)
+	{
+		Object value = node.getValue();
+		if (value instanceof Number)
+		{
+			return (Number) value;
+		}
+		return ConstantPool.decodeNumber(node.getText());
+	}
+
+	/**
+	 * Returns the numeric value of the given node, as represented in the given
+	 * NumericMode (e.g. as a FixedPoint in the FIXED_POINT NumericMode).
+	 * 
+	 * In the FIXED_POINT NumericMode, the value is decoded from the text of
+	 * the node the first time it is requested, and held by the node for later
+	 * requests.
+	 * 
+	 * @param node
+	 *            The node for which the numeric value should be returned
+	 * @param mode
+	 *            The NumericMode in which the numeric value is represented
+	 * @return The numeric value of the given node, or null if the node does
+	 *         not contain a valid number (in the given NumericMode)
+	 */
+	public static Number getNumber(ASTNum node, NumericMode mode)
+	{
+		if (mode != NumericMode.FIXED_POINT)
+		{
+			return getNumber(node);
+		}
+		FixedPoint value = node.getFixedPointValue();
+		if (value == null)
+		{
+			value = getFixedPoint(node.getText(), getNumber(node));
+			node.setFixedPointValue(value);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the FixedPoint value of a numerical node with the given text and
+	 * (decoded) value.
+	 * 
+	 * If the node is a numeric literal, the text is decoded directly, rather
+	 * than converting the decoded value (which may be a Double), so that a
+	 * decimal literal such as 123456789012.3456 is held exactly. Otherwise
+	 * (e.g. the node is the result of ConstantFoldingVisitor), the decoded
+	 * value is converted.
+	 * 
+	 * @param text
+	 *            The text of the numerical node
+	 * @param value
+	 *            The decoded value of the numerical node
+	 * @return The FixedPoint value of the numerical node, or null if the
+	 *         node does not contain a valid number in the FIXED_POINT
+	 *         NumericMode
+	 */
+	public static FixedPoint getFixedPoint(String text, Number value)
+	{
+		if (value == null)
+		{
+			return null;
+		}
+		try
+		{
+			if (!(value instanceof FixedPoint)
+				&& value.equals(ConstantPool.decodeNumber(text)))
+			{
+				return FixedPoint.valueOf(text);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			//Not decimal text (e.g. a hexadecimal Double), so use the value
+		}
+		catch (ArithmeticException e)
+		{
+			return null;
+		}
+		try
+		{
+			return FixedPoint.valueOf(value);
+		}
+		catch (ArithmeticException e)
+		{
+			return null;
+		}
+	}
+
 	/**
 	 * Returns an array of Node that represent the children (arguments) of the
 	 * given node.
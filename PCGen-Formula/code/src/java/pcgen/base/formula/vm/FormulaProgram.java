@@ -0,0 +1,840 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.vm;
+
+import java.util.Arrays;
+
+import pcgen.base.formula.base.DeferredOperand;
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.FixedPointOperatorAction;
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.LazyOperatorAction;
+import pcgen.base.formula.base.NumericOperatorAction;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.base.OperatorAction;
+import pcgen.base.formula.base.OperatorBinding;
+import pcgen.base.formula.base.OperatorLibrary;
+import pcgen.base.formula.base.ScopeInstance;
+import pcgen.base.formula.base.VariableSlot;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+
+/**
+ * A FormulaProgram is a formula that has been lowered (see ProgramCompiler)
+ * into a flat array of instructions for a specific FormulaManager.
+ * 
+ * Each instruction is an opcode followed by a fixed number of operands. The
+ * instructions operate on a stack of NumericResult objects: Each instruction
+ * pops its inputs from the stack and pushes its result onto the stack, so
+ * that a complete program leaves exactly one result on the stack.
+ * 
+ * Anything that can be resolved when the program is lowered (the value of a
+ * constant, the Function to be called) is held in a table referred to by an
+ * operand, rather than being resolved each time the program is executed.
+ * Anything that depends on the ScopeInstance or on the values of the
+ * arguments (the VariableSlot of a variable, the OperatorAction of an
+ * operator) is resolved on first use and cached until the ScopeInstance or
+ * the classes of the arguments change.
+ * 
+ * Each thread has a single stack (see StackPool), shared by every
+ * FormulaProgram executed on that thread and grown to the depth required by
+ * the deepest program, so a FormulaProgram may be executed by multiple
+ * threads at the same time without allocating a stack for each execution (or
+ * for each FormulaProgram). Each execution uses the portion of the stack
+ * above the portion in use when it started, so a FormulaProgram executed
+ * while another is executing on the same thread (e.g. by a Function that
+ * resolves another formula) does not disturb the outer execution.
+ * 
+ * Each instruction executed (and each Function called) is charged to the
+ * EvaluationBudget of the FormulaManager through the EvaluateVisitor, as a
+ * node visit would be charged by the EvaluateVisitor.
+ */
+public final class FormulaProgram
+{
+
+	/**
+	 * Pushes a constant. Operand: the index of the constant.
+	 */
+	static final int CONSTANT = 0;
+
+	/**
+	 * Pushes the value of a variable. Operand: the index of the variable.
+	 */
+	static final int VARIABLE = 1;
+
+	/**
+	 * Negates the value on the top of the stack.
+	 */
+	static final int NEGATE = 2;
+
+	/**
+	 * Pops a number of exponents of a chained exponent, and pushes the product
+	 * of the exponents (consistent with EvaluateVisitor: X^Y^Z == X^(Y*Z)).
+	 * Operand: the number of exponents.
+	 */
+	static final int EXPONENT = 3;
+
+	/**
+	 * Pops two values and pushes the result of an operator. Operand: the index
+	 * of the operator.
+	 */
+	static final int OPERATOR = 4;
+
+	/**
+	 * Precedes the right hand side of an operator that may be lazy (one that
+	 * was not bound to a non-lazy OperatorAction when the formula was
+	 * validated). If the operator is lazy for the class of the value on the
+	 * top of the stack, the operator is evaluated (executing the right hand
+	 * side only if necessary) and execution continues after the OPERATOR
+	 * instruction.
+	 * Operands: the index of the operator, and the location of the
+	 * instruction after the OPERATOR instruction.
+	 */
+	static final int LAZY = 5;
+
+	/**
+	 * Pushes the result of a Function. Operand: the index of the Function.
+	 */
+	static final int CALL = 6;
+
+	/**
+	 * Pops a Boolean and continues at a location if it is false. Operand: the
+	 * location.
+	 */
+	static final int JUMP_IF_FALSE = 7;
+
+	/**
+	 * Continues at a location. Operand: the location.
+	 */
+	static final int JUMP = 8;
+
+	/**
+	 * Pushes the result of evaluating a node with the EvaluateVisitor.
+	 * Operand: the index of the node.
+	 */
+	static final int INTERPRET = 9;
+
+	/**
+	 * The instructions of this FormulaProgram.
+	 */
+	private final int[] code;
+
+	/**
+	 * The constants referred to by CONSTANT instructions.
+	 */
+	private final Object[] constants;
+
+	/**
+	 * The nodes of the variables referred to by VARIABLE instructions.
+	 */
+	private final Node[] variableNodes;
+
+	/**
+	 * The names of the variables referred to by VARIABLE instructions.
+	 */
+	private final String[] variableNames;
+
+	/**
+	 * The VariableSlot last used by each variable, and the ScopeInstance in
+	 * which it was found.
+	 */
+	private final VariableBinding[] variableBindings;
+
+	/**
+	 * The operators referred to by OPERATOR and LAZY instructions.
+	 */
+	private final Operator[] operators;
+
+	/**
+	 * The OperatorBinding (if any) found for each operator when the formula
+	 * was validated. Used to determine if the operator is lazy, consistent
+	 * with EvaluateVisitor.
+	 */
+	private final OperatorBinding[] validated;
+
+	/**
+	 * The OperatorAction last used by each operator, and the classes of the
+	 * arguments for which it was found.
+	 */
+	private final ActionBinding[] actionBindings;
+
+	/**
+	 * The OperatorLibrary used to find the OperatorAction for an operator.
+	 */
+	private final OperatorLibrary library;
+
+	/**
+	 * The Functions referred to by CALL instructions.
+	 */
+	private final Function[] functions;
+
+	/**
+	 * The arguments of the Functions referred to by CALL instructions.
+	 */
+	private final Node[][] arguments;
+
+	/**
+	 * The nodes referred to by INTERPRET instructions.
+	 */
+	private final Node[] nodes;
+
+	/**
+	 * The maximum depth of the stack while executing this FormulaProgram.
+	 */
+	private final int maxStack;
+
+	/**
+	 * The StackPool of each thread, shared by all FormulaPrograms.
+	 */
+	private static final ThreadLocal<StackPool> STACKS =
+			new ThreadLocal<StackPool>()
+			{
+				@Override
+				protected StackPool initialValue()
+				{
+					return new StackPool();
+				}
+			};
+
+	/**
+	 * Constructs a new FormulaProgram.
+	 * 
+	 * @param code
+	 *            The instructions of the FormulaProgram
+	 * @param constants
+	 *            The constants referred to by CONSTANT instructions
+	 * @param variableNodes
+	 *            The nodes of the variables referred to by VARIABLE
+	 *            instructions
+	 * @param variableNames
+	 *            The names of the variables referred to by VARIABLE
+	 *            instructions
+	 * @param operators
+	 *            The operators referred to by OPERATOR and LAZY instructions
+	 * @param validated
+	 *            The OperatorBinding (if any) found for each operator when the
+	 *            formula was validated
+	 * @param library
+	 *            The OperatorLibrary used to find the OperatorAction for an
+	 *            operator
+	 * @param functions
+	 *            The Functions referred to by CALL instructions
+	 * @param arguments
+	 *            The arguments of the Functions referred to by CALL
+	 *            instructions
+	 * @param nodes
+	 *            The nodes referred to by INTERPRET instructions
+	 * @param maxStack
+	 *            The maximum depth of the stack while executing the
+	 *            FormulaProgram
+	 */
+	@SuppressWarnings("PMD.ExcessiveParameterList")
+	FormulaProgram(int[] code, Object[] constants, Node[] variableNodes,
+		String[] variableNames, Operator[] operators,
+		OperatorBinding[] validated, OperatorLibrary library,
+		Function[] functions, Node[][] arguments, Node[] nodes, int maxStack)
+	{
+		this.code = code;
+		this.constants = constants;
+		this.variableNodes = variableNodes;
+		this.variableNames = variableNames;
+		variableBindings = new VariableBinding[variableNames.length];
+		this.operators = operators;
+		this.validated = validated;
+		actionBindings = new ActionBinding[operators.length];
+		for (int i = 0; i < operators.length; i++)
+		{
+			OperatorBinding binding = validated[i];
+			if ((binding != null) && (binding.getLibrary() == library))
+			{
+				actionBindings[i] =
+						new ActionBinding(binding.getFormat1(),
+							binding.getFormat2(), binding.getAction());
+			}
+		}
+		this.library = library;
+		this.functions = functions;
+		this.arguments = arguments;
+		this.nodes = nodes;
+		this.maxStack = maxStack;
+	}
+
+	/**
+	 * Executes this FormulaProgram, returning the result.
+	 * 
+	 * @param visitor
+	 *            The EvaluateVisitor providing the context (ScopeInstance and
+	 *            FormulaManager) in which this FormulaProgram is executed.
+	 *            Also used to evaluate the arguments of Functions and any
+	 *            portion of the formula that was not lowered.
+	 * @return The result of executing this FormulaProgram
+	 * @throws IllegalArgumentException
+	 *             if the given EvaluateVisitor is null
+	 */
+	public Object execute(EvaluateVisitor visitor)
+	{
+		if (visitor == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot execute program with null EvaluateVisitor");
+		}
+		StackPool pool = STACKS.get();
+		int base = pool.acquire(maxStack);
+		try
+		{
+			NumericResult[] stack = pool.stack;
+			run(visitor, stack, 0, code.length, base);
+			return stack[base].get();
+		}
+		finally
+		{
+			pool.release(base);
+		}
+	}
+
+	/**
+	 * Executes this FormulaProgram, placing the result into the given
+	 * NumericResult. The result is the same as the result of execute(), but a
+	 * program that produces a Number may be executed without creating an
+	 * Integer or Double object.
+	 * 
+	 * @param visitor
+	 *            The EvaluateVisitor providing the context (ScopeInstance and
+	 *            FormulaManager) in which this FormulaProgram is executed
+	 * @param result
+	 *            The NumericResult into which the result is placed
+	 * @throws IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public void execute(EvaluateVisitor visitor, NumericResult result)
+	{
+		if (visitor == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot execute program with null EvaluateVisitor");
+		}
+		if (result == null)
+		{
+			throw new IllegalArgumentException(
+				"Cannot execute program into null NumericResult");
+		}
+		StackPool pool = STACKS.get();
+		int base = pool.acquire(maxStack);
+		try
+		{
+			NumericResult[] stack = pool.stack;
+			run(visitor, stack, 0, code.length, base);
+			NumericResult top = stack[base];
+			if (top.isInt())
+			{
+				result.setInt(top.getInt());
+			}
+			else if (top.isDouble())
+			{
+				result.setDouble(top.getDouble());
+			}
+			else if (top.isFixed())
+			{
+				result.setFixed(top.getFixed());
+			}
+			else
+			{
+				result.set(top.get());
+			}
+		}
+		finally
+		{
+			pool.release(base);
+		}
+	}
+
+	/**
+	 * Returns the number of instructions in this FormulaProgram.
+	 * 
+	 * @return The number of instructions in this FormulaProgram
+	 */
+	public int getInstructionCount()
+	{
+		int count = 0;
+		for (int pc = 0; pc < code.length; pc += getLength(code[pc]))
+		{
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the maximum depth of the stack while executing this
+	 * FormulaProgram.
+	 * 
+	 * @return The maximum depth of the stack while executing this
+	 *         FormulaProgram
+	 */
+	public int getMaxStack()
+	{
+		return maxStack;
+	}
+
+	/**
+	 * Returns the number of ints (the opcode and its operands) in the given
+	 * instruction.
+	 */
+	static int getLength(int opcode)
+	{
+		switch (opcode)
+		{
+			case NEGATE:
+				return 1;
+			case LAZY:
+				return 3;
+			default:
+				return 2;
+		}
+	}
+
+	/**
+	 * Executes the instructions from start (inclusive) to end (exclusive),
+	 * with the given stack pointer, returning the resulting stack pointer.
+	 */
+	private int run(EvaluateVisitor visitor, NumericResult[] stack,
+		int start, int end, int base)
+	{
+		int pc = start;
+		int sp = base;
+		while (pc < end)
+		{
+			visitor.countVisit();
+			int opcode = code[pc];
+			//NEGATE is the only instruction without an operand
+			int operand = (opcode == NEGATE) ? 0 : code[pc + 1];
+			switch (opcode)
+			{
+				case CONSTANT:
+					stack[sp++].set(constants[operand]);
+					pc += 2;
+					break;
+				case VARIABLE:
+					loadVariable(visitor, operand, stack[sp++]);
+					pc += 2;
+					break;
+				case NEGATE:
+					negate(stack[sp - 1]);
+					pc++;
+					break;
+				case EXPONENT:
+					sp -= operand - 1;
+					combineExponents(stack, sp - 1, operand);
+					pc += 2;
+					break;
+				case OPERATOR:
+					sp--;
+					operate(operand, stack[sp - 1], stack[sp]);
+					pc += 2;
+					break;
+				case LAZY:
+					pc =
+							operateLazily(visitor, stack, sp, operand, pc + 3,
+								code[pc + 2]);
+					break;
+				case CALL:
+					stack[sp++].set(visitor.evaluateFunction(
+						functions[operand], arguments[operand]));
+					pc += 2;
+					break;
+				case JUMP_IF_FALSE:
+					sp--;
+					Boolean b = (Boolean) stack[sp].get();
+					pc = b.booleanValue() ? pc + 2 : operand;
+					break;
+				case JUMP:
+					pc = operand;
+					break;
+				case INTERPRET:
+					stack[sp++].set(nodes[operand].jjtAccept(visitor, null));
+					pc += 2;
+					break;
+				default:
+					throw new IllegalStateException("Unknown opcode "
+						+ opcode + " at " + pc);
+			}
+		}
+		return sp;
+	}
+
+	/**
+	 * Places the value of the given variable into the given NumericResult.
+	 */
+	private void loadVariable(EvaluateVisitor visitor, int index,
+		NumericResult result)
+	{
+		ScopeInstance scopeInst = visitor.getScopeInstance();
+		VariableBinding current = variableBindings[index];
+		if ((current == null) || (current.scopeInst != scopeInst))
+		{
+			VariableSlot<?> slot =
+					visitor.getVariableSlot(variableNames[index]);
+			if (slot == null)
+			{
+				//Let the EvaluateVisitor report the problem
+				result.set(variableNodes[index].jjtAccept(visitor, null));
+				return;
+			}
+			current = new VariableBinding(scopeInst, slot);
+			variableBindings[index] = current;
+		}
+		VariableSlot<?> slot = current.slot;
+		if (slot.isSet())
+		{
+			result.set(slot.getValue());
+		}
+		else
+		{
+			//Let the EvaluateVisitor report the problem
+			result.set(variableNodes[index].jjtAccept(visitor, null));
+		}
+	}
+
+	/**
+	 * Negates the value in the given NumericResult.
+	 */
+	private static void negate(NumericResult result)
+	{
+		if (result.isInt())
+		{
+			result.setInt(-result.getInt());
+		}
+		else if (result.isFixed())
+		{
+			result.setFixed(FixedPoint.negate(result.getFixed()));
+		}
+		else
+		{
+			result.setDouble(-result.getDouble());
+		}
+	}
+
+	/**
+	 * Combines the given number of exponents starting at the given location of
+	 * the stack, placing the product into the first exponent. The product is
+	 * an int if all of the exponents are int values and the product is within
+	 * the range of an int, and a scaled FixedPoint value if all of the
+	 * exponents are scaled FixedPoint values.
+	 */
+	private static void combineExponents(NumericResult[] stack, int first,
+		int count)
+	{
+		NumericResult result = stack[first];
+		boolean integral = result.isInt();
+		long intProduct = result.getInt();
+		boolean fixed = result.isFixed();
+		long fixedProduct = result.getFixed();
+		double product = result.getDouble();
+		for (int i = 1; i < count; i++)
+		{
+			NumericResult next = stack[first + i];
+			if (integral && next.isInt())
+			{
+				intProduct *= next.getInt();
+				integral = (intProduct == (int) intProduct);
+			}
+			else
+			{
+				integral = false;
+			}
+			if (fixed && next.isFixed())
+			{
+				fixedProduct =
+						FixedPoint.multiply(fixedProduct, next.getFixed());
+			}
+			else
+			{
+				fixed = false;
+			}
+			product *= next.getDouble();
+		}
+		if (integral)
+		{
+			result.setInt((int) intProduct);
+		}
+		else if (fixed)
+		{
+			result.setFixed(fixedProduct);
+		}
+		else
+		{
+			result.setDouble(product);
+		}
+	}
+
+	/**
+	 * Evaluates the given operator on the given NumericResult objects, placing
+	 * the result into the left NumericResult.
+	 */
+	private void operate(int index, NumericResult left, NumericResult right)
+	{
+		OperatorAction action =
+				getAction(index, left.getResultClass(), right.getResultClass());
+		if ((action instanceof NumericOperatorAction)
+			&& (left.isInt() || left.isDouble())
+			&& (right.isInt() || right.isDouble()))
+		{
+			NumericOperatorAction numericAction = (NumericOperatorAction) action;
+			if (left.isInt() && right.isInt())
+			{
+				numericAction.evaluate(left.getInt(), right.getInt(), left);
+			}
+			else
+			{
+				numericAction.evaluate(left.getDouble(), right.getDouble(),
+					left);
+			}
+			return;
+		}
+		if ((action instanceof FixedPointOperatorAction) && left.isFixed()
+			&& right.isFixed())
+		{
+			((FixedPointOperatorAction) action).evaluate(left.getFixed(),
+				right.getFixed(), left);
+			return;
+		}
+		Object l = left.get();
+		Object r = right.get();
+		if (action == null)
+		{
+			//Let the library report the failure
+			left.set(library.evaluate(operators[index], l, r));
+		}
+		else
+		{
+			left.set(action.evaluate(l, r));
+		}
+	}
+
+	/**
+	 * Evaluates the given operator lazily if it is lazy for the class of the
+	 * value on the top of the stack (see OperatorBinding.getLazyAction).
+	 * Returns the location of the next instruction to be executed: The given
+	 * end if the operator was evaluated, or the start of the right hand side
+	 * if it was not.
+	 */
+	private int operateLazily(EvaluateVisitor visitor, NumericResult[] stack,
+		int sp, int index, int rightStart, int end)
+	{
+		NumericResult left = stack[sp - 1];
+		LazyOperatorAction lazyAction =
+				OperatorBinding.getLazyAction(validated[index], library,
+					operators[index], left.getResultClass());
+		if (lazyAction == null)
+		{
+			return rightStart;
+		}
+		//The OPERATOR instruction is the last instruction before end
+		left.set(lazyAction.evaluateLazily(left.get(),
+			new DeferredRange(visitor, stack, sp, rightStart, end - 2)));
+		return end;
+	}
+
+	/**
+	 * Returns the OperatorAction for the given operator and argument classes,
+	 * or null if there is no such OperatorAction.
+	 */
+	private OperatorAction getAction(int index, Class<?> leftClass,
+		Class<?> rightClass)
+	{
+		if ((leftClass == null) || (rightClass == null))
+		{
+			return null;
+		}
+		ActionBinding current = actionBindings[index];
+		if ((current == null) || (current.leftClass != leftClass)
+			|| (current.rightClass != rightClass))
+		{
+			OperatorAction action =
+					library.getAction(operators[index], leftClass, rightClass);
+			if (action == null)
+			{
+				return null;
+			}
+			current = new ActionBinding(leftClass, rightClass, action);
+			actionBindings[index] = current;
+		}
+		return current.action;
+	}
+
+	/**
+	 * A VariableBinding is the VariableSlot of a variable for a specific
+	 * ScopeInstance. A VariableBinding is immutable, so it can be safely
+	 * replaced (without locking) if the ScopeInstance changes.
+	 */
+	private static final class VariableBinding
+	{
+		/**
+		 * The ScopeInstance in which the VariableSlot was found.
+		 */
+		private final ScopeInstance scopeInst;
+
+		/**
+		 * The VariableSlot of the variable in the ScopeInstance.
+		 */
+		private final VariableSlot<?> slot;
+
+		private VariableBinding(ScopeInstance scopeInst, VariableSlot<?> slot)
+		{
+			this.scopeInst = scopeInst;
+			this.slot = slot;
+		}
+	}
+
+	/**
+	 * An ActionBinding is the OperatorAction of an operator for specific
+	 * argument classes. An ActionBinding is immutable, so it can be safely
+	 * replaced (without locking) if the argument classes change.
+	 */
+	private static final class ActionBinding
+	{
+		/**
+		 * The class of the left argument.
+		 */
+		private final Class<?> leftClass;
+
+		/**
+		 * The class of the right argument.
+		 */
+		private final Class<?> rightClass;
+
+		/**
+		 * The OperatorAction for the argument classes.
+		 */
+		private final OperatorAction action;
+
+		private ActionBinding(Class<?> leftClass, Class<?> rightClass,
+			OperatorAction action)
+		{
+			this.leftClass = leftClass;
+			this.rightClass = rightClass;
+			this.action = action;
+		}
+	}
+
+	/**
+	 * A DeferredRange is a DeferredOperand that executes the instructions for
+	 * the right hand side of an operator, using the portion of the stack above
+	 * the left hand side.
+	 */
+	private final class DeferredRange implements DeferredOperand
+	{
+		/**
+		 * The EvaluateVisitor with which the instructions are executed.
+		 */
+		private final EvaluateVisitor visitor;
+
+		/**
+		 * The stack on which the instructions are executed.
+		 */
+		private final NumericResult[] stack;
+
+		/**
+		 * The stack pointer when the instructions are executed.
+		 */
+		private final int base;
+
+		/**
+		 * The location of the first instruction.
+		 */
+		private final int start;
+
+		/**
+		 * The location after the last instruction.
+		 */
+		private final int end;
+
+		private DeferredRange(EvaluateVisitor visitor, NumericResult[] stack,
+			int base, int start, int end)
+		{
+			this.visitor = visitor;
+			this.stack = stack;
+			this.base = base;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Object getValue()
+		{
+			run(visitor, stack, start, end, base);
+			return stack[base].get();
+		}
+	}
+
+	/**
+	 * A StackPool is the stack of a single thread, shared by every
+	 * FormulaProgram executed on that thread.
+	 * 
+	 * Each execution acquires the portion of the stack it requires above the
+	 * portion already in use, and releases it when complete. The stack only
+	 * grows (to the deepest set of executions in progress at the same time,
+	 * which is usually the deepest FormulaProgram executed on the thread).
+	 * When the stack grows, an execution in progress continues to use the
+	 * previous array, which shares the NumericResult objects of the portion
+	 * it acquired with the new array.
+	 */
+	private static final class StackPool
+	{
+		/**
+		 * The stack of the thread.
+		 */
+		private NumericResult[] stack = new NumericResult[0];
+
+		/**
+		 * The index of the first NumericResult in the stack not in use by an
+		 * execution in progress.
+		 */
+		private int top;
+
+		/**
+		 * Acquires the given number of NumericResults in the stack, returning
+		 * the index of the first acquired NumericResult.
+		 */
+		private int acquire(int depth)
+		{
+			int base = top;
+			int needed = base + depth;
+			if (needed > stack.length)
+			{
+				NumericResult[] grown = Arrays.copyOf(stack, needed);
+				for (int i = stack.length; i < needed; i++)
+				{
+					grown[i] = new NumericResult();
+				}
+				stack = grown;
+			}
+			top = needed;
+			return base;
+		}
+
+		/**
+		 * Releases the portion of the stack acquired at the given index (and
+		 * any portion above it).
+		 */
+		private void release(int base)
+		{
+			top = base;
+		}
+	}
+}
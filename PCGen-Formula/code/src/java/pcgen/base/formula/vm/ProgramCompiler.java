@@ -0,0 +1,464 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionBinding;
+import pcgen.base.formula.base.LazyOperatorAction;
+import pcgen.base.formula.base.OperatorBinding;
+import pcgen.base.formula.function.IfFunction;
+import pcgen.base.formula.parse.ASTArithmetic;
+import pcgen.base.formula.parse.ASTEquality;
+import pcgen.base.formula.parse.ASTExpon;
+import pcgen.base.formula.parse.ASTFParen;
+import pcgen.base.formula.parse.ASTGeometric;
+import pcgen.base.formula.parse.ASTLogical;
+import pcgen.base.formula.parse.ASTNum;
+import pcgen.base.formula.parse.ASTPCGenBracket;
+import pcgen.base.formula.parse.ASTPCGenLookup;
+import pcgen.base.formula.parse.ASTPCGenSingleWord;
+import pcgen.base.formula.parse.ASTParen;
+import pcgen.base.formula.parse.ASTQuotString;
+import pcgen.base.formula.parse.ASTRelational;
+import pcgen.base.formula.parse.ASTRoot;
+import pcgen.base.formula.parse.ASTUnary;
+import pcgen.base.formula.parse.FormulaParserVisitor;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.Operator;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.formula.visitor.VisitorUtilities;
+
+/**
+ * A ProgramCompiler lowers a tree of objects produced by the parser into a
+ * FormulaProgram for a specific FormulaManager.
+ * 
+ * The tree should have been validated (using SemanticsVisitor) before it is
+ * lowered. Validation binds each operator node to the OperatorAction to be
+ * used, which allows the FormulaProgram to skip looking up the OperatorAction
+ * and to evaluate a logical operator lazily (as EvaluateVisitor does).
+ * 
+ * Numbers, quoted strings, variables, operators (including the exponent
+ * operator), and negation are lowered into instructions. A call to the
+ * built-in if function is lowered into conditional jumps, so that only the
+ * selected argument is evaluated. Any other function is called with its
+ * (unlowered) arguments, since a Function evaluates its own arguments. Any
+ * other node is evaluated using the EvaluateVisitor when the FormulaProgram
+ * is executed.
+ * 
+ * A ProgramCompiler does not hold any state while lowering a tree, so it may
+ * be shared between threads.
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public class ProgramCompiler implements FormulaParserVisitor
+{
+
+	/**
+	 * The FormulaManager for which trees are lowered.
+	 */
+	private final FormulaManager fm;
+
+	/**
+	 * Constructs a new ProgramCompiler which will lower trees for the given
+	 * FormulaManager.
+	 * 
+	 * @param fm
+	 *            The FormulaManager for which trees will be lowered
+	 * @throws IllegalArgumentException
+	 *             if the given FormulaManager is null
+	 */
+	public ProgramCompiler(FormulaManager fm)
+	{
+		if (fm == null)
+		{
+			throw new IllegalArgumentException("FormulaManager cannot be null");
+		}
+		this.fm = fm;
+	}
+
+	/**
+	 * Lowers the tree with the given node as the root into a FormulaProgram.
+	 * The tree is not modified.
+	 * 
+	 * @param node
+	 *            The root of the tree to be lowered
+	 * @return The FormulaProgram for the given tree
+	 * @throws IllegalArgumentException
+	 *             if the given node is null
+	 */
+	public FormulaProgram compile(Node node)
+	{
+		if (node == null)
+		{
+			throw new IllegalArgumentException("Cannot compile null node");
+		}
+		Assembly assembly = new Assembly();
+		lower(node, assembly);
+		return assembly.toProgram(fm);
+	}
+
+	/**
+	 * Lowers the given node into the given Assembly.
+	 */
+	private void lower(Node node, Assembly assembly)
+	{
+		node.jjtAccept(this, assembly);
+	}
+
+	@Override
+	public Object visit(SimpleNode node, Object data)
+	{
+		//Delegate to the appropriate class
+		return node.jjtAccept(this, data);
+	}
+
+	@Override
+	public Object visit(ASTRoot node, Object data)
+	{
+		lowerSingleChild(node, (Assembly) data);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTLogical node, Object data)
+	{
+		lowerOperatorNode(node, (Assembly) data);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTEquality node, Object data)
+	{
+		lowerOperatorNode(node, (Assembly) data);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTRelational node, Object data)
+	{
+		lowerOperatorNode(node, (Assembly) data);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTArithmetic node, Object data)
+	{
+		lowerOperatorNode(node, (Assembly) data);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTGeometric node, Object data)
+	{
+		lowerOperatorNode(node, (Assembly) data);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTUnary node, Object data)
+	{
+		Assembly assembly = (Assembly) data;
+		if (node.jjtGetNumChildren() != 1)
+		{
+			assembly.interpret(node);
+			return null;
+		}
+		lower(node.jjtGetChild(0), assembly);
+		assembly.emit(FormulaProgram.NEGATE);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTExpon node, Object data)
+	{
+		Assembly assembly = (Assembly) data;
+		Operator op = node.getOperator();
+		int childCount = node.jjtGetNumChildren();
+		if ((op == null) || (childCount < 2))
+		{
+			assembly.interpret(node);
+			return null;
+		}
+		int index = assembly.operators.size();
+		assembly.operators.add(op);
+		assembly.validated.add(null);
+		for (int i = 0; i < childCount; i++)
+		{
+			lower(node.jjtGetChild(i), assembly);
+		}
+		if (childCount > 2)
+		{
+			assembly.emit(FormulaProgram.EXPONENT, childCount - 1);
+			assembly.pop(childCount - 2);
+		}
+		//The exponent (^) operator is processed by the OperatorLibrary
+		assembly.emit(FormulaProgram.OPERATOR, index);
+		assembly.pop(1);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTParen node, Object data)
+	{
+		lowerSingleChild(node, (Assembly) data);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTNum node, Object data)
+	{
+		Assembly assembly = (Assembly) data;
+		Number value = VisitorUtilities.getNumber(node, fm.getNumericMode());
+		if (value == null)
+		{
+			assembly.interpret(node);
+		}
+		else
+		{
+			assembly.constant(value);
+		}
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTPCGenLookup node, Object data)
+	{
+		Assembly assembly = (Assembly) data;
+		FunctionBinding binding =
+				VisitorUtilities.getFunctionBinding(fm.getLibrary(), node);
+		if (binding == null)
+		{
+			assembly.interpret(node);
+			return null;
+		}
+		Function function = binding.getFunction();
+		Node[] args = binding.getArguments();
+		if ((function.getClass() == IfFunction.class) && (args.length == 3))
+		{
+			lowerIf(args, assembly);
+			return null;
+		}
+		assembly.emit(FormulaProgram.CALL, assembly.functions.size());
+		assembly.functions.add(function);
+		assembly.arguments.add(args);
+		assembly.push();
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTPCGenSingleWord node, Object data)
+	{
+		Assembly assembly = (Assembly) data;
+		assembly.emit(FormulaProgram.VARIABLE, assembly.variableNodes.size());
+		assembly.variableNodes.add(node);
+		assembly.variableNames.add(node.getText());
+		assembly.push();
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTPCGenBracket node, Object data)
+	{
+		((Assembly) data).interpret(node);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTFParen node, Object data)
+	{
+		((Assembly) data).interpret(node);
+		return null;
+	}
+
+	@Override
+	public Object visit(ASTQuotString node, Object data)
+	{
+		//The quotes are stripped by the parser
+		((Assembly) data).constant(node.getText());
+		return null;
+	}
+
+	/**
+	 * Lowers an operator node. Unless the operator was bound to an
+	 * OperatorAction other than a LazyOperatorAction when validated, a LAZY
+	 * instruction is placed before the right hand side.
+	 */
+	private void lowerOperatorNode(SimpleNode node, Assembly assembly)
+	{
+		Operator op = node.getOperator();
+		if ((op == null) || (node.jjtGetNumChildren() != 2))
+		{
+			assembly.interpret(node);
+			return;
+		}
+		int index = assembly.operators.size();
+		OperatorBinding binding = node.getOperatorBinding();
+		assembly.operators.add(op);
+		assembly.validated.add(binding);
+		lower(node.jjtGetChild(0), assembly);
+		int lazy = -1;
+		if ((binding == null)
+			|| (binding.getLibrary() != fm.getOperatorLibrary())
+			|| (binding.getAction() instanceof LazyOperatorAction))
+		{
+			lazy = assembly.size;
+			//Location after the OPERATOR instruction is patched below
+			assembly.emit(FormulaProgram.LAZY, index, 0);
+		}
+		lower(node.jjtGetChild(1), assembly);
+		assembly.emit(FormulaProgram.OPERATOR, index);
+		assembly.pop(1);
+		if (lazy != -1)
+		{
+			assembly.code[lazy + 2] = assembly.size;
+		}
+	}
+
+	/**
+	 * Lowers the arguments of the if function into conditional jumps:
+	 * condition, JUMP_IF_FALSE, true value, JUMP, false value.
+	 */
+	private void lowerIf(Node[] args, Assembly assembly)
+	{
+		lower(args[0], assembly);
+		int jumpIfFalse = assembly.size;
+		assembly.emit(FormulaProgram.JUMP_IF_FALSE, 0);
+		assembly.pop(1);
+		lower(args[1], assembly);
+		int jump = assembly.size;
+		assembly.emit(FormulaProgram.JUMP, 0);
+		//Only one of the values is on the stack at the end
+		assembly.pop(1);
+		assembly.code[jumpIfFalse + 1] = assembly.size;
+		lower(args[2], assembly);
+		assembly.code[jump + 1] = assembly.size;
+	}
+
+	/**
+	 * Lowers the single child of the given node. If the node does not have
+	 * exactly one child, the node is evaluated by the EvaluateVisitor.
+	 */
+	private void lowerSingleChild(SimpleNode node, Assembly assembly)
+	{
+		if (node.jjtGetNumChildren() != 1)
+		{
+			assembly.interpret(node);
+		}
+		else
+		{
+			lower(node.jjtGetChild(0), assembly);
+		}
+	}
+
+	/**
+	 * An Assembly holds the instructions and tables of a FormulaProgram while
+	 * a tree is being lowered.
+	 */
+	private static final class Assembly
+	{
+		/**
+		 * The instructions lowered so far. Only the first size entries are
+		 * used.
+		 */
+		private int[] code = new int[16];
+
+		/**
+		 * The number of entries of code that are used.
+		 */
+		private int size;
+
+		/**
+		 * The depth of the stack after the instructions lowered so far.
+		 */
+		private int depth;
+
+		/**
+		 * The maximum depth of the stack for the instructions lowered so far.
+		 */
+		private int maxDepth;
+
+		private final List<Object> constants = new ArrayList<>();
+
+		private final List<Node> variableNodes = new ArrayList<>();
+
+		private final List<String> variableNames = new ArrayList<>();
+
+		private final List<Operator> operators = new ArrayList<>();
+
+		private final List<OperatorBinding> validated = new ArrayList<>();
+
+		private final List<Function> functions = new ArrayList<>();
+
+		private final List<Node[]> arguments = new ArrayList<>();
+
+		private final List<Node> nodes = new ArrayList<>();
+
+		private void emit(int... values)
+		{
+			if (size + values.length > code.length)
+			{
+				code = Arrays.copyOf(code, 2 * code.length + values.length);
+			}
+			System.arraycopy(values, 0, code, size, values.length);
+			size += values.length;
+		}
+
+		private void push()
+		{
+			depth++;
+			maxDepth = Math.max(depth, maxDepth);
+		}
+
+		private void pop(int count)
+		{
+			depth -= count;
+		}
+
+		private void constant(Object value)
+		{
+			emit(FormulaProgram.CONSTANT, constants.size());
+			constants.add(value);
+			push();
+		}
+
+		private void interpret(Node node)
+		{
+			emit(FormulaProgram.INTERPRET, nodes.size());
+			nodes.add(node);
+			push();
+		}
+
+		private FormulaProgram toProgram(FormulaManager fm)
+		{
+			return new FormulaProgram(Arrays.copyOf(code, size),
+				constants.toArray(),
+				variableNodes.toArray(new Node[variableNodes.size()]),
+				variableNames.toArray(new String[variableNames.size()]),
+				operators.toArray(new Operator[operators.size()]),
+				validated.toArray(new OperatorBinding[validated.size()]),
+				fm.getOperatorLibrary(),
+				functions.toArray(new Function[functions.size()]),
+				arguments.toArray(new Node[arguments.size()][]),
+				nodes.toArray(new Node[nodes.size()]), maxDepth);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+/**
+ * pcgen.base.formula.vm is a package that lowers the tree of objects produced
+ * by the parser into a flat program of instructions, and executes those
+ * programs.
+ * 
+ * A FormulaProgram is a single int[] of opcodes (with tables of the constants,
+ * variables, operators and functions referred to by the opcodes). It is
+ * executed by a loop over a stack of reusable NumericResult objects, so an
+ * executing program does not recurse through a tree and (apart from the
+ * results of Functions and non-numeric OperatorActions) does not create
+ * objects. No classes are generated at runtime. Any portion of a formula that
+ * cannot be lowered is evaluated by falling back on the EvaluateVisitor, so a
+ * program always produces the same result as the tree from which it was
+ * lowered.
+ * 
+ * A FormulaProgram is bound to the FormulaManager used to lower it. It must
+ * only be executed with an EvaluateVisitor using that same FormulaManager.
+ */
+package pcgen.base.formula.vm;
@@ -17,10 +17,12 @@
  */
 package pcgen.base.solver;
 
+import pcgen.base.formula.base.EvaluationMode;
 import pcgen.base.formula.base.FormulaManager;
 import pcgen.base.formula.base.FunctionLibrary;
 import pcgen.base.formula.base.LegalScope;
 import pcgen.base.formula.base.LegalScopeLibrary;
+import pcgen.base.formula.base.NumericMode;
 import pcgen.base.formula.base.OperatorLibrary;
 import pcgen.base.formula.base.ScopeInstance;
 import pcgen.base.formula.base.VariableLibrary;
@@ -43,6 +45,15 @@ import pcgen.base.formula.inst.SimpleVariableStore;
  * For each individual scope/solution area (to be served by a different Solver),
  * a user can call getIndividualSetup() to build the necessary items (which will
  * share the common items established at construction of the SplitFormulaSetup.
+ * 
+ * The common items (the libraries of scopes, functions, operators and
+ * variables, and the SolverFactory) are only read while formulas are
+ * processed. Once they have been loaded, each IndividualSetup (e.g. each
+ * character) may therefore be processed in a different thread at the same
+ * time. The common items MUST NOT be modified while any IndividualSetup is
+ * being processed. An IndividualSetup itself is intended to be processed by
+ * one thread at a time: While its ScopeInformation and VariableStore are
+ * thread-safe, a Solver and the ScopeInstanceFactory are not.
  */
 public class SplitFormulaSetup
 {
@@ -98,6 +109,55 @@ public class SplitFormulaSetup
 		return new IndividualSetup(globalName);
 	}
 
+	/**
+	 * Returns a new IndividualSetup for the given "Global" name, with a
+	 * FormulaManager using the given EvaluationMode. The returned
+	 * IndividualSetup will have a unique Global Scope Instance, VariableStore
+	 * (and thus FormulaManager and ScopeInformation).
+	 * 
+	 * The same restrictions on the given "Global" name apply as for
+	 * getIndividualSetup(String).
+	 * 
+	 * @param globalName
+	 *            The name of the global scope for the IndividualSetup to be
+	 *            returned
+	 * @param evaluationMode
+	 *            The EvaluationMode to be used by the FormulaManager of the
+	 *            returned IndividualSetup
+	 * @return A new IndividualSetup for the given "Global" name
+	 */
+	public IndividualSetup getIndividualSetup(String globalName,
+		EvaluationMode evaluationMode)
+	{
+		return new IndividualSetup(globalName, evaluationMode);
+	}
+
+	/**
+	 * Returns a new IndividualSetup for the given "Global" name, with a
+	 * FormulaManager using the given EvaluationMode and NumericMode. The
+	 * returned IndividualSetup will have a unique Global Scope Instance,
+	 * VariableStore (and thus FormulaManager and ScopeInformation).
+	 * 
+	 * The same restrictions on the given "Global" name apply as for
+	 * getIndividualSetup(String).
+	 * 
+	 * @param globalName
+	 *            The name of the global scope for the IndividualSetup to be
+	 *            returned
+	 * @param evaluationMode
+	 *            The EvaluationMode to be used by the FormulaManager of the
+	 *            returned IndividualSetup
+	 * @param numericMode
+	 *            The NumericMode to be used by the FormulaManager of the
+	 *            returned IndividualSetup
+	 * @return A new IndividualSetup for the given "Global" name
+	 */
+	public IndividualSetup getIndividualSetup(String globalName,
+		EvaluationMode evaluationMode, NumericMode numericMode)
+	{
+		return new IndividualSetup(globalName, evaluationMode, numericMode);
+	}
+
 	/**
 	 * Loads built-in Functions and Operators into this SplitFormulaSetup.
 	 */
@@ -179,8 +239,7 @@ public class SplitFormulaSetup
 		/**
 		 * The FormulaManager for this IndividualSetup.
 		 */
-		private final FormulaManager formulaManager = new SimpleFormulaManager(
-			functionLib, operatorLib, variableLib, getVariableStore());
+		private final FormulaManager formulaManager;
 
 		/**
 		 * The "Global" LegalScope for this IndividualSetup.
@@ -207,6 +266,47 @@ public class SplitFormulaSetup
 		 */
 		public IndividualSetup(String globalName)
 		{
+			this(globalName, EvaluationMode.INTERPRETED);
+		}
+
+		/**
+		 * Constructs a new IndividualSetup with the "global" LegalScope of the
+		 * given name, and a FormulaManager using the given EvaluationMode.
+		 * 
+		 * @param globalName
+		 *            The name of the "global" LegalScope for this
+		 *            IndividualSetup
+		 * @param evaluationMode
+		 *            The EvaluationMode to be used by the FormulaManager of this
+		 *            IndividualSetup
+		 */
+		public IndividualSetup(String globalName, EvaluationMode evaluationMode)
+		{
+			this(globalName, evaluationMode, NumericMode.STANDARD);
+		}
+
+		/**
+		 * Constructs a new IndividualSetup with the "global" LegalScope of the
+		 * given name, and a FormulaManager using the given EvaluationMode and
+		 * NumericMode.
+		 * 
+		 * @param globalName
+		 *            The name of the "global" LegalScope for this
+		 *            IndividualSetup
+		 * @param evaluationMode
+		 *            The EvaluationMode to be used by the FormulaManager of this
+		 *            IndividualSetup
+		 * @param numericMode
+		 *            The NumericMode to be used by the FormulaManager of this
+		 *            IndividualSetup
+		 */
+		public IndividualSetup(String globalName,
+			EvaluationMode evaluationMode, NumericMode numericMode)
+		{
+			formulaManager =
+					new SimpleFormulaManager(functionLib, operatorLib,
+						variableLib, getVariableStore(), evaluationMode,
+						numericMode);
 			globalScope = legalScopeLib.getScope(globalName);
 			globalScopeInst =
 					getInstanceFactory().getInstance(null, getGlobalScope());
@@ -20,9 +20,16 @@ package pcgen.base.calculation;
 import org.junit.Test;
 
 import pcgen.base.calculation.testsupport.BasicCalc;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.base.FunctionLibrary;
 import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.function.FloorFunction;
+import pcgen.base.formula.inst.CompiledNEPFormula;
 import pcgen.base.formula.inst.ComplexNEPFormula;
+import pcgen.base.formula.inst.FormulaCompiler;
 import pcgen.base.formula.inst.FormulaUtilities;
+import pcgen.base.formula.inst.ProgramNEPFormula;
 import pcgen.base.formula.inst.ScopeInformation;
 import pcgen.base.formula.inst.SimpleLegalScope;
 import pcgen.base.formula.inst.SimpleScopeInstance;
@@ -87,6 +94,79 @@ public class FormulaCalculationTest extends AbstractFormulaTestCase
 		FormulaCalculation fc2 =
 				new FormulaCalculation(new ComplexNEPFormula("value()"), basic);
 		assertEquals(16, fc2.process(8, si));
+		assertEquals(6, fc2.process(3, si));
+		assertEquals(17, fc.process(8, si));
+		FormulaCalculation fc3 = new FormulaCalculation(
+			new ComplexNEPFormula("value()*value()"), basic);
+		assertEquals(12, fc3.process(3, si));
+		assertEquals(16, fc2.process(8, si));
+	}
+
+	@Test
+	public void testProcessCompiled()
+	{
+		SwitchingLibrary library = new SwitchingLibrary(getFunctionLibrary());
+		FormulaManager fm = getFormulaManager().swapFunctionLibrary(library);
+		ScopeInformation scopeInfo = new ScopeInformation(fm, si.getScope());
+		FormulaCompiler compiler = new FormulaCompiler(fm);
+		LegalScope legalScope = si.getScope().getLegalScope();
+		ComplexNEPFormula<Number> complex =
+				new ComplexNEPFormula<Number>("4+ceil(4.3)");
+		CompiledNEPFormula<Number> compiled =
+				compiler.compile(complex, legalScope, numberManager);
+		ProgramNEPFormula<Number> program =
+				compiler.compileProgram(complex, legalScope, numberManager);
+		/*
+		 * ceil is resolved when the formula is compiled, so once ceil is
+		 * replaced, only the compiled forms still use the original ceil
+		 */
+		library.ceil = new FloorFunction();
+		assertEquals(16, new FormulaCalculation(complex, basic).process(8,
+			scopeInfo));
+		assertEquals(17, new FormulaCalculation(compiled, basic).process(8,
+			scopeInfo));
+		assertEquals(17, new FormulaCalculation(program, basic).process(8,
+			scopeInfo));
+	}
+
+	//A FunctionLibrary in which ceil can be replaced after compilation
+	private static class SwitchingLibrary implements FunctionLibrary
+	{
+		private final FunctionLibrary library;
+		private Function ceil;
+
+		private SwitchingLibrary(FunctionLibrary library)
+		{
+			this.library = library;
+		}
+
+		@Override
+		public void addFunction(Function function)
+		{
+			library.addFunction(function);
+		}
+
+		@Override
+		public Function getFunction(String functionName)
+		{
+			if ((ceil != null) && functionName.equalsIgnoreCase("ceil"))
+			{
+				return ceil;
+			}
+			return library.getFunction(functionName);
+		}
+
+		@Override
+		public void addBracketFunction(Function function)
+		{
+			library.addBracketFunction(function);
+		}
+
+		@Override
+		public Function getBracketFunction(String functionName)
+		{
+			return library.getBracketFunction(functionName);
+		}
 	}
 
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class EvaluationBudgetTest extends TestCase
+{
+
+	@Test
+	public void testInvalidConstructor()
+	{
+		try
+		{
+			new EvaluationBudget(0, 1, 1);
+			fail("Expected zero node visits to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new EvaluationBudget(1, -1, 1);
+			fail("Expected negative call depth to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new EvaluationBudget(1, 1, 0);
+			fail("Expected zero time to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testLimits()
+	{
+		EvaluationBudget budget = new EvaluationBudget(100, 10, 50);
+		assertEquals(100, budget.getMaxNodeVisits());
+		assertEquals(10, budget.getMaxCallDepth());
+		assertEquals(50, budget.getMaxTimeMillis());
+		assertFalse(budget.isUnlimited());
+		assertFalse(new EvaluationBudget(Long.MAX_VALUE, Integer.MAX_VALUE,
+			1).isUnlimited());
+	}
+
+	@Test
+	public void testUnlimited()
+	{
+		assertTrue(EvaluationBudget.UNLIMITED.isUnlimited());
+		assertEquals(Long.MAX_VALUE,
+			EvaluationBudget.UNLIMITED.getMaxNodeVisits());
+		assertEquals(Integer.MAX_VALUE,
+			EvaluationBudget.UNLIMITED.getMaxCallDepth());
+		assertEquals(Long.MAX_VALUE,
+			EvaluationBudget.UNLIMITED.getMaxTimeMillis());
+		assertTrue(new EvaluationBudget(Long.MAX_VALUE, Integer.MAX_VALUE,
+			Long.MAX_VALUE).isUnlimited());
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.function.AbstractUnaryFunction;
+import pcgen.base.formula.inst.BatchFormulaEvaluator;
+import pcgen.base.formula.inst.ComplexNEPFormula;
+import pcgen.base.formula.inst.FlatNEPFormula;
+import pcgen.base.formula.inst.FormulaCompiler;
+import pcgen.base.formula.inst.FormulaOptimizer;
+import pcgen.base.formula.inst.FormulaUtilities;
+import pcgen.base.formula.inst.NEPFormula;
+import pcgen.base.formula.inst.ScopeInformation;
+import pcgen.base.formula.inst.SimpleFormulaManager;
+import pcgen.base.formula.library.GenericFunction;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+import pcgen.base.testsupport.TestUtilities;
+
+public class EvaluationMonitorTest extends AbstractFormulaTestCase
+{
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		getFunctionLibrary().addFunction(new SlowFunction());
+		getFunctionLibrary().addFunction(
+			new GenericFunction("loop",
+				TestUtilities.doParse("loop(arg(0)+1)")));
+		getFunctionLibrary().addFunction(
+			new GenericFunction("nest", TestUtilities.doParse(
+				"if(arg(0)>0,nest(arg(0)-1,arg(1))*arg(1),1)")));
+		getVariableStore().put(getVariable("a"), 4);
+	}
+
+	@Test
+	public void testUnlimited()
+	{
+		assertSame(EvaluationBudget.UNLIMITED,
+			getFormulaManager().getEvaluationBudget());
+		assertNull(EvaluationMonitor.start(getFormulaManager(),
+			getGlobalScopeInst(), "1+2"));
+		assertEquals(5, resolve(getFormulaManager(), "a+1"));
+		assertNull(EvaluationMonitor.getActive());
+		//Does not fail
+		EvaluationMonitor.finish(null);
+	}
+
+	@Test
+	public void testNodeVisits()
+	{
+		for (EvaluationMode mode : EvaluationMode.values())
+		{
+			FormulaManager fm =
+					getManager(mode, new EvaluationBudget(5, 100, 60000));
+			assertEquals(3, resolve(fm, "1+2"));
+			EvaluationBudgetExceededException e =
+					assertExceeded(fm, "1+2+3+a");
+			assertTrue(e.getMessage(),
+				e.getMessage().contains("maximum node visits of 5"));
+			assertEquals(6, e.getMonitor().getNodeVisits());
+		}
+	}
+
+	@Test
+	public void testCallDepth()
+	{
+		for (EvaluationMode mode : EvaluationMode.values())
+		{
+			FormulaManager fm =
+					getManager(mode, new EvaluationBudget(1000, 3, 60000));
+			assertEquals(1, resolve(fm, "abs(abs(abs(-1)))"));
+			assertEquals(3, EvaluationMonitor.getLastCompleted()
+				.getPeakCallDepth());
+			EvaluationBudgetExceededException e =
+					assertExceeded(fm, "abs(abs(abs(abs(-1))))");
+			assertTrue(e.getMessage(),
+				e.getMessage().contains("maximum call depth of 3"));
+			assertEquals(3, e.getMonitor().getPeakCallDepth());
+		}
+	}
+
+	@Test
+	public void testRecursion()
+	{
+		for (EvaluationMode mode : EvaluationMode.values())
+		{
+			FormulaManager fm =
+					getManager(mode, new EvaluationBudget(Long.MAX_VALUE, 50,
+						60000));
+			EvaluationBudgetExceededException e = assertExceeded(fm, "loop(1)");
+			assertTrue(e.getMessage(),
+				e.getMessage().contains("maximum call depth of 50"));
+			assertTrue(e.getMessage(),
+				e.getMessage().contains("(calling loop)"));
+			assertEquals(50, e.getMonitor().getPeakCallDepth());
+			assertEquals(0, e.getMonitor().getCallDepth());
+		}
+	}
+
+	@Test
+	public void testAnalysisRecursion()
+	{
+		FormulaManager fm =
+				getManager(EvaluationMode.INTERPRETED, new EvaluationBudget(
+					Long.MAX_VALUE, 50, 60000));
+		ScopeInformation scopeInfo =
+				new ScopeInformation(fm, getGlobalScopeInst());
+		EvaluationMonitor last = EvaluationMonitor.getLastCompleted();
+		for (String formula : new String[]{"loop(1)", "nest(14,2)"})
+		{
+			SimpleNode node = TestUtilities.doParse(formula);
+			FormulaSemantics semantics =
+					fm.isValid(node, getGlobalScope(), numberManager);
+			assertFalse(semantics.getInfo(FormulaSemanticsUtilities.SEM_VALID)
+				.isValid());
+			String report =
+					semantics.getInfo(FormulaSemanticsUtilities.SEM_REPORT)
+						.getReport();
+			assertTrue(report, report.startsWith(
+				"Analysis of formula '" + formula + "' in scope Global"));
+			assertTrue(report, report.contains("maximum call depth of 50"));
+			assertNull(EvaluationMonitor.getActive());
+			try
+			{
+				scopeInfo.isStatic(node);
+				fail("Expected static check of " + formula
+					+ " to exceed the budget");
+			}
+			catch (EvaluationBudgetExceededException e)
+			{
+				assertAnalysisExceeded(e);
+			}
+			try
+			{
+				scopeInfo.getDependencies(node, new DependencyManager());
+				fail("Expected dependency check of " + formula
+					+ " to exceed the budget");
+			}
+			catch (EvaluationBudgetExceededException e)
+			{
+				assertAnalysisExceeded(e);
+			}
+		}
+		//An analysis is not an evaluation
+		assertSame(last, EvaluationMonitor.getLastCompleted());
+		SimpleNode valid = TestUtilities.doParse("abs(abs(a))");
+		assertTrue(fm.isValid(valid, getGlobalScope(), numberManager)
+			.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid());
+		assertFalse(scopeInfo.isStatic(valid));
+	}
+
+	@Test
+	public void testTime()
+	{
+		for (EvaluationMode mode : EvaluationMode.values())
+		{
+			FormulaManager fm =
+					getManager(mode, new EvaluationBudget(Long.MAX_VALUE,
+						Integer.MAX_VALUE, 1));
+			EvaluationBudgetExceededException e =
+					assertExceeded(fm, "slow(1)+slow(2)");
+			assertTrue(e.getMessage(),
+				e.getMessage().contains("maximum time of 1 ms"));
+			assertTrue(e.getMonitor().getElapsedNanos() > 1000000L);
+		}
+	}
+
+	@Test
+	public void testCounters()
+	{
+		FormulaManager fm =
+				getManager(EvaluationMode.INTERPRETED, new EvaluationBudget(
+					1000, 10, 60000));
+		assertEquals(2, resolve(fm, "abs(1)+1"));
+		EvaluationMonitor monitor = EvaluationMonitor.getLastCompleted();
+		assertTrue(monitor.isCompleted());
+		assertEquals("abs(1)+1", monitor.getFormula());
+		assertSame(getGlobalScopeInst(), monitor.getScopeInstance());
+		assertEquals(fm.getEvaluationBudget(), monitor.getBudget());
+		//root, +, abs, 1, 1
+		assertEquals(5, monitor.getNodeVisits());
+		assertEquals(0, monitor.getCallDepth());
+		assertEquals(1, monitor.getPeakCallDepth());
+		long elapsed = monitor.getElapsedNanos();
+		assertTrue(elapsed >= 0);
+		assertEquals(elapsed, monitor.getElapsedNanos());
+		assertNull(EvaluationMonitor.getActive());
+	}
+
+	@Test
+	public void testNested()
+	{
+		FormulaManager fm =
+				getManager(EvaluationMode.INTERPRETED, new EvaluationBudget(
+					1000, 10, 60000));
+		EvaluationMonitor monitor =
+				EvaluationMonitor.start(fm, getGlobalScopeInst(), "outer");
+		try
+		{
+			assertSame(monitor, EvaluationMonitor.getActive());
+			assertNull(EvaluationMonitor.start(fm, getGlobalScopeInst(),
+				"inner"));
+			//Charged to the outer evaluation
+			assertEquals(3, resolve(fm, "1+2"));
+			assertEquals(4, monitor.getNodeVisits());
+			assertFalse(monitor.isCompleted());
+		}
+		finally
+		{
+			EvaluationMonitor.finish(monitor);
+		}
+		assertNull(EvaluationMonitor.getActive());
+		assertSame(monitor, EvaluationMonitor.getLastCompleted());
+	}
+
+	@Test
+	public void testOtherEvaluators()
+	{
+		FormulaManager fm =
+				getManager(EvaluationMode.INTERPRETED, new EvaluationBudget(
+					1000, 3, 60000));
+		ScopeInformation scopeInfo =
+				new ScopeInformation(fm, getGlobalScopeInst());
+		String deep = "abs(abs(abs(abs(-1))))";
+		ComplexNEPFormula<Number> formula = new ComplexNEPFormula<>(deep);
+		FormulaCompiler compiler = new FormulaCompiler(fm);
+		assertExceeded(new FlatNEPFormula<Number>(deep), scopeInfo);
+		assertExceeded(
+			compiler.compile(formula, getGlobalScope(), numberManager),
+			scopeInfo);
+		assertExceeded(
+			compiler.compileProgram(formula, getGlobalScope(), numberManager),
+			scopeInfo);
+		try
+		{
+			new BatchFormulaEvaluator(fm).evaluate(formula,
+				Collections.singletonList(getGlobalScopeInst()),
+				new Number[1]);
+			fail("Expected batch evaluation to exceed the budget");
+		}
+		catch (EvaluationBudgetExceededException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains(deep));
+		}
+		assertNull(EvaluationMonitor.getActive());
+		//A static formula which cannot be evaluated is not optimized
+		assertSame(formula, new FormulaOptimizer(fm).optimize(formula,
+			getGlobalScopeInst(), numberManager));
+		assertEquals(1, resolve(fm, "abs(abs(abs(-1)))"));
+	}
+
+	private FormulaManager getManager(EvaluationMode mode,
+		EvaluationBudget budget)
+	{
+		return new SimpleFormulaManager(getFunctionLibrary(),
+			getOperatorLibrary(), getVariableLibrary(), getVariableStore(),
+			mode, NumericMode.STANDARD, budget);
+	}
+
+	private Object resolve(FormulaManager fm, String formula)
+	{
+		return new ScopeInformation(fm, getGlobalScopeInst())
+			.evaluate(TestUtilities.doParse(formula));
+	}
+
+	private EvaluationBudgetExceededException assertExceeded(
+		FormulaManager fm, String formula)
+	{
+		SimpleNode node = TestUtilities.doParse(formula);
+		try
+		{
+			new ScopeInformation(fm, getGlobalScopeInst()).evaluate(node);
+			fail("Expected " + formula + " to exceed the budget");
+			return null;
+		}
+		catch (EvaluationBudgetExceededException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().startsWith(
+				"Evaluation of formula '" + formula + "' in scope Global"));
+			assertTrue(e.getMonitor().isCompleted());
+			assertNull(EvaluationMonitor.getActive());
+			assertSame(e.getMonitor(), EvaluationMonitor.getLastCompleted());
+			return e;
+		}
+	}
+
+	private void assertAnalysisExceeded(EvaluationBudgetExceededException e)
+	{
+		assertTrue(e.getMessage(),
+			e.getMessage().contains("maximum call depth of 50"));
+		assertTrue(e.getMonitor().isAnalysis());
+		assertNull(e.getMonitor().getScopeInstance());
+		assertSame(getGlobalScope(), e.getMonitor().getLegalScope());
+		assertEquals(50, e.getMonitor().getPeakCallDepth());
+		assertEquals(0, e.getMonitor().getCallDepth());
+		assertNull(EvaluationMonitor.getActive());
+	}
+
+	private void assertExceeded(NEPFormula<?> formula,
+		ScopeInformation scopeInfo)
+	{
+		try
+		{
+			formula.resolve(scopeInfo);
+			fail("Expected " + formula + " to exceed the budget");
+		}
+		catch (EvaluationBudgetExceededException e)
+		{
+			assertTrue(e.getMessage(),
+				e.getMessage().contains("'" + formula + "'"));
+			assertNull(EvaluationMonitor.getActive());
+		}
+	}
+
+	private static class SlowFunction extends AbstractUnaryFunction
+	{
+		@Override
+		public String getFunctionName()
+		{
+			return "slow";
+		}
+
+		@Override
+		protected Number evaluate(Number n)
+		{
+			try
+			{
+				Thread.sleep(5);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return n;
+		}
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class FixedPointTest extends TestCase
+{
+
+	@Test
+	public void testValueOfNull()
+	{
+		try
+		{
+			FixedPoint.valueOf((Number) null);
+			fail("Expected null Number to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.valueOf((String) null);
+			fail("Expected null String to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testValueOfNumber()
+	{
+		assertEquals(20000L, FixedPoint.valueOf(Integer.valueOf(2))
+			.getScaled());
+		assertEquals(-30000L, FixedPoint.valueOf(Integer.valueOf(-3))
+			.getScaled());
+		assertEquals(1000L, FixedPoint.valueOf(Double.valueOf(0.1))
+			.getScaled());
+		assertEquals(3333L, FixedPoint.valueOf(Double.valueOf(1.0 / 3))
+			.getScaled());
+		assertEquals(-6667L, FixedPoint.valueOf(Double.valueOf(-2.0 / 3))
+			.getScaled());
+		assertEquals(70000L, FixedPoint.valueOf(Long.valueOf(7L)).getScaled());
+		FixedPoint fp = FixedPoint.valueOf("1.5");
+		assertSame(fp, FixedPoint.valueOf(fp));
+		assertSame(FixedPoint.ZERO, FixedPoint.valueOf(Integer.valueOf(0)));
+		assertSame(FixedPoint.ONE, FixedPoint.valueOf(Integer.valueOf(1)));
+	}
+
+	@Test
+	public void testValueOfInvalid()
+	{
+		try
+		{
+			FixedPoint.valueOf(Double.valueOf(Double.NaN));
+			fail("Expected NaN to be rejected");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.valueOf(Double.valueOf(Double.POSITIVE_INFINITY));
+			fail("Expected infinity to be rejected");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.valueOf(Double.valueOf(1e30));
+			fail("Expected out of range value to be rejected");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.valueOf("1.2.3");
+			fail("Expected invalid String to be rejected");
+		}
+		catch (NumberFormatException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testValueOfString()
+	{
+		assertEquals(25000L, FixedPoint.valueOf("2.5").getScaled());
+		assertEquals(-12345L, FixedPoint.valueOf("-1.2345").getScaled());
+		assertEquals(12346L, FixedPoint.valueOf("1.23455").getScaled());
+		assertEquals(-12346L, FixedPoint.valueOf("-1.23455").getScaled());
+		assertEquals(12345L, FixedPoint.valueOf("1.234549").getScaled());
+	}
+
+	@Test
+	public void testToString()
+	{
+		assertEquals("0", FixedPoint.ZERO.toString());
+		assertEquals("1", FixedPoint.ONE.toString());
+		assertEquals("2.5", FixedPoint.valueOf("2.50").toString());
+		assertEquals("-0.0001", FixedPoint.fromScaled(-1L).toString());
+		assertEquals("100", FixedPoint.valueOf("100").toString());
+	}
+
+	@Test
+	public void testNumberMethods()
+	{
+		FixedPoint fp = FixedPoint.valueOf("-2.75");
+		assertEquals(-2, fp.intValue());
+		assertEquals(-2L, fp.longValue());
+		assertEquals(-2.75d, fp.doubleValue(), 0.0d);
+		assertEquals(-2.75f, fp.floatValue(), 0.0f);
+	}
+
+	@Test
+	public void testEqualsCompare()
+	{
+		FixedPoint a = FixedPoint.valueOf("1.5");
+		FixedPoint b = FixedPoint.valueOf("1.50");
+		FixedPoint c = FixedPoint.valueOf("1.5001");
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(c));
+		assertFalse(a.equals(Double.valueOf(1.5)));
+		assertEquals(0, a.compareTo(b));
+		assertTrue(a.compareTo(c) < 0);
+		assertTrue(c.compareTo(a) > 0);
+	}
+
+	@Test
+	public void testArithmetic()
+	{
+		assertEquals(3000L, FixedPoint.add(1000L, 2000L));
+		assertEquals(-1000L, FixedPoint.subtract(1000L, 2000L));
+		assertEquals(62500L, FixedPoint.multiply(25000L, 25000L));
+		assertEquals(-62500L, FixedPoint.multiply(-25000L, 25000L));
+		assertEquals(3L, FixedPoint.multiply(5L, 5000L));
+		assertEquals(-3L, FixedPoint.multiply(-5L, 5000L));
+		assertEquals(3333L, FixedPoint.divide(10000L, 30000L));
+		assertEquals(-6667L, FixedPoint.divide(20000L, -30000L));
+		assertEquals(5000L, FixedPoint.divide(10000L, 20000L));
+		assertEquals(15000L, FixedPoint.remainder(75000L, 20000L));
+		assertEquals(-15000L, FixedPoint.remainder(-75000L, 20000L));
+		assertEquals(-25000L, FixedPoint.negate(25000L));
+	}
+
+	@Test
+	public void testLargeValues()
+	{
+		long big = FixedPoint.valueOf("100000000000").getScaled();
+		assertEquals(FixedPoint.valueOf("150000000000").getScaled(),
+			FixedPoint.multiply(big, 15000L));
+		assertEquals(FixedPoint.valueOf("0.0001").getScaled(),
+			FixedPoint.divide(10000L, 100000000L));
+		assertEquals(FixedPoint.valueOf("33333333333.3333").getScaled(),
+			FixedPoint.divide(big, 30000L));
+	}
+
+	@Test
+	public void testOverflow()
+	{
+		long max = Long.MAX_VALUE;
+		try
+		{
+			FixedPoint.add(max, 1L);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.subtract(Long.MIN_VALUE, 1L);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.multiply(max / 2, 30000L);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.divide(max / 2, 1000L);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.negate(Long.MIN_VALUE);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testMultiplyCommutative()
+	{
+		long max = Long.MAX_VALUE;
+		long min = Long.MIN_VALUE;
+		//The products of these overflow a long, but the results do not
+		long[][] pairs =
+				{{max, 10000L}, {min, 10000L}, {max, 5000L},
+					{min, -5000L}, {max / 3, 30000L}, {max / 2, -19999L},
+					{123456789L, max / 1000000L}, {-10001L, max / 10001L},
+					{max, 1L}, {min, -1L}};
+		for (long[] pair : pairs)
+		{
+			assertEquals(FixedPoint.multiply(pair[0], pair[1]),
+				FixedPoint.multiply(pair[1], pair[0]));
+		}
+		assertEquals(max, FixedPoint.multiply(10000L, max));
+		assertEquals(min, FixedPoint.multiply(10000L, min));
+		assertEquals(max / 2 + 1, FixedPoint.multiply(5000L, max));
+		assertEquals(-(min / 2), FixedPoint.multiply(-5000L, min));
+		//Overflow regardless of order
+		assertMultiplyOverflow(max, 10001L);
+		assertMultiplyOverflow(min, -10000L);
+		assertMultiplyOverflow(max / 2, 20001L);
+	}
+
+	@Test
+	public void testDivideLarge()
+	{
+		long max = Long.MAX_VALUE;
+		long min = Long.MIN_VALUE;
+		//left * SCALE overflows a long, but the result does not
+		assertEquals(max, FixedPoint.divide(max, 10000L));
+		assertEquals(min, FixedPoint.divide(min, 10000L));
+		assertEquals(-max, FixedPoint.divide(max, -10000L));
+		assertEquals(max / 2 + 1, FixedPoint.divide(max, 20000L));
+		assertEquals(FixedPoint.multiply(max, 5000L),
+			FixedPoint.divide(max, 20000L));
+		try
+		{
+			FixedPoint.divide(max, 9999L);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.divide(min, -10000L);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	private static void assertMultiplyOverflow(long left, long right)
+	{
+		try
+		{
+			FixedPoint.multiply(left, right);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.multiply(right, left);
+			fail("Expected overflow");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testDivideByZero()
+	{
+		try
+		{
+			FixedPoint.divide(10000L, 0L);
+			fail("Expected division by zero to fail");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FixedPoint.remainder(10000L, 0L);
+			fail("Expected division by zero to fail");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testPow()
+	{
+		assertEquals(80000L, FixedPoint.pow(20000L, 30000L));
+		assertEquals(10000L, FixedPoint.pow(20000L, 0L));
+		assertEquals(5000L, FixedPoint.pow(20000L, -10000L));
+		assertEquals(62500L, FixedPoint.pow(25000L, 20000L));
+		assertEquals(20000L, FixedPoint.pow(40000L, 5000L));
+		assertEquals(14142L, FixedPoint.pow(20000L, 5000L));
+		try
+		{
+			FixedPoint.pow(-10000L, 5000L);
+			fail("Expected NaN result to be rejected");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testPowNegativeExponent()
+	{
+		assertEquals(10485760000L, FixedPoint.pow(5000L, -200000L));
+		assertEquals(1000000000L, FixedPoint.pow(1000L, -50000L));
+		assertEquals(10000000000L, FixedPoint.pow(100L, -30000L));
+		assertEquals(3333L, FixedPoint.pow(30000L, -10000L));
+		assertEquals(585L, FixedPoint.pow(15000L, -70000L));
+		assertEquals(-247809L, FixedPoint.pow(-7000L, -90000L));
+		assertEquals(0L, FixedPoint.pow(1000000L, -30000L));
+		try
+		{
+			FixedPoint.pow(0L, -20000L);
+			fail("Expected division by zero to fail");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testPowRoundedOnce()
+	{
+		assertEquals(16487L, FixedPoint.pow(10001L, 50000000L));
+		assertEquals(3679L, FixedPoint.pow(9999L, 100000000L));
+		//0.03125 is exactly half way
+		assertEquals(313L, FixedPoint.pow(5000L, 50000L));
+		assertEquals(0L, FixedPoint.pow(5000L, 1000000L));
+		assertEquals(-10000L, FixedPoint.pow(-10000L, 12345670000L));
+		try
+		{
+			FixedPoint.pow(20000L, 500000L);
+			fail("Expected overflow to be rejected");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testRounding()
+	{
+		assertEquals(-30000L, FixedPoint.floor(-25000L));
+		assertEquals(20000L, FixedPoint.floor(29999L));
+		assertEquals(-20000L, FixedPoint.floor(-20000L));
+		assertEquals(-20000L, FixedPoint.ceil(-25000L));
+		assertEquals(30000L, FixedPoint.ceil(20001L));
+		assertEquals(20000L, FixedPoint.ceil(20000L));
+		assertEquals(30000L, FixedPoint.round(25000L));
+		assertEquals(-20000L, FixedPoint.round(-25000L));
+		assertEquals(-30000L, FixedPoint.round(-25001L));
+		assertEquals(20000L, FixedPoint.round(24999L));
+		assertEquals(0L, FixedPoint.round(-4999L));
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import org.junit.Test;
+
+import pcgen.base.formula.inst.FormulaUtilities;
+import pcgen.base.formula.inst.SimpleFunctionLibrary;
+import pcgen.base.formula.library.ValueWrappingLibrary;
+import pcgen.base.formula.parse.ASTPCGenLookup;
+import pcgen.base.formula.parse.Node;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.formula.visitor.VisitorUtilities;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+import pcgen.base.testsupport.TestUtilities;
+
+public class FunctionBindingTest extends AbstractFormulaTestCase
+{
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		Function max = getFunctionLibrary().getFunction("max");
+		try
+		{
+			new FunctionBinding(null, max, new Node[0]);
+			fail("Expected null FunctionLibrary to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new FunctionBinding(getFunctionLibrary(), null, new Node[0]);
+			fail("Expected null Function to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new FunctionBinding(getFunctionLibrary(), max, null);
+			fail("Expected null arguments to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testBoundByEvaluation()
+	{
+		SimpleNode node = TestUtilities.doParse("max(2,3)");
+		SimpleNode max = (SimpleNode) node.jjtGetChild(0);
+		assertNull(max.getFunctionBinding());
+		isValid("max(2,3)", node, numberManager);
+		evaluatesTo("max(2,3)", node, Integer.valueOf(3));
+		FunctionBinding binding = max.getFunctionBinding();
+		assertNotNull(binding);
+		assertTrue(binding.isBoundTo(getFunctionLibrary()));
+		assertSame(getFunctionLibrary().getFunction("max"),
+			binding.getFunction());
+		Node[] args = binding.getArguments();
+		assertEquals(2, args.length);
+		assertSame(max.jjtGetChild(1).jjtGetChild(0), args[0]);
+		//Evaluation reuses the binding (and the arguments)
+		evaluatesTo("max(2,3)", node, Integer.valueOf(3));
+		assertSame(binding, max.getFunctionBinding());
+		assertSame(args, max.getFunctionBinding().getArguments());
+	}
+
+	@Test
+	public void testReboundForLibrary()
+	{
+		SimpleNode node = TestUtilities.doParse("max(2,3)");
+		ASTPCGenLookup max = (ASTPCGenLookup) node.jjtGetChild(0);
+		FunctionBinding binding =
+				VisitorUtilities.getFunctionBinding(getFunctionLibrary(), max);
+		assertSame(binding,
+			VisitorUtilities.getFunctionBinding(getFunctionLibrary(), max));
+		//Not present, so not cached
+		assertNull(VisitorUtilities.getFunctionBinding(
+			new SimpleFunctionLibrary(), max));
+		assertSame(binding, max.getFunctionBinding());
+		FunctionLibrary other =
+				new ValueWrappingLibrary(getFunctionLibrary(), 3);
+		FunctionBinding otherBinding =
+				VisitorUtilities.getFunctionBinding(other, max);
+		assertNotSame(binding, otherBinding);
+		assertTrue(otherBinding.isBoundTo(other));
+		assertFalse(otherBinding.isBoundTo(getFunctionLibrary()));
+		assertSame(binding.getFunction(), otherBinding.getFunction());
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.base;
+
+import org.junit.Test;
+
+import pcgen.base.formula.inst.FormulaUtilities;
+import pcgen.base.formula.inst.SimpleOperatorLibrary;
+import pcgen.base.formula.operator.bool.BooleanAnd;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+import pcgen.base.testsupport.TestUtilities;
+
+public class OperatorBindingTest extends AbstractFormulaTestCase
+{
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		BooleanAnd and = new BooleanAnd();
+		try
+		{
+			new OperatorBinding(null, Boolean.class, Boolean.class, and);
+			fail("Expected null OperatorLibrary to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new OperatorBinding(getOperatorLibrary(), Boolean.class, null, and);
+			fail("Expected null class to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new OperatorBinding(getOperatorLibrary(), Boolean.class,
+				Boolean.class, null);
+			fail("Expected null OperatorAction to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testGetAction()
+	{
+		BooleanAnd and = new BooleanAnd();
+		OperatorBinding binding =
+				new OperatorBinding(getOperatorLibrary(), Boolean.class,
+					Boolean.class, and);
+		assertSame(and, binding.getAction());
+		assertSame(and, binding.getAction(getOperatorLibrary(),
+			Boolean.class, Boolean.class));
+		assertNull(binding.getAction(new SimpleOperatorLibrary(),
+			Boolean.class, Boolean.class));
+		assertNull(binding.getAction(getOperatorLibrary(), Boolean.class,
+			Integer.class));
+	}
+
+	@Test
+	public void testBoundByValidation()
+	{
+		SimpleNode node = TestUtilities.doParse("(1<2)&&(2>1)");
+		SimpleNode and = (SimpleNode) node.jjtGetChild(0);
+		assertNull(and.getOperatorBinding());
+		isValid("(1<2)&&(2>1)", node, booleanManager);
+		OperatorBinding binding = and.getOperatorBinding();
+		assertNotNull(binding);
+		assertSame(getOperatorLibrary().getAction(and.getOperator(),
+			Boolean.class, Boolean.class), binding.getAction());
+		//Evaluation reuses the binding
+		evaluatesTo("(1<2)&&(2>1)", node, Boolean.TRUE);
+		assertSame(binding, and.getOperatorBinding());
+	}
+
+	@Test
+	public void testReboundOnEvaluation()
+	{
+		SimpleNode node = TestUtilities.doParse("1+2.5");
+		SimpleNode add = (SimpleNode) node.jjtGetChild(0);
+		isValid("1+2.5", node, numberManager);
+		evaluatesTo("1+2.5", node, Double.valueOf(3.5));
+		OperatorBinding binding = add.getOperatorBinding();
+		assertNotNull(binding.getAction(getOperatorLibrary(), Integer.class,
+			Double.class));
+		evaluatesTo("1+2.5", node, Double.valueOf(3.5));
+		assertSame(binding, add.getOperatorBinding());
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import pcgen.base.formula.base.LegalScope;
+import pcgen.base.formula.base.ScopeInstance;
+import pcgen.base.formula.base.VariableID;
+import pcgen.base.formula.library.GenericFunction;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+import pcgen.base.testsupport.TestUtilities;
+
+public class BatchFormulaEvaluatorTest extends AbstractFormulaTestCase
+{
+
+	private ForkJoinPool pool;
+	private List<ScopeInstance> items;
+	private ComplexNEPFormula<Number> formula;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		LegalScope equipScope =
+				new SimpleLegalScope(getGlobalScope(), "Equipment");
+		getScopeLibrary().registerScope(equipScope);
+		getVariableLibrary().assertLegalVariableID("Weight", equipScope,
+			numberManager);
+		getVariableStore().put(getVariable("a"), 3);
+		items = new ArrayList<>();
+		for (int i = 0; i < 500; i++)
+		{
+			ScopeInstance item =
+					new SimpleScopeInstance(getGlobalScopeInst(), equipScope);
+			@SuppressWarnings("unchecked")
+			VariableID<Number> weight =
+					(VariableID<Number>) getVariableLibrary().getVariableID(
+						item, "Weight");
+			getVariableStore().put(weight, i);
+			items.add(item);
+		}
+		formula = new ComplexNEPFormula<Number>("floor(Weight/2)*a+1");
+		pool = new ForkJoinPool(4);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		pool.shutdown();
+		super.tearDown();
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		try
+		{
+			new BatchFormulaEvaluator(null);
+			fail("Expected null FormulaManager to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new BatchFormulaEvaluator(getFormulaManager(), null);
+			fail("Expected null ForkJoinPool to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		BatchFormulaEvaluator evaluator =
+				new BatchFormulaEvaluator(getFormulaManager());
+		try
+		{
+			evaluator.evaluate(null, items, new Number[items.size()]);
+			fail("Expected null formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			evaluator.evaluate(formula, null, new Number[items.size()]);
+			fail("Expected null list to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			evaluator.evaluate(formula, items, null);
+			fail("Expected null results to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			evaluator.evaluate(formula, items, new Number[items.size() - 1]);
+			fail("Expected short results to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			evaluator.evaluate(formula,
+				Arrays.asList(getGlobalScopeInst(), null), new Number[2]);
+			fail("Expected null ScopeInstance to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testEvaluate()
+	{
+		Number[] results = new Number[items.size()];
+		new BatchFormulaEvaluator(getFormulaManager()).evaluate(formula, items,
+			results);
+		assertResults(results);
+	}
+
+	@Test
+	public void testEvaluateParallel()
+	{
+		Number[] results = new Number[items.size()];
+		new BatchFormulaEvaluator(getFormulaManager(), pool).evaluate(formula,
+			items, results);
+		assertResults(results);
+	}
+
+	@Test
+	public void testEvaluateScopeDependentFunction()
+	{
+		//The GenericFunction is evaluated in the ScopeInstance of each item
+		getFunctionLibrary().addFunction(new GenericFunction("half",
+			TestUtilities.doParse("floor(Weight/arg(0))")));
+		ComplexNEPFormula<Number> generic =
+				new ComplexNEPFormula<Number>("half(2)*a+1");
+		//Each item twice, in a different order
+		List<ScopeInstance> repeated = new ArrayList<>(items);
+		List<ScopeInstance> reversed = new ArrayList<>(items);
+		Collections.reverse(reversed);
+		repeated.addAll(reversed);
+		Number[] results = new Number[repeated.size()];
+		new BatchFormulaEvaluator(getFormulaManager(), pool).evaluate(generic,
+			repeated, results);
+		int size = items.size();
+		for (int i = 0; i < size; i++)
+		{
+			assertEquals(Integer.valueOf((i / 2) * 3 + 1), results[i]);
+			assertEquals(Integer.valueOf((i / 2) * 3 + 1),
+				results[2 * size - 1 - i]);
+		}
+	}
+
+	@Test
+	public void testEvaluateEmpty()
+	{
+		Number[] results = new Number[0];
+		new BatchFormulaEvaluator(getFormulaManager(), pool).evaluate(formula,
+			Collections.<ScopeInstance>emptyList(), results);
+	}
+
+	@Test
+	public void testEvaluateFailure()
+	{
+		ComplexNEPFormula<Number> failing =
+				new ComplexNEPFormula<Number>("a/(Weight-250)");
+		try
+		{
+			new BatchFormulaEvaluator(getFormulaManager(), pool).evaluate(
+				failing, items, new Number[items.size()]);
+			fail("Expected division by zero to be thrown");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	private void assertResults(Number[] results)
+	{
+		for (int i = 0; i < results.length; i++)
+		{
+			ScopeInformation scopeInfo =
+					new ScopeInformation(getFormulaManager(), items.get(i));
+			Number expected = formula.resolve(scopeInfo);
+			assertEquals(expected, results[i]);
+			assertEquals(Integer.valueOf((i / 2) * 3 + 1), results[i]);
+		}
+	}
+}
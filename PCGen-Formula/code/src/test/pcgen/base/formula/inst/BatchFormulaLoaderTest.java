@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+
+public class BatchFormulaLoaderTest extends AbstractFormulaTestCase
+{
+
+	private ForkJoinPool pool;
+	private BatchFormulaLoader loader;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		getVariable("a");
+		getBooleanVariable("c");
+		pool = new ForkJoinPool(4);
+		loader =
+				new BatchFormulaLoader(getFormulaManager(),
+					new FormulaFactory(), pool);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		pool.shutdown();
+		super.tearDown();
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		try
+		{
+			new BatchFormulaLoader(null);
+			fail("Expected null FormulaManager to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new BatchFormulaLoader(getFormulaManager(), null, pool);
+			fail("Expected null FormulaFactory to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new BatchFormulaLoader(getFormulaManager(), new FormulaFactory(),
+				null);
+			fail("Expected null ForkJoinPool to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			loader.load(null);
+			fail("Expected null List to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			loader.load(Arrays.asList(define("a+1"), null));
+			fail("Expected null FormulaDefinition to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new FormulaDefinition<>("a+1", null, numberManager);
+			fail("Expected null LegalScope to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		BatchFormulaLoader.Result result =
+				loader.load(new ArrayList<FormulaDefinition<Number>>());
+		assertTrue(result.isSuccessful());
+		assertEquals(0, result.getFormulas().size());
+	}
+
+	@Test
+	public void testMixed()
+	{
+		List<FormulaDefinition<?>> defs = new ArrayList<>();
+		defs.add(define("a+1"));
+		defs.add(define("(3+4"));
+		defs.add(new FormulaDefinition<>("c&&a<4", getGlobalScope(),
+			booleanManager));
+		defs.add(define("3+\"ab\""));
+		defs.add(define("floor(a/2)"));
+		BatchFormulaLoader.Result result = loader.load(defs);
+		assertFalse(result.isSuccessful());
+		List<ComplexNEPFormula<?>> formulas = result.getFormulas();
+		assertEquals(5, formulas.size());
+		assertEquals("a+1", formulas.get(0).toString());
+		assertNull(formulas.get(1));
+		assertEquals("c&&a<4", formulas.get(2).toString());
+		assertNull(formulas.get(3));
+		assertEquals("floor(a/2)", formulas.get(4).toString());
+		List<BatchFormulaLoader.Failure> failures = result.getFailures();
+		assertEquals(2, failures.size());
+		assertEquals(1, failures.get(0).getIndex());
+		assertSame(defs.get(1), failures.get(0).getDefinition());
+		assertInvalid(failures.get(0).getSemantics());
+		assertTrue(failures.get(0).getSemantics()
+			.getInfo(FormulaSemanticsUtilities.SEM_REPORT).getReport()
+			.startsWith("Parse Error"));
+		assertEquals(3, failures.get(1).getIndex());
+		assertSame(defs.get(3), failures.get(1).getDefinition());
+		assertInvalid(failures.get(1).getSemantics());
+	}
+
+	@Test
+	public void testCallingThread()
+	{
+		BatchFormulaLoader sequential =
+				new BatchFormulaLoader(getFormulaManager());
+		List<FormulaDefinition<?>> defs = new ArrayList<>();
+		defs.add(define("a+1"));
+		defs.add(define("(3+4"));
+		defs.add(define("floor(a/2)"));
+		BatchFormulaLoader.Result result = sequential.load(defs);
+		List<ComplexNEPFormula<?>> formulas = result.getFormulas();
+		assertEquals(3, formulas.size());
+		assertEquals("a+1", formulas.get(0).toString());
+		assertNull(formulas.get(1));
+		assertEquals("floor(a/2)", formulas.get(2).toString());
+		assertEquals(1, result.getFailures().size());
+		assertEquals(1, result.getFailures().get(0).getIndex());
+	}
+
+	@Test
+	public void testMatchesSequential()
+	{
+		List<FormulaDefinition<Number>> defs = new ArrayList<>();
+		for (int i = 0; i < 500; i++)
+		{
+			switch (i % 4)
+			{
+				case 0:
+					defs.add(define("a+" + i));
+					break;
+				case 1:
+					defs.add(define("max(a," + i + ")*2"));
+					break;
+				case 2:
+					defs.add(define("b" + i + "+1"));
+					break;
+				default:
+					defs.add(define(i + "==a"));
+					break;
+			}
+		}
+		BatchFormulaLoader.Result result = loader.load(defs);
+		List<ComplexNEPFormula<?>> formulas = result.getFormulas();
+		assertEquals(defs.size(), formulas.size());
+		int failureIndex = 0;
+		for (int i = 0; i < defs.size(); i++)
+		{
+			FormulaDefinition<Number> def = defs.get(i);
+			ComplexNEPFormula<Number> formula =
+					new ComplexNEPFormula<>(def.getExpression());
+			FormulaSemantics semantics =
+					formula.isValid(getFormulaManager(), def.getLegalScope(),
+						def.getFormatManager());
+			if (semantics.getInfo(FormulaSemanticsUtilities.SEM_VALID)
+				.isValid())
+			{
+				assertEquals(def.getExpression(), formulas.get(i).toString());
+			}
+			else
+			{
+				assertNull(formulas.get(i));
+				BatchFormulaLoader.Failure failure =
+						result.getFailures().get(failureIndex++);
+				assertEquals(i, failure.getIndex());
+				assertEquals(
+					semantics.getInfo(FormulaSemanticsUtilities.SEM_REPORT)
+						.getReport(),
+					failure.getSemantics()
+						.getInfo(FormulaSemanticsUtilities.SEM_REPORT)
+						.getReport());
+			}
+		}
+		assertEquals(failureIndex, result.getFailures().size());
+		assertEquals(250, failureIndex);
+	}
+
+	private FormulaDefinition<Number> define(String expression)
+	{
+		return new FormulaDefinition<>(expression, getGlobalScope(),
+			numberManager);
+	}
+
+	private void assertInvalid(FormulaSemantics semantics)
+	{
+		assertFalse(semantics.getInfo(FormulaSemanticsUtilities.SEM_VALID)
+			.isValid());
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import pcgen.base.formula.base.FixedPoint;
+
+public class FixedPointManagerTest extends TestCase
+{
+
+	private final FixedPointManager manager = new FixedPointManager();
+
+	@Test
+	public void testConvert()
+	{
+		assertEquals(FixedPoint.valueOf("2.5"), manager.convert("2.5"));
+		assertEquals(FixedPoint.valueOf("-3"), manager.convert("-3"));
+		assertEquals(FixedPoint.valueOf("0.3333"), manager.convert("0.33333"));
+		try
+		{
+			manager.convert("a");
+			fail("Expected invalid String to be rejected");
+		}
+		catch (NumberFormatException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testUnconvert()
+	{
+		assertEquals("2.5", manager.unconvert(FixedPoint.valueOf("2.50")));
+		assertEquals("-3", manager.unconvert(FixedPoint.valueOf("-3")));
+		FixedPoint fp = FixedPoint.valueOf("1.0625");
+		assertEquals(fp, manager.convert(manager.unconvert(fp)));
+	}
+
+	@Test
+	public void testManager()
+	{
+		assertEquals(FixedPoint.class, manager.getManagedClass());
+		assertEquals("FIXED", manager.getIdentifierType());
+		assertEquals(new FixedPointManager(), manager);
+		assertEquals(new FixedPointManager().hashCode(), manager.hashCode());
+		assertFalse(manager.equals(new Object()));
+	}
+}
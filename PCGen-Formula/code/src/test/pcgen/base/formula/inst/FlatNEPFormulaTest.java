@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import pcgen.base.formula.analysis.DependencyKeyUtilities;
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.analysis.VariableDependencyManager;
+import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.FunctionBinding;
+import pcgen.base.formula.base.VariableID;
+import pcgen.base.formula.parse.FlatTree;
+import pcgen.base.formula.parse.FormulaParserTreeConstants;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+
+public class FlatNEPFormulaTest extends AbstractFormulaTestCase
+{
+
+	private ScopeInformation scopeInfo;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		scopeInfo = new ScopeInformation(getFormulaManager(), getGlobalScopeInst());
+		getVariableStore().put(getVariable("a"), 4);
+		getVariableStore().put(getVariable("b"), 2.5);
+		getVariableStore().put(getBooleanVariable("c"), true);
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		try
+		{
+			new FlatNEPFormula<Number>((String) null);
+			fail("Expected null expression to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new FlatNEPFormula<Number>((ComplexNEPFormula<Number>) null);
+			fail("Expected null formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		FlatNEPFormula<Number> formula = new FlatNEPFormula<>("a+1");
+		try
+		{
+			formula.resolve(null);
+			fail("Expected null ScopeInformation to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			formula.isValid(null, getGlobalScope(), numberManager);
+			fail("Expected null FormulaManager to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testMatchesComplex()
+	{
+		String[] expressions =
+				{"a+1", "a*b", "-a", "-(-b)", "a^2", "2^3^2", "a%3", "(a+b)/2",
+					"floor(b)+ceil(b)", "max(a,b,3)", "if(c,a,b)", "a>3",
+					"a==4&&c", "abs(-a)-round(b)"};
+		for (String expression : expressions)
+		{
+			ComplexNEPFormula<Object> complex =
+					new ComplexNEPFormula<>(expression);
+			FlatNEPFormula<Object> flat = new FlatNEPFormula<>(complex);
+			assertEquals(expression, complex.resolve(scopeInfo),
+				flat.resolve(scopeInfo));
+			assertEquals(expression, complex.toString(), flat.toString());
+		}
+	}
+
+	@Test
+	public void testFunctionBindingRetained()
+	{
+		FlatNEPFormula<Number> flat =
+				new FlatNEPFormula<>("max(floor(b),a)+1");
+		FlatTree tree = flat.getTree();
+		List<Integer> lookups = new ArrayList<>();
+		for (int i = 0; i < tree.size(); i++)
+		{
+			if (tree.getKind(i) == FormulaParserTreeConstants.JJTPCGENLOOKUP)
+			{
+				lookups.add(i);
+				assertNull(tree.getFunctionBinding(i));
+			}
+		}
+		assertEquals(2, lookups.size());
+		assertEquals(5, flat.resolve(scopeInfo));
+		List<FunctionBinding> bindings = new ArrayList<>();
+		for (int lookup : lookups)
+		{
+			FunctionBinding binding = tree.getFunctionBinding(lookup);
+			assertNotNull(binding);
+			assertSame(binding, tree.toNode(lookup).getFunctionBinding());
+			bindings.add(binding);
+		}
+		//Not resolved again
+		assertEquals(5, flat.resolve(scopeInfo));
+		for (int i = 0; i < lookups.size(); i++)
+		{
+			assertSame(bindings.get(i),
+				tree.getFunctionBinding(lookups.get(i)));
+		}
+	}
+
+	@Test
+	public void testIsValid()
+	{
+		assertTrue(new FlatNEPFormula<Number>("a+b")
+			.isValid(getFormulaManager(), getGlobalScope(), numberManager)
+			.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid());
+		assertFalse(new FlatNEPFormula<Number>("a+c")
+			.isValid(getFormulaManager(), getGlobalScope(), numberManager)
+			.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid());
+		assertFalse(new FlatNEPFormula<Number>("c")
+			.isValid(getFormulaManager(), getGlobalScope(), numberManager)
+			.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid());
+	}
+
+	@Test
+	public void testDependencies()
+	{
+		DependencyManager depManager = new DependencyManager();
+		VariableDependencyManager varManager = new VariableDependencyManager();
+		depManager.addDependency(DependencyKeyUtilities.DEP_VARIABLE,
+			varManager);
+		new FlatNEPFormula<Number>("max(a,2)+b").getDependencies(scopeInfo,
+			depManager);
+		List<VariableID<?>> vars = varManager.getVariables();
+		assertEquals(2, vars.size());
+		assertTrue(vars.contains(getVariable("a")));
+		assertTrue(vars.contains(getVariable("b")));
+	}
+}
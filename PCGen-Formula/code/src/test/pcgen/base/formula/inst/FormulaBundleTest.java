@@ -0,0 +1,390 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import pcgen.base.formula.base.EvaluationMode;
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FunctionLibrary;
+import pcgen.base.formula.base.NumericMode;
+import pcgen.base.formula.function.MaxFunction;
+import pcgen.base.formula.function.MinFunction;
+import pcgen.base.formula.library.GenericFunction;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+import pcgen.base.testsupport.TestUtilities;
+
+public class FormulaBundleTest extends AbstractFormulaTestCase
+{
+
+	private FormulaBundleWriter writer;
+	private ScopeInformation scopeInfo;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		writer = new FormulaBundleWriter(getFormulaManager());
+		scopeInfo = new ScopeInformation(getFormulaManager(), getGlobalScopeInst());
+		getVariableStore().put(getVariable("a"), 4);
+		getVariableStore().put(getVariable("b"), 2.5);
+		getVariableStore().put(getBooleanVariable("c"), true);
+	}
+
+	@Test
+	public void testInvalidNull() throws IOException
+	{
+		try
+		{
+			new FormulaBundleWriter(null);
+			fail("Expected null FormulaManager to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FormulaBundle.load((ByteBuffer) null, getFormulaManager());
+			fail("Expected null ByteBuffer to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FormulaBundle.load(write(), null);
+			fail("Expected null FormulaManager to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testInvalidFormula()
+	{
+		try
+		{
+			writer.addFormula("3+\"ab\"", getGlobalScope(), numberManager);
+			fail("Expected invalid formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			writer.addFormula("(3+4", getGlobalScope(), numberManager);
+			fail("Expected bad expression to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		assertEquals(0, writer.size());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		String[] numeric = {"3", "3.5", "-b", "(3+4)*2", "a/3", "(a)%3",
+			"2^a^0.5", "floor(b)+max(a,b,1)", "if(a>3,a,b)", "abs(-a)*(b+0.5)",
+			"2147483647+a", "10000000000*b"};
+		String[] bool = {"c", "(a>3)&&(b<2)", "c!=(a<=b)"};
+		for (String expression : numeric)
+		{
+			writer.addFormula(expression, getGlobalScope(), numberManager);
+		}
+		for (String expression : bool)
+		{
+			writer.addFormula(expression, getGlobalScope(), booleanManager);
+		}
+		//Duplicate ignored
+		writer.addFormula("3", getGlobalScope(), numberManager);
+		assertEquals(numeric.length + bool.length, writer.size());
+		FormulaBundle bundle = FormulaBundle.load(write(), getFormulaManager());
+		assertEquals(writer.size(), bundle.size());
+		assertTrue(bundle.getExpressions().contains("if(a>3,a,b)"));
+		assertNull(bundle.getFormula("a+b"));
+		for (String expression : numeric)
+		{
+			assertMatches(bundle, expression);
+		}
+		for (String expression : bool)
+		{
+			assertMatches(bundle, expression);
+		}
+	}
+
+	@Test
+	public void testFile() throws IOException
+	{
+		writer.addFormula("max(a,b)*2", getGlobalScope(), numberManager);
+		File file = File.createTempFile("formula", ".bundle");
+		file.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(file))
+		{
+			writer.write(out);
+		}
+		FormulaBundle bundle =
+				FormulaBundle.load(file.toPath(), getFormulaManager());
+		assertMatches(bundle, "max(a,b)*2");
+	}
+
+	@Test
+	public void testFunctionMismatch() throws IOException
+	{
+		writer.addFormula("max(a,b)", getGlobalScope(), numberManager);
+		ByteBuffer buffer = write();
+		SimpleFunctionLibrary library = new SimpleFunctionLibrary();
+		library.addFunction(new MinFunction()
+		{
+			@Override
+			public String getFunctionName()
+			{
+				return "max";
+			}
+		});
+		FormulaManager fm =
+				getFormulaManager().swapFunctionLibrary(library);
+		try
+		{
+			FormulaBundle.load(buffer, fm);
+			fail("Expected changed function to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+		library = new SimpleFunctionLibrary();
+		library.addFunction(new MaxFunction());
+		assertEquals(1,
+			FormulaBundle.load(buffer, getFormulaManager().swapFunctionLibrary(
+				library)).size());
+	}
+
+	@Test
+	public void testOperatorMismatch() throws IOException
+	{
+		writer.addFormula("a+1", getGlobalScope(), numberManager);
+		ByteBuffer buffer = write();
+		FormulaManager fm = new SimpleFormulaManager(getFunctionLibrary(),
+			new SimpleOperatorLibrary(), getVariableLibrary(),
+			getVariableStore());
+		try
+		{
+			FormulaBundle.load(buffer, fm);
+			fail("Expected missing operator to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testGenericFunctionMismatch() throws IOException
+	{
+		getFunctionLibrary().addFunction(new GenericFunction("d20Mod",
+			TestUtilities.doParse("floor((arg(0)-10)/2)")));
+		getFunctionLibrary().addFunction(new GenericFunction("bonus",
+			TestUtilities.doParse("d20Mod(12)+arg(0)")));
+		//d20Mod is only called by bonus
+		writer.addFormula("bonus(a)", getGlobalScope(), numberManager);
+		ByteBuffer buffer = write();
+		//Same formulas, different instances
+		assertEquals(1, FormulaBundle.load(buffer,
+			getFormulaManager().swapFunctionLibrary(
+				getGenericLibrary("floor((arg(0)-10)/2)", "d20Mod(12)+arg(0)")))
+			.size());
+		try
+		{
+			FormulaBundle.load(buffer, getFormulaManager().swapFunctionLibrary(
+				getGenericLibrary("floor((arg(0)-10)/2)",
+					"d20Mod(12)+arg(0)*2")));
+			fail("Expected changed GenericFunction to be rejected");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("bonus"));
+		}
+		//A change to a GenericFunction called by a GenericFunction
+		try
+		{
+			FormulaBundle.load(buffer, getFormulaManager().swapFunctionLibrary(
+				getGenericLibrary("floor((arg(0)-11)/2)", "d20Mod(12)+arg(0)")));
+			fail("Expected changed GenericFunction to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testNumericModeMismatch() throws IOException
+	{
+		writer.addFormula("a+1", getGlobalScope(), numberManager);
+		ByteBuffer buffer = write();
+		SimpleOperatorLibrary fixedLibrary = new SimpleOperatorLibrary();
+		FormulaUtilities.loadFixedPointOperators(fixedLibrary);
+		//The OperatorActions for FixedPoint were not present
+		try
+		{
+			FormulaBundle.load(buffer,
+				new SimpleFormulaManager(getFunctionLibrary(), fixedLibrary,
+					getVariableLibrary(), getVariableStore()));
+			fail("Expected changed operators to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+		//Same OperatorLibrary, different NumericMode
+		try
+		{
+			FormulaBundle.load(buffer,
+				new SimpleFormulaManager(getFunctionLibrary(),
+					getOperatorLibrary(), getVariableLibrary(),
+					getVariableStore(), EvaluationMode.INTERPRETED,
+					NumericMode.FIXED_POINT));
+			fail("Expected changed NumericMode to be rejected");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("FIXED_POINT"));
+		}
+	}
+
+	@Test
+	public void testCorrupt() throws IOException
+	{
+		writer.addFormula("a+1", getGlobalScope(), numberManager);
+		ByteBuffer buffer = write();
+		ByteBuffer truncated = ByteBuffer.allocate(buffer.limit() - 4);
+		buffer.limit(buffer.limit() - 4);
+		truncated.put(buffer);
+		truncated.flip();
+		try
+		{
+			FormulaBundle.load(truncated, getFormulaManager());
+			fail("Expected truncated bundle to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+		try
+		{
+			FormulaBundle.load(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}),
+				getFormulaManager());
+			fail("Expected bad bundle to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+		//The child count of the last node (the literal 1)
+		buffer = write();
+		buffer.putShort(buffer.limit() - 2, (short) 3);
+		FormulaBundle bundle = FormulaBundle.load(buffer, getFormulaManager());
+		try
+		{
+			bundle.getFormula("a+1");
+			fail("Expected corrupt formula to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+		buffer.putShort(buffer.limit() - 2, (short) -1);
+		try
+		{
+			bundle.getFormula("a+1");
+			fail("Expected corrupt formula to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testTooManyChildren() throws IOException
+	{
+		StringBuilder sb = new StringBuilder("max(1");
+		for (int i = 0; i < Short.MAX_VALUE; i++)
+		{
+			sb.append(",1");
+		}
+		String expression = sb.append(')').toString();
+		writer.addFormula(expression, getGlobalScope(), numberManager);
+		try
+		{
+			write();
+			fail("Expected node with too many children to be rejected");
+		}
+		catch (IOException e)
+		{
+			//Yep
+		}
+	}
+
+	private FunctionLibrary getGenericLibrary(String d20Mod, String bonus)
+	{
+		SimpleFunctionLibrary library = new SimpleFunctionLibrary();
+		FormulaUtilities.loadBuiltInFunctions(library);
+		library.addFunction(new GenericFunction("d20Mod",
+			TestUtilities.doParse(d20Mod)));
+		library.addFunction(new GenericFunction("bonus",
+			TestUtilities.doParse(bonus)));
+		return library;
+	}
+
+	private ByteBuffer write() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(out);
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	private void assertMatches(FormulaBundle bundle, String expression)
+		throws IOException
+	{
+		ComplexNEPFormula<Object> expected =
+				new ComplexNEPFormula<Object>(expression);
+		ComplexNEPFormula<Object> loaded = bundle.getFormula(expression);
+		assertEquals(expression, loaded.toString());
+		Object expectedValue = expected.resolve(scopeInfo);
+		Object actualValue = loaded.resolve(scopeInfo);
+		assertEquals(expression, expectedValue.getClass(),
+			actualValue.getClass());
+		assertEquals(expression, expectedValue, actualValue);
+	}
+}
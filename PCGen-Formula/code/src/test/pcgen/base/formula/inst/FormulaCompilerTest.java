@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import org.junit.Test;
+
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.base.FormulaSemantics;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.base.VariableID;
+import pcgen.base.formula.compile.CompileVisitor;
+import pcgen.base.formula.library.ValueWrappingLibrary;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.formula.visitor.EvaluateVisitor;
+import pcgen.base.formula.vm.ProgramCompiler;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+
+public class FormulaCompilerTest extends AbstractFormulaTestCase
+{
+
+	private FormulaCompiler compiler;
+	private ScopeInformation scopeInfo;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		compiler = new FormulaCompiler(getFormulaManager());
+		scopeInfo = new ScopeInformation(getFormulaManager(), getGlobalScopeInst());
+		getVariableStore().put(getVariable("a"), 4);
+		getVariableStore().put(getVariable("b"), 2.5);
+		getVariableStore().put(getBooleanVariable("c"), true);
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		try
+		{
+			new FormulaCompiler(null);
+			fail("Expected null FormulaManager to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			compiler.compile(null, getGlobalScope(), numberManager);
+			fail("Expected null formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testInvalidFormula()
+	{
+		try
+		{
+			compiler.compile(new ComplexNEPFormula<Number>("3+\"ab\""),
+				getGlobalScope(), numberManager);
+			fail("Expected invalid formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testNumeric()
+	{
+		assertMatches("3");
+		assertMatches("3.5");
+		assertMatches("-3");
+		assertMatches("-b");
+		assertMatches("(3+4)*2");
+		assertMatches("a/2");
+		assertMatches("a/3");
+		assertMatches("(a)%3");
+		assertMatches("b*a-1");
+		assertMatches("2^3");
+		assertMatches("2^a^0.5");
+		assertMatches("floor(b)+max(a,b,1)");
+		assertMatches("if(a>3,a,b)");
+		assertMatches("abs(-a)*(b+0.5)");
+	}
+
+	@Test
+	public void testNumericRules()
+	{
+		//Exact integer division stays Integer
+		assertMatches("a/2");
+		assertMatches("a/(-2)");
+		assertMatches("(a+2)/4");
+		//Multiplication by zero is Integer zero
+		assertMatches("b*0");
+		assertMatches("0.0*a");
+		assertMatches("(b-2.5)*a");
+		//Mixed Integer and Double
+		assertMatches("a+b-a");
+		assertMatches("a*2+b/5-3%a");
+		assertMatches("-(a*b)");
+		assertMatches("a^2+1");
+		assertMatches("a^16");
+		assertMatches("2^a^2");
+		assertMatches("2^a^b");
+		//Compiled and interpreted both fail
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("a/(a-4)");
+		CompiledNEPFormula<Number> compiled =
+				compiler.compile(formula, getGlobalScope(), numberManager);
+		try
+		{
+			compiled.resolve(scopeInfo, new NumericResult());
+			fail("Expected division by zero to fail");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testRepeatedEvaluation()
+	{
+		CompiledNEPFormula<Number> compiled =
+				compiler.compile(new ComplexNEPFormula<Number>("a*b"),
+					getGlobalScope(), numberManager);
+		assertEquals(10.0, compiled.resolve(scopeInfo));
+		//Change the class of the argument
+		getVariableStore().put(getVariable("b"), 3);
+		assertEquals(12, compiled.resolve(scopeInfo));
+		getVariableStore().put(getVariable("b"), 0.5);
+		assertEquals(2.0, compiled.resolve(scopeInfo));
+	}
+
+	@Test
+	public void testLateValue()
+	{
+		VariableID<Number> d = getVariable("d");
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("d*2");
+		CompiledNEPFormula<Number> compiled =
+				compiler.compile(formula, getGlobalScope(), numberManager);
+		//Resolved before a value is present, must see the later value
+		assertEquals(0, compiled.resolve(scopeInfo));
+		assertEquals(0, formula.resolve(scopeInfo));
+		getVariableStore().put(d, 3);
+		assertEquals(6, compiled.resolve(scopeInfo));
+		assertEquals(6, formula.resolve(scopeInfo));
+		assertSame(scopeInfo.getEvaluateVisitor().getVariableSlot("d"),
+			scopeInfo.getEvaluateVisitor().getVariableSlot("d"));
+		assertNull(scopeInfo.getEvaluateVisitor().getVariableSlot("e"));
+	}
+
+	@Test
+	public void testBoolean()
+	{
+		assertBooleanMatches("c");
+		assertBooleanMatches("a>3");
+		assertBooleanMatches("(a>3)&&(b<2)");
+		assertBooleanMatches("c||(b<2)");
+		assertBooleanMatches("a==4");
+		assertBooleanMatches("c!=(a<=b)");
+	}
+
+	@Test
+	public void testShortCircuit()
+	{
+		getVariableStore().put(getVariable("z"), 0);
+		//The right side would throw an ArithmeticException if evaluated
+		assertShortCircuit("c||((a/z)>1)", Boolean.TRUE);
+		assertShortCircuit("(a<3)&&((a/z)>1)", Boolean.FALSE);
+	}
+
+	@Test
+	public void testShortCircuitNeverEvaluated()
+	{
+		getVariableStore().put(getVariable("z"), 0);
+		//The right side would throw an ArithmeticException if evaluated
+		assertUnboundShortCircuit("c||((1/z)>0)", Boolean.TRUE);
+		assertUnboundShortCircuit("(a<3)&&((1/z)>0)", Boolean.FALSE);
+	}
+
+	@Test
+	public void testDifferentFormulaManager()
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("a+1");
+		CompiledNEPFormula<Number> compiled =
+				compiler.compile(formula, getGlobalScope(), numberManager);
+		ScopeInformation other =
+				new ScopeInformation(getFormulaManager().swapFunctionLibrary(
+					new ValueWrappingLibrary(getFunctionLibrary(), 3)),
+					getGlobalScopeInst());
+		assertEquals(5, compiled.resolve(other));
+		assertEquals("a+1", compiled.toString());
+	}
+
+	private void assertMatches(String expression)
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>(expression);
+		CompiledNEPFormula<Number> compiled =
+				compiler.compile(formula, getGlobalScope(), numberManager);
+		Object expected = formula.resolve(scopeInfo);
+		Object actual = compiled.resolve(scopeInfo);
+		assertEquals(expression, expected.getClass(), actual.getClass());
+		assertEquals(expression, expected, actual);
+		NumericResult result = new NumericResult();
+		compiled.resolve(scopeInfo, result);
+		assertEquals(expression, expected.getClass(), result.get().getClass());
+		assertEquals(expression, expected, result.get());
+	}
+
+	private void assertBooleanMatches(String expression)
+	{
+		ComplexNEPFormula<Boolean> formula =
+				new ComplexNEPFormula<Boolean>(expression);
+		CompiledNEPFormula<Boolean> compiled =
+				compiler.compile(formula, getGlobalScope(), booleanManager);
+		assertEquals(expression, formula.resolve(scopeInfo),
+			compiled.resolve(scopeInfo));
+	}
+
+	private void assertShortCircuit(String expression, Boolean expected)
+	{
+		ComplexNEPFormula<Boolean> formula =
+				new ComplexNEPFormula<Boolean>(expression);
+		//Validation still checks both sides (and binds the operators)
+		FormulaSemantics semantics =
+				formula.isValid(getFormulaManager(), getGlobalScope(),
+					booleanManager);
+		assertTrue(semantics.getInfo(FormulaSemanticsUtilities.SEM_VALID)
+			.isValid());
+		assertEquals(expression, expected, formula.resolve(scopeInfo));
+		assertEquals(expression, expected,
+			new FlatNEPFormula<Boolean>(formula).resolve(scopeInfo));
+		assertEquals(expression, expected,
+			compiler.compile(formula, getGlobalScope(), booleanManager)
+				.resolve(scopeInfo));
+	}
+
+	private void assertUnboundShortCircuit(String expression,
+		Boolean expected)
+	{
+		//Each tree is neither validated nor evaluated, so nothing is bound
+		assertEquals(expression, expected,
+			new ComplexNEPFormula<Boolean>(expression).resolve(scopeInfo));
+		assertEquals(expression, expected, new FlatNEPFormula<Boolean>(
+			new ComplexNEPFormula<Boolean>(expression)).resolve(scopeInfo));
+		EvaluateVisitor visitor = scopeInfo.getEvaluateVisitor();
+		SimpleNode root = new ComplexNEPFormula<Boolean>(expression).getRoot();
+		assertEquals(expression, expected,
+			new CompileVisitor(getFormulaManager()).compile(root).evaluate(
+				visitor));
+		root = new ComplexNEPFormula<Boolean>(expression).getRoot();
+		assertEquals(expression, expected,
+			new ProgramCompiler(getFormulaManager()).compile(root).execute(
+				visitor));
+	}
+}
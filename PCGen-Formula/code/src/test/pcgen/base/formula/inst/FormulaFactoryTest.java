@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import pcgen.base.formula.parse.Node;
+
+public class FormulaFactoryTest extends TestCase
+{
+
+	@Test
+	public void testInvalidCapacity()
+	{
+		try
+		{
+			new FormulaFactory(0);
+			fail("Expected zero capacity to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		FormulaFactory factory = new FormulaFactory();
+		try
+		{
+			factory.getFormula(null);
+			fail("Expected null expression to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testInvalidExpression()
+	{
+		FormulaFactory factory = new FormulaFactory();
+		try
+		{
+			factory.getFormula("(3+4");
+			fail("Expected bad expression to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep, and it should not be cached
+			assertEquals(0, factory.size());
+			assertEquals(1, factory.getMissCount());
+		}
+	}
+
+	@Test
+	public void testSharing()
+	{
+		FormulaFactory factory = new FormulaFactory();
+		ComplexNEPFormula<Number> first = factory.getFormula("floor(LVL/4)");
+		assertEquals(0, factory.getHitCount());
+		assertEquals(1, factory.getMissCount());
+		ComplexNEPFormula<Number> second = factory.getFormula("floor(LVL/4)");
+		assertEquals(1, factory.getHitCount());
+		assertEquals(1, factory.getMissCount());
+		assertNotSame(first, second);
+		assertEquals(first.toString(), second.toString());
+		assertSame(factory.getRoot("floor(LVL/4)"),
+			factory.getRoot("floor(LVL/4)"));
+		//Keyed on exact text
+		factory.getFormula("floor(lvl/4)");
+		assertEquals(2, factory.getMissCount());
+		assertEquals(2, factory.size());
+	}
+
+	@Test
+	public void testEviction()
+	{
+		FormulaFactory factory = new FormulaFactory(2);
+		factory.getFormula("STR/2");
+		factory.getFormula("DEX/2");
+		assertEquals(0, factory.getEvictionCount());
+		factory.getFormula("CON/2");
+		assertEquals(1, factory.getEvictionCount());
+		assertEquals(2, factory.size());
+		//Oldest was evicted
+		factory.getFormula("STR/2");
+		assertEquals(4, factory.getMissCount());
+		factory.getFormula("STR/2");
+		assertEquals(1, factory.getHitCount());
+	}
+
+	@Test
+	public void testClear()
+	{
+		FormulaFactory factory = new FormulaFactory();
+		factory.getFormula("STR/2");
+		factory.clear();
+		assertEquals(0, factory.size());
+		factory.getFormula("STR/2");
+		assertEquals(2, factory.getMissCount());
+	}
+
+	@Test
+	public void testSubtreeSharing()
+	{
+		FormulaFactory factory =
+				new FormulaFactory(FormulaFactory.DEFAULT_CAPACITY, true);
+		assertTrue(factory.isSharingSubtrees());
+		Node first = factory.getRoot("floor(LVL/2)+STR").jjtGetChild(0);
+		assertEquals(0, factory.getSharedNodeCount());
+		long distinct = factory.getDistinctNodeCount();
+		assertEquals(factory.getInternedNodeCount(), distinct);
+		Node second = factory.getRoot("floor(LVL/2)*(STR)").jjtGetChild(0);
+		//floor(LVL/2) and STR are shared
+		assertSame(first.jjtGetChild(0), second.jjtGetChild(0));
+		assertSame(first.jjtGetChild(1), second.jjtGetChild(1).jjtGetChild(0));
+		assertEquals(7, factory.getSharedNodeCount());
+		assertEquals(distinct + 3, factory.getDistinctNodeCount());
+		assertEquals("floor(LVL/2)*(STR)",
+			factory.getFormula("floor(LVL/2)*(STR)").toString());
+		factory.clear();
+		assertEquals(0, factory.getDistinctNodeCount());
+	}
+
+	@Test
+	public void testSharedSubtreeEviction()
+	{
+		FormulaFactory factory = new FormulaFactory(2, true);
+		Node first = factory.getRoot("floor(LVL/2)+STR").jjtGetChild(0);
+		factory.getRoot("floor(LVL/2)*(STR)");
+		//Evicts the first expression, but its subtrees are still in use
+		factory.getRoot("STR+STR");
+		assertEquals(1, factory.getEvictionCount());
+		FormulaFactory expected = new FormulaFactory(2, true);
+		expected.getRoot("floor(LVL/2)*(STR)");
+		expected.getRoot("STR+STR");
+		assertEquals(expected.getDistinctNodeCount(),
+			factory.getDistinctNodeCount());
+		//Evicts the remaining expressions and all of their subtrees
+		factory.getRoot("1");
+		factory.getRoot("2");
+		expected.clear();
+		expected.getRoot("1");
+		expected.getRoot("2");
+		assertEquals(expected.getDistinctNodeCount(),
+			factory.getDistinctNodeCount());
+		Node again = factory.getRoot("floor(LVL/2)+STR").jjtGetChild(0);
+		assertNotSame(first.jjtGetChild(0), again.jjtGetChild(0));
+		assertEquals("floor(LVL/2)+STR",
+			factory.getFormula("floor(LVL/2)+STR").toString());
+	}
+
+	@Test
+	public void testSharingLiteralNormalization()
+	{
+		FormulaFactory factory =
+				new FormulaFactory(FormulaFactory.DEFAULT_CAPACITY, true);
+		Node first = factory.getRoot("a+1.0").jjtGetChild(0);
+		Node second = factory.getRoot("b+1.00").jjtGetChild(0);
+		Node third = factory.getRoot("c+1").jjtGetChild(0);
+		assertSame(first.jjtGetChild(1), second.jjtGetChild(1));
+		assertNotSame(first.jjtGetChild(1), third.jjtGetChild(1));
+		assertEquals("b+1.0", factory.getFormula("b+1.00").toString());
+	}
+
+	@Test
+	public void testNoSharing()
+	{
+		FormulaFactory factory = new FormulaFactory();
+		assertFalse(factory.isSharingSubtrees());
+		Node first = factory.getRoot("floor(LVL/2)+STR").jjtGetChild(0);
+		Node second = factory.getRoot("floor(LVL/2)*STR").jjtGetChild(0);
+		assertNotSame(first.jjtGetChild(0), second.jjtGetChild(0));
+		assertEquals(0, factory.getSharedNodeCount());
+		assertEquals(0, factory.getInternedNodeCount());
+		assertEquals(0, factory.getDistinctNodeCount());
+	}
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import org.junit.Test;
+
+import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.FunctionLibrary;
+import pcgen.base.formula.library.GenericFunction;
+import pcgen.base.formula.operator.number.NumberDivide;
+import pcgen.base.formula.parse.ASTGeometric;
+import pcgen.base.formula.parse.ASTNum;
+import pcgen.base.formula.parse.ASTParen;
+import pcgen.base.formula.parse.SimpleNode;
+import pcgen.base.formula.visitor.FunctionExpansionVisitor;
+import pcgen.base.formula.visitor.ReconstructionVisitor;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+import pcgen.base.testsupport.TestUtilities;
+
+public class FormulaOptimizerTest extends AbstractFormulaTestCase
+{
+
+	private FormulaOptimizer optimizer;
+	private ScopeInformation scopeInfo;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		optimizer = new FormulaOptimizer(getFormulaManager());
+		scopeInfo = new ScopeInformation(getFormulaManager(), getGlobalScopeInst());
+		getVariableStore().put(getVariable("a"), 4);
+		getVariableStore().put(getVariable("b"), 2.5);
+		getVariableStore().put(getBooleanVariable("c"), true);
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		try
+		{
+			new FormulaOptimizer(null);
+			fail("Expected null FormulaManager to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			optimizer.optimize(null, getGlobalScopeInst(), numberManager);
+			fail("Expected null formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			optimizer.optimize(new ComplexNEPFormula<Number>("3"), null,
+				numberManager);
+			fail("Expected null ScopeInstance to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testInvalidFormula()
+	{
+		try
+		{
+			optimizer.optimize(new ComplexNEPFormula<Number>("3+\"ab\""),
+				getGlobalScopeInst(), numberManager);
+			fail("Expected invalid formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testStatic()
+	{
+		assertConstant("3");
+		assertConstant("(3+4)*2");
+		assertConstant("max(1,2)");
+		assertConstant("2^3");
+		assertConstant("-(4/3)");
+		assertConstant("floor(2.5)+abs(-1)");
+	}
+
+	@Test
+	public void testStaticBoolean()
+	{
+		ComplexNEPFormula<Boolean> formula =
+				new ComplexNEPFormula<Boolean>("(3<4)&&(2==2)");
+		NEPFormula<Boolean> optimized =
+				optimizer.optimize(formula, getGlobalScopeInst(), booleanManager);
+		assertTrue(optimized instanceof ConstantNEPFormula);
+		assertEquals(Boolean.TRUE, optimized.resolve(scopeInfo));
+	}
+
+	@Test
+	public void testStaticFailure()
+	{
+		//Not evaluated in advance, so the failure occurs at resolution
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("(4)%0");
+		assertSame(formula,
+			optimizer.optimize(formula, getGlobalScopeInst(), numberManager));
+		formula = new ComplexNEPFormula<Number>("a+(4)%0");
+		NEPFormula<Number> optimized =
+				optimizer.optimize(formula, getGlobalScopeInst(), numberManager);
+		assertEquals("a+(4)%0", optimized.toString());
+		try
+		{
+			optimized.resolve(scopeInfo);
+			fail("Expected remainder by zero to fail");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testPartial()
+	{
+		assertFolded("(3+4)*a");
+		assertFolded("a+max(1,2)");
+		assertFolded("b*(2^3)-1");
+		assertFolded("if(c,a,(3-5)*2)");
+		assertFolded("floor(b/(1+1))");
+		assertFolded("if(a>(1+1),a,b)");
+	}
+
+	@Test
+	public void testNothingToFold()
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("a*b+1");
+		assertSame(formula,
+			optimizer.optimize(formula, getGlobalScopeInst(), numberManager));
+	}
+
+	@Test
+	public void testTreeStructure()
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("(3+4)*a");
+		NEPFormula<Number> optimized =
+				optimizer.optimize(formula, getGlobalScopeInst(), numberManager);
+		SimpleNode root = ((OptimizedNEPFormula<Number>) optimized).getRoot();
+		SimpleNode geometric = (SimpleNode) root.jjtGetChild(0);
+		assertTrue(geometric instanceof ASTGeometric);
+		SimpleNode folded = (SimpleNode) geometric.jjtGetChild(0);
+		assertTrue(folded instanceof ASTNum);
+		assertEquals(7, folded.getValue());
+		assertSame(geometric, folded.jjtGetParent());
+		//Original is untouched
+		SimpleNode original =
+				(SimpleNode) formula.getRoot().jjtGetChild(0).jjtGetChild(0);
+		assertTrue(original instanceof ASTParen);
+		assertSame(formula.getRoot().jjtGetChild(0), original.jjtGetParent());
+		//Shared node keeps original parent
+		SimpleNode variable = (SimpleNode) geometric.jjtGetChild(1);
+		assertSame(formula.getRoot().jjtGetChild(0), variable.jjtGetParent());
+	}
+
+	@Test
+	public void testSimplify()
+	{
+		assertSimplified("(a)", "a");
+		assertSimplified("((a))", "a");
+		assertSimplified("a/1", "a");
+		assertSimplified("b/1", "b");
+		assertSimplified("b/(3-2)", "b");
+		assertSimplified("a-0", "a");
+		assertSimplified("-(-a)", "a");
+		assertSimplified("-((-b))", "b");
+		assertSimplified("if(4>3,a,b)", "a");
+		assertSimplified("if((4<3)||(1==2),a,b)", "b");
+		assertSimplified("if(c,a/1,b)", "if(c,a,b)");
+		//Exact only
+		assertSimplified("a*1", "a*1");
+		assertSimplified("a+0", "a+0");
+		assertSimplified("a+1+2", "a+1+2");
+		//Not Integer one
+		assertSimplified("a/1.0", "a/1.0");
+		assertSimplified("a-0.0", "a-0.0");
+	}
+
+	@Test
+	public void testSimplifyExact()
+	{
+		getVariableStore().put(getVariable("b"), -0.0);
+		assertFolded("(b)-0");
+		getVariableStore().put(getVariable("b"), 0.0);
+		assertFolded("b/1");
+		getVariableStore().put(getVariable("a"), Integer.MIN_VALUE);
+		assertFolded("-(-a)");
+		assertFolded("a/1");
+	}
+
+	@Test
+	public void testSimplifyInexact()
+	{
+		optimizer = new FormulaOptimizer(getFormulaManager(), true);
+		assertSimplified("a*1", "a");
+		assertSimplified("1*b", "b");
+		assertSimplified("a+0", "a");
+		assertSimplified("0+b", "b");
+		assertSimplified("a+1+2", "a+3");
+		assertSimplified("a-1+2", "a+1");
+		assertSimplified("1+a-3", "a+-2");
+		assertSimplified("a+1+2-3", "a");
+		assertSimplified("a+1+2+3*b", "a+3+3*b");
+		assertSimplified("1-a+2", "1-a+2");
+		assertSimplified("a+1.5+2", "a+1.5+2");
+		assertFolded("a+1+2+3");
+		assertFolded("a-(1-2)");
+	}
+
+	@Test
+	public void testSimplifyReplacedOperator()
+	{
+		SimpleOperatorLibrary opLib = new SimpleOperatorLibrary();
+		opLib.addAction(new NumberDivide()
+		{
+			@Override
+			public Object evaluate(Object l, Object r)
+			{
+				return ((Number) l).doubleValue() / ((Number) r).doubleValue();
+			}
+		});
+		FormulaManager fm = new SimpleFormulaManager(getFunctionLibrary(),
+			opLib, getVariableLibrary(), getVariableStore());
+		NEPFormula<Number> optimized = new FormulaOptimizer(fm).optimize(
+			new ComplexNEPFormula<Number>("a/1"), getGlobalScopeInst(),
+			numberManager);
+		assertFalse(optimized instanceof OptimizedNEPFormula);
+		assertEquals(4.0, optimized.resolve(new ScopeInformation(fm,
+			getGlobalScopeInst())));
+	}
+
+	@Test
+	public void testExpansion()
+	{
+		addGenericFunction("d20Mod", "floor((arg(0)-10)/2)");
+		addGenericFunction("half", "arg(0)/2");
+		addGenericFunction("mod", "half(arg(0)-10)");
+		addGenericFunction("sq", "arg(0)*arg(0)");
+		FunctionExpansionVisitor visitor =
+				new FunctionExpansionVisitor(getFunctionLibrary(), 100);
+		assertExpansion(visitor, "d20Mod(a+2)*2", "floor(((a+2)-10)/2)*2");
+		assertExpansion(visitor, "d20Mod(a)", "floor((a-10)/2)");
+		assertExpansion(visitor, "1+mod(a)", "1+((a-10)/2)");
+		assertExpansion(visitor, "sq(a+1)", "((a+1)*(a+1))");
+		assertExpansion(visitor, "sq(d20Mod(b))",
+			"(floor((b-10)/2)*floor((b-10)/2))");
+		optimizer = new FormulaOptimizer(getFormulaManager(), false, 100);
+		assertFolded("d20Mod(a+2)*2");
+		assertFolded("sq(d20Mod(b))");
+		assertFolded("d20Mod(14)+sq(a)");
+		assertConstant("d20Mod(14)+sq(3)");
+		//Not expanded by default
+		optimizer = new FormulaOptimizer(getFormulaManager());
+		assertSimplified("d20Mod(a)", "d20Mod(a)");
+	}
+
+	@Test
+	public void testExpansionLimit()
+	{
+		addGenericFunction("d20Mod", "floor((arg(0)-10)/2)");
+		addGenericFunction("sq", "arg(0)*arg(0)");
+		FunctionExpansionVisitor visitor =
+				new FunctionExpansionVisitor(getFunctionLibrary(), 9);
+		assertExpansion(visitor, "d20Mod(a)", "floor((a-10)/2)");
+		//Each expanded call is limited, not the whole formula
+		assertExpansion(visitor, "d20Mod(a)+d20Mod(b)",
+			"floor((a-10)/2)+floor((b-10)/2)");
+		assertExpansion(visitor, "d20Mod(a+1)", "d20Mod(a+1)");
+		assertExpansion(visitor, "sq(d20Mod(a))", "sq(floor((a-10)/2))");
+		optimizer = new FormulaOptimizer(getFormulaManager(), false, 9);
+		assertFolded("sq(d20Mod(a))");
+		try
+		{
+			new FunctionExpansionVisitor(getFunctionLibrary(), 0);
+			fail("Expected zero node limit to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new FormulaOptimizer(getFormulaManager(), false, -1);
+			fail("Expected negative expansion limit to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testExpansionRecursion()
+	{
+		//Recursive functions are not valid, so use the visitor directly
+		addGenericFunction("rec", "if(arg(0)>0,rec(arg(0)-1),0)");
+		addGenericFunction("outer", "rec(arg(0))+1");
+		FunctionExpansionVisitor visitor =
+				new FunctionExpansionVisitor(getFunctionLibrary(), 100);
+		assertExpansion(visitor, "rec(a)", "if(a>0,rec(a-1),0)");
+		assertExpansion(visitor, "outer(a)", "(if(a>0,rec(a-1),0)+1)");
+		SimpleNode root = TestUtilities.doParse("a+b");
+		assertSame(root, visitor.expand(root));
+	}
+
+	private void addGenericFunction(String name, String expression)
+	{
+		FunctionLibrary library = getFunctionLibrary();
+		library.addFunction(new GenericFunction(name,
+			TestUtilities.doParse(expression)));
+	}
+
+	private void assertExpansion(FunctionExpansionVisitor visitor,
+		String expression, String expected)
+	{
+		SimpleNode root = TestUtilities.doParse(expression);
+		ReconstructionVisitor rv = new ReconstructionVisitor();
+		StringBuilder sb = new StringBuilder();
+		rv.visit(visitor.expand(root), sb);
+		assertEquals(expression, expected, sb.toString());
+		//Original is untouched
+		sb = new StringBuilder();
+		rv.visit(root, sb);
+		assertEquals(expression, sb.toString());
+	}
+
+	private void assertConstant(String expression)
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>(expression);
+		NEPFormula<Number> optimized =
+				optimizer.optimize(formula, getGlobalScopeInst(), numberManager);
+		assertTrue(expression, optimized instanceof ConstantNEPFormula);
+		assertSameResult(expression, formula, optimized);
+	}
+
+	private void assertFolded(String expression)
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>(expression);
+		NEPFormula<Number> optimized =
+				optimizer.optimize(formula, getGlobalScopeInst(), numberManager);
+		assertNotSame(expression, formula, optimized);
+		assertTrue(expression, optimized.isValid(getFormulaManager(),
+			getGlobalScope(), numberManager)
+			.getInfo(FormulaSemanticsUtilities.SEM_VALID).isValid());
+		assertSameResult(expression, formula, optimized);
+	}
+
+	private void assertSimplified(String expression, String expected)
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>(expression);
+		NEPFormula<Number> optimized =
+				optimizer.optimize(formula, getGlobalScopeInst(), numberManager);
+		SimpleNode root = (optimized instanceof OptimizedNEPFormula)
+			? ((OptimizedNEPFormula<Number>) optimized).getRoot()
+			: formula.getRoot();
+		ReconstructionVisitor rv = new ReconstructionVisitor();
+		StringBuilder sb = new StringBuilder();
+		rv.visit(root, sb);
+		assertEquals(expression, expected, sb.toString());
+		assertSameResult(expression, formula, optimized);
+	}
+
+	private void assertSameResult(String expression,
+		ComplexNEPFormula<Number> formula, NEPFormula<Number> optimized)
+	{
+		Object expected = formula.resolve(scopeInfo);
+		Object actual = optimized.resolve(scopeInfo);
+		assertEquals(expression, expected.getClass(), actual.getClass());
+		assertEquals(expression, expected, actual);
+		assertEquals(expression, optimized.toString());
+	}
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.inst;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.base.VariableID;
+import pcgen.base.formula.function.AbstractUnaryFunction;
+import pcgen.base.formula.library.ValueWrappingLibrary;
+import pcgen.base.formula.vm.FormulaProgram;
+import pcgen.base.formula.vm.ProgramCompiler;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+
+public class ProgramNEPFormulaTest extends AbstractFormulaTestCase
+{
+
+	private FormulaCompiler compiler;
+	private ScopeInformation scopeInfo;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		compiler = new FormulaCompiler(getFormulaManager());
+		scopeInfo =
+				new ScopeInformation(getFormulaManager(), getGlobalScopeInst());
+		getVariableStore().put(getVariable("a"), 4);
+		getVariableStore().put(getVariable("b"), 2.5);
+		getVariableStore().put(getBooleanVariable("c"), true);
+		getVariableStore().put(getVariable("z"), 0);
+	}
+
+	@Test
+	public void testInvalidNull()
+	{
+		try
+		{
+			new ProgramCompiler(null);
+			fail("Expected null FormulaManager to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new ProgramCompiler(getFormulaManager()).compile(null);
+			fail("Expected null node to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			compiler.compileProgram(null, getGlobalScope(), numberManager);
+			fail("Expected null formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		ProgramNEPFormula<Number> program =
+				compiler.compileProgram(new ComplexNEPFormula<Number>("a"),
+					getGlobalScope(), numberManager);
+		try
+		{
+			program.resolve(null);
+			fail("Expected null ScopeInformation to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			program.resolve(scopeInfo, null);
+			fail("Expected null NumericResult to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testNumeric()
+	{
+		assertMatches("3");
+		assertMatches("3.5");
+		assertMatches("-3");
+		assertMatches("-b");
+		assertMatches("-(-a)");
+		assertMatches("(3+4)*2");
+		assertMatches("a/2");
+		assertMatches("a/3");
+		assertMatches("(a)%3");
+		assertMatches("b*a-1");
+		assertMatches("a+b-a");
+		assertMatches("b*0");
+		assertMatches("2^3");
+		assertMatches("2^a^0.5");
+		assertMatches("a^(-1)");
+		assertMatches("2^a^2");
+		assertMatches("a^16");
+		assertMatches("2^a^b");
+		assertMatches("floor(b)+max(a,b,1)");
+		assertMatches("abs(-a)*(b+0.5)");
+	}
+
+	@Test
+	public void testIf()
+	{
+		assertMatches("if(a>3,a,b)");
+		assertMatches("if(a<3,a,b)");
+		assertMatches("if(c,1,2)+if(a==4,10,20)");
+		assertMatches("if(a>3,if(c,a*2,b),if(c,b,a))");
+		//Only the selected argument is evaluated
+		assertMatches("if(c,a,a/z)");
+		assertMatches("if(a<3,a/z,b)");
+		ProgramNEPFormula<Number> program =
+				compiler.compileProgram(
+					new ComplexNEPFormula<Number>("if(a>3,a,b)"),
+					getGlobalScope(), numberManager);
+		//a, 3, >, JUMP_IF_FALSE, a, JUMP, b
+		assertEquals(7, program.getProgram().getInstructionCount());
+		assertEquals(2, program.getProgram().getMaxStack());
+	}
+
+	@Test
+	public void testMaxStack()
+	{
+		assertEquals(1, getProgram("a").getMaxStack());
+		assertEquals(2, getProgram("((1+2)+3)+4").getMaxStack());
+		assertEquals(4, getProgram("1+(2+(3+4))").getMaxStack());
+		assertEquals(3, getProgram("2^a^0.5").getMaxStack());
+		assertEquals(2, getProgram("-a*-b").getMaxStack());
+	}
+
+	@Test
+	public void testBoolean()
+	{
+		assertBooleanMatches("c");
+		assertBooleanMatches("a>3");
+		assertBooleanMatches("(a>3)&&(b<2)");
+		assertBooleanMatches("c||(b<2)");
+		assertBooleanMatches("a==4");
+		assertBooleanMatches("c!=(a<=b)");
+	}
+
+	@Test
+	public void testShortCircuit()
+	{
+		//The right side would throw an ArithmeticException if evaluated
+		assertBooleanMatches("c||((a/z)>1)");
+		assertBooleanMatches("(a<3)&&((a/z)>1)");
+		assertBooleanMatches("((a<3)&&((a/z)>1))||(c&&(b<3))");
+		assertMatches("if(c||((a/z)>1),1,2)");
+	}
+
+	@Test
+	public void testRepeatedEvaluation()
+	{
+		ProgramNEPFormula<Number> program =
+				compiler.compileProgram(new ComplexNEPFormula<Number>("a*b"),
+					getGlobalScope(), numberManager);
+		assertEquals(10.0, program.resolve(scopeInfo));
+		//Change the class of the argument
+		getVariableStore().put(getVariable("b"), 3);
+		assertEquals(12, program.resolve(scopeInfo));
+		getVariableStore().put(getVariable("b"), 0.5);
+		assertEquals(2.0, program.resolve(scopeInfo));
+		NumericResult result = new NumericResult();
+		program.resolve(scopeInfo, result);
+		assertTrue(result.isDouble());
+		assertEquals(2.0, result.getDouble());
+	}
+
+	@Test
+	public void testLateValue()
+	{
+		VariableID<Number> d = getVariable("d");
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("d*2");
+		ProgramNEPFormula<Number> program =
+				compiler.compileProgram(formula, getGlobalScope(),
+					numberManager);
+		//Resolved before a value is present, must see the later value
+		assertEquals(0, program.resolve(scopeInfo));
+		getVariableStore().put(d, 3);
+		assertEquals(6, program.resolve(scopeInfo));
+		assertEquals(6, formula.resolve(scopeInfo));
+	}
+
+	@Test
+	public void testFailure()
+	{
+		ProgramNEPFormula<Number> program =
+				compiler.compileProgram(
+					new ComplexNEPFormula<Number>("a/(a-4)"),
+					getGlobalScope(), numberManager);
+		try
+		{
+			program.resolve(scopeInfo);
+			fail("Expected division by zero to fail");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		//A failure does not corrupt later executions
+		getVariableStore().put(getVariable("a"), 6);
+		assertEquals(3, program.resolve(scopeInfo));
+	}
+
+	@Test
+	public void testDifferentFormulaManager()
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("a+1");
+		ProgramNEPFormula<Number> program =
+				compiler.compileProgram(formula, getGlobalScope(),
+					numberManager);
+		ScopeInformation other =
+				new ScopeInformation(getFormulaManager().swapFunctionLibrary(
+					new ValueWrappingLibrary(getFunctionLibrary(), 3)),
+					getGlobalScopeInst());
+		assertEquals(5, program.resolve(other));
+		assertEquals("a+1", program.toString());
+	}
+
+	@Test
+	public void testNestedExecution()
+	{
+		//Deeper than the outer program, so the shared stack grows
+		final ProgramNEPFormula<Number> inner =
+				compiler.compileProgram(new ComplexNEPFormula<Number>(
+					"1+(1+(1+(1+(1+(1+(1+(1+(1+(1+(1+(1+a)))))))))))"),
+					getGlobalScope(), numberManager);
+		assertEquals(13, inner.getProgram().getMaxStack());
+		getFunctionLibrary().addFunction(new AbstractUnaryFunction()
+		{
+			@Override
+			public String getFunctionName()
+			{
+				return "inner";
+			}
+
+			@Override
+			protected Number evaluate(Number n)
+			{
+				return n.intValue() + inner.resolve(scopeInfo).intValue();
+			}
+		});
+		ProgramNEPFormula<Number> outer =
+				compiler.compileProgram(
+					new ComplexNEPFormula<Number>("a*(2+inner(a))-b"),
+					getGlobalScope(), numberManager);
+		assertEquals(85.5, outer.resolve(scopeInfo));
+		NumericResult result = new NumericResult();
+		outer.resolve(scopeInfo, result);
+		assertEquals(85.5, result.getDouble());
+		//A failure within the inner program does not corrupt the outer one
+		getVariableStore().put(getVariable("z"), 1);
+		ProgramNEPFormula<Number> failing =
+				compiler.compileProgram(
+					new ComplexNEPFormula<Number>("a+(inner(a)/(z-1))"),
+					getGlobalScope(), numberManager);
+		try
+		{
+			failing.resolve(scopeInfo);
+			fail("Expected division by zero to fail");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		assertEquals(85.5, outer.resolve(scopeInfo));
+	}
+
+	@Test
+	public void testConcurrentExecution() throws Exception
+	{
+		final ProgramNEPFormula<Number> program =
+				compiler.compileProgram(
+					new ComplexNEPFormula<Number>("if(c,a*(b+1),a/z)-1"),
+					getGlobalScope(), numberManager);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+			{
+				futures.add(executor.submit(new Callable<Boolean>()
+				{
+					@Override
+					public Boolean call()
+					{
+						for (int j = 0; j < 1000; j++)
+						{
+							if (!Double.valueOf(13.0).equals(
+								program.resolve(scopeInfo)))
+							{
+								return Boolean.FALSE;
+							}
+						}
+						return Boolean.TRUE;
+					}
+				}));
+			}
+			for (Future<Boolean> future : futures)
+			{
+				assertTrue(future.get().booleanValue());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	private FormulaProgram getProgram(String expression)
+	{
+		return compiler.compileProgram(
+			new ComplexNEPFormula<Number>(expression), getGlobalScope(),
+			numberManager).getProgram();
+	}
+
+	private void assertMatches(String expression)
+	{
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>(expression);
+		ProgramNEPFormula<Number> program =
+				compiler.compileProgram(formula, getGlobalScope(),
+					numberManager);
+		Object expected = formula.resolve(scopeInfo);
+		Object actual = program.resolve(scopeInfo);
+		assertEquals(expression, expected.getClass(), actual.getClass());
+		assertEquals(expression, expected, actual);
+		NumericResult result = new NumericResult();
+		program.resolve(scopeInfo, result);
+		assertEquals(expression, expected.getClass(), result.get().getClass());
+		assertEquals(expression, expected, result.get());
+	}
+
+	private void assertBooleanMatches(String expression)
+	{
+		ComplexNEPFormula<Boolean> formula =
+				new ComplexNEPFormula<Boolean>(expression);
+		ProgramNEPFormula<Boolean> program =
+				compiler.compileProgram(formula, getGlobalScope(),
+					booleanManager);
+		assertEquals(expression, formula.resolve(scopeInfo),
+			program.resolve(scopeInfo));
+	}
+}
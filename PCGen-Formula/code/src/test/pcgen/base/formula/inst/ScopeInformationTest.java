@@ -18,7 +18,12 @@
 package pcgen.base.formula.inst;
 
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import junit.framework.TestCase;
 
@@ -28,12 +33,16 @@ import pcgen.base.format.NumberManager;
 import pcgen.base.formula.analysis.DependencyKeyUtilities;
 import pcgen.base.formula.analysis.VariableDependencyManager;
 import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.EvaluationMode;
 import pcgen.base.formula.base.FormulaManager;
 import pcgen.base.formula.base.LegalScope;
 import pcgen.base.formula.base.LegalScopeLibrary;
 import pcgen.base.formula.base.ScopeInstance;
 import pcgen.base.formula.base.VariableID;
 import pcgen.base.formula.base.VariableLibrary;
+import pcgen.base.formula.compile.CompiledNode;
+import pcgen.base.formula.compile.CompiledTreeCache;
+import pcgen.base.formula.library.ValueFunction;
 import pcgen.base.formula.parse.FormulaParser;
 import pcgen.base.formula.parse.ParseException;
 import pcgen.base.formula.parse.SimpleNode;
@@ -270,4 +279,229 @@ public class ScopeInformationTest extends TestCase
 			fail(e.getMessage());
 		}
 	}
+
+	@Test
+	public void testEvaluateCompiled()
+	{
+		FormulaManager fManager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore, EvaluationMode.COMPILED);
+		FormatManager<Number> numberManager = new NumberManager();
+		LegalScope varScope = new SimpleLegalScope(null, "Global");
+		ScopeInstance globalInst = instanceFactory.getInstance(null, varScope);
+		ScopeInformation scopeInfo = new ScopeInformation(fManager, globalInst);
+		FormulaUtilities.loadBuiltInOperators(opLibrary);
+		varLibrary.assertLegalVariableID("myvar", varScope, numberManager);
+		varLibrary.assertLegalVariableID("yourvar", varScope, numberManager);
+		try
+		{
+			SimpleNode fp;
+			fp = new FormulaParser(new StringReader("6+4")).query();
+			assertEquals(10, scopeInfo.evaluate(fp));
+			assertEquals(10, scopeInfo.evaluate(fp));
+			fp = new FormulaParser(new StringReader("myvar+yourvar")).query();
+			assertEquals(0, scopeInfo.evaluate(fp));
+			VariableID<Number> myvar =
+					(VariableID<Number>) varLibrary.getVariableID(globalInst,
+						"myvar");
+			resultsStore.put(myvar, 3);
+			assertEquals(3, scopeInfo.evaluate(fp));
+			resultsStore.put(myvar, 1.5);
+			assertEquals(1.5, scopeInfo.evaluate(fp));
+		}
+		catch (ParseException e)
+		{
+			fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testCompiledTreeShared()
+	{
+		FormulaManager fManager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore, EvaluationMode.COMPILED);
+		LegalScope varScope = new SimpleLegalScope(null, "Global");
+		ScopeInstance globalInst = instanceFactory.getInstance(null, varScope);
+		FormulaUtilities.loadBuiltInOperators(opLibrary);
+		try
+		{
+			new ScopeInformation(fManager, globalInst).evaluateTree(null);
+			fail("evaluate should reject null CompiledTreeCache");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//yep
+		}
+		try
+		{
+			new CompiledTreeCache(null);
+			fail("CompiledTreeCache should reject null root");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//yep
+		}
+		try
+		{
+			CompiledTreeCache tree =
+					new CompiledTreeCache(new FormulaParser(new StringReader(
+						"6+4")).query());
+			assertEquals(10,
+				new ScopeInformation(fManager, globalInst).evaluateTree(tree));
+			CompiledNode compiled = tree.getCompiledTree(fManager);
+			//A different ScopeInformation reuses the compiled tree
+			assertEquals(10,
+				new ScopeInformation(fManager, globalInst).evaluateTree(tree));
+			assertSame(compiled, tree.getCompiledTree(fManager));
+			//A different FormulaManager does not
+			FormulaManager other =
+					new SimpleFormulaManager(ftnLibrary, opLibrary,
+						varLibrary, resultsStore, EvaluationMode.COMPILED);
+			assertEquals(10,
+				new ScopeInformation(other, globalInst).evaluateTree(tree));
+			assertNotSame(compiled, tree.getCompiledTree(other));
+		}
+		catch (ParseException e)
+		{
+			fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testInputInformation()
+	{
+		FormulaManager fManager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore);
+		LegalScope varScope = new SimpleLegalScope(null, "Global");
+		ScopeInstance globalInst = instanceFactory.getInstance(null, varScope);
+		ScopeInformation scopeInfo = new ScopeInformation(fManager, globalInst);
+		FormulaUtilities.loadBuiltInOperators(opLibrary);
+		try
+		{
+			SimpleNode fp =
+					new FormulaParser(new StringReader("value()*2")).query();
+			ScopeInformation inputInfo = scopeInfo.getInputInformation(3);
+			assertSame(globalInst, inputInfo.getScope());
+			assertEquals(6, inputInfo.evaluate(fp));
+			//Reused, with only the value changing
+			assertSame(inputInfo, scopeInfo.getInputInformation(1.5));
+			assertSame(inputInfo.getEvaluateVisitor(),
+				scopeInfo.getInputInformation(5).getEvaluateVisitor());
+			assertEquals(10, inputInfo.evaluate(fp));
+			assertNull(ftnLibrary.getFunction("value"));
+		}
+		catch (ParseException e)
+		{
+			fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testBaseFormulaManager()
+	{
+		FormulaManager fManager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore);
+		LegalScope varScope = new SimpleLegalScope(null, "Global");
+		ScopeInstance globalInst = instanceFactory.getInstance(null, varScope);
+		ScopeInformation scopeInfo = new ScopeInformation(fManager, globalInst);
+		assertSame(fManager, scopeInfo.getBaseFormulaManager());
+		ScopeInformation inputInfo = scopeInfo.getInputInformation(3);
+		assertNotSame(fManager, inputInfo.getFormulaManager());
+		//Only value() is added, so the child shares the base
+		assertSame(fManager, inputInfo.getBaseFormulaManager());
+		//Unless the base has its own value() function
+		SimpleFunctionLibrary valueLibrary = new SimpleFunctionLibrary();
+		valueLibrary.addFunction(new ValueFunction(4));
+		FormulaManager valueManager = fManager.swapFunctionLibrary(valueLibrary);
+		inputInfo = new ScopeInformation(valueManager, globalInst)
+			.getInputInformation(3);
+		assertSame(inputInfo.getFormulaManager(),
+			inputInfo.getBaseFormulaManager());
+	}
+
+	@Test
+	public void testResolveWithInput()
+	{
+		FormulaManager fManager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore);
+		LegalScope varScope = new SimpleLegalScope(null, "Global");
+		ScopeInstance globalInst = instanceFactory.getInstance(null, varScope);
+		ScopeInformation scopeInfo = new ScopeInformation(fManager, globalInst);
+		FormulaUtilities.loadBuiltInOperators(opLibrary);
+		ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("value()+1");
+		try
+		{
+			scopeInfo.resolveWithInput(null, 3);
+			fail("resolveWithInput should reject null formula");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//yep
+		}
+		ScopeInformation inputInfo = scopeInfo.getInputInformation(5);
+		assertEquals(4, scopeInfo.resolveWithInput(formula, 3));
+		//Previous input value is restored
+		assertEquals(6, formula.resolve(inputInfo));
+	}
+
+	@Test
+	public void testConcurrentResolve() throws Exception
+	{
+		FormulaManager fManager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore, EvaluationMode.COMPILED);
+		FormatManager<Number> numberManager = new NumberManager();
+		LegalScope varScope = new SimpleLegalScope(null, "Global");
+		ScopeInstance globalInst = instanceFactory.getInstance(null, varScope);
+		final ScopeInformation scopeInfo =
+				new ScopeInformation(fManager, globalInst);
+		FormulaUtilities.loadBuiltInOperators(opLibrary);
+		varLibrary.assertLegalVariableID("myvar", varScope, numberManager);
+		@SuppressWarnings("unchecked")
+		VariableID<Number> myvar =
+				(VariableID<Number>) varLibrary.getVariableID(globalInst,
+					"myvar");
+		resultsStore.put(myvar, 10);
+		final ComplexNEPFormula<Number> formula =
+				new ComplexNEPFormula<Number>("value()*2+myvar");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++)
+			{
+				final int offset = t * 1000;
+				futures.add(executor.submit(new Callable<Boolean>()
+				{
+					@Override
+					public Boolean call()
+					{
+						for (int i = offset; i < offset + 1000; i++)
+						{
+							Number result =
+									scopeInfo.resolveWithInput(formula, i);
+							if (result.intValue() != (i * 2 + 10))
+							{
+								return Boolean.FALSE;
+							}
+						}
+						return Boolean.TRUE;
+					}
+				}));
+			}
+			for (Future<Boolean> future : futures)
+			{
+				assertTrue(future.get().booleanValue());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
 }
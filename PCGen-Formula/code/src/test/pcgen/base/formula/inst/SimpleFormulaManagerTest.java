@@ -25,10 +25,13 @@ import org.junit.Test;
 
 import pcgen.base.format.NumberManager;
 import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
+import pcgen.base.formula.base.EvaluationBudget;
+import pcgen.base.formula.base.EvaluationMode;
 import pcgen.base.formula.base.FormulaManager;
 import pcgen.base.formula.base.FormulaSemantics;
 import pcgen.base.formula.base.LegalScope;
 import pcgen.base.formula.base.LegalScopeLibrary;
+import pcgen.base.formula.base.NumericMode;
 import pcgen.base.formula.base.VariableLibrary;
 import pcgen.base.formula.parse.FormulaParser;
 import pcgen.base.formula.parse.ParseException;
@@ -123,6 +126,64 @@ public class SimpleFormulaManagerTest extends TestCase
 		{
 			//ok, too			
 		}
+		try
+		{
+			new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+				resultsStore, null);
+			fail("null evaluation mode must be rejected");
+		}
+		catch (NullPointerException e)
+		{
+			//ok
+		}
+		catch (IllegalArgumentException e)
+		{
+			//ok, too			
+		}
+	}
+
+	@Test
+	public void testEvaluationMode()
+	{
+		FormulaManager manager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore);
+		assertEquals(EvaluationMode.INTERPRETED, manager.getEvaluationMode());
+		manager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore, EvaluationMode.COMPILED);
+		assertEquals(EvaluationMode.COMPILED, manager.getEvaluationMode());
+		assertEquals(EvaluationMode.COMPILED, manager.swapFunctionLibrary(
+			new SimpleFunctionLibrary()).getEvaluationMode());
+	}
+
+	@Test
+	public void testEvaluationBudget()
+	{
+		FormulaManager manager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore);
+		assertSame(EvaluationBudget.UNLIMITED,
+			manager.getEvaluationBudget());
+		try
+		{
+			new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+				resultsStore, EvaluationMode.INTERPRETED,
+				NumericMode.STANDARD, null);
+			fail("null EvaluationBudget must be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//yep
+		}
+		EvaluationBudget budget = new EvaluationBudget(100, 10, 1000);
+		manager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore, EvaluationMode.INTERPRETED,
+					NumericMode.STANDARD, budget);
+		assertSame(budget, manager.getEvaluationBudget());
+		assertSame(budget, manager.swapFunctionLibrary(
+			new SimpleFunctionLibrary()).getEvaluationBudget());
 	}
 
 	@Test
@@ -219,4 +280,40 @@ public class SimpleFormulaManagerTest extends TestCase
 		}
 	}
 
+	@Test
+	public void testIsValidPerScope()
+	{
+		FormulaManager manager =
+				new SimpleFormulaManager(ftnLibrary, opLibrary, varLibrary,
+					resultsStore);
+		FormulaUtilities.loadBuiltInOperators(opLibrary);
+		FormatManager<Number> numberManager = new NumberManager();
+		LegalScope globalScope = new SimpleLegalScope(null, "Global");
+		LegalScope localScope = new SimpleLegalScope(globalScope, "Local");
+		scopeLibrary.registerScope(globalScope);
+		scopeLibrary.registerScope(localScope);
+		varLibrary.assertLegalVariableID("localvar", localScope, numberManager);
+		try
+		{
+			SimpleNode fp =
+					new FormulaParser(new StringReader("localvar+1")).query();
+			FormulaSemantics local =
+					manager.isValid(fp, localScope, numberManager);
+			assertTrue(local.getInfo(FormulaSemanticsUtilities.SEM_VALID)
+				.isValid());
+			//Must not reuse the validation for the Local scope
+			FormulaSemantics global =
+					manager.isValid(fp, globalScope, numberManager);
+			assertFalse(global.getInfo(FormulaSemanticsUtilities.SEM_VALID)
+				.isValid());
+			local = manager.isValid(fp, localScope, numberManager);
+			assertTrue(local.getInfo(FormulaSemanticsUtilities.SEM_VALID)
+				.isValid());
+		}
+		catch (ParseException e)
+		{
+			fail(e.getMessage());
+		}
+	}
+
 }
@@ -23,6 +23,7 @@ import org.junit.Test;
 
 import pcgen.base.formula.inst.SimpleOperatorLibrary;
 import pcgen.base.formula.operator.bool.BooleanEquals;
+import pcgen.base.formula.operator.bool.BooleanOr;
 import pcgen.base.formula.operator.number.NumberAdd;
 import pcgen.base.formula.operator.number.NumberEquals;
 import pcgen.base.formula.parse.Operator;
@@ -100,4 +101,83 @@ public class SimpleOperatorLibraryTest extends TestCase
 		assertEquals(Boolean.FALSE, library.evaluate(Operator.EQ, 1, 2));
 	}
 
+	@Test
+	public void testGetAction()
+	{
+		assertNull(library.getAction(Operator.EQ, Integer.class,
+			Integer.class));
+		BooleanEquals boolEquals = new BooleanEquals();
+		NumberEquals numEquals = new NumberEquals();
+		library.addAction(boolEquals);
+		library.addAction(numEquals);
+		assertSame(numEquals,
+			library.getAction(Operator.EQ, Integer.class, Double.class));
+		assertSame(boolEquals,
+			library.getAction(Operator.EQ, Boolean.class, Boolean.class));
+		assertNull(library.getAction(Operator.EQ, Boolean.class,
+			Integer.class));
+		assertNull(library.getAction(Operator.ADD, Integer.class,
+			Integer.class));
+	}
+
+	@Test
+	public void testGetLazyAction()
+	{
+		assertNull(library.getLazyAction(Operator.OR, Boolean.class));
+		BooleanOr boolOr = new BooleanOr();
+		library.addAction(boolOr);
+		library.addAction(new NumberEquals());
+		assertSame(boolOr, library.getLazyAction(Operator.OR, Boolean.class));
+		assertNull(library.getLazyAction(Operator.OR, Integer.class));
+		//Not a LazyOperatorAction
+		assertNull(library.getLazyAction(Operator.EQ, Integer.class));
+	}
+
+	@Test
+	public void testDispatchInvalidation()
+	{
+		library.addAction(new BooleanEquals());
+		try
+		{
+			library.evaluate(Operator.EQ, 1, 2);
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			//Isn't defined yet
+		}
+		assertNull(library.processAbstract(Operator.EQ, Integer.class,
+			Integer.class));
+		library.addAction(new NumberEquals());
+		assertEquals(Boolean.FALSE, library.evaluate(Operator.EQ, 1, 2));
+		assertEquals(Boolean.class,
+			library.processAbstract(Operator.EQ, Integer.class, Integer.class));
+	}
+
+	@Test
+	public void testDispatchMemoized()
+	{
+		CountingAdd add = new CountingAdd();
+		library.addAction(add);
+		assertEquals(Integer.valueOf(3), library.evaluate(Operator.ADD, 1, 2));
+		assertEquals(Integer.valueOf(7), library.evaluate(Operator.ADD, 3, 4));
+		assertSame(add,
+			library.getAction(Operator.ADD, Integer.class, Integer.class));
+		assertEquals(1, add.count);
+		assertEquals(4.5, library.evaluate(Operator.ADD, 1, 3.5));
+		assertEquals(2, add.count);
+	}
+
+	private static class CountingAdd extends NumberAdd
+	{
+		private int count;
+
+		@Override
+		public Class<?> abstractEvaluate(Class<?> format1, Class<?> format2)
+		{
+			count++;
+			return super.abstractEvaluate(format1, format2);
+		}
+	}
+
 }
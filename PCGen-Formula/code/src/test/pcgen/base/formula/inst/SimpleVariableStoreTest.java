@@ -22,6 +22,7 @@ import pcgen.base.format.NumberManager;
 import pcgen.base.formula.base.LegalScope;
 import pcgen.base.formula.base.ScopeInstance;
 import pcgen.base.formula.base.VariableID;
+import pcgen.base.formula.base.VariableSlot;
 import pcgen.base.formula.inst.ScopeInstanceFactory;
 import pcgen.base.formula.inst.SimpleLegalScope;
 import pcgen.base.formula.inst.SimpleVariableStore;
@@ -115,4 +116,38 @@ public class SimpleVariableStoreTest extends TestCase
 		assertEquals(Integer.valueOf(3), varStore.get(vid4));
 	}
 
+	public void testSlot()
+	{
+		SimpleVariableStore varStore = new SimpleVariableStore();
+		NumberManager numberManager = new NumberManager();
+		LegalScope varScope = new SimpleLegalScope(null, "Global");
+		ScopeInstance globalInst = instanceFactory.getInstance(null, varScope);
+		VariableID<Number> vid1 =
+				new VariableID<>(globalInst, numberManager, "test");
+		VariableID<Number> vid2 =
+				new VariableID<>(globalInst, numberManager, "test");
+		try
+		{
+			varStore.getSlot(null);
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+			//yep
+		}
+		VariableSlot<Number> slot = varStore.getSlot(vid1);
+		assertSame(vid1, slot.getVariableID());
+		assertFalse(slot.isSet());
+		assertNull(slot.getValue());
+		//An empty slot does not create a value
+		assertFalse(varStore.containsKey(vid1));
+		assertSame(slot, varStore.getSlot(vid2));
+		varStore.put(vid2, Integer.valueOf(9));
+		assertTrue(slot.isSet());
+		assertEquals(Integer.valueOf(9), slot.getValue());
+		varStore.put(vid1, Integer.valueOf(4));
+		assertEquals(Integer.valueOf(4), slot.getValue());
+		assertSame(slot, varStore.getSlot(vid1));
+	}
+
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.library;
+
+import org.junit.Test;
+
+import pcgen.base.formula.base.FormulaManager;
+import pcgen.base.formula.base.Function;
+import pcgen.base.formula.function.AbsFunction;
+import pcgen.base.formula.function.IfFunction;
+import pcgen.base.formula.inst.ComplexNEPFormula;
+import pcgen.base.formula.inst.FormulaUtilities;
+import pcgen.base.formula.inst.ScopeInformation;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+import pcgen.base.testsupport.TestUtilities;
+
+public class MemoizingLibraryTest extends AbstractFormulaTestCase
+{
+
+	private CountingFunction counted;
+	private MemoizingLibrary library;
+	private ScopeInformation scopeInfo;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadBuiltInOperators(getOperatorLibrary());
+		counted = new CountingFunction();
+		getFunctionLibrary().addFunction(counted);
+		getFunctionLibrary().addFunction(
+			new PureGenericFunction("d20Mod",
+				TestUtilities.doParse("floor((counted(arg(0))-10)/2)")));
+		library = new MemoizingLibrary(getFunctionLibrary(), 4);
+		FormulaManager memoized =
+				getFormulaManager().swapFunctionLibrary(library);
+		scopeInfo = new ScopeInformation(memoized, getGlobalScopeInst());
+		getVariableStore().put(getVariable("a"), 14);
+		getVariableStore().put(getVariable("b"), 15);
+	}
+
+	@Test
+	public void testInvalidConstruction()
+	{
+		try
+		{
+			new MemoizingLibrary(null);
+			fail("Expected null FunctionLibrary to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+		try
+		{
+			new MemoizingLibrary(getFunctionLibrary(), 0);
+			fail("Expected zero capacity to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testFunctions()
+	{
+		Function wrapped = library.getFunction("counted");
+		assertNotSame(counted, wrapped);
+		assertSame(wrapped, library.getFunction("COUNTED"));
+		assertEquals("counted", wrapped.getFunctionName());
+		//Not pure, so not wrapped
+		assertTrue(library.getFunction("if") instanceof IfFunction);
+		assertNull(library.getFunction("nonsense"));
+		try
+		{
+			library.addFunction(new AbsFunction());
+			fail("Expected addFunction to be unsupported");
+		}
+		catch (UnsupportedOperationException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testMemoization()
+	{
+		assertEquals(0.0, library.getHitRate());
+		assertEquals(28, resolve("counted(a)+counted(14)"));
+		assertEquals(1, counted.count);
+		assertEquals(1, library.getHitCount());
+		assertEquals(1, library.getMissCount());
+		assertEquals(1, library.size());
+		//Different value, so not reused
+		assertEquals(15, resolve("counted(b)"));
+		assertEquals(2, counted.count);
+		//Integer and Double values are not equal
+		assertEquals(14.0, resolve("counted(a*1.0)"));
+		assertEquals(3, counted.count);
+		assertEquals(0.25, library.getHitRate());
+		library.clear();
+		assertEquals(0, library.size());
+		assertEquals(14, resolve("counted(a)"));
+		assertEquals(4, counted.count);
+		//Statistics are not reset
+		assertEquals(1, library.getHitCount());
+	}
+
+	@Test
+	public void testGenericFunction()
+	{
+		assertEquals(2, resolve("d20Mod(a)"));
+		assertEquals(2, resolve("d20Mod(14)+d20Mod(a)-d20Mod(a)"));
+		//The body was only evaluated once
+		assertEquals(1, counted.count);
+		//d20Mod, counted and floor within the body
+		assertEquals(3, library.size());
+		assertEquals(2, resolve("d20Mod(b)"));
+		assertEquals(2, counted.count);
+	}
+
+	@Test
+	public void testCapacity()
+	{
+		resolve("counted(1)+counted(2)+counted(3)+counted(4)");
+		assertEquals(4, library.size());
+		resolve("counted(5)+counted(5)");
+		assertEquals(4, library.size());
+		assertEquals(6, counted.count);
+		//Held results are still used
+		resolve("counted(1)");
+		assertEquals(6, counted.count);
+	}
+
+	@Test
+	public void testNestedAtCapacity()
+	{
+		resolve("counted(1)+counted(2)+counted(3)+counted(4)");
+		assertEquals(4, counted.count);
+		//Every call misses, but each argument is only evaluated once
+		assertEquals(6,
+			resolve("counted(counted(counted(counted(counted(6)))))"));
+		assertEquals(9, counted.count);
+		assertEquals(4, library.size());
+		assertEquals(-8, resolve("d20Mod(d20Mod(d20Mod(counted(7))))"));
+		assertEquals(13, counted.count);
+	}
+
+	private Object resolve(String expression)
+	{
+		return new ComplexNEPFormula<Number>(expression).resolve(scopeInfo);
+	}
+
+	private static class CountingFunction extends AbsFunction
+	{
+		private int count;
+
+		@Override
+		public String getFunctionName()
+		{
+			return "counted";
+		}
+
+		@Override
+		protected Number evaluate(Number n)
+		{
+			count++;
+			return n;
+		}
+	}
+}
@@ -19,6 +19,8 @@ package pcgen.base.formula.operator.bool;
 
 import junit.framework.TestCase;
 
+import pcgen.base.formula.base.DeferredOperand;
+
 public class BooleanAndTest extends TestCase
 {
 
@@ -134,4 +136,44 @@ public class BooleanAndTest extends TestCase
 		assertEquals(Boolean.FALSE, op.evaluate(Boolean.TRUE, Boolean.FALSE));
 		assertEquals(Boolean.FALSE, op.evaluate(Boolean.FALSE, Boolean.FALSE));
 	}
+
+	public void testEvaluateLazily()
+	{
+		CountingOperand operand = new CountingOperand(Boolean.TRUE);
+		assertEquals(Boolean.FALSE, op.evaluateLazily(Boolean.FALSE, operand));
+		assertEquals(0, operand.count);
+		assertEquals(Boolean.TRUE, op.evaluateLazily(Boolean.TRUE, operand));
+		assertEquals(1, operand.count);
+		operand = new CountingOperand(Boolean.FALSE);
+		assertEquals(Boolean.FALSE, op.evaluateLazily(Boolean.TRUE, operand));
+		assertEquals(1, operand.count);
+		try
+		{
+			op.evaluateLazily(Boolean.TRUE,
+				new CountingOperand(Integer.valueOf(1)));
+			fail();
+		}
+		catch (ClassCastException e)
+		{
+			//expected
+		}
+	}
+
+	private static class CountingOperand implements DeferredOperand
+	{
+		private final Object value;
+		private int count = 0;
+
+		private CountingOperand(Object value)
+		{
+			this.value = value;
+		}
+
+		@Override
+		public Object getValue()
+		{
+			count++;
+			return value;
+		}
+	}
 }
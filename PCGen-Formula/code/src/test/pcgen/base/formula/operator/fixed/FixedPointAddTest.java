@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.operator.fixed;
+
+import junit.framework.TestCase;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.NumericResult;
+
+public class FixedPointAddTest extends TestCase
+{
+
+	private static final Class<Number> NUMBER_CLASS = Number.class;
+	private static final Class<Boolean> BOOLEAN_CLASS = Boolean.class;
+	private static final Class<Integer> INTEGER_CLASS = Integer.class;
+	private static final Class<FixedPoint> FIXED_CLASS = FixedPoint.class;
+
+	private final FixedPointAdd op = new FixedPointAdd();
+
+	public void testOperator()
+	{
+		assertNotNull(op.getOperator());
+		assertTrue(op.getOperator().getSymbol().equals("+"));
+	}
+
+	public void testAbstractEvaluateNulls()
+	{
+		try
+		{
+			assertNull(op.abstractEvaluate(null, null));
+		}
+		catch (NullPointerException e)
+		{
+			//okay too
+		}
+		try
+		{
+			assertNull(op.abstractEvaluate(FIXED_CLASS, null));
+		}
+		catch (NullPointerException e)
+		{
+			//okay too
+		}
+		try
+		{
+			assertNull(op.abstractEvaluate(null, FIXED_CLASS));
+		}
+		catch (NullPointerException e)
+		{
+			//okay too
+		}
+	}
+
+	public void testAbstractEvaluateMismatch()
+	{
+		assertNull(op.abstractEvaluate(BOOLEAN_CLASS, FIXED_CLASS));
+		assertNull(op.abstractEvaluate(FIXED_CLASS, BOOLEAN_CLASS));
+		//Left to the Number operators
+		assertNull(op.abstractEvaluate(NUMBER_CLASS, NUMBER_CLASS));
+		assertNull(op.abstractEvaluate(INTEGER_CLASS, INTEGER_CLASS));
+	}
+
+	public void testAbstractEvaluateLegal()
+	{
+		assertEquals(FIXED_CLASS,
+			op.abstractEvaluate(FIXED_CLASS, FIXED_CLASS));
+		//mixed okay too
+		assertEquals(FIXED_CLASS,
+			op.abstractEvaluate(NUMBER_CLASS, FIXED_CLASS));
+		assertEquals(FIXED_CLASS,
+			op.abstractEvaluate(FIXED_CLASS, INTEGER_CLASS));
+	}
+
+	public void testEvaluateFailNull()
+	{
+		try
+		{
+			assertNull(op.evaluate(null, null));
+			fail();
+		}
+		catch (RuntimeException e)
+		{
+			//expected
+		}
+		try
+		{
+			assertNull(op.evaluate(FixedPoint.ONE, null));
+			fail();
+		}
+		catch (RuntimeException e)
+		{
+			//expected
+		}
+	}
+
+	public void testEvaluateMismatch()
+	{
+		try
+		{
+			assertNull(op.evaluate(true, FixedPoint.ONE));
+			fail();
+		}
+		catch (Exception e)
+		{
+			//expected
+		}
+		try
+		{
+			assertNull(op.evaluate(new Object(), FixedPoint.ONE));
+			fail();
+		}
+		catch (Exception e)
+		{
+			//expected
+		}
+	}
+
+	public void testEvaluateLegal()
+	{
+		assertEquals(FixedPoint.valueOf("0.3"),
+			op.evaluate(FixedPoint.valueOf("0.1"), FixedPoint.valueOf("0.2")));
+		assertEquals(FixedPoint.valueOf("3.5"),
+			op.evaluate(Integer.valueOf(2), FixedPoint.valueOf("1.5")));
+		assertEquals(FixedPoint.valueOf("1.2"),
+			op.evaluate(FixedPoint.valueOf("1.5"), Double.valueOf(-0.3)));
+	}
+
+	public void testEvaluatePrimitive()
+	{
+		long[][] args = {{1000L, 2000L}, {-25000L, 5000L}, {0L, 1L}};
+		for (long[] pair : args)
+		{
+			NumericResult result = new NumericResult();
+			op.evaluate(pair[0], pair[1], result);
+			assertTrue(result.isFixed());
+			assertEquals(op.evaluate(FixedPoint.fromScaled(pair[0]),
+				FixedPoint.fromScaled(pair[1])), result.get());
+		}
+	}
+}
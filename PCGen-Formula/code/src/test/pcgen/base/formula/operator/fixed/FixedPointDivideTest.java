@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.operator.fixed;
+
+import junit.framework.TestCase;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.NumericResult;
+
+public class FixedPointDivideTest extends TestCase
+{
+
+	private static final Class<Number> NUMBER_CLASS = Number.class;
+	private static final Class<Boolean> BOOLEAN_CLASS = Boolean.class;
+	private static final Class<FixedPoint> FIXED_CLASS = FixedPoint.class;
+
+	private final FixedPointDivide op = new FixedPointDivide();
+
+	public void testOperator()
+	{
+		assertNotNull(op.getOperator());
+		assertTrue(op.getOperator().getSymbol().equals("/"));
+	}
+
+	public void testAbstractEvaluate()
+	{
+		assertNull(op.abstractEvaluate(BOOLEAN_CLASS, FIXED_CLASS));
+		assertNull(op.abstractEvaluate(NUMBER_CLASS, NUMBER_CLASS));
+		assertEquals(FIXED_CLASS,
+			op.abstractEvaluate(FIXED_CLASS, FIXED_CLASS));
+		assertEquals(FIXED_CLASS,
+			op.abstractEvaluate(FIXED_CLASS, NUMBER_CLASS));
+	}
+
+	public void testEvaluateLegal()
+	{
+		//Always a FixedPoint, even if exact
+		assertEquals(FixedPoint.valueOf("2"),
+			op.evaluate(FixedPoint.valueOf("4"), FixedPoint.valueOf("2")));
+		assertEquals(FixedPoint.valueOf("0.3333"),
+			op.evaluate(FixedPoint.ONE, Integer.valueOf(3)));
+		assertEquals(FixedPoint.valueOf("-0.6667"),
+			op.evaluate(Integer.valueOf(-2), FixedPoint.valueOf("3")));
+	}
+
+	public void testEvaluateDivideByZero()
+	{
+		try
+		{
+			op.evaluate(FixedPoint.ONE, FixedPoint.ZERO);
+			fail();
+		}
+		catch (ArithmeticException e)
+		{
+			//expected
+		}
+		try
+		{
+			op.evaluate(10000L, 0L, new NumericResult());
+			fail();
+		}
+		catch (ArithmeticException e)
+		{
+			//expected
+		}
+	}
+
+	public void testEvaluatePrimitive()
+	{
+		long[][] args =
+				{{10000L, 30000L}, {-20000L, 30000L}, {5L, 20000L},
+					{40000L, -20000L}};
+		for (long[] pair : args)
+		{
+			NumericResult result = new NumericResult();
+			op.evaluate(pair[0], pair[1], result);
+			assertTrue(result.isFixed());
+			assertEquals(op.evaluate(FixedPoint.fromScaled(pair[0]),
+				FixedPoint.fromScaled(pair[1])), result.get());
+		}
+	}
+}
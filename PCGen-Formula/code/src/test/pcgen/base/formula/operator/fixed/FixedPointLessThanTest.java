@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.operator.fixed;
+
+import junit.framework.TestCase;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.NumericResult;
+
+public class FixedPointLessThanTest extends TestCase
+{
+
+	private static final Class<Number> NUMBER_CLASS = Number.class;
+	private static final Class<Boolean> BOOLEAN_CLASS = Boolean.class;
+	private static final Class<FixedPoint> FIXED_CLASS = FixedPoint.class;
+
+	private final FixedPointLessThan op = new FixedPointLessThan();
+
+	public void testOperator()
+	{
+		assertNotNull(op.getOperator());
+		assertTrue(op.getOperator().getSymbol().equals("<"));
+	}
+
+	public void testAbstractEvaluate()
+	{
+		assertNull(op.abstractEvaluate(BOOLEAN_CLASS, FIXED_CLASS));
+		assertNull(op.abstractEvaluate(NUMBER_CLASS, NUMBER_CLASS));
+		assertEquals(BOOLEAN_CLASS,
+			op.abstractEvaluate(FIXED_CLASS, FIXED_CLASS));
+		assertEquals(BOOLEAN_CLASS,
+			op.abstractEvaluate(NUMBER_CLASS, FIXED_CLASS));
+	}
+
+	public void testEvaluateLegal()
+	{
+		assertEquals(Boolean.TRUE,
+			op.evaluate(FixedPoint.valueOf("0.3333"), FixedPoint.valueOf(
+				"0.3334")));
+		assertEquals(Boolean.FALSE,
+			op.evaluate(FixedPoint.valueOf("0.3334"), FixedPoint.valueOf(
+				"0.3334")));
+		assertEquals(Boolean.FALSE,
+			op.evaluate(Integer.valueOf(1), FixedPoint.valueOf("0.9999")));
+	}
+
+	public void testEvaluatePrimitive()
+	{
+		long[][] args = {{1L, 2L}, {2L, 1L}, {-5L, -5L}};
+		for (long[] pair : args)
+		{
+			NumericResult result = new NumericResult();
+			op.evaluate(pair[0], pair[1], result);
+			assertEquals(op.evaluate(FixedPoint.fromScaled(pair[0]),
+				FixedPoint.fromScaled(pair[1])), result.get());
+		}
+	}
+}
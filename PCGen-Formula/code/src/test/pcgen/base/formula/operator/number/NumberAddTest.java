@@ -19,6 +19,8 @@ package pcgen.base.formula.operator.number;
 
 import junit.framework.TestCase;
 
+import pcgen.base.testsupport.TestUtilities;
+
 public class NumberAddTest extends TestCase
 {
 
@@ -149,4 +151,18 @@ public class NumberAddTest extends TestCase
 				(Number) op.evaluate(Integer.valueOf(2), Float.valueOf(3.3f));
 		assertTrue(Math.abs(val.doubleValue() - 5.3) < (Math.pow(10, -7)));
 	}
+
+	public void testEvaluatePrimitive()
+	{
+		TestUtilities.assertEvaluates(op, 6, 4, 2);
+		TestUtilities.assertEvaluates(op, -4, -7, 3);
+		//Overflow wraps on both paths
+		TestUtilities.assertEvaluates(op, Integer.MIN_VALUE,
+			Integer.MAX_VALUE, 1);
+		TestUtilities.assertEvaluates(op, -2,
+			Integer.MAX_VALUE, Integer.MAX_VALUE);
+		TestUtilities.assertEvaluates(op, 0.30000000000000004, 0.1, 0.2);
+		TestUtilities.assertEvaluates(op, Double.POSITIVE_INFINITY,
+			Double.MAX_VALUE, Double.MAX_VALUE);
+	}
 }
@@ -19,6 +19,8 @@ package pcgen.base.formula.operator.number;
 
 import junit.framework.TestCase;
 
+import pcgen.base.testsupport.TestUtilities;
+
 public class NumberDivideTest extends TestCase
 {
 
@@ -151,4 +153,20 @@ public class NumberDivideTest extends TestCase
 				(Number) op.evaluate(Integer.valueOf(2), Float.valueOf(3.3f));
 		assertTrue(Math.abs(val.doubleValue() - (2/3.3)) < (Math.pow(10, -7)));
 	}
+
+	public void testEvaluatePrimitive()
+	{
+		TestUtilities.assertEvaluates(op, 2, 4, 2);
+		//Integer result only if exact
+		TestUtilities.assertEvaluates(op, 0.5, 2, 4);
+		TestUtilities.assertEvaluates(op, -3.5, -7, 2);
+		TestUtilities.assertEvaluates(op, -5, 5, -1);
+		//Overflow wraps on both paths
+		TestUtilities.assertEvaluates(op, Integer.MIN_VALUE,
+			Integer.MIN_VALUE, -1);
+		TestUtilities.assertArithmeticException(op, 5, 0);
+		TestUtilities.assertArithmeticException(op, 0, 0);
+		TestUtilities.assertEvaluates(op, Double.POSITIVE_INFINITY, 4.5, 0.0);
+		TestUtilities.assertEvaluates(op, Double.NaN, 0.0, 0.0);
+	}
 }
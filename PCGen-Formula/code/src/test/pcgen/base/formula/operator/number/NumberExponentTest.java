@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.operator.number;
+
+import junit.framework.TestCase;
+
+import pcgen.base.formula.base.NumericResult;
+
+public class NumberExponentTest extends TestCase
+{
+
+	private static final Class<Number> NUMBER_CLASS = Number.class;
+	private static final Class<Boolean> BOOLEAN_CLASS = Boolean.class;
+	private static final Class<Integer> INTEGER_CLASS = Integer.class;
+	private static final Class<Double> DOUBLE_CLASS = Double.class;
+
+	private final NumberExponent op = new NumberExponent();
+
+	public void testOperator()
+	{
+		assertNotNull(op.getOperator());
+		assertTrue(op.getOperator().getSymbol().equals("^"));
+	}
+
+	public void testAbstractEvaluateNulls()
+	{
+		try
+		{
+			assertNull(op.abstractEvaluate(null, null));
+		}
+		catch (NullPointerException e)
+		{
+			//okay too
+		}
+		try
+		{
+			assertNull(op.abstractEvaluate(NUMBER_CLASS, null));
+		}
+		catch (NullPointerException e)
+		{
+			//okay too
+		}
+		try
+		{
+			assertNull(op.abstractEvaluate(null, NUMBER_CLASS));
+		}
+		catch (NullPointerException e)
+		{
+			//okay too
+		}
+	}
+
+	public void testAbstractEvaluateMismatch()
+	{
+		assertNull(op.abstractEvaluate(BOOLEAN_CLASS, INTEGER_CLASS));
+		assertNull(op.abstractEvaluate(NUMBER_CLASS, BOOLEAN_CLASS));
+	}
+
+	public void testAbstractEvaluateLegal()
+	{
+		assertEquals(NUMBER_CLASS,
+			op.abstractEvaluate(NUMBER_CLASS, NUMBER_CLASS));
+		assertEquals(NUMBER_CLASS,
+			op.abstractEvaluate(DOUBLE_CLASS, DOUBLE_CLASS));
+		assertEquals(NUMBER_CLASS,
+			op.abstractEvaluate(INTEGER_CLASS, INTEGER_CLASS));
+		//mixed okay too
+		assertEquals(NUMBER_CLASS,
+			op.abstractEvaluate(NUMBER_CLASS, DOUBLE_CLASS));
+		assertEquals(NUMBER_CLASS,
+			op.abstractEvaluate(INTEGER_CLASS, DOUBLE_CLASS));
+		assertEquals(NUMBER_CLASS,
+			op.abstractEvaluate(DOUBLE_CLASS, INTEGER_CLASS));
+	}
+
+	public void testEvaluateFailNull()
+	{
+		try
+		{
+			assertNull(op.evaluate(null, null));
+			fail();
+		}
+		catch (NullPointerException e)
+		{
+			//expected
+		}
+		try
+		{
+			assertNull(op.evaluate(Integer.valueOf(0), null));
+			fail();
+		}
+		catch (NullPointerException e)
+		{
+			//expected
+		}
+		try
+		{
+			assertNull(op.evaluate(null, Double.valueOf(4.5)));
+			fail();
+		}
+		catch (NullPointerException e)
+		{
+			//expected
+		}
+	}
+
+	public void testEvaluateMismatch()
+	{
+		try
+		{
+			assertNull(op.evaluate(true, Double.valueOf(4.5)));
+			fail();
+		}
+		catch (Exception e)
+		{
+			//expected
+		}
+		try
+		{
+			assertNull(op.evaluate(new Object(), Double.valueOf(4.5)));
+			fail();
+		}
+		catch (Exception e)
+		{
+			//expected
+		}
+	}
+
+	public void testEvaluateLegal()
+	{
+		assertEquals(Integer.valueOf(8),
+			op.evaluate(Integer.valueOf(2), Integer.valueOf(3)));
+		assertEquals(Integer.valueOf(-27),
+			op.evaluate(Integer.valueOf(-3), Integer.valueOf(3)));
+		assertEquals(Integer.valueOf(1),
+			op.evaluate(Integer.valueOf(0), Integer.valueOf(0)));
+		assertEquals(Integer.valueOf(0),
+			op.evaluate(Integer.valueOf(0), Integer.valueOf(7)));
+		assertEquals(Integer.valueOf(1),
+			op.evaluate(Integer.valueOf(-1), Integer.valueOf(1000000)));
+		assertEquals(Double.valueOf(0.5),
+			op.evaluate(Integer.valueOf(2), Integer.valueOf(-1)));
+		assertEquals(Double.valueOf(Math.pow(2.0, 3.2)),
+			op.evaluate(Integer.valueOf(2), Double.valueOf(3.2)));
+		assertEquals(Double.valueOf(8.0),
+			op.evaluate(Double.valueOf(2.0), Integer.valueOf(3)));
+		Number val =
+				(Number) op.evaluate(Integer.valueOf(2), Float.valueOf(0.5f));
+		assertTrue(Math.abs(val.doubleValue() - Math.sqrt(2)) < (Math.pow(
+			10, -7)));
+	}
+
+	public void testEvaluateOverflow()
+	{
+		assertEquals(Integer.valueOf(1073741824),
+			op.evaluate(Integer.valueOf(2), Integer.valueOf(30)));
+		assertEquals(Double.valueOf(2147483648.0),
+			op.evaluate(Integer.valueOf(2), Integer.valueOf(31)));
+		assertEquals(Integer.valueOf(Integer.MIN_VALUE),
+			op.evaluate(Integer.valueOf(-2), Integer.valueOf(31)));
+		assertEquals(Double.valueOf(-8589934592.0),
+			op.evaluate(Integer.valueOf(-2), Integer.valueOf(33)));
+		assertEquals(Integer.valueOf(1220703125),
+			op.evaluate(Integer.valueOf(5), Integer.valueOf(13)));
+		assertEquals(Double.valueOf(Math.pow(46341, 2)),
+			op.evaluate(Integer.valueOf(46341), Integer.valueOf(2)));
+		assertEquals(Double.valueOf(Math.pow(10, 20)),
+			op.evaluate(Integer.valueOf(10), Integer.valueOf(20)));
+	}
+
+	public void testEvaluatePrimitive()
+	{
+		int[][] intArgs =
+				{{2, 3}, {-3, 3}, {0, 0}, {2, -2}, {2, 31}, {7, 11}, {-1, 9}};
+		for (int[] args : intArgs)
+		{
+			NumericResult result = new NumericResult();
+			op.evaluate(args[0], args[1], result);
+			assertSameResult(op.evaluate(Integer.valueOf(args[0]),
+				Integer.valueOf(args[1])), result.get());
+		}
+		double[][] doubleArgs =
+				{{2.0, 1.3}, {0.0, 4.5}, {4.5, 0.0}, {-2.5, 2.0}, {3.0, 3.0}};
+		for (double[] args : doubleArgs)
+		{
+			NumericResult result = new NumericResult();
+			op.evaluate(args[0], args[1], result);
+			assertSameResult(op.evaluate(Double.valueOf(args[0]),
+				Double.valueOf(args[1])), result.get());
+		}
+	}
+
+	private void assertSameResult(Object expected, Object actual)
+	{
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected, actual);
+	}
+}
@@ -19,6 +19,8 @@ package pcgen.base.formula.operator.number;
 
 import junit.framework.TestCase;
 
+import pcgen.base.testsupport.TestUtilities;
+
 public class NumberMultiplyTest extends TestCase
 {
 
@@ -153,4 +155,19 @@ public class NumberMultiplyTest extends TestCase
 				(Number) op.evaluate(Integer.valueOf(2), Float.valueOf(3.3f));
 		assertTrue(Math.abs(val.doubleValue() - 6.6) < (Math.pow(10, -7)));
 	}
+
+	public void testEvaluatePrimitive()
+	{
+		TestUtilities.assertEvaluates(op, 8, 4, 2);
+		TestUtilities.assertEvaluates(op, -21, -7, 3);
+		//Overflow wraps on both paths
+		TestUtilities.assertEvaluates(op, -2, Integer.MAX_VALUE, 2);
+		TestUtilities.assertEvaluates(op, 0, 65536, 65536);
+		TestUtilities.assertEvaluates(op, Integer.MIN_VALUE,
+			Integer.MIN_VALUE, -1);
+		TestUtilities.assertEvaluates(op, -3.75, -2.5, 1.5);
+		//A zero operand produces Integer 0 on both paths, even with infinity
+		TestUtilities.assertEvaluates(op, 0, -2.5, 0.0);
+		TestUtilities.assertEvaluates(op, 0, Double.POSITIVE_INFINITY, 0.0);
+	}
 }
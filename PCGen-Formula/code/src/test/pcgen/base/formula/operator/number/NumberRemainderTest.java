@@ -19,6 +19,8 @@ package pcgen.base.formula.operator.number;
 
 import junit.framework.TestCase;
 
+import pcgen.base.testsupport.TestUtilities;
+
 public class NumberRemainderTest extends TestCase
 {
 
@@ -151,4 +153,18 @@ public class NumberRemainderTest extends TestCase
 				(Number) op.evaluate(Integer.valueOf(2), Float.valueOf(0.3f));
 		assertTrue(Math.abs(val.doubleValue() - 0.2) < (Math.pow(10, -7)));
 	}
+
+	public void testEvaluatePrimitive()
+	{
+		TestUtilities.assertEvaluates(op, 0, 4, 2);
+		//Sign of the dividend
+		TestUtilities.assertEvaluates(op, -1, -7, 3);
+		TestUtilities.assertEvaluates(op, 1, 7, -3);
+		//Not an overflow, unlike Integer.MIN_VALUE / -1
+		TestUtilities.assertEvaluates(op, 0, Integer.MIN_VALUE, -1);
+		TestUtilities.assertArithmeticException(op, 5, 0);
+		TestUtilities.assertArithmeticException(op, 0, 0);
+		TestUtilities.assertEvaluates(op, 0.5, 5.5, 2.5);
+		TestUtilities.assertEvaluates(op, Double.NaN, 5.5, 0.0);
+	}
 }
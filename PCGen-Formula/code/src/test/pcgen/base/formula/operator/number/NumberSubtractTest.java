@@ -19,6 +19,8 @@ package pcgen.base.formula.operator.number;
 
 import junit.framework.TestCase;
 
+import pcgen.base.testsupport.TestUtilities;
+
 public class NumberSubtractTest extends TestCase
 {
 
@@ -149,4 +151,18 @@ public class NumberSubtractTest extends TestCase
 				(Number) op.evaluate(Integer.valueOf(2), Float.valueOf(3.3f));
 		assertTrue(Math.abs(val.doubleValue() + 1.3) < (Math.pow(10, -7)));
 	}
+
+	public void testEvaluatePrimitive()
+	{
+		TestUtilities.assertEvaluates(op, 2, 4, 2);
+		TestUtilities.assertEvaluates(op, -10, -7, 3);
+		//Overflow wraps on both paths
+		TestUtilities.assertEvaluates(op, Integer.MAX_VALUE,
+			Integer.MIN_VALUE, 1);
+		TestUtilities.assertEvaluates(op, Integer.MIN_VALUE,
+			0, Integer.MIN_VALUE);
+		TestUtilities.assertEvaluates(op, 0.09999999999999998, 1.0, 0.9);
+		TestUtilities.assertEvaluates(op, Double.NaN,
+			Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
 }
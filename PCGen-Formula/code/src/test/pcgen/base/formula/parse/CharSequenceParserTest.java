@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.parse;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class CharSequenceParserTest extends FormulaParserTest
+{
+
+	private static final String[] EXPRESSIONS = {"", "1", "-5", "1.0", ".2",
+		"1.", "-.5", "1 . 5", "2+3", "2 + 3", " 2+3", "2+3 ", "3--4", "1-2-3",
+		"1&&2||3", "1==2!=3", "1<2>3<=4>=5", "1 <= 2", "1< =2", "1=2",
+		"2*3/4%5", "2^3^4", "-2^3", "(2^3)^4", "()", "(((2+3)))", "(1.2))",
+		"variable", "var1.var2", "My Var", "My Var ", "a=b", "a==b", "a=b=c",
+		"a%3", "a % 3", "(a)%3", "%a", "% a", "%a%b", "a%%b", "a_b:c~",
+		"a_", "a ~", "été", "一丁+1", "f()", "f(a,b)",
+		"f(,3)", "f(4,)", "f(5,,6)", "f[ARG]", "f[ARG WithSpace]", "f[]",
+		"f[a,b]", "f (a)", "f(\"str\")", "f(\"a \\\" b\")", "f(\"a\\q\")",
+		"f(\"a\",b,\"c\")", "\"str\"", "f(\"unterminated)", "if(a>3,a,b)",
+		"floor(LVL/4)+max(1,2)", "a\tb", "3\n", "$", "!", "1 ! 2", "a||",
+		"a&&b", "a & b", "1,2", "(5,5)", "f[5,,6]", "12345678901234",
+		"0.0000001", "-(-a)", "a^-1", "2^(-1)"};
+
+	@Override
+	protected SimpleNode doTest(String formula) throws ParseException
+	{
+		return new CharSequenceParser().parse(formula);
+	}
+
+	@Test
+	public void testNull() throws ParseException
+	{
+		try
+		{
+			new CharSequenceParser().parse(null);
+			fail("Expected null formula to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testSameTree()
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			SimpleNode expected;
+			try
+			{
+				expected =
+						new FormulaParser(new StringReader(expression)).query();
+			}
+			catch (ParseException | TokenMgrError e)
+			{
+				expected = null;
+			}
+			SimpleNode actual;
+			try
+			{
+				actual = doTest(expression);
+			}
+			catch (ParseException e)
+			{
+				actual = null;
+			}
+			if (expected == null)
+			{
+				assertNull(expression, actual);
+			}
+			else
+			{
+				assertNotNull(expression, actual);
+				assertSameTree(expression, expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testReuse() throws ParseException
+	{
+		CharSequenceParser parser = new CharSequenceParser();
+		SimpleNode first = parser.parse(new StringBuilder("2+a"));
+		SimpleNode second = parser.parse("b*2");
+		assertSame(((SimpleNode) first.jjtGetChild(0).jjtGetChild(0))
+			.getValue(), ((SimpleNode) second.jjtGetChild(0).jjtGetChild(1))
+			.getValue());
+		try
+		{
+			parser.parse("2+");
+			fail("Expected bad formula to fail");
+		}
+		catch (ParseException e)
+		{
+			//Yep
+		}
+		SimpleNode empty = parser.parse("");
+		assertTrue(empty instanceof ASTRoot);
+		assertEquals(0, empty.jjtGetNumChildren());
+	}
+
+	private void assertSameTree(String expression, SimpleNode expected,
+		SimpleNode actual)
+	{
+		assertEquals(expression, expected.getClass(), actual.getClass());
+		assertEquals(expression, expected.getId(), actual.getId());
+		assertEquals(expression, expected.getOperator(), actual.getOperator());
+		assertEquals(expression, expected.getText(), actual.getText());
+		Object expectedValue = expected.getValue();
+		Object actualValue = actual.getValue();
+		assertEquals(expression, expectedValue, actualValue);
+		if (expectedValue != null)
+		{
+			assertEquals(expression, expectedValue.getClass(),
+				actualValue.getClass());
+		}
+		int childCount = expected.jjtGetNumChildren();
+		assertEquals(expression, childCount, actual.jjtGetNumChildren());
+		for (int i = 0; i < childCount; i++)
+		{
+			assertSame(expression, actual, actual.jjtGetChild(i)
+				.jjtGetParent());
+			assertSameTree(expression, (SimpleNode) expected.jjtGetChild(i),
+				(SimpleNode) actual.jjtGetChild(i));
+		}
+	}
+}
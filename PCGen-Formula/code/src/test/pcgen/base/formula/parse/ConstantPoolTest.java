@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.parse;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import pcgen.base.testsupport.TestUtilities;
+
+public class ConstantPoolTest extends TestCase
+{
+
+	@Test
+	public void testDecodeNumber()
+	{
+		assertNull(ConstantPool.decodeNumber(null));
+		assertNull(ConstantPool.decodeNumber(""));
+		assertNull(ConstantPool.decodeNumber("."));
+		assertNull(ConstantPool.decodeNumber("1.2.3"));
+		assertNull(ConstantPool.decodeNumber("abc"));
+		assertEquals(Integer.valueOf(0), ConstantPool.decodeNumber("0"));
+		assertEquals(Integer.valueOf(7), ConstantPool.decodeNumber("007"));
+		assertEquals(Integer.valueOf(Integer.MAX_VALUE),
+			ConstantPool.decodeNumber("2147483647"));
+		assertEquals(Double.valueOf(2147483648.0),
+			ConstantPool.decodeNumber("2147483648"));
+		assertEquals(Double.valueOf(0.5), ConstantPool.decodeNumber(".5"));
+		assertEquals(Double.valueOf(1.25), ConstantPool.decodeNumber("1.25"));
+		assertEquals(Double.valueOf(4.0), ConstantPool.decodeNumber("4.0"));
+		assertEquals(Integer.valueOf(-3), ConstantPool.decodeNumber("-3"));
+		assertEquals(Double.valueOf(1.5e3),
+			ConstantPool.decodeNumber("1.5e3"));
+	}
+
+	@Test
+	public void testGetNumber()
+	{
+		ConstantPool pool = new ConstantPool();
+		Number first = pool.getNumber("2.5");
+		assertEquals(Double.valueOf(2.5), first);
+		assertSame(first, pool.getNumber("2.5"));
+		assertNull(pool.getNumber("x"));
+	}
+
+	@Test
+	public void testParsedValues()
+	{
+		SimpleNode root = TestUtilities.doParse("2.5+2.5*3");
+		Node add = root.jjtGetChild(0);
+		SimpleNode left = (SimpleNode) add.jjtGetChild(0);
+		SimpleNode right =
+				(SimpleNode) add.jjtGetChild(1).jjtGetChild(0);
+		SimpleNode three =
+				(SimpleNode) add.jjtGetChild(1).jjtGetChild(1);
+		assertEquals(Double.valueOf(2.5), left.getValue());
+		assertSame(left.getValue(), right.getValue());
+		assertEquals(Integer.valueOf(3), three.getValue());
+		assertEquals("2.5", left.getText());
+	}
+}
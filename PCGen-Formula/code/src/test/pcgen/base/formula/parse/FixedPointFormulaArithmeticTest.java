@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.parse;
+
+import org.junit.Test;
+
+import pcgen.base.formula.base.FixedPoint;
+import pcgen.base.formula.base.NumericMode;
+import pcgen.base.formula.base.NumericResult;
+import pcgen.base.formula.base.VariableID;
+import pcgen.base.formula.base.VariableLibrary;
+import pcgen.base.formula.inst.ComplexNEPFormula;
+import pcgen.base.formula.inst.FixedPointManager;
+import pcgen.base.formula.inst.FormulaCompiler;
+import pcgen.base.formula.inst.FormulaUtilities;
+import pcgen.base.formula.inst.ProgramNEPFormula;
+import pcgen.base.formula.inst.ScopeInformation;
+import pcgen.base.formula.visitor.VisitorUtilities;
+import pcgen.base.testsupport.AbstractFormulaTestCase;
+import pcgen.base.testsupport.TestUtilities;
+
+public class FixedPointFormulaArithmeticTest extends AbstractFormulaTestCase
+{
+
+	private FixedPointManager fixedManager = new FixedPointManager();
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		FormulaUtilities.loadBuiltInFunctions(getFunctionLibrary());
+		FormulaUtilities.loadFixedPointOperators(getOperatorLibrary());
+		getVariableStore().put(getFixedVariable("a"),
+			FixedPoint.valueOf("2.5"));
+		getVariableStore().put(getFixedVariable("b"), FixedPoint.valueOf("3"));
+	}
+
+	@Override
+	protected NumericMode getNumericMode()
+	{
+		return NumericMode.FIXED_POINT;
+	}
+
+	@Test
+	public void testLiterals()
+	{
+		assertFixed("1", "1");
+		assertFixed("0", "0");
+		assertFixed("-5", "-5");
+		assertFixed("2.5", "2.5");
+		assertFixed("0.00004", "0");
+		assertFixed("0.00005", "0.0001");
+		//Decoded from the text, not via a double
+		assertFixed("123456789012.3456", "123456789012.3456");
+		assertFixed("922337203685477.5807", "922337203685477.5807");
+		assertFixed("1-922337203685477.5807", "-922337203685476.5807");
+		//Decoded once, and held by the node
+		ASTNum num = (ASTNum) TestUtilities.doParse("2.5").jjtGetChild(0);
+		Number value = VisitorUtilities.getNumber(num, NumericMode.FIXED_POINT);
+		assertEquals(FixedPoint.valueOf("2.5"), value);
+		assertSame(value,
+			VisitorUtilities.getNumber(num, NumericMode.FIXED_POINT));
+		assertEquals(2.5, VisitorUtilities.getNumber(num, NumericMode.STANDARD));
+		String formula = "1.25";
+		SimpleNode node = TestUtilities.doParse(formula);
+		isValid(formula, node, numberManager);
+		isStatic(formula, node, true);
+	}
+
+	@Test
+	public void testAddSubtract()
+	{
+		assertFixed("0.1+0.2", "0.3");
+		assertFixed("1-0.9", "0.1");
+		assertFixed("a+b", "5.5");
+		assertFixed("a-b", "-0.5");
+		assertBoolean("0.1+0.2==0.3", true);
+	}
+
+	@Test
+	public void testMultiply()
+	{
+		assertFixed("a*2", "5");
+		assertFixed("a*a", "6.25");
+		//0.00025 rounds away from zero
+		assertFixed("0.0005*0.5", "0.0003");
+		assertFixed("-0.0005*0.5", "-0.0003");
+		assertFixed("0.0004*0.5", "0.0002");
+	}
+
+	@Test
+	public void testDivide()
+	{
+		assertFixed("4/2", "2");
+		assertFixed("1/3", "0.3333");
+		assertFixed("2/3", "0.6667");
+		assertFixed("-2/3", "-0.6667");
+		assertFixed("1/8", "0.125");
+		assertFixed("b/a", "1.2");
+		assertFixed("1/3*3", "0.9999");
+	}
+
+	@Test
+	public void testRemainder()
+	{
+		assertFixed("7.5%2", "1.5");
+		assertFixed("-7.5%2", "-1.5");
+		assertFixed("(b)%a", "0.5");
+	}
+
+	@Test
+	public void testNegate()
+	{
+		assertFixed("-a", "-2.5");
+		assertFixed("-(1/3)", "-0.3333");
+		assertFixed("-(-a)", "2.5");
+	}
+
+	@Test
+	public void testExponent()
+	{
+		assertFixed("2^3", "8");
+		assertFixed("2^(-1)", "0.5");
+		assertFixed("a^2", "6.25");
+		assertFixed("4^0.5", "2");
+		assertFixed("2^3^2", "64");
+		assertFixed("2^0", "1");
+	}
+
+	@Test
+	public void testComparison()
+	{
+		assertBoolean("1/3<0.3334", true);
+		assertBoolean("1/3>=0.3334", false);
+		assertBoolean("1/3*3==1", false);
+		assertBoolean("a!=b", true);
+		assertBoolean("a<=2.5", true);
+		assertBoolean("a>2.5", false);
+	}
+
+	@Test
+	public void testFunctions()
+	{
+		assertFixed("floor(-2.5)", "-3");
+		assertFixed("floor(2.9999)", "2");
+		assertFixed("ceil(-2.5)", "-2");
+		assertFixed("ceil(2.0001)", "3");
+		assertFixed("round(2.5)", "3");
+		assertFixed("round(-2.5)", "-2");
+		assertFixed("round(2.4999)", "2");
+		assertFixed("round(1/3*3)", "1");
+		assertFixed("abs(-1.25)", "1.25");
+		assertFixed("abs(a)", "2.5");
+		assertFixed("max(1/3,0.3)", "0.3333");
+		assertFixed("min(a,b,1/4)", "0.25");
+		assertFixed("if(a>b,a,b/4)", "0.75");
+	}
+
+	@Test
+	public void testDivideByZero()
+	{
+		String formula = "a/(b-3)";
+		SimpleNode node = TestUtilities.doParse(formula);
+		isValid(formula, node, fixedManager);
+		try
+		{
+			evaluate(node);
+			fail("Expected division by zero to fail");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testProgram()
+	{
+		FormulaCompiler compiler = new FormulaCompiler(getFormulaManager());
+		ScopeInformation scopeInfo =
+				new ScopeInformation(getFormulaManager(), getGlobalScopeInst());
+		String[] expressions =
+				{"1/3", "-a*b", "a^2^0.5", "2^3^2", "-(-a)/b", "(b)%a+1",
+					"round(a)+floor(-a)", "if(a<b,a,b)*0.5"};
+		for (String expression : expressions)
+		{
+			ComplexNEPFormula<FixedPoint> formula =
+					new ComplexNEPFormula<FixedPoint>(expression);
+			ProgramNEPFormula<FixedPoint> program =
+					compiler.compileProgram(formula, getGlobalScope(),
+						fixedManager);
+			FixedPoint expected = formula.resolve(scopeInfo);
+			assertEquals(expression, expected, program.resolve(scopeInfo));
+			NumericResult result = new NumericResult();
+			program.resolve(scopeInfo, result);
+			assertTrue(expression, result.isFixed());
+			assertEquals(expression, expected.getScaled(), result.getFixed());
+		}
+	}
+
+	private void assertFixed(String formula, String expected)
+	{
+		SimpleNode node = TestUtilities.doParse(formula);
+		isValid(formula, node, fixedManager);
+		Object result = evaluate(node);
+		assertEquals(formula, FixedPoint.class, result.getClass());
+		assertEquals(formula, FixedPoint.valueOf(expected), result);
+	}
+
+	private void assertBoolean(String formula, boolean expected)
+	{
+		SimpleNode node = TestUtilities.doParse(formula);
+		isValid(formula, node, booleanManager);
+		assertEquals(formula, Boolean.valueOf(expected), evaluate(node));
+	}
+
+	private VariableID<FixedPoint> getFixedVariable(String name)
+	{
+		VariableLibrary variableLibrary = getVariableLibrary();
+		variableLibrary.assertLegalVariableID(name, getGlobalScope(),
+			fixedManager);
+		return (VariableID<FixedPoint>) variableLibrary.getVariableID(
+			getGlobalScopeInst(), name);
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 (C) Tom Parker <thpr@users.sourceforge.net>
+ * 
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package pcgen.base.formula.parse;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class FlatTreeTest extends TestCase
+{
+
+	private static final String[] EXPRESSIONS = {"", "1", "-5", "1.0",
+		"2+3", "1-2-3", "1&&2||3", "1==2!=3", "1<2>3<=4>=5", "2*3/4%5",
+		"2^3^4", "-2^3", "(2^3)^4", "(((2+3)))", "variable", "My Var", "a%3",
+		"f()", "f(a,b)", "f[ARG]", "f(\"str\")", "if(a>3,a,b)",
+		"floor(LVL/4)+max(1,2)", "12345678901234", "-(-a)", "a^(-1)"};
+
+	@Test
+	public void testNull()
+	{
+		try
+		{
+			FlatTree.flatten(null);
+			fail("Expected null root to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Yep
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws ParseException
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			SimpleNode root =
+					new FormulaParser(new StringReader(expression)).query();
+			FlatTree tree = FlatTree.flatten(root);
+			assertEquals(expression, countNodes(root), tree.size());
+			assertSameTree(expression, root, tree, 0);
+			SimpleNode copy = tree.toTree();
+			assertNotSame(root, copy);
+			assertNull(copy.jjtGetParent());
+			assertSameTree(expression, copy, tree, 0);
+		}
+	}
+
+	@Test
+	public void testStructure() throws ParseException
+	{
+		FlatTree tree =
+				FlatTree.flatten(new FormulaParser(new StringReader(
+					"max(a,2)*3")).query());
+		assertEquals(FormulaParserTreeConstants.JJTROOT, tree.getKind(0));
+		assertEquals(1, tree.getChildCount(0));
+		int geometric = tree.getChild(0, 0);
+		assertEquals(FormulaParserTreeConstants.JJTGEOMETRIC,
+			tree.getKind(geometric));
+		assertEquals(Operator.MUL, tree.getOperator(geometric));
+		assertNull(tree.getText(geometric));
+		int lookup = tree.getChild(geometric, 0);
+		int three = tree.getChild(geometric, 1);
+		assertEquals(FormulaParserTreeConstants.JJTPCGENLOOKUP,
+			tree.getKind(lookup));
+		assertEquals(tree.getEnd(lookup), three);
+		assertEquals("3", tree.getText(three));
+		assertEquals(Integer.valueOf(3), tree.getValue(three));
+		assertEquals(tree.size(), tree.getEnd(0));
+		try
+		{
+			tree.getChild(geometric, 2);
+			fail("Expected missing child to be rejected");
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			//Yep
+		}
+		SimpleNode function = tree.toNode(lookup);
+		assertTrue(function instanceof ASTPCGenLookup);
+		assertNull(function.jjtGetParent());
+		assertEquals("max",
+			((SimpleNode) function.jjtGetChild(0)).getText());
+		//Each call materializes a new tree
+		assertNotSame(tree.toNode(lookup), tree.toNode(lookup));
+		assertNull(tree.getFunctionBinding(lookup));
+	}
+
+	private int countNodes(Node node)
+	{
+		int count = 1;
+		for (int i = 0; i < node.jjtGetNumChildren(); i++)
+		{
+			count += countNodes(node.jjtGetChild(i));
+		}
+		return count;
+	}
+
+	private void assertSameTree(String expression, SimpleNode expected,
+		FlatTree tree, int index)
+	{
+		assertEquals(expression, expected.getId(), tree.getKind(index));
+		assertEquals(expression, expected.getOperator(),
+			tree.getOperator(index));
+		assertEquals(expression, expected.getText(), tree.getText(index));
+		assertEquals(expression, expected.getValue(), tree.getValue(index));
+		int childCount = expected.jjtGetNumChildren();
+		assertEquals(expression, childCount, tree.getChildCount(index));
+		for (int i = 0; i < childCount; i++)
+		{
+			SimpleNode child = (SimpleNode) expected.jjtGetChild(i);
+			assertSame(expression, expected, child.jjtGetParent());
+			assertSameTree(expression, child, tree, tree.getChild(index, i));
+		}
+	}
+}
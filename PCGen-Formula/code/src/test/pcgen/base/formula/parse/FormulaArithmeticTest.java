@@ -2838,8 +2838,7 @@ public class FormulaArithmeticTest extends AbstractFormulaTestCase
 		isStatic(formula, node, true);
 		//Note integer math
 		assertTrue(getVariables(node).isEmpty());
-		//Note expectation setting here - NOT integer math
-		evaluatesTo(formula, node, Double.valueOf(8));
+		assertEquals(Integer.valueOf(8), evaluate(node));
 		Object rv =
 				new ReconstructionVisitor().visit(node, new StringBuilder());
 		assertTrue(rv.toString().equals(formula));
@@ -2896,8 +2895,7 @@ public class FormulaArithmeticTest extends AbstractFormulaTestCase
 		isStatic(formula, node, true);
 		//Note integer math
 		assertTrue(getVariables(node).isEmpty());
-		//Note expectation setting here - NOT integer math
-		evaluatesTo(formula, node, Double.valueOf(-8));
+		assertEquals(Integer.valueOf(-8), evaluate(node));
 		Object rv =
 				new ReconstructionVisitor().visit(node, new StringBuilder());
 		assertTrue(rv.toString().equals(formula));
@@ -2987,6 +2985,38 @@ public class FormulaArithmeticTest extends AbstractFormulaTestCase
 		assertTrue(rv.toString().equals(formula));
 	}
 
+	@Test
+	public void testExponentMultipleInteger()
+	{
+		String formula = "2^3^2";
+		SimpleNode node = TestUtilities.doParse(formula);
+		isValid(formula, node, numberManager);
+		isStatic(formula, node, true);
+		assertTrue(getVariables(node).isEmpty());
+		assertEquals(Integer.valueOf(64), evaluate(node));
+		Object rv =
+				new ReconstructionVisitor().visit(node, new StringBuilder());
+		assertTrue(rv.toString().equals(formula));
+	}
+
+	@Test
+	public void testExponentIntegerOverflow()
+	{
+		String formula = "2^31";
+		SimpleNode node = TestUtilities.doParse(formula);
+		isValid(formula, node, numberManager);
+		//Too large for an Integer, so not integer math
+		assertEquals(Double.valueOf(2147483648.0), evaluate(node));
+		formula = "2^(-1)";
+		node = TestUtilities.doParse(formula);
+		isValid(formula, node, numberManager);
+		assertEquals(Double.valueOf(0.5), evaluate(node));
+		formula = "2^16^2";
+		node = TestUtilities.doParse(formula);
+		isValid(formula, node, numberManager);
+		assertEquals(Double.valueOf(4294967296.0), evaluate(node));
+	}
+
 	@Test
 	public void testExponentSetExpectationsBase()
 	{
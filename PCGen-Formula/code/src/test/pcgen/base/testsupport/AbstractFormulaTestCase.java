@@ -27,11 +27,13 @@ import pcgen.base.formula.analysis.FormulaSemanticsUtilities;
 import pcgen.base.formula.analysis.FormulaValidity;
 import pcgen.base.formula.analysis.VariableDependencyManager;
 import pcgen.base.formula.base.DependencyManager;
+import pcgen.base.formula.base.EvaluationMode;
 import pcgen.base.formula.base.FormulaManager;
 import pcgen.base.formula.base.FormulaSemantics;
 import pcgen.base.formula.base.FunctionLibrary;
 import pcgen.base.formula.base.LegalScope;
 import pcgen.base.formula.base.LegalScopeLibrary;
+import pcgen.base.formula.base.NumericMode;
 import pcgen.base.formula.base.OperatorLibrary;
 import pcgen.base.formula.base.ScopeInstance;
 import pcgen.base.formula.base.VariableID;
@@ -59,7 +61,19 @@ public abstract class AbstractFormulaTestCase extends TestCase
 		setup = new SplitFormulaSetup();
 		setup.getLegalScopeLibrary().registerScope(
 			new SimpleLegalScope(null, "Global"));
-		localSetup = setup.getIndividualSetup("Global");
+		localSetup =
+				setup.getIndividualSetup("Global", getEvaluationMode(),
+					getNumericMode());
+	}
+
+	protected EvaluationMode getEvaluationMode()
+	{
+		return EvaluationMode.INTERPRETED;
+	}
+
+	protected NumericMode getNumericMode()
+	{
+		return NumericMode.STANDARD;
 	}
 
 	public void isValid(String formula, SimpleNode node,
@@ -88,7 +102,7 @@ public abstract class AbstractFormulaTestCase extends TestCase
 
 	public void evaluatesTo(String formula, SimpleNode node, Object valueOf)
 	{
-		Object result = localSetup.getScopeInfo().evaluate(node);
+		Object result = evaluate(node);
 		if (result.equals(valueOf))
 		{
 			return;
@@ -115,6 +129,11 @@ public abstract class AbstractFormulaTestCase extends TestCase
 			+ result.getClass().getSimpleName() + ")");
 	}
 
+	protected Object evaluate(SimpleNode node)
+	{
+		return localSetup.getScopeInfo().evaluate(node);
+	}
+
 	protected void isNotValid(String formula, SimpleNode node,
 		FormatManager<?> formatManager)
 	{
@@ -20,6 +20,8 @@ package pcgen.base.testsupport;
 import java.io.StringReader;
 
 import junit.framework.TestCase;
+import pcgen.base.formula.base.NumericOperatorAction;
+import pcgen.base.formula.base.NumericResult;
 import pcgen.base.formula.parse.FormulaParser;
 import pcgen.base.formula.parse.ParseException;
 import pcgen.base.formula.parse.SimpleNode;
@@ -54,4 +56,53 @@ public class TestUtilities
 		return ((diff >= 0) && (diff < delta))
 			|| ((diff < 0) && (diff > -delta));
 	}
+
+	public static void assertEvaluates(NumericOperatorAction action,
+		Number expected, int left, int right)
+	{
+		assertResult(expected, action.evaluate(Integer.valueOf(left),
+			Integer.valueOf(right)));
+		NumericResult result = new NumericResult();
+		action.evaluate(left, right, result);
+		assertResult(expected, result.get());
+	}
+
+	public static void assertEvaluates(NumericOperatorAction action,
+		Number expected, double left, double right)
+	{
+		assertResult(expected, action.evaluate(Double.valueOf(left),
+			Double.valueOf(right)));
+		NumericResult result = new NumericResult();
+		action.evaluate(left, right, result);
+		assertResult(expected, result.get());
+	}
+
+	public static void assertArithmeticException(NumericOperatorAction action,
+		int left, int right)
+	{
+		try
+		{
+			action.evaluate(Integer.valueOf(left), Integer.valueOf(right));
+			TestCase.fail("Expected ArithmeticException");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+		try
+		{
+			action.evaluate(left, right, new NumericResult());
+			TestCase.fail("Expected ArithmeticException (primitive)");
+		}
+		catch (ArithmeticException e)
+		{
+			//Yep
+		}
+	}
+
+	private static void assertResult(Number expected, Object actual)
+	{
+		TestCase.assertEquals(expected.getClass(), actual.getClass());
+		TestCase.assertEquals(expected, actual);
+	}
 }